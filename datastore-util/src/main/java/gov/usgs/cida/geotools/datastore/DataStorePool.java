@@ -0,0 +1,292 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.DataStore;
+import org.geotools.data.FeatureReader;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Least recently used pool of open per-file data stores for the directory
+ * data stores.  Data stores are opened on first use and disposed once more
+ * than <code>maximumOpenCount</code> are open.  A data store is leased while
+ * in use (e.g. by an open feature reader), an evicted data store that is
+ * still leased is disposed when its last lease is released, so the open
+ * count can briefly exceed the maximum under load.
+ */
+public class DataStorePool<D extends DataStore> {
+
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
+    /** System property, default maximum number of open data stores per directory data store */
+    public final static String MAXIMUM_OPEN_COUNT_PROPERTY = "gov.usgs.cida.datastore.pool.open";
+
+    public final static int DEFAULT_MAXIMUM_OPEN_COUNT = 32;
+
+    /**
+     * Opens and disposes the pooled data stores.
+     */
+    public interface Factory<D extends DataStore> {
+
+        D create(String typeName) throws IOException;
+
+        /**
+         * Called once for each data store created, after it's evicted and no
+         * longer leased.
+         */
+        void dispose(String typeName, D dataStore);
+    }
+
+    private final Factory<D> factory;
+    private final int maximumOpenCount;
+
+    private final LinkedHashMap<String, Entry> entryMap = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public DataStorePool(Factory<D> factory) {
+        this(factory, getDefaultMaximumOpenCount());
+    }
+
+    public DataStorePool(Factory<D> factory, int maximumOpenCount) {
+        if (maximumOpenCount < 1) {
+            throw new IllegalArgumentException("maximumOpenCount must be at least 1");
+        }
+        this.factory = factory;
+        this.maximumOpenCount = maximumOpenCount;
+    }
+
+    public static int getDefaultMaximumOpenCount() {
+        return Math.max(1, Integer.getInteger(MAXIMUM_OPEN_COUNT_PROPERTY, DEFAULT_MAXIMUM_OPEN_COUNT));
+    }
+
+    /**
+     * Leases the data store for <code>typeName</code>, opening it in the
+     * calling thread if it isn't open (or being opened by another thread).
+     * The lease must be released.
+     */
+    public Lease acquire(final String typeName) throws IOException {
+        Entry entry;
+        List<Entry> evicted = null;
+        synchronized (this) {
+            entry = entryMap.get(typeName);
+            if (entry == null) {
+                missCount.incrementAndGet();
+                entry = new Entry(typeName);
+                entryMap.put(typeName, entry);
+                evicted = evict();
+            } else {
+                hitCount.incrementAndGet();
+            }
+            ++entry.leaseCount;
+        }
+        dispose(evicted);
+
+        entry.task.run(); // no-op if already run or running
+        try {
+            return new Lease(entry, entry.task.get());
+        } catch (InterruptedException e) {
+            release(entry);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening " + typeName, e);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                // don't cache the failure, next acquire retries
+                if (entryMap.get(typeName) == entry) {
+                    entryMap.remove(typeName);
+                }
+                --entry.leaseCount;
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to open " + typeName, cause);
+        }
+    }
+
+    // called with lock held, returns evicted entries that aren't leased
+    private List<Entry> evict() {
+        List<Entry> idle = null;
+        Iterator<Entry> iterator = entryMap.values().iterator();
+        while (entryMap.size() > maximumOpenCount && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            entry.evicted = true;
+            evictionCount.incrementAndGet();
+            if (entry.leaseCount == 0) {
+                if (idle == null) {
+                    idle = new ArrayList<Entry>();
+                }
+                idle.add(entry);
+            }
+        }
+        return idle;
+    }
+
+    private void release(Entry entry) {
+        boolean dispose;
+        synchronized (this) {
+            dispose = --entry.leaseCount == 0 && entry.evicted;
+        }
+        if (dispose) {
+            dispose(entry);
+        }
+    }
+
+    private void dispose(List<Entry> entries) {
+        if (entries != null) {
+            for (Entry entry : entries) {
+                dispose(entry);
+            }
+        }
+    }
+
+    private void dispose(Entry entry) {
+        try {
+            // idle entries were opened successfully, failures are never pooled idle
+            D dataStore = entry.task.get();
+            factory.dispose(entry.typeName, dataStore);
+            LOGGER.log(Level.FINE, "disposed " + entry.typeName + ", " + this);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to dispose " + entry.typeName, e);
+        }
+    }
+
+    /**
+     * Disposes every idle data store, leased data stores are disposed when
+     * released.
+     */
+    public void dispose() {
+        List<Entry> idle = new ArrayList<Entry>();
+        synchronized (this) {
+            for (Entry entry : entryMap.values()) {
+                entry.evicted = true;
+                if (entry.leaseCount == 0) {
+                    idle.add(entry);
+                }
+            }
+            entryMap.clear();
+        }
+        dispose(idle);
+    }
+
+    public int getMaximumOpenCount() {
+        return maximumOpenCount;
+    }
+
+    public synchronized int getOpenCount() {
+        return entryMap.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DataStorePool[hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", open=" + getOpenCount() + "/" + maximumOpenCount + "]";
+    }
+
+    private class Entry {
+
+        private final String typeName;
+        private final FutureTask<D> task;
+        private int leaseCount; // guarded by pool
+        private boolean evicted; // guarded by pool
+
+        Entry(final String typeName) {
+            this.typeName = typeName;
+            this.task = new FutureTask<D>(new Callable<D>() {
+                @Override
+                public D call() throws Exception {
+                    return factory.create(typeName);
+                }
+            });
+        }
+    }
+
+    /**
+     * Use of a pooled data store, the data store isn't disposed until every
+     * lease on it is released.
+     */
+    public class Lease {
+
+        private final Entry entry;
+        private final D dataStore;
+        private boolean released;
+
+        private Lease(Entry entry, D dataStore) {
+            this.entry = entry;
+            this.dataStore = dataStore;
+        }
+
+        public D getDataStore() {
+            return dataStore;
+        }
+
+        /**
+         * Only the first call has any effect.
+         */
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                DataStorePool.this.release(entry);
+            }
+        }
+
+        /**
+         * @return <code>featureReader</code> releasing this lease when closed
+         */
+        public <T extends FeatureType, F extends Feature> FeatureReader<T, F> releaseOnClose(final FeatureReader<T, F> featureReader) {
+            return new FeatureReader<T, F>() {
+                @Override
+                public T getFeatureType() {
+                    return featureReader.getFeatureType();
+                }
+
+                @Override
+                public F next() throws IOException {
+                    return featureReader.next();
+                }
+
+                @Override
+                public boolean hasNext() throws IOException {
+                    return featureReader.hasNext();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        featureReader.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+    }
+}
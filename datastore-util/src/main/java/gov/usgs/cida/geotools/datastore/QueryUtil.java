@@ -9,8 +9,15 @@ import org.geotools.data.DataUtilities;
 import org.geotools.data.Query;
 import org.geotools.filter.visitor.DefaultFilterVisitor;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
 import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsBetween;
 import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Literal;
 import org.opengis.filter.expression.PropertyName;
@@ -54,6 +61,69 @@ public class QueryUtil {
         return extractor.getValue();
     }
     
+    /**
+     * Like {@link #extractValueFromQueryFilter(Query, String, Class)} but only
+     * considers an equality that every matching feature must satisfy, i.e. the
+     * filter itself or a term of a top level And.  Equalities nested in an Or
+     * or Not are ignored.
+     */
+    public static <T> T extractRequiredValueFromQueryFilter(Query query, String propertyName, Class<T> propertyClass) {
+        if (query == null) {
+            return null;
+        }
+        return extractRequiredValue(query.getFilter(), new PropertyEqualToVisitor<T>(propertyName, propertyClass));
+    }
+
+    private static <T> T extractRequiredValue(Filter filter, PropertyEqualToVisitor<T> extractor) {
+        if (filter instanceof PropertyIsEqualTo) {
+            filter.accept(extractor, null);
+        } else if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                extractRequiredValue(child, extractor);
+            }
+        }
+        return extractor.getValue();
+    }
+
+    /**
+     * Extracts the bounds a query filter places on a property from
+     * PropertyIsBetween and PropertyIs[Greater|Less]Than[OrEqualTo] filters
+     * (i.e. a WMS TIME range).  Either bound may be null if unconstrained,
+     * returns null if the property isn't constrained at all.  Strict and
+     * inclusive comparisons aren't distinguished.
+     */
+    public static <T> ValueRange<T> extractRangeFromQueryFilter(Query query, String propertyName, Class<T> propertyClass) {
+        if (query == null) {
+            return null;
+        }
+        Filter filter = query.getFilter();
+        if (filter == null) {
+            return null;
+        }
+        PropertyRangeVisitor<T> extractor = new PropertyRangeVisitor<T>(propertyName, propertyClass);
+        filter.accept(extractor, null);
+        return extractor.getRange();
+    }
+
+    public static class ValueRange<T> {
+
+        private final T lower;
+        private final T upper;
+
+        public ValueRange(T lower, T upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public T getLower() {
+            return lower;
+        }
+
+        public T getUpper() {
+            return upper;
+        }
+    }
+
     private static class PropertyEqualToVisitor<T> extends DefaultFilterVisitor {
     
         private final String propertyName;
@@ -97,4 +167,99 @@ public class QueryUtil {
             return value;
         }
     }
+
+    private static class PropertyRangeVisitor<T> extends DefaultFilterVisitor {
+
+        private final String propertyName;
+        private final Class<T> propertyClass;
+
+        private T lower = null;
+        private T upper = null;
+
+        public PropertyRangeVisitor(String propertyName, Class<T> propertyClass) {
+            this.propertyName = propertyName;
+            this.propertyClass = propertyClass;
+        }
+
+        @Override
+        public Object visit(PropertyIsBetween filter, Object data) {
+            if (isProperty(filter.getExpression())) {
+                if (lower == null) {
+                    lower = extractLiteral(filter.getLowerBoundary());
+                }
+                if (upper == null) {
+                    upper = extractLiteral(filter.getUpperBoundary());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Object visit(PropertyIsGreaterThan filter, Object data) {
+            visitLowerBound(filter);
+            return null;
+        }
+
+        @Override
+        public Object visit(PropertyIsGreaterThanOrEqualTo filter, Object data) {
+            visitLowerBound(filter);
+            return null;
+        }
+
+        @Override
+        public Object visit(PropertyIsLessThan filter, Object data) {
+            visitUpperBound(filter);
+            return null;
+        }
+
+        @Override
+        public Object visit(PropertyIsLessThanOrEqualTo filter, Object data) {
+            visitUpperBound(filter);
+            return null;
+        }
+
+        // property > literal or literal < property
+        private void visitLowerBound(BinaryComparisonOperator filter) {
+            if (isProperty(filter.getExpression1())) {
+                if (lower == null) {
+                    lower = extractLiteral(filter.getExpression2());
+                }
+            } else if (isProperty(filter.getExpression2())) {
+                if (upper == null) {
+                    upper = extractLiteral(filter.getExpression1());
+                }
+            }
+        }
+
+        // property < literal or literal > property
+        private void visitUpperBound(BinaryComparisonOperator filter) {
+            if (isProperty(filter.getExpression1())) {
+                if (upper == null) {
+                    upper = extractLiteral(filter.getExpression2());
+                }
+            } else if (isProperty(filter.getExpression2())) {
+                if (lower == null) {
+                    lower = extractLiteral(filter.getExpression1());
+                }
+            }
+        }
+
+        private boolean isProperty(Expression e) {
+            return e instanceof PropertyName && propertyName.equals(((PropertyName) e).getPropertyName());
+        }
+
+        private T extractLiteral(Expression e) {
+            if (e instanceof Literal) {
+                Object o = ((Literal) e).getValue();
+                if (propertyClass.isInstance(o)) {
+                    return propertyClass.cast(o);
+                }
+            }
+            return null;
+        }
+
+        public ValueRange<T> getRange() {
+            return lower == null && upper == null ? null : new ValueRange<T>(lower, upper);
+        }
+    }
 }
@@ -0,0 +1,188 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of decoded timestep columns, primitive arrays keyed on whatever
+ * identifies a column of a data source.  Eviction is by total bytes held.
+ * Concurrent requests for the same column share a single load, loads of
+ * columns invalidated while in flight are returned to their callers but not
+ * cached.
+ *
+ * @param <K> column key, must implement <code>equals</code> and
+ *      <code>hashCode</code>
+ */
+public class TimeStepColumnCache<K> {
+
+    /**
+     * Selects the columns dropped by {@link TimeStepColumnCache#invalidate(KeyFilter)}.
+     */
+    public interface KeyFilter<K> {
+
+        boolean accept(K key);
+    }
+
+    private final long cacheSizeBytes;
+
+    private final LinkedHashMap<K, Object> columnMap = new LinkedHashMap<K, Object>(16, 0.75f, true);
+    private final Map<K, FutureTask<Object>> loadingMap = new LinkedHashMap<K, FutureTask<Object>>();
+    private long cachedSizeBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public TimeStepColumnCache(long cacheSizeBytes) {
+        this.cacheSizeBytes = cacheSizeBytes;
+    }
+
+    /**
+     * @param loader called on the requesting thread if the column is neither
+     *      cached nor being loaded, returns a primitive array
+     */
+    public Object get(K key, Callable<Object> loader) throws IOException {
+        FutureTask<Object> load;
+        boolean loading = false;
+        synchronized (this) {
+            Object column = columnMap.get(key);
+            if (column != null) {
+                hitCount.incrementAndGet();
+                return column;
+            }
+            missCount.incrementAndGet();
+            load = loadingMap.get(key);
+            if (load == null) {
+                load = new FutureTask<Object>(loader);
+                loadingMap.put(key, load);
+                loading = true;
+            }
+        }
+
+        if (loading) {
+            load.run();
+        }
+
+        try {
+            Object column = load.get();
+            if (loading) {
+                put(key, load, column);
+            }
+            return column;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException("Error loading " + key, cause);
+            }
+        } finally {
+            if (loading) {
+                synchronized (this) {
+                    if (loadingMap.get(key) == load) {
+                        loadingMap.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void put(K key, FutureTask<Object> load, Object column) {
+        if (loadingMap.get(key) != load) {
+            return; // invalidated while loading
+        }
+        long columnSizeBytes = sizeBytes(column);
+        if (columnSizeBytes > cacheSizeBytes) {
+            return; // would evict everything and still not fit
+        }
+        Object previous = columnMap.put(key, column);
+        if (previous != null) {
+            cachedSizeBytes -= sizeBytes(previous);
+        }
+        cachedSizeBytes += columnSizeBytes;
+        Iterator<Object> iterator = columnMap.values().iterator();
+        while (cachedSizeBytes > cacheSizeBytes && iterator.hasNext()) {
+            cachedSizeBytes -= sizeBytes(iterator.next());
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return bytes held by a primitive array, ignores array/entry overhead
+     */
+    public static long sizeBytes(Object column) {
+        if (column instanceof float[]) {
+            return 4L * ((float[]) column).length;
+        } else if (column instanceof int[]) {
+            return 4L * ((int[]) column).length;
+        } else if (column instanceof double[]) {
+            return 8L * ((double[]) column).length;
+        } else if (column instanceof long[]) {
+            return 8L * ((long[]) column).length;
+        } else if (column instanceof short[]) {
+            return 2L * ((short[]) column).length;
+        } else if (column instanceof byte[]) {
+            return ((byte[]) column).length;
+        }
+        throw new IllegalArgumentException("Unexpected column " + column);
+    }
+
+    public synchronized void clear() {
+        columnMap.clear();
+        cachedSizeBytes = 0;
+    }
+
+    /**
+     * Drops the cached columns <code>filter</code> accepts.  Columns of those
+     * keys still being loaded are returned to their callers but not cached,
+     * so a load that read the source before it changed isn't served after.
+     */
+    public synchronized void invalidate(KeyFilter<K> filter) {
+        Iterator<Map.Entry<K, Object>> iterator = columnMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Object> entry = iterator.next();
+            if (filter.accept(entry.getKey())) {
+                cachedSizeBytes -= sizeBytes(entry.getValue());
+                iterator.remove();
+            }
+        }
+        Iterator<K> loadingIterator = loadingMap.keySet().iterator();
+        while (loadingIterator.hasNext()) {
+            if (filter.accept(loadingIterator.next())) {
+                loadingIterator.remove();
+            }
+        }
+    }
+
+    public long getCacheSizeBytes() {
+        return cacheSizeBytes;
+    }
+
+    public synchronized long getCachedSizeBytes() {
+        return cachedSizeBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
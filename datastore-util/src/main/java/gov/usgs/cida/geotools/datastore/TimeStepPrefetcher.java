@@ -0,0 +1,313 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads timesteps ahead of animation playback into a data store's timestep
+ * cache.  Once two consecutive timestep changes of a layer move by the same
+ * stride (e.g. a viewer stepping through TIME) the next <code>depth</code>
+ * timesteps along that stride are loaded on a bounded background executor,
+ * requests for them then find the cache warm or share the load in flight.
+ * Repeated requests for the current timestep (e.g. map tiles of one frame)
+ * don't count as a change.
+ * <p>
+ * Timesteps prefetched and not yet requested are limited by their estimated
+ * size, tasks that don't fit the executor's queue are dropped so prefetching
+ * never blocks or slows the requesting thread.  Worker threads exit when
+ * idle.
+ */
+public class TimeStepPrefetcher {
+
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
+    /** System property, number of prefetch threads of each prefetcher */
+    public final static String THREAD_COUNT_PROPERTY = "gov.usgs.cida.datastore.prefetch.threads";
+
+    public final static int DEFAULT_DEPTH = 4;
+
+    public final static long DEFAULT_MAXIMUM_SIZE_BYTES = 64L << 20;
+
+    public final static int DEFAULT_THREAD_COUNT = 2;
+
+    // larger jumps between timesteps are taken as random access
+    private final static int MAXIMUM_STRIDE = 16;
+
+    // layers tracked, least recently requested are forgotten
+    private final static int MAXIMUM_LAYER_COUNT = 256;
+
+    /**
+     * Loads a timestep of a layer into the data store's cache.
+     */
+    public interface Loader {
+
+        /**
+         * @return estimated bytes cached by {@link #load(int)}
+         */
+        long getSizeBytes(int timeStepIndex);
+
+        void load(int timeStepIndex) throws IOException;
+    }
+
+    private final int depth;
+    private final long maximumSizeBytes;
+    private final ThreadPoolExecutor executor;
+
+    private final LinkedHashMap<String, Layer> layerMap = new LinkedHashMap<String, Layer>(16, 0.75f, true);
+    private long prefetchedSizeBytes; // of timesteps not yet requested, guarded by this
+
+    private final AtomicLong accessCount = new AtomicLong();
+    private final AtomicLong prefetchCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong wasteCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    public TimeStepPrefetcher() {
+        this(DEFAULT_DEPTH, DEFAULT_MAXIMUM_SIZE_BYTES);
+    }
+
+    /**
+     * @param depth timesteps loaded ahead of the last requested one
+     * @param maximumSizeBytes estimated size of the timesteps prefetched and
+     *      not yet requested, should be well below the cache size
+     */
+    public TimeStepPrefetcher(int depth, long maximumSizeBytes) {
+        this(depth, maximumSizeBytes, Math.max(1, Integer.getInteger(THREAD_COUNT_PROPERTY, DEFAULT_THREAD_COUNT)));
+    }
+
+    public TimeStepPrefetcher(int depth, long maximumSizeBytes, int threadCount) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.depth = depth;
+        this.maximumSizeBytes = maximumSizeBytes;
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(depth * threadCount), new PrefetchThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Notes a request for a timestep of a layer and prefetches the timesteps
+     * after it if the layer is being stepped through.
+     *
+     * @param layerKey identifies the file and the values read, e.g. the
+     *      file path and variable names
+     * @param timeStepCount timesteps of the file, prefetching stops at either
+     *      end
+     */
+    public void access(String layerKey, int timeStepIndex, int timeStepCount, Loader loader) {
+        List<Integer> scheduled = new ArrayList<Integer>(depth);
+        synchronized (this) {
+            Layer layer = layerMap.get(layerKey);
+            if (layer == null) {
+                layer = new Layer();
+                layerMap.put(layerKey, layer);
+                if (layerMap.size() > MAXIMUM_LAYER_COUNT) {
+                    Iterator<Layer> iterator = layerMap.values().iterator();
+                    discard(iterator.next(), null);
+                    iterator.remove();
+                }
+            }
+            int stride = timeStepIndex - layer.timeStepIndex;
+            if (layer.timeStepIndex < 0 || stride != 0) {
+                accessCount.incrementAndGet();
+                Long sizeBytes = layer.prefetchedSizeBytesMap.remove(timeStepIndex);
+                if (sizeBytes != null) {
+                    hitCount.incrementAndGet();
+                    prefetchedSizeBytes -= sizeBytes;
+                }
+                boolean sequential = layer.timeStepIndex > -1 && stride == layer.stride && Math.abs(stride) <= MAXIMUM_STRIDE;
+                layer.stride = layer.timeStepIndex < 0 ? 0 : stride;
+                layer.timeStepIndex = timeStepIndex;
+                if (sequential) {
+                    discard(layer, timeStepIndex);
+                    for (int step = 1; step <= depth; ++step) {
+                        int prefetchIndex = timeStepIndex + step * stride;
+                        if (prefetchIndex < 0 || prefetchIndex >= timeStepCount) {
+                            break;
+                        }
+                        if (layer.prefetchedSizeBytesMap.containsKey(prefetchIndex)) {
+                            continue;
+                        }
+                        long prefetchSizeBytes = loader.getSizeBytes(prefetchIndex);
+                        if (prefetchedSizeBytes + prefetchSizeBytes > maximumSizeBytes) {
+                            break;
+                        }
+                        layer.prefetchedSizeBytesMap.put(prefetchIndex, prefetchSizeBytes);
+                        prefetchedSizeBytes += prefetchSizeBytes;
+                        scheduled.add(prefetchIndex);
+                    }
+                } else {
+                    discard(layer, null);
+                }
+            }
+        }
+
+        for (Integer prefetchIndex : scheduled) {
+            try {
+                executor.execute(new Prefetch(layerKey, prefetchIndex, loader));
+                prefetchCount.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                dropCount.incrementAndGet();
+                synchronized (this) {
+                    Layer layer = layerMap.get(layerKey);
+                    Long sizeBytes = layer == null ? null : layer.prefetchedSizeBytesMap.remove(prefetchIndex);
+                    if (sizeBytes != null) {
+                        prefetchedSizeBytes -= sizeBytes;
+                    }
+                }
+            }
+        }
+    }
+
+    // called with lock held, drops prefetched timesteps not ahead of timeStepIndex, all if null
+    private void discard(Layer layer, Integer timeStepIndex) {
+        Iterator<Map.Entry<Integer, Long>> iterator = layer.prefetchedSizeBytesMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+            if (timeStepIndex == null || (long) (entry.getKey() - timeStepIndex) * layer.stride <= 0) {
+                prefetchedSizeBytes -= entry.getValue();
+                iterator.remove();
+                wasteCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forgets the layers and stops the prefetch threads, queued timesteps
+     * aren't loaded.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+        synchronized (this) {
+            layerMap.clear();
+            prefetchedSizeBytes = 0;
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getMaximumSizeBytes() {
+        return maximumSizeBytes;
+    }
+
+    public synchronized long getPrefetchedSizeBytes() {
+        return prefetchedSizeBytes;
+    }
+
+    /**
+     * @return timestep changes requested
+     */
+    public long getAccessCount() {
+        return accessCount.get();
+    }
+
+    /**
+     * @return timesteps queued for prefetching
+     */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /**
+     * @return requested timesteps that were prefetched
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return prefetched timesteps that weren't requested in playback order
+     */
+    public long getWasteCount() {
+        return wasteCount.get();
+    }
+
+    /**
+     * @return timesteps not prefetched because the queue was full
+     */
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return share of timestep changes that were prefetched
+     */
+    public double getHitRate() {
+        long accesses = getAccessCount();
+        return accesses == 0 ? 0 : (double) getHitCount() / accesses;
+    }
+
+    @Override
+    public String toString() {
+        return "TimeStepPrefetcher[accesses=" + getAccessCount() +
+                ", prefetches=" + getPrefetchCount() +
+                ", hits=" + getHitCount() +
+                ", hitRate=" + getHitRate() +
+                ", wasted=" + getWasteCount() +
+                ", dropped=" + getDropCount() +
+                ", failed=" + getFailureCount() +
+                ", prefetched=" + getPrefetchedSizeBytes() + "/" + maximumSizeBytes + " bytes]";
+    }
+
+    private static class Layer {
+        private int timeStepIndex = -1; // last requested
+        private int stride;
+        private final Map<Integer, Long> prefetchedSizeBytesMap = new HashMap<Integer, Long>();
+    }
+
+    private class Prefetch implements Runnable {
+
+        private final String layerKey;
+        private final int timeStepIndex;
+        private final Loader loader;
+
+        Prefetch(String layerKey, int timeStepIndex, Loader loader) {
+            this.layerKey = layerKey;
+            this.timeStepIndex = timeStepIndex;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                loader.load(timeStepIndex);
+            } catch (Exception e) {
+                failureCount.incrementAndGet();
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Unable to prefetch timestep " + timeStepIndex + " of " + layerKey, e);
+                }
+            }
+        }
+    }
+
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "timestep-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.geotools.data.DataStore;
+import org.geotools.data.memory.MemoryDataStore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DataStorePoolTest {
+
+    private static class RecordingFactory implements DataStorePool.Factory<DataStore> {
+
+        private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> disposed = Collections.synchronizedList(new ArrayList<String>());
+        private int failureCount;
+
+        RecordingFactory(int failureCount) {
+            this.failureCount = failureCount;
+        }
+
+        @Override
+        public DataStore create(String typeName) throws IOException {
+            created.add(typeName);
+            if (failureCount > 0) {
+                --failureCount;
+                throw new IOException("unable to open " + typeName);
+            }
+            return new MemoryDataStore();
+        }
+
+        @Override
+        public void dispose(String typeName, DataStore dataStore) {
+            disposed.add(typeName);
+            dataStore.dispose();
+        }
+    }
+
+    private static void use(DataStorePool<DataStore> pool, String typeName) throws IOException {
+        pool.acquire(typeName).release();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        RecordingFactory factory = new RecordingFactory(0);
+        DataStorePool<DataStore> pool = new DataStorePool<DataStore>(factory, 2);
+        use(pool, "a");
+        use(pool, "b");
+        use(pool, "a"); // now most recent
+        use(pool, "c"); // evicts b
+        assertEquals(Arrays.asList("b"), factory.disposed);
+        assertEquals(2, pool.getOpenCount());
+
+        use(pool, "a");
+        use(pool, "b"); // reopened, evicts c
+        assertEquals(Arrays.asList("a", "b", "c", "b"), factory.created);
+        assertEquals(Arrays.asList("b", "c"), factory.disposed);
+
+        assertEquals(2, pool.getHitCount());
+        assertEquals(4, pool.getMissCount());
+        assertEquals(2, pool.getEvictionCount());
+
+        pool.dispose();
+        assertEquals(0, pool.getOpenCount());
+        assertEquals(Arrays.asList("b", "c", "a", "b"), factory.disposed);
+    }
+
+    @Test
+    public void testEvictedLeasedStoreDisposedOnLastRelease() throws Exception {
+        RecordingFactory factory = new RecordingFactory(0);
+        DataStorePool<DataStore> pool = new DataStorePool<DataStore>(factory, 1);
+        DataStorePool<DataStore>.Lease first = pool.acquire("a");
+        DataStorePool<DataStore>.Lease second = pool.acquire("a");
+        assertSame(first.getDataStore(), second.getDataStore());
+
+        use(pool, "b"); // evicts a while it's leased
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(Collections.emptyList(), factory.disposed);
+
+        first.release();
+        first.release(); // no effect
+        assertEquals(Collections.emptyList(), factory.disposed);
+        second.release();
+        assertEquals(Arrays.asList("a"), factory.disposed);
+    }
+
+    @Test
+    public void testFailedOpenNotCached() throws Exception {
+        RecordingFactory factory = new RecordingFactory(1);
+        DataStorePool<DataStore> pool = new DataStorePool<DataStore>(factory, 2);
+        try {
+            pool.acquire("a");
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, pool.getOpenCount());
+
+        // retried rather than failing from the pool
+        DataStorePool<DataStore>.Lease lease = pool.acquire("a");
+        assertNotNull(lease.getDataStore());
+        lease.release();
+        assertEquals(Arrays.asList("a", "a"), factory.created);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(0, pool.getEvictionCount());
+        assertEquals(Collections.emptyList(), factory.disposed);
+    }
+}
@@ -0,0 +1,167 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeStepColumnCacheTest {
+
+    private static Callable<Object> column(final int length, final AtomicInteger loadCount) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadCount.incrementAndGet();
+                return new float[length];
+            }
+        };
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        TimeStepColumnCache<String> cache = new TimeStepColumnCache<String>(2 * 4 * 10);
+        AtomicInteger loadCount = new AtomicInteger();
+        cache.get("a", column(10, loadCount));
+        cache.get("b", column(10, loadCount));
+        cache.get("a", column(10, loadCount)); // now most recent
+        cache.get("c", column(10, loadCount)); // evicts b
+        assertEquals(3, loadCount.get());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * 4 * 10, cache.getCachedSizeBytes());
+
+        cache.get("a", column(10, loadCount));
+        assertEquals(3, loadCount.get());
+        cache.get("b", column(10, loadCount));
+        assertEquals(4, loadCount.get());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testOversizedColumnNotCached() throws Exception {
+        TimeStepColumnCache<String> cache = new TimeStepColumnCache<String>(4 * 10);
+        AtomicInteger loadCount = new AtomicInteger();
+        cache.get("a", column(10, loadCount));
+        Object oversized = cache.get("b", new Callable<Object>() {
+            @Override
+            public Object call() {
+                return new double[10];
+            }
+        });
+        assertEquals(10, ((double[]) oversized).length);
+        // returned, but doesn't evict what it wouldn't fit in anyway
+        assertEquals(4 * 10, cache.getCachedSizeBytes());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLoadFailureNotCached() throws Exception {
+        TimeStepColumnCache<String> cache = new TimeStepColumnCache<String>(1024);
+        try {
+            cache.get("a", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw new IOException("unreadable");
+                }
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("unreadable", e.getMessage());
+        }
+        AtomicInteger loadCount = new AtomicInteger();
+        cache.get("a", column(10, loadCount));
+        assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareLoad() throws Exception {
+        final TimeStepColumnCache<String> cache = new TimeStepColumnCache<String>(1024);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final Object[] columns = new Object[2];
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    columns[0] = cache.get("a", new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            loadCount.incrementAndGet();
+                            loading.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return new float[10];
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        loader.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    columns[1] = cache.get("a", column(10, loadCount));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        waiter.start();
+        while (cache.getMissCount() < 2) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        loader.join(10000);
+        waiter.join(10000);
+        assertEquals(1, loadCount.get());
+        assertSame(columns[0], columns[1]);
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        final TimeStepColumnCache<String> cache = new TimeStepColumnCache<String>(1024);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+        final Object[] column = new Object[1];
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    column[0] = cache.get("file:a", new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            loading.countDown();
+                            invalidated.await(10, TimeUnit.SECONDS);
+                            return new float[10];
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        loader.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        cache.invalidate(new TimeStepColumnCache.KeyFilter<String>() {
+            @Override
+            public boolean accept(String key) {
+                return key.startsWith("file:");
+            }
+        });
+        invalidated.countDown();
+        loader.join(10000);
+
+        // the caller gets its column but it isn't cached
+        assertNotNull(column[0]);
+        assertEquals(0, cache.getCachedSizeBytes());
+        AtomicInteger loadCount = new AtomicInteger();
+        cache.get("file:a", column(10, loadCount));
+        assertEquals(1, loadCount.get());
+    }
+}
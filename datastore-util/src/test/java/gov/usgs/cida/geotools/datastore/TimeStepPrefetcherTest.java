@@ -0,0 +1,110 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeStepPrefetcherTest {
+
+    private static class RecordingLoader implements TimeStepPrefetcher.Loader {
+
+        private final long sizeBytes;
+        private final Set<Integer> loaded = Collections.synchronizedSet(new TreeSet<Integer>());
+        private final CountDownLatch latch;
+
+        RecordingLoader(long sizeBytes, int expectedLoadCount) {
+            this.sizeBytes = sizeBytes;
+            this.latch = new CountDownLatch(expectedLoadCount);
+        }
+
+        @Override
+        public long getSizeBytes(int timeStepIndex) {
+            return sizeBytes;
+        }
+
+        @Override
+        public void load(int timeStepIndex) throws IOException {
+            loaded.add(timeStepIndex);
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRandomAccessNotPrefetched() throws Exception {
+        TimeStepPrefetcher prefetcher = new TimeStepPrefetcher(4, 1 << 20, 1);
+        try {
+            RecordingLoader loader = new RecordingLoader(1, 0);
+            prefetcher.access("layer", 0, 100, loader);
+            prefetcher.access("layer", 0, 100, loader); // same frame, not a change
+            prefetcher.access("layer", 50, 100, loader);
+            prefetcher.access("layer", 7, 100, loader);
+            assertEquals(3, prefetcher.getAccessCount());
+            assertEquals(0, prefetcher.getPrefetchCount());
+            assertTrue(loader.loaded.isEmpty());
+        } finally {
+            prefetcher.dispose();
+        }
+    }
+
+    @Test
+    public void testSequentialPrefetch() throws Exception {
+        TimeStepPrefetcher prefetcher = new TimeStepPrefetcher(3, 1 << 20, 1);
+        try {
+            RecordingLoader loader = new RecordingLoader(1, 3);
+            prefetcher.access("layer", 10, 100, loader);
+            prefetcher.access("layer", 12, 100, loader);
+            prefetcher.access("layer", 14, 100, loader);
+            loader.await();
+            assertEquals(new TreeSet<Integer>(Arrays.asList(16, 18, 20)), loader.loaded);
+            prefetcher.access("layer", 16, 100, loader);
+            assertEquals(1, prefetcher.getHitCount());
+            assertEquals(0.25, prefetcher.getHitRate(), 0);
+            // changing direction discards what was prefetched ahead
+            prefetcher.access("layer", 3, 100, loader);
+            assertEquals(0, prefetcher.getPrefetchedSizeBytes());
+        } finally {
+            prefetcher.dispose();
+        }
+    }
+
+    @Test
+    public void testStopsAtEnd() throws Exception {
+        TimeStepPrefetcher prefetcher = new TimeStepPrefetcher(4, 1 << 20, 1);
+        try {
+            RecordingLoader loader = new RecordingLoader(1, 1);
+            prefetcher.access("layer", 6, 10, loader);
+            prefetcher.access("layer", 7, 10, loader);
+            prefetcher.access("layer", 8, 10, loader);
+            loader.await();
+            assertEquals(Collections.singleton(9), loader.loaded);
+        } finally {
+            prefetcher.dispose();
+        }
+    }
+
+    @Test
+    public void testSizeBudget() throws Exception {
+        TimeStepPrefetcher prefetcher = new TimeStepPrefetcher(8, 250, 1);
+        try {
+            RecordingLoader loader = new RecordingLoader(100, 2);
+            prefetcher.access("layer", 0, 100, loader);
+            prefetcher.access("layer", 1, 100, loader);
+            prefetcher.access("layer", 2, 100, loader);
+            loader.await();
+            assertEquals(2, prefetcher.getPrefetchCount());
+            assertEquals(200, prefetcher.getPrefetchedSizeBytes());
+        } finally {
+            prefetcher.dispose();
+        }
+    }
+}
@@ -32,7 +32,7 @@ public class NetCDFAttributeReader implements AttributeReader {
         this.featureType = featureType;
         this.attributeCount = featureType.getAttributeCount();
         
-        this.featureDataset = NetCDFUtil.acquireDataSet(netCDFURL);
+        this.featureDataset = NetCDFUtil.borrowDataSet(netCDFURL);
         
         StationTimeSeriesFeatureCollection stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
         
@@ -64,11 +64,7 @@ public class NetCDFAttributeReader implements AttributeReader {
     @Override
     public void close() throws IOException {
         pointFeatureCollection.finish();
-        try {
-            featureDataset.close();
-        } catch (IOException e) {
-            // don't care
-        }
+        NetCDFUtil.releaseDataSet(featureDataset);
     }
 
     @Override
@@ -0,0 +1,587 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.ArrayStructure;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.StructureMembers;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.VariableSimpleIF;
+import ucar.nc2.constants.CF;
+import ucar.nc2.time.CalendarDateUnit;
+
+/**
+ * Where the observations of a station time series DSG file are, so the
+ * observation of every station at a timestep can be read with one bulk read
+ * per variable instead of a CDM feature iteration per station.  Handles the
+ * orthogonal and incomplete multidimensional layouts (a hyperslab over the
+ * station dimension) and the contiguous and indexed ragged layouts (the
+ * located observations sorted by offset and read in coalesced runs).  Ragged
+ * observation variables may be members of a structure over the observation
+ * dimension.
+ * <p>
+ * Observations are addressed by a flat observation index: the time index for
+ * the orthogonal layout, <code>station * observationCount + observation</code>
+ * for the incomplete layout and the index along the observation dimension for
+ * the ragged layouts.  Built once per data store, station ids and observation
+ * times are read and decoded up front and times are indexed for binary
+ * search (see {@link NetCDFTimeIndex}).
+ */
+public class NetCDFDSGLayout {
+
+    public enum Kind { ORTHOGONAL, INCOMPLETE, CONTIGUOUS_RAGGED, INDEXED_RAGGED }
+
+    // observation time of missing (fill valued) observations
+    final static long MISSING_TIME = Long.MIN_VALUE;
+
+    // observations per read when indexing ragged files
+    private final static int INDEX_READ_SIZE = 1 << 16;
+
+    // largest run of unwanted observations read to join two ragged reads
+    private final static int GATHER_GAP_SIZE = 1 << 10;
+
+    private final Kind kind;
+    private final NetCDFStationIndex stationIndex;
+    private final int observationCount; // per station for the multidimensional layouts
+    private final long[] observationTimeMillis; // by flat observation index
+    private final NetCDFTimeIndex timeIndex;
+    private final Map<String, ObservationVariable> observationVariableMap;
+
+    private static class ObservationVariable {
+        private final String fullName;
+        private final String structureName; // null unless a structure member
+        private final String memberName;
+        private final DataType dataType;
+        private final boolean timeMajor; // ORTHOGONAL, dimensions are (time, station)
+
+        private ObservationVariable(Variable variable, boolean timeMajor) {
+            this.fullName = variable.getFullName();
+            Structure structure = variable.getParentStructure();
+            this.structureName = structure == null ? null : structure.getFullName();
+            this.memberName = variable.getShortName();
+            this.dataType = variable.getDataType();
+            this.timeMajor = timeMajor;
+        }
+    }
+
+    private NetCDFDSGLayout(Kind kind, NetCDFStationIndex stationIndex, int observationCount, long[] observationTimeMillis, Map<String, ObservationVariable> observationVariableMap) {
+        this.kind = kind;
+        this.stationIndex = stationIndex;
+        this.observationCount = observationCount;
+        this.observationTimeMillis = observationTimeMillis;
+        this.observationVariableMap = observationVariableMap;
+        switch (kind) {
+            case ORTHOGONAL:
+                timeIndex = NetCDFTimeIndex.createShared(observationTimeMillis);
+                break;
+            case INCOMPLETE:
+                timeIndex = NetCDFTimeIndex.createIncomplete(observationTimeMillis, stationIndex.getStationCount(), observationCount);
+                break;
+            default:
+                timeIndex = NetCDFTimeIndex.createRagged(observationTimeMillis, stationIndex);
+        }
+    }
+
+    /**
+     * @return layout of the file, null if it isn't a station time series
+     *      layout this class handles
+     */
+    public static NetCDFDSGLayout create(NetcdfFile netCDFFile, VariableSimpleIF observationTimeVariable) throws IOException {
+        VariableSimpleIF stationIdVariableSimple = NetCDFUtil.getStationIdVariable(netCDFFile.getVariables());
+        if (!(stationIdVariableSimple instanceof Variable) || observationTimeVariable == null) {
+            return null;
+        }
+        Variable stationIdVariable = (Variable) stationIdVariableSimple;
+        Variable timeVariable = netCDFFile.findVariable(observationTimeVariable.getFullName());
+        if (stationIdVariable.getRank() < 1 || timeVariable == null) {
+            return null;
+        }
+        Dimension stationDimension = stationIdVariable.getDimensions().get(0);
+        List<Dimension> timeDimensions = getDimensionsAll(timeVariable);
+
+        Variable rowSizeVariable = null;
+        Variable stationIndexVariable = null;
+        List<Variable> variables = getVariablesAll(netCDFFile);
+        for (Variable variable : variables) {
+            if (variable.findAttributeIgnoreCase(CF.RAGGED_ROWSIZE) != null) {
+                rowSizeVariable = variable;
+            } else if (variable.findAttributeIgnoreCase(CF.RAGGED_PARENTINDEX) != null) {
+                stationIndexVariable = variable;
+            }
+        }
+
+        Kind kind;
+        if (rowSizeVariable != null) {
+            kind = Kind.CONTIGUOUS_RAGGED;
+        } else if (stationIndexVariable != null) {
+            kind = Kind.INDEXED_RAGGED;
+        } else if (timeDimensions.size() == 2 && isSameDimension(timeDimensions.get(0), stationDimension)) {
+            kind = Kind.INCOMPLETE;
+        } else if (timeDimensions.size() == 1 && !timeVariable.isMemberOfStructure()) {
+            kind = Kind.ORTHOGONAL;
+        } else {
+            return null;
+        }
+        boolean ragged = kind == Kind.CONTIGUOUS_RAGGED || kind == Kind.INDEXED_RAGGED;
+        if ((ragged && timeDimensions.size() != 1) || (!ragged && timeVariable.isMemberOfStructure())) {
+            return null;
+        }
+        Dimension observationDimension = timeDimensions.get(timeDimensions.size() - 1);
+        if (isSameDimension(observationDimension, stationDimension)) {
+            return null;
+        }
+
+        int stationCount = stationDimension.getLength();
+        String[] stationIds = readStationIds(stationIdVariable, stationCount);
+        int observationCount = observationDimension.getLength();
+
+        long[] observationTimeMillis = ragged ?
+                decodeTimes(netCDFFile, timeVariable, observationCount) :
+                decodeTimes(timeVariable.read(), timeVariable, kind == Kind.INCOMPLETE ? stationCount * observationCount : observationCount);
+
+        NetCDFStationIndex stationIndex;
+        if (kind == Kind.CONTIGUOUS_RAGGED) {
+            if (getDimensionsAll(rowSizeVariable).size() != 1) {
+                return null;
+            }
+            Array rowSizeArray = rowSizeVariable.read();
+            int[] rowSizes = new int[stationCount];
+            long rowSizeTotal = 0;
+            for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+                rowSizes[ordinal] = rowSizeArray.getInt(ordinal);
+                rowSizeTotal += rowSizes[ordinal];
+            }
+            if (rowSizeTotal > observationCount) {
+                return null;
+            }
+            stationIndex = NetCDFStationIndex.createContiguous(stationIds, rowSizes);
+        } else if (kind == Kind.INDEXED_RAGGED) {
+            List<Dimension> stationIndexDimensions = getDimensionsAll(stationIndexVariable);
+            if (stationIndexDimensions.size() != 1 || !isSameDimension(stationIndexDimensions.get(0), observationDimension)) {
+                return null;
+            }
+            int[] observationStationOrdinals = new int[observationCount];
+            ObservationVariable stationIndexObservationVariable = new ObservationVariable(stationIndexVariable, false);
+            for (int start = 0; start < observationCount; start += INDEX_READ_SIZE) {
+                int size = Math.min(INDEX_READ_SIZE, observationCount - start);
+                Array stationIndexArray = readObservations(netCDFFile, stationIndexObservationVariable, new int[] { start }, new int[] { size });
+                for (int index = 0; index < size; ++index) {
+                    observationStationOrdinals[start + index] = stationIndexArray.getInt(index);
+                }
+            }
+            stationIndex = NetCDFStationIndex.createIndexed(stationIds, observationStationOrdinals);
+        } else {
+            stationIndex = NetCDFStationIndex.create(stationIds);
+        }
+
+        Map<String, ObservationVariable> observationVariableMap = new HashMap<String, ObservationVariable>();
+        for (Variable variable : variables) {
+            if (variable == stationIndexVariable || !isSliceable(variable.getDataType())) {
+                continue;
+            }
+            List<Dimension> dimensions = getDimensionsAll(variable);
+            ObservationVariable observationVariable = null;
+            if (ragged) {
+                if (dimensions.size() == 1 && isSameDimension(dimensions.get(0), observationDimension)) {
+                    observationVariable = new ObservationVariable(variable, false);
+                }
+            } else if (!variable.isMemberOfStructure() && dimensions.size() == 2) {
+                if (isSameDimension(dimensions.get(0), stationDimension) && isSameDimension(dimensions.get(1), observationDimension)) {
+                    observationVariable = new ObservationVariable(variable, false);
+                } else if (kind == Kind.ORTHOGONAL && isSameDimension(dimensions.get(0), observationDimension) && isSameDimension(dimensions.get(1), stationDimension)) {
+                    observationVariable = new ObservationVariable(variable, true);
+                }
+            }
+            if (observationVariable != null && !observationVariableMap.containsKey(variable.getShortName())) {
+                observationVariableMap.put(variable.getShortName(), observationVariable);
+            }
+        }
+
+        return new NetCDFDSGLayout(kind, stationIndex, observationCount, observationTimeMillis, observationVariableMap);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public NetCDFStationIndex getStationIndex() {
+        return stationIndex;
+    }
+
+    /**
+     * @return true if the observations of <code>variableName</code> can be
+     *      read with {@link #readColumn(NetcdfFile, String, int[])}
+     */
+    public boolean isSliceable(String variableName) {
+        return observationVariableMap.containsKey(variableName);
+    }
+
+    public long getObservationTimeMillis(int observationIndex) {
+        return observationTimeMillis[observationIndex];
+    }
+
+    public NetCDFTimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    /**
+     * Finds the observation of every station at a timestep.
+     *
+     * @param timeStep null for the first observation of every station
+     * @return flat observation index by station index, -1 for stations
+     *      without an observation at <code>timeStep</code>
+     */
+    public int[] locate(Date timeStep) {
+        return timeStep == null ? locateFirst() : locate(timeStep.getTime(), false);
+    }
+
+    /**
+     * Finds the observation of every station closest in time to a timestep.
+     *
+     * @return flat observation index by station index, -1 for stations
+     *      without observations
+     * @see NetCDFTimeIndex#nearestIndexOf(int, long)
+     */
+    public int[] locateNearest(Date timeStep) {
+        return locate(timeStep.getTime(), true);
+    }
+
+    private int[] locate(long timeMillis, boolean nearest) {
+        int stationCount = stationIndex.getStationCount();
+        int[] observationIndices = new int[stationCount];
+        if (timeIndex.isShared()) {
+            Arrays.fill(observationIndices, nearest ? timeIndex.nearestIndexOf(0, timeMillis) : timeIndex.indexOf(0, timeMillis));
+        } else {
+            for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+                observationIndices[ordinal] = nearest ? timeIndex.nearestIndexOf(ordinal, timeMillis) : timeIndex.indexOf(ordinal, timeMillis);
+            }
+        }
+        return observationIndices;
+    }
+
+    // first present observation of every station in file order
+    private int[] locateFirst() {
+        int stationCount = stationIndex.getStationCount();
+        int[] observationIndices = new int[stationCount];
+        Arrays.fill(observationIndices, -1);
+        switch (kind) {
+            case ORTHOGONAL:
+                Arrays.fill(observationIndices, firstIndexOf(0, observationCount));
+                break;
+            case INCOMPLETE:
+                for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+                    int start = ordinal * observationCount;
+                    observationIndices[ordinal] = firstIndexOf(start, start + observationCount);
+                }
+                break;
+            case CONTIGUOUS_RAGGED:
+            case INDEXED_RAGGED:
+                for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+                    for (int position = 0, count = stationIndex.getObservationCount(ordinal); position < count; ++position) {
+                        int observationIndex = stationIndex.getObservationIndex(ordinal, position);
+                        if (observationTimeMillis[observationIndex] != MISSING_TIME) {
+                            observationIndices[ordinal] = observationIndex;
+                            break;
+                        }
+                    }
+                }
+                break;
+        }
+        return observationIndices;
+    }
+
+    // first present observation in [start, end)
+    private int firstIndexOf(int start, int end) {
+        for (int observationIndex = start; observationIndex < end; ++observationIndex) {
+            if (observationTimeMillis[observationIndex] != MISSING_TIME) {
+                return observationIndex;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the observations of a variable for every station, one hyperslab
+     * for the multidimensional layouts.  For the ragged layouts the located
+     * observations are sorted by offset and read in runs, a run is only
+     * extended over gaps of at most {@link #GATHER_GAP_SIZE} observations so
+     * a timestep never reads the whole observation dimension.
+     *
+     * @param observationIndices from {@link #locate(Date)}
+     * @return one value per station, a <code>float[]</code>,
+     *      <code>double[]</code>, <code>long[]</code>, <code>int[]</code>,
+     *      <code>short[]</code> or <code>byte[]</code> depending on the
+     *      variable's data type.  Values of stations without an observation
+     *      are NaN or 0.
+     */
+    public Object readColumn(NetcdfFile netCDFFile, String variableName, int[] observationIndices) throws IOException {
+        ObservationVariable variable = observationVariableMap.get(variableName);
+        if (variable == null) {
+            throw new IllegalArgumentException(variableName + " isn't an observation variable");
+        }
+        int stationCount = stationIndex.getStationCount();
+        Object column = createColumn(variable.dataType, stationCount);
+        // located stations and the element of their observation in the read array
+        int[] ordinals = new int[stationCount];
+        int[] elementIndices = new int[stationCount];
+        int locatedCount = 0;
+        int minimum = Integer.MAX_VALUE;
+        int maximum = -1;
+        for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+            int observationIndex = observationIndices[ordinal];
+            if (observationIndex > -1) {
+                int index = kind == Kind.INCOMPLETE ? observationIndex % observationCount : observationIndex;
+                minimum = Math.min(minimum, index);
+                maximum = Math.max(maximum, index);
+                ordinals[locatedCount++] = ordinal;
+            }
+        }
+        if (locatedCount == 0) {
+            return column;
+        }
+        switch (kind) {
+            case ORTHOGONAL:
+                // all stations share the time index
+                for (int located = 0; located < locatedCount; ++located) {
+                    elementIndices[located] = ordinals[located];
+                }
+                gather(readObservations(netCDFFile, variable,
+                        variable.timeMajor ? new int[] { minimum, 0 } : new int[] { 0, minimum },
+                        variable.timeMajor ? new int[] { 1, stationCount } : new int[] { stationCount, 1 }),
+                        column, ordinals, elementIndices, 0, locatedCount);
+                break;
+            case INCOMPLETE:
+                int span = maximum - minimum + 1;
+                for (int located = 0; located < locatedCount; ++located) {
+                    int ordinal = ordinals[located];
+                    elementIndices[located] = ordinal * span + observationIndices[ordinal] % observationCount - minimum;
+                }
+                gather(readObservations(netCDFFile, variable, new int[] { 0, minimum }, new int[] { stationCount, span }),
+                        column, ordinals, elementIndices, 0, locatedCount);
+                break;
+            default:
+                // (observation index, ordinal) in offset order
+                long[] offsets = new long[locatedCount];
+                for (int located = 0; located < locatedCount; ++located) {
+                    offsets[located] = ((long) observationIndices[ordinals[located]] << 32) | ordinals[located];
+                }
+                Arrays.sort(offsets);
+                for (int located = 0; located < locatedCount; ++located) {
+                    ordinals[located] = (int) offsets[located];
+                    elementIndices[located] = (int) (offsets[located] >>> 32);
+                }
+                int runStart = 0;
+                while (runStart < locatedCount) {
+                    int runEnd = runStart + 1;
+                    while (runEnd < locatedCount && elementIndices[runEnd] - elementIndices[runEnd - 1] <= GATHER_GAP_SIZE) {
+                        ++runEnd;
+                    }
+                    int origin = elementIndices[runStart];
+                    Array array = readObservations(netCDFFile, variable, new int[] { origin }, new int[] { elementIndices[runEnd - 1] - origin + 1 });
+                    for (int located = runStart; located < runEnd; ++located) {
+                        elementIndices[located] -= origin;
+                    }
+                    gather(array, column, ordinals, elementIndices, runStart, runEnd);
+                    runStart = runEnd;
+                }
+        }
+        return column;
+    }
+
+    // values of stations without an observation are NaN or 0
+    private static Object createColumn(DataType dataType, int count) {
+        switch (dataType) {
+            case FLOAT: {
+                float[] column = new float[count];
+                Arrays.fill(column, Float.NaN);
+                return column;
+            }
+            case DOUBLE: {
+                double[] column = new double[count];
+                Arrays.fill(column, Double.NaN);
+                return column;
+            }
+            case LONG:
+                return new long[count];
+            case INT:
+                return new int[count];
+            case SHORT:
+                return new short[count];
+            case BYTE:
+                return new byte[count];
+            default:
+                throw new IllegalArgumentException("Can't slice " + dataType);
+        }
+    }
+
+    // column[ordinals[n]] = array[elementIndices[n]] for n in [start, end)
+    private static void gather(Array array, Object column, int[] ordinals, int[] elementIndices, int start, int end) {
+        if (column instanceof float[]) {
+            float[] values = (float[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getFloat(elementIndices[index]);
+            }
+        } else if (column instanceof double[]) {
+            double[] values = (double[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getDouble(elementIndices[index]);
+            }
+        } else if (column instanceof long[]) {
+            long[] values = (long[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getLong(elementIndices[index]);
+            }
+        } else if (column instanceof int[]) {
+            int[] values = (int[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getInt(elementIndices[index]);
+            }
+        } else if (column instanceof short[]) {
+            short[] values = (short[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getShort(elementIndices[index]);
+            }
+        } else {
+            byte[] values = (byte[]) column;
+            for (int index = start; index < end; ++index) {
+                values[ordinals[index]] = array.getByte(elementIndices[index]);
+            }
+        }
+    }
+
+    private static boolean isSliceable(DataType dataType) {
+        switch (dataType) {
+            case FLOAT:
+            case DOUBLE:
+            case LONG:
+            case INT:
+            case SHORT:
+            case BYTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Array readObservations(NetcdfFile netCDFFile, ObservationVariable variable, int[] origin, int[] shape) throws IOException {
+        try {
+            if (variable.structureName != null) {
+                Variable structure = netCDFFile.findVariable(variable.structureName);
+                if (!(structure instanceof Structure)) {
+                    throw new IOException("No structure " + variable.structureName + " in " + netCDFFile.getLocation());
+                }
+                ArrayStructure array = (ArrayStructure) structure.read(origin, shape);
+                StructureMembers.Member member = array.findMember(variable.memberName);
+                return array.extractMemberArray(member);
+            } else {
+                Variable observationVariable = netCDFFile.findVariable(variable.fullName);
+                if (observationVariable == null) {
+                    throw new IOException("No variable " + variable.fullName + " in " + netCDFFile.getLocation());
+                }
+                return observationVariable.read(origin, shape);
+            }
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String[] readStationIds(Variable stationIdVariable, int stationCount) throws IOException {
+        Array stationIdArray = stationIdVariable.read();
+        String[] stationIds = new String[stationCount];
+        for (int stationIndex = 0; stationIndex < stationCount; ++stationIndex) {
+            Object stationId = stationIdArray instanceof ArrayChar ?
+                    ((ArrayChar) stationIdArray).getString(stationIndex) :
+                    stationIdArray.getObject(stationIndex);
+            stationIds[stationIndex] = String.valueOf(stationId).trim();
+        }
+        return stationIds;
+    }
+
+    // ragged time variable, read in pieces as it may be a structure member
+    private static long[] decodeTimes(NetcdfFile netCDFFile, Variable timeVariable, int observationCount) throws IOException {
+        ObservationVariable timeObservationVariable = new ObservationVariable(timeVariable, false);
+        long[] observationTimeMillis = new long[observationCount];
+        CalendarDateUnit calendarDateUnit = getCalendarDateUnit(timeVariable);
+        for (int start = 0; start < observationCount; start += INDEX_READ_SIZE) {
+            int size = Math.min(INDEX_READ_SIZE, observationCount - start);
+            Array timeArray = readObservations(netCDFFile, timeObservationVariable, new int[] { start }, new int[] { size });
+            decodeTimes(timeArray, start, size, observationTimeMillis, calendarDateUnit);
+        }
+        return observationTimeMillis;
+    }
+
+    private static long[] decodeTimes(Array timeArray, Variable timeVariable, int count) throws IOException {
+        long[] observationTimeMillis = new long[count];
+        decodeTimes(timeArray, 0, count, observationTimeMillis, getCalendarDateUnit(timeVariable));
+        return observationTimeMillis;
+    }
+
+    private static void decodeTimes(Array timeArray, int start, int count, long[] observationTimeMillis, CalendarDateUnit calendarDateUnit) {
+        for (int index = 0; index < count; ++index) {
+            double value = timeArray.getDouble(index);
+            long millis = MISSING_TIME;
+            if (!Double.isNaN(value)) {
+                try {
+                    millis = calendarDateUnit.makeCalendarDate(value).getMillis();
+                } catch (RuntimeException e) {
+                    // fill value out of the calendar's range
+                }
+            }
+            observationTimeMillis[start + index] = millis;
+        }
+    }
+
+    private static CalendarDateUnit getCalendarDateUnit(Variable timeVariable) throws IOException {
+        Attribute unitsAttribute = timeVariable.findAttributeIgnoreCase("units");
+        Attribute calendarAttribute = timeVariable.findAttributeIgnoreCase("calendar");
+        if (unitsAttribute == null || !unitsAttribute.isString()) {
+            throw new IOException("No units for " + timeVariable.getFullName());
+        }
+        try {
+            return CalendarDateUnit.of(
+                    calendarAttribute != null && calendarAttribute.isString() ? calendarAttribute.getStringValue() : null,
+                    unitsAttribute.getStringValue());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // top level variables and the members of top level structures
+    private static List<Variable> getVariablesAll(NetcdfFile netCDFFile) {
+        List<Variable> variables = new ArrayList<Variable>();
+        for (Variable variable : netCDFFile.getVariables()) {
+            variables.add(variable);
+            if (variable instanceof Structure) {
+                variables.addAll(((Structure) variable).getVariables());
+            }
+        }
+        return variables;
+    }
+
+    // dimensions of the parent structure first for structure members
+    private static List<Dimension> getDimensionsAll(Variable variable) {
+        List<Dimension> dimensions = new ArrayList<Dimension>();
+        Structure structure = variable.getParentStructure();
+        if (structure != null) {
+            dimensions.addAll(getDimensionsAll(structure));
+        }
+        dimensions.addAll(variable.getDimensions());
+        return dimensions;
+    }
+
+    private static boolean isSameDimension(Dimension left, Dimension right) {
+        return left.getLength() == right.getLength() && String.valueOf(left.getName()).equals(right.getName());
+    }
+}
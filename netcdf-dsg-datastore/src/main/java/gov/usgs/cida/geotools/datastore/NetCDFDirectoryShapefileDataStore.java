@@ -6,6 +6,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.geotools.data.*;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
@@ -13,26 +14,67 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
 
 /**
+ * Type names are advertised from the directory listing, per-file data stores
+ * are opened on demand from a bounded {@link DataStorePool}.  Schemas are kept
+ * for every file so an evicted data store isn't reopened just to describe it.
  *
  * @author tkunicki
  */
 public class NetCDFDirectoryShapefileDataStore extends AbstractDataStore {
 
-    private TreeMap<String, NetCDFShapefileDataStore> netCDFDataStoreMap;
-    private ReferencedEnvelope bounds;
+    private final TreeMap<String, URL> netCDFURLMap;
+    private final Map<String, SimpleFeatureType> schemaMap = new ConcurrentHashMap<String, SimpleFeatureType>();
+    private final DataStorePool<NetCDFShapefileDataStore> netCDFDataStorePool;
+    private final TimeStepPrefetcher timeStepPrefetcher; // null if disabled
+    private ReferencedEnvelope bounds; // from the first data store on first use, guarded by this
 
     public NetCDFDirectoryShapefileDataStore(URI namespaceURI, URL netCDFDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName) throws MalformedURLException, IOException {
-        netCDFDataStoreMap = new TreeMap<String, NetCDFShapefileDataStore>();
+        this(namespaceURI, netCDFDirectoryURL, shapefileURL, shapefileNHRUAttributeName, DataStorePool.getDefaultMaximumOpenCount());
+    }
+
+    public NetCDFDirectoryShapefileDataStore(URI namespaceURI, URL netCDFDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, int maximumOpenDataStoreCount) throws MalformedURLException, IOException {
+        this(namespaceURI, netCDFDirectoryURL, shapefileURL, shapefileNHRUAttributeName, maximumOpenDataStoreCount, new NetCDFTimeStepCache());
+    }
+
+    /**
+     * @param maximumOpenDataStoreCount number of per-file data stores kept open
+     * @param timeStepCache timestep slices shared by the per-file data stores,
+     *      null to disable caching
+     */
+    public NetCDFDirectoryShapefileDataStore(URI namespaceURI, URL netCDFDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, int maximumOpenDataStoreCount, NetCDFTimeStepCache timeStepCache) throws MalformedURLException, IOException {
+        this(namespaceURI, netCDFDirectoryURL, shapefileURL, shapefileNHRUAttributeName, maximumOpenDataStoreCount, timeStepCache, timeStepCache == null ? null : new TimeStepPrefetcher());
+    }
+
+    /**
+     * @param timeStepPrefetcher shared by the per-file data stores, null to
+     *      disable prefetching
+     */
+    public NetCDFDirectoryShapefileDataStore(final URI namespaceURI, URL netCDFDirectoryURL, final URL shapefileURL, final String shapefileNHRUAttributeName, int maximumOpenDataStoreCount, final NetCDFTimeStepCache timeStepCache, final TimeStepPrefetcher timeStepPrefetcher) throws MalformedURLException, IOException {
+        netCDFURLMap = new TreeMap<String, URL>();
         for (File file : getNetCDFFiles(netCDFDirectoryURL)) {
-            NetCDFShapefileDataStore dataStore = new NetCDFShapefileDataStore(namespaceURI, file.toURI().toURL(), shapefileURL, shapefileNHRUAttributeName);
-            dataStore.getSchema(); // prime schemas
-            netCDFDataStoreMap.put(dataStore.getTypeNames()[0], dataStore);
+            URL netCDFURL = file.toURI().toURL();
+            netCDFURLMap.put(NetCDFShapefileDataStore.createFeatureTypeName(netCDFURL), netCDFURL);
+        }
+        if (netCDFURLMap.isEmpty()) {
+            throw new IllegalArgumentException("no NetCDF files in " + netCDFDirectoryURL);
         }
-        
-        NetCDFShapefileDataStore netCDFDataStore = netCDFDataStoreMap.firstEntry().getValue();
-        bounds = netCDFDataStore.getBounds(Query.ALL);
+        this.timeStepPrefetcher = timeStepPrefetcher;
+
+        netCDFDataStorePool = new DataStorePool<NetCDFShapefileDataStore>(new DataStorePool.Factory<NetCDFShapefileDataStore>() {
+            @Override
+            public NetCDFShapefileDataStore create(String typeName) throws IOException {
+                NetCDFShapefileDataStore dataStore = new NetCDFShapefileDataStore(namespaceURI, netCDFURLMap.get(typeName), shapefileURL, shapefileNHRUAttributeName, timeStepCache, timeStepPrefetcher);
+                schemaMap.put(typeName, dataStore.getSchema()); // prime schemas
+                return dataStore;
+            }
+
+            @Override
+            public void dispose(String typeName, NetCDFShapefileDataStore dataStore) {
+                dataStore.dispose();
+            }
+        }, maximumOpenDataStoreCount);
     }
-    
+
     private List<File> getNetCDFFiles(URL url) {
         if(!"file".equals(url.getProtocol())) {
             throw new IllegalArgumentException("only url \"file\" protocols accepted");
@@ -51,46 +93,102 @@ public class NetCDFDirectoryShapefileDataStore extends AbstractDataStore {
             }
         }
         return animationFiles;
-    }    
+    }
+
+    private DataStorePool<NetCDFShapefileDataStore>.Lease acquire(String typeName) throws IOException {
+        if (!netCDFURLMap.containsKey(typeName)) {
+            throw new IOException("Unknown type name " + typeName);
+        }
+        return netCDFDataStorePool.acquire(typeName);
+    }
+
+    public DataStorePool<NetCDFShapefileDataStore> getDataStorePool() {
+        return netCDFDataStorePool;
+    }
 
     @Override
     public String[] getTypeNames() throws IOException {
-        return netCDFDataStoreMap.keySet().toArray(new String[0]);
+        return netCDFURLMap.keySet().toArray(new String[0]);
     }
 
     @Override
     public SimpleFeatureType getSchema(String typeName) throws IOException {
-        return netCDFDataStoreMap.get(typeName).getSchema();
+        SimpleFeatureType schema = schemaMap.get(typeName);
+        if (schema == null) {
+            // built when the data store is opened
+            acquire(typeName).release();
+            schema = schemaMap.get(typeName);
+        }
+        return schema;
     }
 
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName) throws IOException {
-        return netCDFDataStoreMap.get(typeName).getFeatureReader();
+        DataStorePool<NetCDFShapefileDataStore>.Lease lease = acquire(typeName);
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader());
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
     }
 
     @Override
     public FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(Query query, Transaction transaction) throws IOException {
-        return netCDFDataStoreMap.get(query.getTypeName()).getFeatureReader(query, transaction);
+        DataStorePool<NetCDFShapefileDataStore>.Lease lease = acquire(query.getTypeName());
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader(query, transaction));
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
     }
 
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName, Query query) throws IOException {
-        return netCDFDataStoreMap.get(typeName).getFeatureReader(typeName, query);
+        DataStorePool<NetCDFShapefileDataStore>.Lease lease = acquire(typeName);
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader(typeName, query));
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
     }
 
     @Override
     public void dispose() {
-        for (NetCDFShapefileDataStore dataStore : netCDFDataStoreMap.values()) {
-            dataStore.dispose();
+        netCDFDataStorePool.dispose();
+        if (timeStepPrefetcher != null) {
+            timeStepPrefetcher.dispose();
         }
     }
 
     @Override
     protected ReferencedEnvelope getBounds(Query query) throws IOException {
         if (query.getFilter().equals(Filter.INCLUDE)) {
-            return bounds;
+            synchronized (this) {
+                if (bounds == null) {
+                    // every type shares the shapefile
+                    DataStorePool<NetCDFShapefileDataStore>.Lease lease = acquire(netCDFURLMap.firstKey());
+                    try {
+                        bounds = lease.getDataStore().getBounds(Query.ALL);
+                    } finally {
+                        lease.release();
+                    }
+                }
+                return bounds;
+            }
         }
         return null; // too expensive
     }
-    
+
 }
@@ -68,6 +68,15 @@ public class NetCDFDirectoryShapefileDataStoreFactory implements DataStoreFactor
                 new KVP(Param.EXT, "shp"));
     public static final Param SHAPEFILE_STATION =
             new Param("shapefile_station", String.class, "Shapefile Station Identifying Attribute", true);
+    public static final Param MAXIMUM_OPEN_DATASTORES =
+            new Param("max_open_datastores", Integer.class, "Maximum Number of NetCDF Files Open At Once", false, null,
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param TIMESTEP_CACHE_SIZE =
+            NetCDFShapefileDataStoreFactory.TIMESTEP_CACHE_SIZE;
+    public static final Param PREFETCH_DEPTH =
+            NetCDFShapefileDataStoreFactory.PREFETCH_DEPTH;
+    public static final Param PREFETCH_SIZE =
+            NetCDFShapefileDataStoreFactory.PREFETCH_SIZE;
 
     @Override
     public Param[] getParametersInfo() {
@@ -76,6 +85,10 @@ public class NetCDFDirectoryShapefileDataStoreFactory implements DataStoreFactor
             NETCDF,
             SHAPEFILE,
             SHAPEFILE_STATION,
+            MAXIMUM_OPEN_DATASTORES,
+            TIMESTEP_CACHE_SIZE,
+            PREFETCH_DEPTH,
+            PREFETCH_SIZE,
         };
     }
     
@@ -132,11 +145,22 @@ public class NetCDFDirectoryShapefileDataStoreFactory implements DataStoreFactor
     
     @Override
     public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        NetCDFTimeStepCache timeStepCache = NetCDFShapefileDataStoreFactory.lookUpTimeStepCache(params);
         return new NetCDFDirectoryShapefileDataStore(
                 (URI) NAMESPACE.lookUp(params),
                 (URL) NETCDF.lookUp(params),
                 (URL) SHAPEFILE.lookUp(params),
-                (String) SHAPEFILE_STATION.lookUp(params));
+                (String) SHAPEFILE_STATION.lookUp(params),
+                lookUpMaximumOpenDataStoreCount(params),
+                timeStepCache,
+                timeStepCache == null ? null : NetCDFShapefileDataStoreFactory.lookUpTimeStepPrefetcher(params));
+    }
+
+    static int lookUpMaximumOpenDataStoreCount(Map<String, Serializable> params) throws IOException {
+        Integer maximumOpenDataStoreCount = (Integer) MAXIMUM_OPEN_DATASTORES.lookUp(params);
+        return maximumOpenDataStoreCount != null && maximumOpenDataStoreCount > 0 ?
+                maximumOpenDataStoreCount :
+                DataStorePool.getDefaultMaximumOpenCount();
     }
 
     @Override
@@ -0,0 +1,339 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ucar.nc2.ft.FeatureDataset;
+
+/**
+ * Pool of analysed feature datasets per NetCDF file, so readers don't rerun
+ * the coordinate system analysis and feature type detection of
+ * {@link NetCDFUtil#acquireDataSet(URL)} each time they're opened.  A
+ * borrowed dataset is used by one reader at a time and must be released,
+ * concurrent readers of the same file borrow separate datasets.
+ * <p>
+ * Released datasets are kept idle (most recently released are reused first)
+ * until idle longer than the idle timeout or more than the maximum idle count
+ * are held.  A dataset of a file that was modified since it was opened is
+ * closed instead of reused, datasets borrowed at the time are closed when
+ * released.
+ */
+public class NetCDFFeatureDatasetPool {
+
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
+    /** System property, maximum number of idle datasets held by the shared pool */
+    public final static String MAXIMUM_IDLE_COUNT_PROPERTY = "gov.usgs.cida.netcdf.pool.idle";
+
+    /** System property, seconds a dataset of the shared pool is held idle */
+    public final static String IDLE_TIMEOUT_PROPERTY = "gov.usgs.cida.netcdf.pool.timeout";
+
+    public final static int DEFAULT_MAXIMUM_IDLE_COUNT = 32;
+
+    public final static int DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+
+    private static NetCDFFeatureDatasetPool sharedPool; // guarded by class
+
+    private final int maximumIdleCount;
+    private final long idleTimeoutMillis;
+
+    private final LinkedList<Entry> idleList = new LinkedList<Entry>(); // least recently released first
+    private final Map<FeatureDataset, Entry> borrowedMap = new IdentityHashMap<FeatureDataset, Entry>();
+    private final Map<String, Stamp> stampMap = new HashMap<String, Stamp>(); // of the file when last checked
+    private final ScheduledExecutorService evictionExecutorService;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maximumIdleCount 0 to close datasets when released
+     * @param idleTimeoutSeconds 0 to hold idle datasets until evicted by count
+     */
+    public NetCDFFeatureDatasetPool(int maximumIdleCount, int idleTimeoutSeconds) {
+        this.maximumIdleCount = Math.max(0, maximumIdleCount);
+        this.idleTimeoutMillis = Math.max(0, idleTimeoutSeconds) * 1000L;
+        if (this.maximumIdleCount > 0 && idleTimeoutMillis > 0) {
+            evictionExecutorService = Executors.newSingleThreadScheduledExecutor(new EvictionThreadFactory());
+            evictionExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, idleTimeoutMillis, Math.max(1000, idleTimeoutMillis / 2), TimeUnit.MILLISECONDS);
+        } else {
+            evictionExecutorService = null;
+        }
+    }
+
+    /**
+     * @return pool shared by the NetCDF data stores, sized by system properties
+     */
+    public static synchronized NetCDFFeatureDatasetPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new NetCDFFeatureDatasetPool(
+                    Integer.getInteger(MAXIMUM_IDLE_COUNT_PROPERTY, DEFAULT_MAXIMUM_IDLE_COUNT),
+                    Integer.getInteger(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_SECONDS));
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Borrows an idle dataset of the file, opening one in the calling thread
+     * if there's none.  The dataset must be given back with
+     * {@link #release(FeatureDataset)}, not closed.
+     */
+    public FeatureDataset borrow(URL netCDFURL) throws IOException {
+        String location = netCDFURL.toString();
+        Stamp stamp = Stamp.of(netCDFURL);
+        List<Entry> closed = new ArrayList<Entry>();
+        Entry entry = null;
+        synchronized (this) {
+            Stamp previous = stampMap.put(location, stamp);
+            if (previous != null && !previous.equals(stamp)) {
+                invalidate(location, closed);
+            }
+            Iterator<Entry> iterator = idleList.descendingIterator();
+            while (iterator.hasNext()) {
+                Entry idle = iterator.next();
+                if (idle.location.equals(location)) {
+                    iterator.remove();
+                    entry = idle;
+                    break;
+                }
+            }
+            evict(closed);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                borrowedMap.put(entry.featureDataset, entry);
+            } else {
+                missCount.incrementAndGet();
+            }
+        }
+        close(closed);
+
+        if (entry == null) {
+            entry = new Entry(location, NetCDFUtil.acquireDataSet(netCDFURL));
+            synchronized (this) {
+                // file changed while opening
+                entry.invalidated = !stamp.equals(stampMap.get(location));
+                borrowedMap.put(entry.featureDataset, entry);
+            }
+        }
+        return entry.featureDataset;
+    }
+
+    /**
+     * Gives back a borrowed dataset, datasets that weren't borrowed from this
+     * pool are closed.
+     */
+    public void release(FeatureDataset featureDataset) {
+        if (featureDataset == null) {
+            return;
+        }
+        List<Entry> closed = new ArrayList<Entry>();
+        synchronized (this) {
+            Entry entry = borrowedMap.remove(featureDataset);
+            if (entry == null) {
+                closed.add(new Entry(null, featureDataset));
+            } else if (entry.invalidated || maximumIdleCount == 0) {
+                closed.add(entry);
+            } else {
+                entry.releasedMillis = System.currentTimeMillis();
+                idleList.addLast(entry);
+                evict(closed);
+            }
+        }
+        close(closed);
+    }
+
+    /**
+     * Closes idle datasets of the file, borrowed ones are closed when
+     * released.
+     */
+    public void invalidate(URL netCDFURL) {
+        List<Entry> closed = new ArrayList<Entry>();
+        synchronized (this) {
+            invalidate(netCDFURL.toString(), closed);
+            stampMap.remove(netCDFURL.toString());
+        }
+        close(closed);
+    }
+
+    // called with lock held
+    private void invalidate(String location, List<Entry> closed) {
+        invalidationCount.incrementAndGet();
+        Iterator<Entry> iterator = idleList.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.location.equals(location)) {
+                iterator.remove();
+                closed.add(entry);
+            }
+        }
+        for (Entry entry : borrowedMap.values()) {
+            if (entry.location.equals(location)) {
+                entry.invalidated = true;
+            }
+        }
+    }
+
+    /**
+     * Closes datasets idle longer than the idle timeout, called periodically.
+     */
+    public void evictIdle() {
+        List<Entry> closed = new ArrayList<Entry>();
+        synchronized (this) {
+            evict(closed);
+        }
+        close(closed);
+    }
+
+    // called with lock held
+    private void evict(List<Entry> closed) {
+        long expiredMillis = System.currentTimeMillis() - idleTimeoutMillis;
+        while (!idleList.isEmpty() && (idleList.size() > maximumIdleCount ||
+                (idleTimeoutMillis > 0 && idleList.getFirst().releasedMillis < expiredMillis))) {
+            closed.add(idleList.removeFirst());
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void close(List<Entry> entries) {
+        for (Entry entry : entries) {
+            try {
+                entry.featureDataset.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to close " + entry.location, e);
+            }
+        }
+    }
+
+    /**
+     * Closes every idle dataset and stops eviction, borrowed datasets are
+     * closed when released.
+     */
+    public void dispose() {
+        if (evictionExecutorService != null) {
+            evictionExecutorService.shutdownNow();
+        }
+        List<Entry> closed;
+        synchronized (this) {
+            closed = new ArrayList<Entry>(idleList);
+            idleList.clear();
+            for (Entry entry : borrowedMap.values()) {
+                entry.invalidated = true;
+            }
+        }
+        close(closed);
+    }
+
+    public int getMaximumIdleCount() {
+        return maximumIdleCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleList.size();
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowedMap.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "NetCDFFeatureDatasetPool[hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", invalidations=" + getInvalidationCount() +
+                ", idle=" + getIdleCount() + "/" + maximumIdleCount +
+                ", borrowed=" + getBorrowedCount() + "]";
+    }
+
+    private static class Entry {
+
+        private final String location;
+        private final FeatureDataset featureDataset;
+        private long releasedMillis; // guarded by pool
+        private boolean invalidated; // guarded by pool
+
+        Entry(String location, FeatureDataset featureDataset) {
+            this.location = location;
+            this.featureDataset = featureDataset;
+        }
+    }
+
+    // modification time and size of a local file, remote files never change
+    static class Stamp {
+
+        private final long lastModified;
+        private final long length;
+
+        private Stamp(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        static Stamp of(URL netCDFURL) {
+            if ("file".equals(netCDFURL.getProtocol())) {
+                File file = new File(netCDFURL.getPath());
+                return new Stamp(file.lastModified(), file.length());
+            }
+            return new Stamp(0, 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ (lastModified >>> 32)) * 31 + (int) (length ^ (length >>> 32));
+        }
+    }
+
+    private static class EvictionThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NetCDFFeatureDatasetPool eviction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -24,6 +24,9 @@ public abstract class NetCDFPointFeatureExtractor<T> {
         public Scalar(String variableName) {
             this.variableName = variableName;
         }
+        public String getVariableName() {
+            return variableName;
+        }
     }
     
     public static class ScalarBoolean extends Scalar<Boolean> {
@@ -2,8 +2,10 @@ package gov.usgs.cida.geotools.datastore;
 
 import com.vividsolutions.jts.geom.Envelope;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import org.geotools.data.shapefile.ShapefileAttributeReader;
@@ -34,30 +36,98 @@ public class NetCDFShapefileAttributeJoiningReader  extends ShapefileAttributeRe
     
     private PointFeature pointFeature;
     
+    // timestep slice, null if read a station at a time
+    private final NetCDFDSGLayout layout;
+    private final int[] observationIndices;
+    private final Object[] valueColumns;
+    private final int[] recordStationOrdinals; // by shapefile record number, may be null
+    private final List<String> sliceVariableNames;
+    private int stationOrdinal;
+    private int observationIndex;
+    
     public NetCDFShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, URL netCDFURL, int shapefileJoinAttributeIndex) throws IOException {
         this(delegate, netCDFURL, shapefileJoinAttributeIndex, null);
     }
 
     public NetCDFShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, URL netCDFURL, int shapefileJoinAttributeIndex, Date timeStep) throws IOException {
+        this(delegate, netCDFURL, shapefileJoinAttributeIndex, timeStep, null, null);
+    }
+
+    public NetCDFShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, URL netCDFURL, int shapefileJoinAttributeIndex, Date timeStep, NetCDFDSGLayout layout, NetCDFTimeStepCache timeStepCache) throws IOException {
+        this(delegate, netCDFURL, shapefileJoinAttributeIndex, timeStep, layout, null, timeStepCache);
+    }
+
+    /**
+     * Reads the timestep for all stations at once, one read per variable, if
+     * <code>layout</code> isn't null and handles all the requested variables.
+     * Otherwise each station's observations are iterated through CDM.
+     *
+     * @param recordStationOrdinals station ordinal in <code>layout</code> by
+     *      shapefile record number, records past its end are joined on the
+     *      join attribute.  May be null.
+     * @param timeStepCache shares slices between readers, may be null
+     */
+    public NetCDFShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, URL netCDFURL, int shapefileJoinAttributeIndex, Date timeStep, NetCDFDSGLayout layout, int[] recordStationOrdinals, NetCDFTimeStepCache timeStepCache) throws IOException {
         super(hack(delegate), null, null); // lame duck
         this.delegate = delegate;
-        this.featureDataset = NetCDFUtil.acquireDataSet(netCDFURL);
         this.shapefileJoinAttributeIndex = shapefileJoinAttributeIndex;
         this.timeStep = timeStep;
         
-        this.stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
-//        stationTimeSeriesFeatureCollection.resetIteration();
-        
         int attributeCount = getAttributeCount();
         pointFeatureExtractors = new NetCDFPointFeatureExtractor<?>[attributeCount];
+        boolean sliceable = layout != null;
         for (int attributeIndex = 0; attributeIndex < attributeCount; ++attributeIndex) {
             Object o = getAttributeType(attributeIndex).getUserData().get(NetCDFShapefileDataStore.EXTRACTOR_KEY);
             pointFeatureExtractors[attributeIndex] = o instanceof NetCDFPointFeatureExtractor<?> ?
                     (NetCDFPointFeatureExtractor<?>)o :
                     null;
+            if (o instanceof NetCDFPointFeatureExtractor.Scalar<?>) {
+                sliceable &= layout.isSliceable(((NetCDFPointFeatureExtractor.Scalar<?>) o).getVariableName());
+            } else if (o != null && !(o instanceof NetCDFPointFeatureExtractor.TimeStamp)) {
+                sliceable = false;
+            }
+        }
+        
+        if (sliceable) {
+            this.layout = layout;
+            this.recordStationOrdinals = recordStationOrdinals;
+            this.observationIndices = timeStepCache == null ?
+                    layout.locate(timeStep) :
+                    timeStepCache.getObservationIndices(netCDFURL, layout, timeStep);
+            this.valueColumns = new Object[attributeCount];
+            List<String> variableNames = new ArrayList<String>();
+            for (int attributeIndex = 0; attributeIndex < attributeCount; ++attributeIndex) {
+                if (pointFeatureExtractors[attributeIndex] instanceof NetCDFPointFeatureExtractor.Scalar<?>) {
+                    String variableName = ((NetCDFPointFeatureExtractor.Scalar<?>) pointFeatureExtractors[attributeIndex]).getVariableName();
+                    variableNames.add(variableName);
+                    valueColumns[attributeIndex] = timeStepCache == null ?
+                            NetCDFTimeStepCache.readValueColumn(netCDFURL, layout, variableName, observationIndices) :
+                            timeStepCache.getValueColumn(netCDFURL, layout, timeStep, variableName);
+                }
+            }
+            this.sliceVariableNames = Collections.unmodifiableList(variableNames);
+            this.featureDataset = null;
+            this.stationTimeSeriesFeatureCollection = null;
+        } else {
+            this.layout = null;
+            this.recordStationOrdinals = null;
+            this.sliceVariableNames = null;
+            this.observationIndices = null;
+            this.valueColumns = null;
+            this.featureDataset = NetCDFUtil.borrowDataSet(netCDFURL);
+            this.stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
+//            stationTimeSeriesFeatureCollection.resetIteration();
         }
     }
 
+    /**
+     * @return variables read as timestep slices, null if stations are read
+     *      one at a time
+     */
+    public List<String> getSliceVariableNames() {
+        return sliceVariableNames;
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -65,13 +135,11 @@ public class NetCDFShapefileAttributeJoiningReader  extends ShapefileAttributeRe
         } catch (IOException e) {
             /* don't care */
         }
-        stationTimeSeriesFeatureCollection.finish();
+        if (stationTimeSeriesFeatureCollection != null) {
+            stationTimeSeriesFeatureCollection.finish();
+        }
         if (featureDataset != null) {
-            try {
-                featureDataset.close();
-            } catch (IOException e) {
-            /* don't care */
-            }
+            NetCDFUtil.releaseDataSet(featureDataset);
         }
     }
 
@@ -88,6 +156,16 @@ public class NetCDFShapefileAttributeJoiningReader  extends ShapefileAttributeRe
     @Override
     public void next() throws IOException {
         delegate.next();
+        if (layout != null) {
+            int recordNumber = delegate.getRecordNumber();
+            if (recordStationOrdinals != null && recordNumber > -1 && recordNumber < recordStationOrdinals.length) {
+                stationOrdinal = recordStationOrdinals[recordNumber];
+            } else {
+                stationOrdinal = layout.getStationIndex().getOrdinal(delegate.read(shapefileJoinAttributeIndex).toString());
+            }
+            observationIndex = stationOrdinal < 0 ? -1 : observationIndices[stationOrdinal];
+            return;
+        }
         String stationId = delegate.read(shapefileJoinAttributeIndex).toString();
         Station station = stationTimeSeriesFeatureCollection.getStation(stationId);
         StationTimeSeriesFeature stationTimeSeriesFeature = stationTimeSeriesFeatureCollection.getStationFeature(station);
@@ -103,9 +181,18 @@ public class NetCDFShapefileAttributeJoiningReader  extends ShapefileAttributeRe
     @Override
     public Object read(int attributeIndex) throws IOException, ArrayIndexOutOfBoundsException {
         NetCDFPointFeatureExtractor extractor = pointFeatureExtractors[attributeIndex];
-        return extractor == null ?
-                delegate.read(attributeIndex) :
-                extractor.extract(pointFeature);
+        if (extractor == null) {
+            return delegate.read(attributeIndex);
+        }
+        if (layout != null) {
+            if (observationIndex < 0) {
+                return null;
+            }
+            return valueColumns[attributeIndex] == null ?
+                    new Date(layout.getObservationTimeMillis(observationIndex)) :
+                    Array.get(valueColumns[attributeIndex], stationOrdinal);
+        }
+        return extractor.extract(pointFeature);
     }
 
     @Override
@@ -6,6 +6,8 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.geotools.data.*;
 import org.geotools.data.shapefile.ShapefileAttributeReader;
 import org.geotools.data.shapefile.ShapefileDataStore;
@@ -15,6 +17,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
 import ucar.nc2.VariableSimpleIF;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.ft.FeatureDataset;
@@ -25,6 +28,8 @@ import ucar.nc2.ft.FeatureDataset;
  */
 public class NetCDFShapefileDataStore extends ShapefileDataStore {
     
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+    
     static {
          NetcdfDataset.initNetcdfFileCache(32, 64, 600);
          NetcdfDataset.setUseNaNs(false);
@@ -36,18 +41,47 @@ public class NetCDFShapefileDataStore extends ShapefileDataStore {
     private final URL netCDFURL;
     private final String shapefileStationAttributeName;
     
+    private String[] shapefileAttributeNameArray; // in shapefile attribute order
+    private int shapefileStationAttributeIndex;
     private Set<String> shapefileAttributeNames;
     private Set<String> netCDFAttributeNames;
     
     private VariableSimpleIF observationTimeVariable;
+    
+    private final NetCDFTimeStepCache timeStepCache;
+    private final TimeStepPrefetcher timeStepPrefetcher; // null if disabled
+    private NetCDFDSGLayout layout; // null if stations are read one at a time, guarded by layoutLock
+    private NetCDFFeatureDatasetPool.Stamp layoutStamp; // of the file when indexed, guarded by layoutLock
+    private int[] shapefileRecordStationOrdinals; // of layout by shapefile record number, guarded by layoutLock
+    private final Object layoutLock = new Object();
 
     public NetCDFShapefileDataStore(URI namespaceURI, URL netCDFURL, URL shapefileURL, String shapefileStationAttributeName) throws MalformedURLException, IOException {
+        this(namespaceURI, netCDFURL, shapefileURL, shapefileStationAttributeName, new NetCDFTimeStepCache());
+    }
+
+    /**
+     * @param timeStepCache timestep slices, may be shared between data
+     *      stores, null to disable caching
+     */
+    public NetCDFShapefileDataStore(URI namespaceURI, URL netCDFURL, URL shapefileURL, String shapefileStationAttributeName, NetCDFTimeStepCache timeStepCache) throws MalformedURLException, IOException {
+        this(namespaceURI, netCDFURL, shapefileURL, shapefileStationAttributeName, timeStepCache, timeStepCache == null ? null : new TimeStepPrefetcher());
+    }
+
+    /**
+     * @param timeStepPrefetcher loads the timesteps after the requested one
+     *      into <code>timeStepCache</code> during playback, may be shared
+     *      between data stores, null to disable prefetching
+     */
+    public NetCDFShapefileDataStore(URI namespaceURI, URL netCDFURL, URL shapefileURL, String shapefileStationAttributeName, NetCDFTimeStepCache timeStepCache, TimeStepPrefetcher timeStepPrefetcher) throws MalformedURLException, IOException {
         super(shapefileURL, namespaceURI, true, true, ShapefileDataStore.DEFAULT_STRING_CHARSET);
         
         this.netCDFURL = netCDFURL;
         
         this.shapefileStationAttributeName = shapefileStationAttributeName;
         
+        this.timeStepCache = timeStepCache;
+        
+        this.timeStepPrefetcher = timeStepCache == null ? null : timeStepPrefetcher;
     }
     
     @Override
@@ -55,14 +89,18 @@ public class NetCDFShapefileDataStore extends ShapefileDataStore {
         List<AttributeDescriptor> shapefileAttributeDescriptors = super.readAttributes();
         
         shapefileAttributeNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
-        for (AttributeDescriptor attributeDescriptor : shapefileAttributeDescriptors) {
-            shapefileAttributeNames.add(attributeDescriptor.getLocalName());
+        shapefileAttributeNameArray = new String[shapefileAttributeDescriptors.size()];
+        for (int attributeIndex = 0; attributeIndex < shapefileAttributeNameArray.length; ++attributeIndex) {
+            shapefileAttributeNameArray[attributeIndex] = shapefileAttributeDescriptors.get(attributeIndex).getLocalName();
+            shapefileAttributeNames.add(shapefileAttributeNameArray[attributeIndex]);
         }
+        shapefileStationAttributeIndex = Arrays.asList(shapefileAttributeNameArray).indexOf(shapefileStationAttributeName);
         
         FeatureDataset featureDataset = null;
         List<AttributeDescriptor> attributeDescriptors = null;
         try {
-            featureDataset = NetCDFUtil.acquireDataSet(netCDFURL);
+            NetCDFFeatureDatasetPool.Stamp stamp = NetCDFFeatureDatasetPool.Stamp.of(netCDFURL);
+            featureDataset = NetCDFUtil.borrowDataSet(netCDFURL);
 
             List<VariableSimpleIF> observationVariables = NetCDFUtil.getObservationVariables(featureDataset);
             observationTimeVariable = NetCDFUtil.getObservationTimeVariable(featureDataset);
@@ -112,14 +150,103 @@ public class NetCDFShapefileDataStore extends ShapefileDataStore {
             attributeDescriptors.addAll(shapefileAttributeDescriptors);
             attributeDescriptors.addAll(netCDFAttributeDescriptors);
 
+            synchronized (layoutLock) {
+                layout = createLayout(featureDataset);
+                layoutStamp = stamp;
+                shapefileRecordStationOrdinals = null;
+            }
+
         } finally {
             if (featureDataset != null) {
-                featureDataset.close();
+                NetCDFUtil.releaseDataSet(featureDataset);
             }
         }
         return attributeDescriptors;
     }
 
+    private NetCDFDSGLayout createLayout(FeatureDataset featureDataset) {
+        NetCDFDSGLayout created = null;
+        try {
+            created = NetCDFDSGLayout.create(featureDataset.getNetcdfFile(), observationTimeVariable);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to index " + netCDFURL + ", stations will be read one at a time", e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to index " + netCDFURL + ", stations will be read one at a time", e);
+        }
+        if (created == null && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Unsupported layout for " + netCDFURL + ", stations will be read one at a time");
+        }
+        return created;
+    }
+
+    // reindexed if the file changed since it was indexed
+    private NetCDFDSGLayout getLayout() throws IOException {
+        NetCDFFeatureDatasetPool.Stamp stamp = NetCDFFeatureDatasetPool.Stamp.of(netCDFURL);
+        synchronized (layoutLock) {
+            if (layoutStamp != null && !layoutStamp.equals(stamp)) {
+                if (timeStepCache != null) {
+                    timeStepCache.invalidate(netCDFURL);
+                }
+                FeatureDataset featureDataset = NetCDFUtil.borrowDataSet(netCDFURL);
+                try {
+                    layout = createLayout(featureDataset);
+                } finally {
+                    NetCDFUtil.releaseDataSet(featureDataset);
+                }
+                layoutStamp = stamp;
+                shapefileRecordStationOrdinals = null;
+            }
+            return layout;
+        }
+    }
+
+    /**
+     * Station ordinal of every shapefile record, so joining readers don't
+     * read and look up the join attribute of each feature.  Built with one
+     * pass over the shapefile the first time it's needed after the NetCDF
+     * file was indexed.
+     *
+     * @return ordinal of the record's station in <code>layout</code> by
+     *      shapefile record number, -1 if the station isn't in the NetCDF
+     *      file.  Null if there's no layout.
+     */
+    private int[] getShapefileRecordStationOrdinals(NetCDFDSGLayout layout) throws IOException {
+        synchronized (layoutLock) {
+            if (layout == null || layout != this.layout || shapefileStationAttributeIndex < 0) {
+                return null;
+            }
+            if (shapefileRecordStationOrdinals == null) {
+                NetCDFStationIndex stationIndex = layout.getStationIndex();
+                int[] ordinals = new int[256];
+                Arrays.fill(ordinals, -1);
+                int maximumRecordNumber = -1;
+                Query query = new Query(getTypeNames()[0], Filter.INCLUDE, shapefileAttributeNameArray);
+                ShapefileAttributeReader reader = super.getAttributesReader(true, query, shapefileAttributeNameArray);
+                try {
+                    while (reader.hasNext()) {
+                        reader.next();
+                        int recordNumber = reader.getRecordNumber();
+                        if (recordNumber < 0) {
+                            return null; // not numbered, join by attribute
+                        }
+                        if (recordNumber >= ordinals.length) {
+                            int length = ordinals.length;
+                            ordinals = Arrays.copyOf(ordinals, Math.max(recordNumber + 1, length * 2));
+                            Arrays.fill(ordinals, length, ordinals.length, -1);
+                        }
+                        Object stationId = reader.read(shapefileStationAttributeIndex);
+                        ordinals[recordNumber] = stationId == null ? -1 : stationIndex.getOrdinal(stationId.toString());
+                        maximumRecordNumber = Math.max(maximumRecordNumber, recordNumber);
+                    }
+                } finally {
+                    reader.close();
+                }
+                shapefileRecordStationOrdinals = Arrays.copyOf(ordinals, maximumRecordNumber + 1);
+            }
+            return shapefileRecordStationOrdinals;
+        }
+    }
+
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName, Query query) throws IOException {
         if (requiresShapefileAttributes(query)) {
@@ -157,12 +284,48 @@ public class NetCDFShapefileDataStore extends ShapefileDataStore {
         if (requiresNetCDFAttributes(query)) {
             Date time = extractTimeStampFromQuery(query);
             int joinIndex = Arrays.asList(properties).indexOf(shapefileStationAttributeName);
-            return new NetCDFShapefileAttributeJoiningReader(super.getAttributesReader(true, query, properties), netCDFURL, joinIndex, time);
+            NetCDFDSGLayout currentLayout = getLayout();
+            NetCDFShapefileAttributeJoiningReader reader = new NetCDFShapefileAttributeJoiningReader(super.getAttributesReader(true, query, properties), netCDFURL, joinIndex, time,
+                    currentLayout, getShapefileRecordStationOrdinals(currentLayout), timeStepCache);
+            if (timeStepPrefetcher != null && time != null && reader.getSliceVariableNames() != null) {
+                prefetch(currentLayout, time, reader.getSliceVariableNames());
+            }
+            return reader;
         } else {
             return super.getAttributesReader(readDBF, query, properties);
         }
     }
     
+    // loads the timesteps after timeStep into the cache if the layer is being stepped through
+    private void prefetch(final NetCDFDSGLayout layout, Date timeStep, final List<String> variableNames) {
+        final long[] timeStepMillis = layout.getTimeIndex().getTimeStepMillis();
+        int timeStepIndex = Arrays.binarySearch(timeStepMillis, timeStep.getTime());
+        if (timeStepIndex < 0) {
+            return;
+        }
+        final long sizeBytes = layout.getStationIndex().getStationCount() * (4L + 8L * variableNames.size());
+        timeStepPrefetcher.access(netCDFURL + variableNames.toString(), timeStepIndex, timeStepMillis.length, new TimeStepPrefetcher.Loader() {
+            @Override
+            public long getSizeBytes(int timeStepIndex) {
+                return sizeBytes;
+            }
+
+            @Override
+            public void load(int timeStepIndex) throws IOException {
+                synchronized (layoutLock) {
+                    if (layout != NetCDFShapefileDataStore.this.layout) {
+                        return; // reindexed since
+                    }
+                }
+                Date prefetchTimeStep = new Date(timeStepMillis[timeStepIndex]);
+                timeStepCache.getObservationIndices(netCDFURL, layout, prefetchTimeStep);
+                for (String variableName : variableNames) {
+                    timeStepCache.getValueColumn(netCDFURL, layout, prefetchTimeStep, variableName);
+                }
+            }
+        });
+    }
+    
     private boolean requiresShapefileAttributes(Query query) {
         return QueryUtil.requiresAttributes(query, shapefileAttributeNames);
     }
@@ -175,8 +338,24 @@ public class NetCDFShapefileDataStore extends ShapefileDataStore {
         return QueryUtil.extractValueFromQueryFilter(query, observationTimeVariable.getShortName(), Date.class);
     }
     
+    public NetCDFTimeStepCache getTimeStepCache() {
+        return timeStepCache;
+    }
+
+    public TimeStepPrefetcher getTimeStepPrefetcher() {
+        return timeStepPrefetcher;
+    }
+    
     @Override
     protected String createFeatureTypeName() {
+        return createFeatureTypeName(netCDFURL);
+    }
+
+    /**
+     * Type name for the data store of a NetCDF file, known without opening
+     * the file.
+     */
+    public static String createFeatureTypeName(URL netCDFURL) {
         String path = netCDFURL.getPath();
         File file = new File(path);
         String name = file.getName();
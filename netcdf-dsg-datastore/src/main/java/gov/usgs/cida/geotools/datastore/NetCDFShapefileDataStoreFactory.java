@@ -68,6 +68,18 @@ public class NetCDFShapefileDataStoreFactory implements DataStoreFactorySpi {
                 new KVP(Param.EXT, "shp"));
     public static final Param SHAPEFILE_STATION =
             new Param("shapefile_station", String.class, "Shapefile Station Identifying Attribute", true);
+    public static final Param TIMESTEP_CACHE_SIZE =
+            new Param("timestep_cache_size", Integer.class, "NetCDF Timestep Slice Cache Size (MiB), 0 to disable", false,
+                (int) (NetCDFTimeStepCache.DEFAULT_CACHE_SIZE_BYTES >> 20),
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param PREFETCH_DEPTH =
+            new Param("prefetch_depth", Integer.class, "Timesteps Loaded Ahead During Playback, 0 to disable", false,
+                TimeStepPrefetcher.DEFAULT_DEPTH,
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param PREFETCH_SIZE =
+            new Param("prefetch_size", Integer.class, "Timesteps Loaded Ahead During Playback Size (MiB)", false,
+                (int) (TimeStepPrefetcher.DEFAULT_MAXIMUM_SIZE_BYTES >> 20),
+                new KVP(Param.LEVEL, "advanced"));
     @Override
     public Param[] getParametersInfo() {
         return new Param[] {
@@ -75,6 +87,9 @@ public class NetCDFShapefileDataStoreFactory implements DataStoreFactorySpi {
             NETCDF,
             SHAPEFILE,
             SHAPEFILE_STATION,
+            TIMESTEP_CACHE_SIZE,
+            PREFETCH_DEPTH,
+            PREFETCH_SIZE,
         };
     }
     
@@ -128,11 +143,35 @@ public class NetCDFShapefileDataStoreFactory implements DataStoreFactorySpi {
     
     @Override
     public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        NetCDFTimeStepCache timeStepCache = lookUpTimeStepCache(params);
         return new NetCDFShapefileDataStore(
                 (URI) NAMESPACE.lookUp(params),
                 (URL) NETCDF.lookUp(params),
                 (URL) SHAPEFILE.lookUp(params),
-                (String) SHAPEFILE_STATION.lookUp(params));
+                (String) SHAPEFILE_STATION.lookUp(params),
+                timeStepCache,
+                timeStepCache == null ? null : lookUpTimeStepPrefetcher(params));
+    }
+
+    static NetCDFTimeStepCache lookUpTimeStepCache(Map<String, Serializable> params) throws IOException {
+        Integer timeStepCacheSize = (Integer) TIMESTEP_CACHE_SIZE.lookUp(params);
+        if (timeStepCacheSize == null) {
+            return new NetCDFTimeStepCache();
+        }
+        return timeStepCacheSize > 0 ?
+                new NetCDFTimeStepCache((long) timeStepCacheSize << 20) :
+                null;
+    }
+
+    static TimeStepPrefetcher lookUpTimeStepPrefetcher(Map<String, Serializable> params) throws IOException {
+        Integer prefetchDepth = (Integer) PREFETCH_DEPTH.lookUp(params);
+        Integer prefetchSize = (Integer) PREFETCH_SIZE.lookUp(params);
+        if (prefetchDepth != null && prefetchDepth < 1) {
+            return null;
+        }
+        return new TimeStepPrefetcher(
+                prefetchDepth == null ? TimeStepPrefetcher.DEFAULT_DEPTH : prefetchDepth,
+                prefetchSize == null || prefetchSize < 1 ? TimeStepPrefetcher.DEFAULT_MAXIMUM_SIZE_BYTES : (long) prefetchSize << 20);
     }
 
     @Override
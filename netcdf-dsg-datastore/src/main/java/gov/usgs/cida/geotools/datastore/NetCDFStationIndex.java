@@ -0,0 +1,141 @@
+package gov.usgs.cida.geotools.datastore;
+
+/**
+ * Station ids of a DSG file (the <code>cf_role=timeseries_id</code>
+ * variable) hashed to their ordinal along the station dimension, and for
+ * ragged files the observations of each station.  Built once per data store.
+ * <p>
+ * Ids are held in an open addressing table of ordinals so a lookup doesn't
+ * box, the first of duplicate ids wins.  Observations of a contiguous ragged
+ * station are the range from its row start, those of an indexed ragged
+ * station are listed in file order.
+ */
+public class NetCDFStationIndex {
+
+    private final String[] stationIds;
+    private final int[] table; // ordinal + 1, 0 for empty slots
+    private final int mask;
+
+    // ragged layouts, null otherwise
+    private final int[] stationObservationStart; // station count + 1
+    private final int[] stationObservationIndices; // null for contiguous ragged, the observation index is the position
+
+    private NetCDFStationIndex(String[] stationIds, int[] stationObservationStart, int[] stationObservationIndices) {
+        this.stationIds = stationIds;
+        this.stationObservationStart = stationObservationStart;
+        this.stationObservationIndices = stationObservationIndices;
+        int capacity = Integer.highestOneBit(Math.max(4, stationIds.length * 2 - 1)) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int ordinal = 0; ordinal < stationIds.length; ++ordinal) {
+            int slot = hash(stationIds[ordinal]) & mask;
+            while (table[slot] != 0) {
+                if (stationIds[table[slot] - 1].equals(stationIds[ordinal])) {
+                    break; // duplicate
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == 0) {
+                table[slot] = ordinal + 1;
+            }
+        }
+    }
+
+    /**
+     * Stations of a multidimensional file.
+     */
+    public static NetCDFStationIndex create(String[] stationIds) {
+        return new NetCDFStationIndex(stationIds, null, null);
+    }
+
+    /**
+     * Stations of a contiguous ragged file.
+     *
+     * @param rowSizes observation count of each station
+     */
+    public static NetCDFStationIndex createContiguous(String[] stationIds, int[] rowSizes) {
+        int[] stationObservationStart = new int[stationIds.length + 1];
+        for (int ordinal = 0; ordinal < stationIds.length; ++ordinal) {
+            stationObservationStart[ordinal + 1] = stationObservationStart[ordinal] + rowSizes[ordinal];
+        }
+        return new NetCDFStationIndex(stationIds, stationObservationStart, null);
+    }
+
+    /**
+     * Stations of an indexed ragged file.
+     *
+     * @param observationStationOrdinals station of each observation,
+     *      observations with an ordinal out of range are left out
+     */
+    public static NetCDFStationIndex createIndexed(String[] stationIds, int[] observationStationOrdinals) {
+        int stationCount = stationIds.length;
+        int[] stationObservationStart = new int[stationCount + 1];
+        for (int ordinal : observationStationOrdinals) {
+            if (ordinal > -1 && ordinal < stationCount) {
+                ++stationObservationStart[ordinal + 1];
+            }
+        }
+        for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+            stationObservationStart[ordinal + 1] += stationObservationStart[ordinal];
+        }
+        int[] stationObservationIndices = new int[stationObservationStart[stationCount]];
+        int[] position = new int[stationCount];
+        System.arraycopy(stationObservationStart, 0, position, 0, stationCount);
+        for (int observationIndex = 0; observationIndex < observationStationOrdinals.length; ++observationIndex) {
+            int ordinal = observationStationOrdinals[observationIndex];
+            if (ordinal > -1 && ordinal < stationCount) {
+                stationObservationIndices[position[ordinal]++] = observationIndex;
+            }
+        }
+        return new NetCDFStationIndex(stationIds, stationObservationStart, stationObservationIndices);
+    }
+
+    private static int hash(String stationId) {
+        int hash = stationId.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    public String getStationId(int ordinal) {
+        return stationIds[ordinal];
+    }
+
+    /**
+     * @return ordinal of the station, -1 if there's none
+     */
+    public int getOrdinal(String stationId) {
+        int slot = hash(stationId) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (stationIds[entry - 1].equals(stationId)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean isRagged() {
+        return stationObservationStart != null;
+    }
+
+    /**
+     * @return number of observations of a ragged station
+     */
+    public int getObservationCount(int ordinal) {
+        return stationObservationStart[ordinal + 1] - stationObservationStart[ordinal];
+    }
+
+    /**
+     * @param position 0 to the observation count of the station
+     * @return index along the observation dimension of an observation of a
+     *      ragged station
+     */
+    public int getObservationIndex(int ordinal, int position) {
+        int offset = stationObservationStart[ordinal] + position;
+        return stationObservationIndices == null ? offset : stationObservationIndices[offset];
+    }
+}
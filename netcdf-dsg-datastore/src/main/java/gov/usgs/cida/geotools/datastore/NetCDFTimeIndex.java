@@ -0,0 +1,242 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.util.Arrays;
+
+/**
+ * Observation times of a DSG file sorted per station for binary search, one
+ * shared axis for the orthogonal layout.  Lookups return flat observation
+ * indices (see {@link NetCDFDSGLayout}) so values can be read directly
+ * without iterating the station's observations.
+ * <p>
+ * Observations of a station with the same time keep their file order, an
+ * exact lookup finds the first of them.  Missing (fill valued) times aren't
+ * indexed.
+ */
+public class NetCDFTimeIndex {
+
+    private final boolean shared; // one segment for every station
+    private final int[] segmentStart; // segment count + 1
+    private final long[] sortedTimeMillis;
+    private final int[] sortedObservationIndices;
+    private long[] timeStepMillis; // built on first use, guarded by this
+
+    private NetCDFTimeIndex(boolean shared, int[] segmentStart, int[] observationIndices, long[] observationTimeMillis) {
+        this.shared = shared;
+        int segmentCount = segmentStart.length - 1;
+        // leave out missing times, segments only shrink so compact in place
+        int[] presentStart = new int[segmentCount + 1];
+        int presentCount = 0;
+        for (int segment = 0; segment < segmentCount; ++segment) {
+            presentStart[segment] = presentCount;
+            for (int position = segmentStart[segment]; position < segmentStart[segment + 1]; ++position) {
+                int observationIndex = observationIndices[position];
+                if (observationTimeMillis[observationIndex] != NetCDFDSGLayout.MISSING_TIME) {
+                    observationIndices[presentCount++] = observationIndex;
+                }
+            }
+        }
+        presentStart[segmentCount] = presentCount;
+        this.segmentStart = presentStart;
+        sortedObservationIndices = new int[presentCount];
+        System.arraycopy(observationIndices, 0, sortedObservationIndices, 0, presentCount);
+        int[] buffer = null;
+        for (int segment = 0; segment < segmentCount; ++segment) {
+            int from = presentStart[segment];
+            int to = presentStart[segment + 1];
+            if (!isSorted(sortedObservationIndices, from, to, observationTimeMillis)) {
+                if (buffer == null) {
+                    buffer = new int[presentCount];
+                }
+                sort(sortedObservationIndices, buffer, from, to, observationTimeMillis);
+            }
+        }
+        sortedTimeMillis = new long[presentCount];
+        for (int position = 0; position < presentCount; ++position) {
+            sortedTimeMillis[position] = observationTimeMillis[sortedObservationIndices[position]];
+        }
+    }
+
+    /**
+     * Time axis shared by every station of an orthogonal file, the
+     * observation index is the time index.
+     */
+    public static NetCDFTimeIndex createShared(long[] observationTimeMillis) {
+        int observationCount = observationTimeMillis.length;
+        int[] observationIndices = new int[observationCount];
+        for (int observationIndex = 0; observationIndex < observationCount; ++observationIndex) {
+            observationIndices[observationIndex] = observationIndex;
+        }
+        return new NetCDFTimeIndex(true, new int[] { 0, observationCount }, observationIndices, observationTimeMillis);
+    }
+
+    /**
+     * Times of an incomplete multidimensional file.
+     *
+     * @param observationCount observations per station
+     */
+    public static NetCDFTimeIndex createIncomplete(long[] observationTimeMillis, int stationCount, int observationCount) {
+        int[] segmentStart = new int[stationCount + 1];
+        for (int ordinal = 0; ordinal <= stationCount; ++ordinal) {
+            segmentStart[ordinal] = ordinal * observationCount;
+        }
+        int[] observationIndices = new int[stationCount * observationCount];
+        for (int observationIndex = 0; observationIndex < observationIndices.length; ++observationIndex) {
+            observationIndices[observationIndex] = observationIndex;
+        }
+        return new NetCDFTimeIndex(false, segmentStart, observationIndices, observationTimeMillis);
+    }
+
+    /**
+     * Times of a ragged file, observations of each station are taken from
+     * <code>stationIndex</code>.
+     */
+    public static NetCDFTimeIndex createRagged(long[] observationTimeMillis, NetCDFStationIndex stationIndex) {
+        int stationCount = stationIndex.getStationCount();
+        int[] segmentStart = new int[stationCount + 1];
+        for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+            segmentStart[ordinal + 1] = segmentStart[ordinal] + stationIndex.getObservationCount(ordinal);
+        }
+        int[] observationIndices = new int[segmentStart[stationCount]];
+        for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+            for (int position = 0, count = stationIndex.getObservationCount(ordinal); position < count; ++position) {
+                observationIndices[segmentStart[ordinal] + position] = stationIndex.getObservationIndex(ordinal, position);
+            }
+        }
+        return new NetCDFTimeIndex(false, segmentStart, observationIndices, observationTimeMillis);
+    }
+
+    private static boolean isSorted(int[] observationIndices, int from, int to, long[] observationTimeMillis) {
+        for (int position = from + 1; position < to; ++position) {
+            if (observationTimeMillis[observationIndices[position - 1]] > observationTimeMillis[observationIndices[position]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // stable bottom up merge sort of [from, to) by time
+    private static void sort(int[] observationIndices, int[] buffer, int from, int to, long[] observationTimeMillis) {
+        int[] source = observationIndices;
+        int[] destination = buffer;
+        for (int width = 1; width < to - from; width <<= 1) {
+            for (int left = from; left < to; left += width << 1) {
+                int middle = Math.min(left + width, to);
+                int right = Math.min(left + (width << 1), to);
+                int l = left;
+                int r = middle;
+                int d = left;
+                while (l < middle && r < right) {
+                    destination[d++] = observationTimeMillis[source[r]] < observationTimeMillis[source[l]] ? source[r++] : source[l++];
+                }
+                while (l < middle) {
+                    destination[d++] = source[l++];
+                }
+                while (r < right) {
+                    destination[d++] = source[r++];
+                }
+            }
+            int[] swap = source;
+            source = destination;
+            destination = swap;
+        }
+        if (source != observationIndices) {
+            System.arraycopy(source, from, observationIndices, from, to - from);
+        }
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return distinct observation times of the file in ascending order, the
+     *      timesteps a client can step through
+     */
+    public synchronized long[] getTimeStepMillis() {
+        if (timeStepMillis == null) {
+            long[] sorted = sortedTimeMillis.clone();
+            if (!shared) {
+                Arrays.sort(sorted);
+            }
+            int count = 0;
+            for (int position = 0; position < sorted.length; ++position) {
+                if (count == 0 || sorted[position] != sorted[count - 1]) {
+                    sorted[count++] = sorted[position];
+                }
+            }
+            timeStepMillis = Arrays.copyOf(sorted, count);
+        }
+        return timeStepMillis;
+    }
+
+    private int from(int ordinal) {
+        return segmentStart[shared ? 0 : ordinal];
+    }
+
+    private int to(int ordinal) {
+        return segmentStart[shared ? 1 : ordinal + 1];
+    }
+
+    // first position in [from, to) with a time not less than timeMillis
+    private int lowerBound(int from, int to, long timeMillis) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (sortedTimeMillis[middle] < timeMillis) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @return number of observations of the station with a time
+     */
+    public int getObservationCount(int ordinal) {
+        return to(ordinal) - from(ordinal);
+    }
+
+    /**
+     * @return observation of the station at <code>timeMillis</code>, -1 if
+     *      there's none
+     */
+    public int indexOf(int ordinal, long timeMillis) {
+        int to = to(ordinal);
+        int position = lowerBound(from(ordinal), to, timeMillis);
+        return position < to && sortedTimeMillis[position] == timeMillis ? sortedObservationIndices[position] : -1;
+    }
+
+    /**
+     * @return observation of the station closest in time to
+     *      <code>timeMillis</code>, the earlier of two as close, -1 if the
+     *      station has no observations
+     */
+    public int nearestIndexOf(int ordinal, long timeMillis) {
+        int from = from(ordinal);
+        int to = to(ordinal);
+        if (from == to) {
+            return -1;
+        }
+        int position = lowerBound(from, to, timeMillis);
+        if (position == to || (position > from &&
+                timeMillis - sortedTimeMillis[position - 1] <= sortedTimeMillis[position] - timeMillis)) {
+            // first of the observations at the earlier time
+            position = lowerBound(from, position, sortedTimeMillis[position - 1]);
+        }
+        return sortedObservationIndices[position];
+    }
+
+    /**
+     * @return observations of the station from <code>startMillis</code> to
+     *      <code>endMillis</code> inclusive, in time order
+     */
+    public int[] rangeOf(int ordinal, long startMillis, long endMillis) {
+        int to = to(ordinal);
+        int start = lowerBound(from(ordinal), to, startMillis);
+        int end = endMillis == Long.MAX_VALUE ? to : lowerBound(start, to, endMillis + 1);
+        int[] observationIndices = new int[Math.max(0, end - start)];
+        System.arraycopy(sortedObservationIndices, start, observationIndices, 0, observationIndices.length);
+        return observationIndices;
+    }
+}
@@ -29,18 +29,24 @@ public class NetCDFTimeStampAttributeReader implements AttributeReader {
     
     NetCDFTimeStampAttributeReader(URL netCDFURL, SimpleFeatureType featureType) throws IOException {
         this.featureType = featureType;
-        this.featureDataset = NetCDFUtil.acquireDataSet(netCDFURL);
+        this.featureDataset = NetCDFUtil.borrowDataSet(netCDFURL);
         
         stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
-        stationTimeSeriesFeatureCollection.resetIteration();
-        stationTimeSeriesFeature = (stationTimeSeriesFeatureCollection != null && stationTimeSeriesFeatureCollection.hasNext()) ?
+        stationTimeSeriesFeature = (stationTimeSeriesFeatureCollection != null && resetIteration(stationTimeSeriesFeatureCollection).hasNext()) ?
                 stationTimeSeriesFeatureCollection.next() :
                 null;
         if (stationTimeSeriesFeature == null) {
+            NetCDFUtil.releaseDataSet(featureDataset);
             throw new IllegalStateException("NetCDF FeatureDataset doesn't contain StationTimeSeriesFeatureCollection");
         }
     }
 
+    // pooled datasets may have been iterated by a previous reader
+    private static StationTimeSeriesFeatureCollection resetIteration(StationTimeSeriesFeatureCollection stationTimeSeriesFeatureCollection) throws IOException {
+        stationTimeSeriesFeatureCollection.resetIteration();
+        return stationTimeSeriesFeatureCollection;
+    }
+
     @Override
     public int getAttributeCount() {
         return featureType.getAttributeCount();
@@ -55,11 +61,7 @@ public class NetCDFTimeStampAttributeReader implements AttributeReader {
     public void close() throws IOException {
         stationTimeSeriesFeature.finish();
         stationTimeSeriesFeatureCollection.finish();
-        try {
-            featureDataset.close();
-        } catch (IOException e) {
-            // don't care
-        }
+        NetCDFUtil.releaseDataSet(featureDataset);
     }
 
     @Override
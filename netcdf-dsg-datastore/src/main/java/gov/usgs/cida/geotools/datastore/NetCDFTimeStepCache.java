@@ -0,0 +1,152 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * LRU cache of timestep slices of NetCDF DSG files keyed on (file, timestep,
+ * variable).  A slice column holds the observation of a variable for every
+ * station as a primitive array indexed by station (see
+ * {@link NetCDFDSGLayout#readColumn(ucar.nc2.NetcdfFile, String, int[])}),
+ * the located observation index of every station is cached alongside.
+ * Eviction is by total bytes held.  Concurrent requests for the same column
+ * share a single read (see {@link TimeStepColumnCache}).
+ */
+public class NetCDFTimeStepCache {
+
+    public final static long DEFAULT_CACHE_SIZE_BYTES = 128L << 20;
+
+    private final TimeStepColumnCache<Key> columnCache;
+
+    public NetCDFTimeStepCache() {
+        this(DEFAULT_CACHE_SIZE_BYTES);
+    }
+
+    public NetCDFTimeStepCache(long cacheSizeBytes) {
+        this.columnCache = new TimeStepColumnCache<Key>(cacheSizeBytes);
+    }
+
+    /**
+     * @param timeStep null for the first observation of every station
+     * @see NetCDFDSGLayout#locate(Date)
+     */
+    public int[] getObservationIndices(URL netCDFURL, final NetCDFDSGLayout layout, final Date timeStep) throws IOException {
+        return (int[]) columnCache.get(new Key(netCDFURL, timeStep, null), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return layout.locate(timeStep);
+            }
+        });
+    }
+
+    public Object getValueColumn(final URL netCDFURL, final NetCDFDSGLayout layout, Date timeStep, final String variableName) throws IOException {
+        final int[] observationIndices = getObservationIndices(netCDFURL, layout, timeStep);
+        return columnCache.get(new Key(netCDFURL, timeStep, variableName), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return readValueColumn(netCDFURL, layout, variableName, observationIndices);
+            }
+        });
+    }
+
+    /**
+     * Reads a slice column without caching it.
+     */
+    public static Object readValueColumn(URL netCDFURL, NetCDFDSGLayout layout, String variableName, int[] observationIndices) throws IOException {
+        NetcdfDataset netCDFDataset = NetcdfDataset.acquireDataset(netCDFURL.toString(), null);
+        try {
+            return layout.readColumn(netCDFDataset, variableName, observationIndices);
+        } finally {
+            netCDFDataset.close();
+        }
+    }
+
+    public void clear() {
+        columnCache.clear();
+    }
+
+    /**
+     * Drops cached columns of a NetCDF file, e.g. after it was rewritten.
+     * Columns still being read are returned to their callers but not cached.
+     */
+    public void invalidate(URL netCDFURL) {
+        final String location = netCDFURL.toString();
+        columnCache.invalidate(new TimeStepColumnCache.KeyFilter<Key>() {
+            @Override
+            public boolean accept(Key key) {
+                return key.location.equals(location);
+            }
+        });
+    }
+
+    public long getCacheSizeBytes() {
+        return columnCache.getCacheSizeBytes();
+    }
+
+    public long getCachedSizeBytes() {
+        return columnCache.getCachedSizeBytes();
+    }
+
+    public long getHitCount() {
+        return columnCache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return columnCache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return columnCache.getEvictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "NetCDFTimeStepCache[hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", cached=" + getCachedSizeBytes() + "/" + getCacheSizeBytes() + " bytes]";
+    }
+
+    private static class Key {
+        private final String location;
+        private final long timeMillis;
+        private final String variableName; // null for the observation indices
+
+        private Key(URL netCDFURL, Date timeStep, String variableName) {
+            this.location = netCDFURL.toString();
+            this.timeMillis = timeStep == null ? NetCDFDSGLayout.MISSING_TIME : timeStep.getTime();
+            this.variableName = variableName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return timeMillis == other.timeMillis &&
+                    location.equals(other.location) &&
+                    (variableName == null ? other.variableName == null : variableName.equals(other.variableName));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = location.hashCode();
+            hash = 31 * hash + (int) (timeMillis ^ (timeMillis >>> 32));
+            hash = 31 * hash + (variableName == null ? 0 : variableName.hashCode());
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return location + "[" + (timeMillis == NetCDFDSGLayout.MISSING_TIME ? "first" : new Date(timeMillis)) + "]" +
+                    (variableName == null ? "" : "." + variableName);
+        }
+    }
+}
@@ -191,6 +191,18 @@ public class NetCDFUtil {
                (cfRoleAttribute != null && cfRoleAttribute.isString() && "timeseries_id".equals(cfRoleAttribute.getStringValue()));
     }
     
+    /**
+     * Borrows an analysed dataset from the shared pool, it must be given back
+     * with {@link #releaseDataSet(FeatureDataset)} instead of being closed.
+     */
+    public static FeatureDataset borrowDataSet(URL datasetURL) throws IOException {
+        return NetCDFFeatureDatasetPool.getSharedPool().borrow(datasetURL);
+    }
+
+    public static void releaseDataSet(FeatureDataset featureDataset) {
+        NetCDFFeatureDatasetPool.getSharedPool().release(featureDataset);
+    }
+
     public static FeatureDataset acquireDataSet(URL datasetURL) throws IOException {
         return FeatureDatasetFactoryManager.wrap(
                 FeatureType.STATION,
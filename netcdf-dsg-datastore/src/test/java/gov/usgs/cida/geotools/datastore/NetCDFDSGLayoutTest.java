@@ -0,0 +1,351 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriteable;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.VariableSimpleIF;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.ft.PointFeature;
+import ucar.nc2.ft.StationTimeSeriesFeature;
+import ucar.nc2.ft.StationTimeSeriesFeatureCollection;
+import ucar.unidata.geoloc.Station;
+
+public class NetCDFDSGLayoutTest {
+
+    private FeatureDataset featureDataset;
+    private NetCDFDSGLayout layout;
+
+    @Before
+    public void setUp() throws IOException {
+        featureDataset = FeatureDatasetFactoryManager.open(
+                FeatureType.ANY,
+                "target/test-classes/pcm_b1_tmax-days_above_threshold,100.0,dsg.nc",
+                null,
+                new Formatter(System.err));
+        layout = NetCDFDSGLayout.create(featureDataset.getNetcdfFile(), NetCDFUtil.getObservationTimeVariable(featureDataset));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        featureDataset.close();
+    }
+
+    @Test
+    public void testStations() throws IOException {
+        assertNotNull(layout);
+        StationTimeSeriesFeatureCollection stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
+        List<Station> stations = stationTimeSeriesFeatureCollection.getStations();
+        NetCDFStationIndex stationIndex = layout.getStationIndex();
+        assertEquals(stations.size(), stationIndex.getStationCount());
+        for (Station station : stations) {
+            int ordinal = stationIndex.getOrdinal(station.getName());
+            assertTrue(ordinal > -1);
+            assertEquals(station.getName(), stationIndex.getStationId(ordinal));
+        }
+        assertEquals(-1, stationIndex.getOrdinal("no such station"));
+    }
+
+    @Test
+    public void testReadColumnMatchesStationIteration() throws IOException {
+        assertNotNull(layout);
+        StationTimeSeriesFeatureCollection stationTimeSeriesFeatureCollection = NetCDFUtil.extractStationTimeSeriesFeatureCollection(featureDataset);
+        List<VariableSimpleIF> observationVariables = NetCDFUtil.getObservationVariables(featureDataset);
+        int checkedCount = 0;
+        for (Station station : stationTimeSeriesFeatureCollection.getStations()) {
+            int stationIndex = layout.getStationIndex().getOrdinal(station.getName());
+            StationTimeSeriesFeature stationTimeSeriesFeature = stationTimeSeriesFeatureCollection.getStationFeature(station);
+            try {
+                for (int observation = 0; observation < 3 && stationTimeSeriesFeature.hasNext(); ++observation) {
+                    PointFeature pointFeature = stationTimeSeriesFeature.next();
+                    Date timeStep = pointFeature.getObservationTimeAsCalendarDate().toDate();
+                    int[] observationIndices = layout.locate(timeStep);
+                    int observationIndex = observationIndices[stationIndex];
+                    assertTrue(observationIndex > -1);
+                    assertEquals(timeStep.getTime(), layout.getObservationTimeMillis(observationIndex));
+                    for (VariableSimpleIF variable : observationVariables) {
+                        String variableName = variable.getShortName();
+                        if (layout.isSliceable(variableName)) {
+                            Object column = layout.readColumn(featureDataset.getNetcdfFile(), variableName, observationIndices);
+                            assertEquals(layout.getStationIndex().getStationCount(), Array.getLength(column));
+                            assertEquals(variableName,
+                                    pointFeature.getData().getScalarDouble(variableName),
+                                    ((Number) Array.get(column, stationIndex)).doubleValue(),
+                                    0d);
+                            ++checkedCount;
+                        }
+                    }
+                }
+            } finally {
+                stationTimeSeriesFeature.finish();
+            }
+            if (checkedCount > 100) {
+                break;
+            }
+        }
+        assertTrue(checkedCount > 0);
+    }
+
+    @Test
+    public void testLocateNearest() {
+        assertNotNull(layout);
+        int[] observationIndices = layout.locate(null);
+        for (int ordinal = 0; ordinal < observationIndices.length; ++ordinal) {
+            if (observationIndices[ordinal] > -1) {
+                long timeMillis = layout.getObservationTimeMillis(observationIndices[ordinal]);
+                assertEquals(observationIndices[ordinal], layout.locate(new Date(timeMillis))[ordinal]);
+                assertEquals(observationIndices[ordinal], layout.locateNearest(new Date(timeMillis + 1))[ordinal]);
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void testLocateMissingTimeStep() {
+        assertNotNull(layout);
+        int[] observationIndices = layout.locate(new Date(Long.MIN_VALUE / 2));
+        for (int observationIndex : observationIndices) {
+            assertEquals(-1, observationIndex);
+        }
+    }
+
+    @Test
+    public void testContiguousRagged() throws Exception {
+        // rows far enough apart that every station is read separately
+        File file = createRaggedFile(FixtureKind.CONTIGUOUS, 8, 1500);
+        try {
+            assertLayoutMatchesFixture(file, NetCDFDSGLayout.Kind.CONTIGUOUS_RAGGED, 8, 1500, false);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIndexedRagged() throws Exception {
+        File file = createRaggedFile(FixtureKind.INDEXED, 50, 40);
+        try {
+            assertLayoutMatchesFixture(file, NetCDFDSGLayout.Kind.INDEXED_RAGGED, 50, 40, false);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        File file = createRaggedFile(FixtureKind.INCOMPLETE, 50, 40);
+        try {
+            assertLayoutMatchesFixture(file, NetCDFDSGLayout.Kind.INCOMPLETE, 50, 40, false);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStructureMembers() throws Exception {
+        File file = createRaggedFile(FixtureKind.CONTIGUOUS, 50, 40);
+        try {
+            assertLayoutMatchesFixture(file, NetCDFDSGLayout.Kind.CONTIGUOUS_RAGGED, 50, 40, true);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private enum FixtureKind { CONTIGUOUS, INDEXED, INCOMPLETE }
+
+    // station s has no observation at timestep t when (s + t) % 7 == 0
+    private static boolean isObserved(int station, int timeStep) {
+        return (station + timeStep) % 7 != 0;
+    }
+
+    private static float getValue(int station, int timeStep) {
+        return station * 10000 + timeStep;
+    }
+
+    /**
+     * Writes a station time series of <code>timeStepCount</code> daily
+     * timesteps with a <code>tmax</code> float and a <code>count</code> int
+     * observation variable.  Contiguous files are station-major, indexed
+     * files time-major, the observation dimension of ragged files is the
+     * unlimited dimension so it can be read as a record structure.
+     */
+    private static File createRaggedFile(FixtureKind kind, int stationCount, int timeStepCount) throws Exception {
+        File file = File.createTempFile("dsg", ".nc");
+        List<int[]> observations = new ArrayList<int[]>(); // (station, timestep)
+        if (kind == FixtureKind.INDEXED) {
+            for (int timeStep = 0; timeStep < timeStepCount; ++timeStep) {
+                for (int station = 0; station < stationCount; ++station) {
+                    if (isObserved(station, timeStep)) {
+                        observations.add(new int[] { station, timeStep });
+                    }
+                }
+            }
+        } else {
+            for (int station = 0; station < stationCount; ++station) {
+                for (int timeStep = 0; timeStep < timeStepCount; ++timeStep) {
+                    if (isObserved(station, timeStep)) {
+                        observations.add(new int[] { station, timeStep });
+                    }
+                }
+            }
+        }
+
+        NetcdfFileWriteable writer = NetcdfFileWriteable.createNew(file.getPath(), false);
+        writer.addGlobalAttribute("featureType", "timeSeries");
+        writer.addDimension("station", stationCount);
+        writer.addDimension("name_strlen", 16);
+        String observationDimensions;
+        if (kind == FixtureKind.INCOMPLETE) {
+            writer.addDimension("obs", timeStepCount);
+            observationDimensions = "station obs";
+        } else {
+            writer.addUnlimitedDimension("obs");
+            observationDimensions = "obs";
+        }
+        writer.addVariable("station_id", DataType.CHAR, "station name_strlen");
+        writer.addVariableAttribute("station_id", "cf_role", "timeseries_id");
+        if (kind == FixtureKind.CONTIGUOUS) {
+            writer.addVariable("row_size", DataType.INT, "station");
+            writer.addVariableAttribute("row_size", "sample_dimension", "obs");
+        } else if (kind == FixtureKind.INDEXED) {
+            writer.addVariable("station_index", DataType.INT, "obs");
+            writer.addVariableAttribute("station_index", "instance_dimension", "station");
+        }
+        writer.addVariable("time", DataType.DOUBLE, observationDimensions);
+        writer.addVariableAttribute("time", "units", "days since 2000-01-01 00:00:00");
+        writer.addVariableAttribute("time", "standard_name", "time");
+        writer.addVariable("tmax", DataType.FLOAT, observationDimensions);
+        writer.addVariable("count", DataType.INT, observationDimensions);
+        writer.create();
+        try {
+            ArrayChar.D2 stationIds = new ArrayChar.D2(stationCount, 16);
+            int[] rowSizes = new int[stationCount];
+            for (int station = 0; station < stationCount; ++station) {
+                stationIds.setString(station, "station" + station);
+            }
+            writer.write("station_id", stationIds);
+            if (kind == FixtureKind.INCOMPLETE) {
+                double[][] times = new double[stationCount][timeStepCount];
+                float[][] tmax = new float[stationCount][timeStepCount];
+                int[][] counts = new int[stationCount][timeStepCount];
+                for (int station = 0; station < stationCount; ++station) {
+                    // observed timesteps first, the rest are fill
+                    int observation = 0;
+                    for (int timeStep = 0; timeStep < timeStepCount; ++timeStep) {
+                        if (isObserved(station, timeStep)) {
+                            times[station][observation] = timeStep;
+                            tmax[station][observation] = getValue(station, timeStep);
+                            counts[station][observation] = (int) getValue(station, timeStep);
+                            ++observation;
+                        }
+                    }
+                    for (; observation < timeStepCount; ++observation) {
+                        times[station][observation] = Double.NaN;
+                        tmax[station][observation] = Float.NaN;
+                    }
+                }
+                writer.write("time", ucar.ma2.Array.factory(times));
+                writer.write("tmax", ucar.ma2.Array.factory(tmax));
+                writer.write("count", ucar.ma2.Array.factory(counts));
+            } else {
+                int observationCount = observations.size();
+                double[] times = new double[observationCount];
+                float[] tmax = new float[observationCount];
+                int[] counts = new int[observationCount];
+                int[] stationIndices = new int[observationCount];
+                for (int observation = 0; observation < observationCount; ++observation) {
+                    int station = observations.get(observation)[0];
+                    int timeStep = observations.get(observation)[1];
+                    times[observation] = timeStep;
+                    tmax[observation] = getValue(station, timeStep);
+                    counts[observation] = (int) getValue(station, timeStep);
+                    stationIndices[observation] = station;
+                    ++rowSizes[station];
+                }
+                int[] origin = new int[] { 0 };
+                writer.write("time", origin, ucar.ma2.Array.factory(times));
+                writer.write("tmax", origin, ucar.ma2.Array.factory(tmax));
+                writer.write("count", origin, ucar.ma2.Array.factory(counts));
+                if (kind == FixtureKind.CONTIGUOUS) {
+                    writer.write("row_size", ucar.ma2.Array.factory(rowSizes));
+                } else {
+                    writer.write("station_index", origin, ucar.ma2.Array.factory(stationIndices));
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static void assertLayoutMatchesFixture(File file, NetCDFDSGLayout.Kind kind, int stationCount, int timeStepCount, boolean recordStructure) throws Exception {
+        NetcdfFile netCDFFile = NetcdfFile.open(file.getPath());
+        try {
+            Variable timeVariable = netCDFFile.findVariable("time");
+            if (recordStructure) {
+                // observation variables are only reachable as members
+                netCDFFile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_ADD_RECORD_STRUCTURE);
+                Structure record = (Structure) netCDFFile.findVariable("record");
+                assertNotNull(record);
+                for (Variable member : record.getVariables()) {
+                    netCDFFile.removeVariable(null, member.getShortName());
+                }
+                timeVariable = record.findVariable("time");
+                assertTrue(timeVariable.isMemberOfStructure());
+            }
+            NetCDFDSGLayout layout = NetCDFDSGLayout.create(netCDFFile, timeVariable);
+            assertNotNull(layout);
+            assertEquals(kind, layout.getKind());
+            assertEquals(stationCount, layout.getStationIndex().getStationCount());
+            assertTrue(layout.isSliceable("tmax"));
+            assertTrue(layout.isSliceable("count"));
+            assertFalse(layout.isSliceable("station_index"));
+
+            long dayMillis = 24L * 60 * 60 * 1000;
+            long originMillis = 946684800000L; // 2000-01-01
+            for (int timeStep : new int[] { 0, 1, timeStepCount / 2, timeStepCount - 1 }) {
+                int[] observationIndices = layout.locate(new Date(originMillis + timeStep * dayMillis));
+                assertEquals(stationCount, observationIndices.length);
+                float[] tmax = (float[]) layout.readColumn(netCDFFile, "tmax", observationIndices);
+                int[] counts = (int[]) layout.readColumn(netCDFFile, "count", observationIndices);
+                for (int station = 0; station < stationCount; ++station) {
+                    int ordinal = layout.getStationIndex().getOrdinal("station" + station);
+                    if (isObserved(station, timeStep)) {
+                        assertTrue(observationIndices[ordinal] > -1);
+                        assertEquals(getValue(station, timeStep), tmax[ordinal], 0f);
+                        assertEquals((int) getValue(station, timeStep), counts[ordinal]);
+                    } else {
+                        assertEquals(-1, observationIndices[ordinal]);
+                        assertTrue(Float.isNaN(tmax[ordinal]));
+                        assertEquals(0, counts[ordinal]);
+                    }
+                }
+            }
+
+            // nobody observed
+            int[] observationIndices = layout.locate(new Date(originMillis - dayMillis));
+            float[] tmax = (float[]) layout.readColumn(netCDFFile, "tmax", observationIndices);
+            for (int ordinal = 0; ordinal < stationCount; ++ordinal) {
+                assertEquals(-1, observationIndices[ordinal]);
+                assertTrue(Float.isNaN(tmax[ordinal]));
+            }
+        } finally {
+            netCDFFile.close();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import ucar.nc2.ft.FeatureDataset;
+
+public class NetCDFFeatureDatasetPoolTest {
+
+    private File netCDFFile;
+    private URL netCDFURL;
+    private NetCDFFeatureDatasetPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        netCDFFile = File.createTempFile("pool", ".nc");
+        copy(new File("target/test-classes/pcm_b1_tmax-days_above_threshold,100.0,dsg.nc"), netCDFFile);
+        netCDFURL = netCDFFile.toURI().toURL();
+        pool = new NetCDFFeatureDatasetPool(2, 0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.dispose();
+        netCDFFile.delete();
+    }
+
+    private static void copy(File source, File destination) throws IOException {
+        InputStream inputStream = new FileInputStream(source);
+        try {
+            OutputStream outputStream = new FileOutputStream(destination);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) > -1) {
+                    outputStream.write(buffer, 0, count);
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        FeatureDataset first = pool.borrow(netCDFURL);
+        assertNotNull(NetCDFUtil.extractStationTimeSeriesFeatureCollection(first));
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+
+        FeatureDataset second = pool.borrow(netCDFURL);
+        assertSame(first, second);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getBorrowedCount());
+        pool.release(second);
+    }
+
+    @Test
+    public void testConcurrentBorrowers() throws IOException {
+        FeatureDataset first = pool.borrow(netCDFURL);
+        FeatureDataset second = pool.borrow(netCDFURL);
+        FeatureDataset third = pool.borrow(netCDFURL);
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertEquals(3, pool.getBorrowedCount());
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(2, pool.getIdleCount()); // maximum idle count
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    @Test
+    public void testModifiedFileIsReopened() throws IOException {
+        FeatureDataset first = pool.borrow(netCDFURL);
+        FeatureDataset borrowed = pool.borrow(netCDFURL);
+        pool.release(first);
+
+        assertTrue(netCDFFile.setLastModified(netCDFFile.lastModified() - 60000));
+        FeatureDataset second = pool.borrow(netCDFURL);
+        assertNotSame(first, second);
+        assertEquals(1, pool.getInvalidationCount());
+
+        // borrowed before the change, closed instead of pooled
+        pool.release(borrowed);
+        assertEquals(0, pool.getIdleCount());
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+}
@@ -0,0 +1,56 @@
+package gov.usgs.cida.geotools.datastore;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NetCDFStationIndexTest {
+
+    @Test
+    public void testOrdinals() {
+        String[] stationIds = new String[1000];
+        for (int ordinal = 0; ordinal < stationIds.length; ++ordinal) {
+            stationIds[ordinal] = "station" + ordinal;
+        }
+        NetCDFStationIndex stationIndex = NetCDFStationIndex.create(stationIds);
+        assertEquals(stationIds.length, stationIndex.getStationCount());
+        assertFalse(stationIndex.isRagged());
+        for (int ordinal = 0; ordinal < stationIds.length; ++ordinal) {
+            assertEquals(ordinal, stationIndex.getOrdinal("station" + ordinal));
+            assertEquals(stationIds[ordinal], stationIndex.getStationId(ordinal));
+        }
+        assertEquals(-1, stationIndex.getOrdinal("station1000"));
+        assertEquals(-1, stationIndex.getOrdinal(""));
+    }
+
+    @Test
+    public void testDuplicateFirstWins() {
+        // "Aa" and "BB" share a hash code
+        NetCDFStationIndex stationIndex = NetCDFStationIndex.create(new String[] { "Aa", "BB", "Aa" });
+        assertEquals(0, stationIndex.getOrdinal("Aa"));
+        assertEquals(1, stationIndex.getOrdinal("BB"));
+    }
+
+    @Test
+    public void testContiguous() {
+        NetCDFStationIndex stationIndex = NetCDFStationIndex.createContiguous(new String[] { "a", "b", "c" }, new int[] { 2, 0, 3 });
+        assertTrue(stationIndex.isRagged());
+        assertEquals(2, stationIndex.getObservationCount(0));
+        assertEquals(0, stationIndex.getObservationCount(1));
+        assertEquals(3, stationIndex.getObservationCount(2));
+        assertEquals(1, stationIndex.getObservationIndex(0, 1));
+        assertEquals(2, stationIndex.getObservationIndex(2, 0));
+        assertEquals(4, stationIndex.getObservationIndex(2, 2));
+    }
+
+    @Test
+    public void testIndexed() {
+        NetCDFStationIndex stationIndex = NetCDFStationIndex.createIndexed(new String[] { "a", "b" }, new int[] { 1, 0, 1, -1, 7, 0 });
+        assertTrue(stationIndex.isRagged());
+        assertEquals(2, stationIndex.getObservationCount(0));
+        assertEquals(1, stationIndex.getObservationIndex(0, 0));
+        assertEquals(5, stationIndex.getObservationIndex(0, 1));
+        assertEquals(2, stationIndex.getObservationCount(1));
+        assertEquals(0, stationIndex.getObservationIndex(1, 0));
+        assertEquals(2, stationIndex.getObservationIndex(1, 1));
+    }
+}
@@ -0,0 +1,79 @@
+package gov.usgs.cida.geotools.datastore;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NetCDFTimeIndexTest {
+
+    private final static long MISSING = NetCDFDSGLayout.MISSING_TIME;
+
+    @Test
+    public void testShared() {
+        NetCDFTimeIndex timeIndex = NetCDFTimeIndex.createShared(new long[] { 10, 20, 30, 40 });
+        assertTrue(timeIndex.isShared());
+        for (int ordinal = 0; ordinal < 3; ++ordinal) {
+            assertEquals(2, timeIndex.indexOf(ordinal, 30));
+            assertEquals(-1, timeIndex.indexOf(ordinal, 35));
+        }
+        assertEquals(0, timeIndex.nearestIndexOf(0, Long.MIN_VALUE + 1));
+        assertEquals(0, timeIndex.nearestIndexOf(0, 15)); // tie, earlier wins
+        assertEquals(1, timeIndex.nearestIndexOf(0, 16));
+        assertEquals(3, timeIndex.nearestIndexOf(0, Long.MAX_VALUE));
+        assertArrayEquals(new int[] { 1, 2 }, timeIndex.rangeOf(0, 11, 30));
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, timeIndex.rangeOf(0, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(new int[0], timeIndex.rangeOf(0, 31, 39));
+        assertArrayEquals(new int[0], timeIndex.rangeOf(0, 40, 10));
+    }
+
+    @Test
+    public void testIncompleteUnsorted() {
+        // 2 stations of 4 observations, second station unsorted with a duplicate and a missing time
+        NetCDFTimeIndex timeIndex = NetCDFTimeIndex.createIncomplete(
+                new long[] { 10, 20, 30, 40, 30, MISSING, 10, 30 }, 2, 4);
+        assertFalse(timeIndex.isShared());
+        assertEquals(4, timeIndex.getObservationCount(0));
+        assertEquals(3, timeIndex.getObservationCount(1));
+        assertEquals(0, timeIndex.indexOf(0, 10));
+        assertEquals(6, timeIndex.indexOf(1, 10));
+        assertEquals(4, timeIndex.indexOf(1, 30)); // first in file order
+        assertEquals(-1, timeIndex.indexOf(1, 20));
+        assertEquals(-1, timeIndex.indexOf(1, MISSING));
+        assertEquals(6, timeIndex.nearestIndexOf(1, 20));
+        assertEquals(4, timeIndex.nearestIndexOf(1, 21));
+        assertArrayEquals(new int[] { 6, 4, 7 }, timeIndex.rangeOf(1, 0, 100));
+    }
+
+    @Test
+    public void testRagged() {
+        long[] observationTimeMillis = { 50, 10, 40, 20, MISSING, 30 };
+        NetCDFStationIndex stationIndex = NetCDFStationIndex.createIndexed(
+                new String[] { "a", "b", "c" }, new int[] { 0, 1, 0, 0, 2, 1 });
+        NetCDFTimeIndex timeIndex = NetCDFTimeIndex.createRagged(observationTimeMillis, stationIndex);
+        assertArrayEquals(new int[] { 3, 2, 0 }, timeIndex.rangeOf(0, 0, 100));
+        assertArrayEquals(new int[] { 1, 5 }, timeIndex.rangeOf(1, 0, 100));
+        assertEquals(2, timeIndex.indexOf(0, 40));
+        assertEquals(5, timeIndex.nearestIndexOf(1, 100));
+        assertEquals(0, timeIndex.getObservationCount(2));
+        assertEquals(-1, timeIndex.indexOf(2, 10));
+        assertEquals(-1, timeIndex.nearestIndexOf(2, 10));
+        assertArrayEquals(new int[0], timeIndex.rangeOf(2, 0, 100));
+    }
+
+    @Test
+    public void testLargeUnsorted() {
+        int count = 10000;
+        long[] observationTimeMillis = new long[count];
+        for (int observationIndex = 0; observationIndex < count; ++observationIndex) {
+            observationTimeMillis[observationIndex] = (observationIndex * 7919L) % count;
+        }
+        NetCDFTimeIndex timeIndex = NetCDFTimeIndex.createShared(observationTimeMillis);
+        for (int observationIndex = 0; observationIndex < count; ++observationIndex) {
+            assertEquals(observationIndex, timeIndex.indexOf(0, observationTimeMillis[observationIndex]));
+        }
+        int[] range = timeIndex.rangeOf(0, 100, 199);
+        assertEquals(100, range.length);
+        for (int position = 0; position < range.length; ++position) {
+            assertEquals(100 + position, observationTimeMillis[range[position]]);
+        }
+    }
+}
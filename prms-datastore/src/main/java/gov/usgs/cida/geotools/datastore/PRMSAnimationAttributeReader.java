@@ -1,9 +1,13 @@
 package gov.usgs.cida.geotools.datastore;
 
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
 import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
 import gov.usgs.cida.prms.PRMSAnimationRecord;
 import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.NoSuchElementException;
 import org.geotools.data.AttributeReader;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -24,18 +28,44 @@ public class PRMSAnimationAttributeReader implements AttributeReader {
     private PRMSAnimationRecordBuffer readerRecordBuffer;
     private PRMSAnimationRecord readerRecord;
     
-    private int[] readerAttributeToRecordEntryIndices;
+    // timestamp of the current timestep, shared by the features in the timestep
+    private Date readerTimeStamp;
+    
+    private int[] readerAttributeToRecordEntryIndices; // record entry count + n for derived column n
+
+    private final List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators;
+    private final PRMSAnimationDerivedColumn.ValueSource readerRecordValues = new PRMSAnimationDerivedColumn.ValueSource() {
+        @Override
+        public float getValue(int columnIndex) {
+            return readerRecord.getValueAsFloat(columnIndex);
+        }
+    };
+
+    PRMSAnimationAttributeReader(PRMSAnimationFileMetaData animationFileMetaData, SimpleFeatureType featureType, long mappedWindowSizeBytes) throws IOException {
+        this(animationFileMetaData, featureType, mappedWindowSizeBytes, Collections.<PRMSAnimationDerivedColumn.Evaluator>emptyList());
+    }
 
-    PRMSAnimationAttributeReader(PRMSAnimationFileMetaData animationFileMetaData, SimpleFeatureType featureType) throws IOException {
+    PRMSAnimationAttributeReader(PRMSAnimationFileMetaData animationFileMetaData, SimpleFeatureType featureType, long mappedWindowSizeBytes, List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators) throws IOException {
         this.featureType = featureType;
         this.animationFileMetaData = animationFileMetaData;
         this.readerAttributeCount = featureType.getAttributeCount();
         this.readerRecordIndex = 0;
+        this.derivedColumnEvaluators = derivedColumnEvaluators;
         readerAttributeToRecordEntryIndices = new int[readerAttributeCount];
         for (int readerAttributeIndex = 0; readerAttributeIndex < readerAttributeCount; ++readerAttributeIndex) {
-            readerAttributeToRecordEntryIndices[readerAttributeIndex] = animationFileMetaData.getRecordEntryIndex(featureType.getDescriptor(readerAttributeIndex).getLocalName());
+            readerAttributeToRecordEntryIndices[readerAttributeIndex] = getRecordEntryIndex(animationFileMetaData, derivedColumnEvaluators, featureType.getDescriptor(readerAttributeIndex).getLocalName());
+        }
+        readerRecordBuffer = new PRMSAnimationRecordBuffer(animationFileMetaData, 0, animationFileMetaData.getRecordCount(), mappedWindowSizeBytes);
+    }
+
+    // derived columns follow the record entries
+    static int getRecordEntryIndex(PRMSAnimationFileMetaData animationFileMetaData, List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators, String name) {
+        for (int derivedIndex = 0; derivedIndex < derivedColumnEvaluators.size(); ++derivedIndex) {
+            if (derivedColumnEvaluators.get(derivedIndex).getName().equalsIgnoreCase(name)) {
+                return animationFileMetaData.getRecordEntryCount() + derivedIndex;
+            }
         }
-        readerRecordBuffer = new PRMSAnimationRecordBuffer(animationFileMetaData);
+        return animationFileMetaData.getRecordEntryIndex(name);
     }
 
     @Override
@@ -78,11 +108,20 @@ public class PRMSAnimationAttributeReader implements AttributeReader {
             int recordEntryIndex = readerAttributeToRecordEntryIndices[index];
             switch (recordEntryIndex) {
                 case 0:
-                    return readerRecord.getTimeStamp().toDate();
+                    long timeStampMillis = readerRecord.getTimeStampAsMillis();
+                    if (readerTimeStamp == null || readerTimeStamp.getTime() != timeStampMillis) {
+                        readerTimeStamp = new Date(timeStampMillis);
+                    }
+                    return readerTimeStamp;
                 case 1:
-                    return readerRecord.getNHRU();
+                    return Integer.valueOf(readerRecord.getNHRUAsInt());
                 default:
-                    return readerRecord.getValue(recordEntryIndex);
+                    int recordEntryCount = animationFileMetaData.getRecordEntryCount();
+                    if (recordEntryIndex >= recordEntryCount) {
+                        return Float.valueOf(derivedColumnEvaluators.get(recordEntryIndex - recordEntryCount).evaluate(
+                                readerRecordValues, (readerRecordIndex - 1) % animationFileMetaData.getTimeStepRecordCount()));
+                    }
+                    return Float.valueOf(readerRecord.getValueAsFloat(recordEntryIndex));
             }
         } else {
             throw new ArrayIndexOutOfBoundsException(index);
@@ -1,38 +1,210 @@
 package gov.usgs.cida.geotools.datastore;
 
+import gov.usgs.cida.prms.MergedTimeStepIndex;
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
+import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
+import gov.usgs.cida.prms.RecordEntryDescriptor;
+import gov.usgs.cida.prms.TimeStepIndex;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.geotools.data.*;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.filter.Filter;
 
 /**
+ * Type names are advertised from the directory listing as soon as the data
+ * store is constructed.  Animation file metadata is loaded (scanning the file
+ * if needed) on first access, and in the background on a bounded number of
+ * threads so most is ready by the time it's asked for.
+ * <p>
+ * Per-file data stores are opened on demand from a bounded {@link DataStorePool},
+ * metadata and schemas are kept for every file so reopening an evicted data
+ * store doesn't read the animation file again.
+ * <p>
+ * Optionally the animation files are published as a single time-continuous
+ * feature type named after the directory (e.g. a long simulation written a
+ * decade per file).  A {@link MergedTimeStepIndex} over the files routes
+ * queries joined against the shapefile to the file holding the requested
+ * timestep, queries on animation attributes alone stream through every file
+ * with timesteps in the requested time range in time order.  Every file must
+ * have the same columns.
  *
  * @author tkunicki
  */
 public class PRMSAnimationDirectoryShapefileDataStore extends AbstractDataStore {
 
-    private TreeMap<String, PRMSAnimationShapefileDataStore> prmsDataStoreMap;
-    private ReferencedEnvelope bounds;
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
+    /** System property, number of threads loading animation files in the background (defaults to 4, 0 loads only on first access) */
+    public final static String LOAD_THREAD_COUNT_PROPERTY = "gov.usgs.cida.prms.directory.threads";
+
+    private final static int DEFAULT_LOAD_THREAD_COUNT = 4;
+
+    private final static String ATTRIBUTE_TIMESTAMP = "timestamp";
+
+    private final TreeMap<String, URL> animationURLMap;
+    private final Map<String, FutureTask<PRMSAnimationFileMetaData>> animationFileMetaDataMap;
+    private final Map<String, SimpleFeatureType> schemaMap = new ConcurrentHashMap<String, SimpleFeatureType>();
+    private final DataStorePool<PRMSAnimationShapefileDataStore> prmsDataStorePool;
+    private final ExecutorService loadExecutorService; // null if background loading is disabled
+    private final TimeStepPrefetcher animationTimeStepPrefetcher; // null if disabled
+    private ReferencedEnvelope bounds; // from the first data store on first use, guarded by this
+
+    private final String mergedTypeName; // null unless animation files are published as one type
+    private final List<String> mergedFileTypeNames; // file index to type name for the merged index
+    private MergedTimeStepIndex mergedTimeStepIndex; // built on first use, guarded by this
+    private SimpleFeatureType mergedSchema; // built on first use, guarded by this
+    private Set<String> mergedShapefileAttributeNames; // built with mergedSchema, guarded by this
 
     public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName) throws MalformedURLException, IOException {
-        prmsDataStoreMap = new TreeMap<String, PRMSAnimationShapefileDataStore>();
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+    }
+
+    public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, new PRMSAnimationTimeStepCache());
+    }
+
+    public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes, PRMSAnimationTimeStepCache animationTimeStepCache) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, animationTimeStepCache, DataStorePool.getDefaultMaximumOpenCount());
+    }
+
+    /**
+     * @param animationTimeStepCache single cache shared by the data stores for every animation file
+     * in the directory, null to disable caching.
+     * @param maximumOpenDataStoreCount number of per-file data stores kept open
+     */
+    public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes, PRMSAnimationTimeStepCache animationTimeStepCache, int maximumOpenDataStoreCount) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, animationTimeStepCache, maximumOpenDataStoreCount, false);
+    }
+
+    /**
+     * @param mergeTimeSteps publish the animation files as a single feature type
+     * spanning the timesteps of every file instead of a feature type per file
+     */
+    public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes, PRMSAnimationTimeStepCache animationTimeStepCache, int maximumOpenDataStoreCount, boolean mergeTimeSteps) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, animationTimeStepCache, maximumOpenDataStoreCount, mergeTimeSteps, Collections.<PRMSAnimationDerivedColumn>emptyList());
+    }
+
+    /**
+     * @param derivedColumns added to the feature type of every animation file
+     */
+    public PRMSAnimationDirectoryShapefileDataStore(URI namespaceURI, URL prmsAnimationDirectoryURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes, PRMSAnimationTimeStepCache animationTimeStepCache, int maximumOpenDataStoreCount, boolean mergeTimeSteps, List<PRMSAnimationDerivedColumn> derivedColumns) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationDirectoryURL, shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, animationTimeStepCache, maximumOpenDataStoreCount, mergeTimeSteps, derivedColumns, animationTimeStepCache == null ? null : new TimeStepPrefetcher());
+    }
+
+    /**
+     * @param animationTimeStepPrefetcher single prefetcher shared by the data
+     * stores for every animation file in the directory, null to disable
+     * prefetching.
+     */
+    public PRMSAnimationDirectoryShapefileDataStore(final URI namespaceURI, URL prmsAnimationDirectoryURL, final URL shapefileURL, final String shapefileNHRUAttributeName, final long animationMappedWindowSizeBytes, final PRMSAnimationTimeStepCache animationTimeStepCache, int maximumOpenDataStoreCount, boolean mergeTimeSteps, final List<PRMSAnimationDerivedColumn> derivedColumns, final TimeStepPrefetcher animationTimeStepPrefetcher) throws MalformedURLException, IOException {
+        this.animationTimeStepPrefetcher = animationTimeStepPrefetcher;
+        animationURLMap = new TreeMap<String, URL>();
+        animationFileMetaDataMap = new ConcurrentHashMap<String, FutureTask<PRMSAnimationFileMetaData>>();
         for (File file : getAnimationFiles(prmsAnimationDirectoryURL)) {
-            PRMSAnimationShapefileDataStore dataStore = new PRMSAnimationShapefileDataStore(namespaceURI, file.toURI().toURL(), shapefileURL, shapefileNHRUAttributeName);
-            dataStore.getSchema(); // prime schemas
-            prmsDataStoreMap.put(dataStore.getTypeNames()[0], dataStore);
+            final URL animationURL = file.toURI().toURL();
+            String typeName = PRMSAnimationShapefileDataStore.createFeatureTypeName(animationURL);
+            animationURLMap.put(typeName, animationURL);
+            animationFileMetaDataMap.put(typeName, new FutureTask<PRMSAnimationFileMetaData>(new Callable<PRMSAnimationFileMetaData>() {
+                @Override
+                public PRMSAnimationFileMetaData call() throws Exception {
+                    return PRMSAnimationFileMetaData.getMetaData(animationURL);
+                }
+            }));
+        }
+        if (animationURLMap.isEmpty()) {
+            throw new IllegalArgumentException("no animation files in " + prmsAnimationDirectoryURL);
+        }
+        if (mergeTimeSteps) {
+            mergedTypeName = createFeatureTypeName(prmsAnimationDirectoryURL);
+            mergedFileTypeNames = new ArrayList<String>(animationURLMap.keySet());
+        } else {
+            mergedTypeName = null;
+            mergedFileTypeNames = null;
+        }
+
+        prmsDataStorePool = new DataStorePool<PRMSAnimationShapefileDataStore>(new DataStorePool.Factory<PRMSAnimationShapefileDataStore>() {
+            @Override
+            public PRMSAnimationShapefileDataStore create(String typeName) throws IOException {
+                PRMSAnimationShapefileDataStore dataStore = new PRMSAnimationShapefileDataStore(namespaceURI, animationURLMap.get(typeName), shapefileURL, shapefileNHRUAttributeName, animationMappedWindowSizeBytes, animationTimeStepCache, getAnimationFileMetaData(typeName), derivedColumns, animationTimeStepPrefetcher);
+                schemaMap.put(typeName, dataStore.getSchema());
+                return dataStore;
+            }
+
+            @Override
+            public void dispose(String typeName, PRMSAnimationShapefileDataStore dataStore) {
+                // keep metadata the data store refreshed while open
+                animationFileMetaDataMap.put(typeName, completed(dataStore.getAnimationFileMetaData()));
+                dataStore.dispose();
+            }
+        }, maximumOpenDataStoreCount);
+
+        int loadThreadCount = Math.max(0, Integer.getInteger(LOAD_THREAD_COUNT_PROPERTY, DEFAULT_LOAD_THREAD_COUNT));
+        if (loadThreadCount > 0) {
+            loadExecutorService = Executors.newFixedThreadPool(Math.min(loadThreadCount, animationURLMap.size()), new LoadThreadFactory());
+            final int loadCount = animationURLMap.size();
+            final AtomicInteger loadedCount = new AtomicInteger();
+            for (final String typeName : animationURLMap.keySet()) {
+                loadExecutorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.currentTimeMillis();
+                        try {
+                            getAnimationFileMetaData(typeName);
+                            LOGGER.log(Level.INFO, "loaded " + typeName + " (" + loadedCount.incrementAndGet() + "/" + loadCount + ") in " + (System.currentTimeMillis() - start) + "ms");
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Unable to load " + typeName + " (" + loadedCount.incrementAndGet() + "/" + loadCount + ")", e);
+                        }
+                    }
+                });
+            }
+            loadExecutorService.shutdown(); // queued loads still run
+        } else {
+            loadExecutorService = null;
         }
-        
-        PRMSAnimationShapefileDataStore prmsDataStore = prmsDataStoreMap.firstEntry().getValue();
-        bounds = prmsDataStore.getBounds(Query.ALL);
     }
-    
+
+    private static FutureTask<PRMSAnimationFileMetaData> completed(final PRMSAnimationFileMetaData animationFileMetaData) {
+        FutureTask<PRMSAnimationFileMetaData> task = new FutureTask<PRMSAnimationFileMetaData>(new Callable<PRMSAnimationFileMetaData>() {
+            @Override
+            public PRMSAnimationFileMetaData call() {
+                return animationFileMetaData;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * Type name for the single feature type of a directory published with
+     * merged timesteps.
+     */
+    public static String createFeatureTypeName(URL prmsAnimationDirectoryURL) {
+        return new File(prmsAnimationDirectoryURL.getPath()).getName();
+    }
+
     private List<File> getAnimationFiles(URL url) {
         if(!"file".equals(url.getProtocol())) {
             throw new IllegalArgumentException("only url \"file\" protocols accepted");
@@ -51,46 +223,411 @@ public class PRMSAnimationDirectoryShapefileDataStore extends AbstractDataStore
             }
         }
         return animationFiles;
-    }    
+    }
+
+    /**
+     * Loads metadata for <code>typeName</code> in the calling thread unless
+     * it's already loaded or being loaded in the background.
+     */
+    PRMSAnimationFileMetaData getAnimationFileMetaData(String typeName) throws IOException {
+        FutureTask<PRMSAnimationFileMetaData> task = animationFileMetaDataMap.get(typeName);
+        if (task == null) {
+            throw new IOException("Unknown type name " + typeName);
+        }
+        task.run(); // no-op if already run or running
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading " + typeName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to load " + typeName, cause);
+        }
+    }
+
+    private DataStorePool<PRMSAnimationShapefileDataStore>.Lease acquire(String typeName) throws IOException {
+        if (!animationURLMap.containsKey(typeName)) {
+            throw new IOException("Unknown type name " + typeName);
+        }
+        return prmsDataStorePool.acquire(typeName);
+    }
+
+    public DataStorePool<PRMSAnimationShapefileDataStore> getDataStorePool() {
+        return prmsDataStorePool;
+    }
+
+    public boolean isMergeTimeSteps() {
+        return mergedTypeName != null;
+    }
 
     @Override
     public String[] getTypeNames() throws IOException {
-        return prmsDataStoreMap.keySet().toArray(new String[0]);
+        if (isMergeTimeSteps()) {
+            return new String[] { mergedTypeName };
+        }
+        return animationURLMap.keySet().toArray(new String[0]);
     }
 
     @Override
     public SimpleFeatureType getSchema(String typeName) throws IOException {
-        return prmsDataStoreMap.get(typeName).getSchema();
+        if (isMergeTimeSteps()) {
+            if (!mergedTypeName.equals(typeName)) {
+                throw new IOException("Unknown type name " + typeName);
+            }
+            return getMergedSchema();
+        }
+        return getFileSchema(typeName);
+    }
+
+    private SimpleFeatureType getFileSchema(String typeName) throws IOException {
+        SimpleFeatureType schema = schemaMap.get(typeName);
+        if (schema == null) {
+            // built when the data store is opened
+            acquire(typeName).release();
+            schema = schemaMap.get(typeName);
+        }
+        return schema;
     }
 
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName) throws IOException {
-        return prmsDataStoreMap.get(typeName).getFeatureReader();
+        if (isMergeTimeSteps()) {
+            return getMergedFeatureReader(new Query(typeName), Transaction.AUTO_COMMIT);
+        }
+        DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(typeName);
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader());
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
     }
 
     @Override
     public FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(Query query, Transaction transaction) throws IOException {
-        return prmsDataStoreMap.get(query.getTypeName()).getFeatureReader(query, transaction);
+        if (isMergeTimeSteps()) {
+            return getMergedFeatureReader(query, transaction);
+        }
+        DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(query.getTypeName());
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader(query, transaction));
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
     }
 
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName, Query query) throws IOException {
-        return prmsDataStoreMap.get(typeName).getFeatureReader(typeName, query);
+        if (isMergeTimeSteps()) {
+            return getMergedFeatureReader(query, Transaction.AUTO_COMMIT);
+        }
+        DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(typeName);
+        try {
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader(typeName, query));
+            lease = null; // released by reader
+            return featureReader;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+    }
+
+    @Override
+    public SimpleFeatureSource getFeatureSource(String typeName) throws IOException {
+        if (isMergeTimeSteps()) {
+            return new PRMSAnimationFeatureSource(super.getFeatureSource(typeName), new PRMSAnimationFeatureSource.MetaDataSource() {
+                @Override
+                public List<PRMSAnimationFileMetaData> getAnimationFileMetaData() throws IOException {
+                    return getMergedAnimationFileMetaData();
+                }
+            });
+        }
+        if (!animationURLMap.containsKey(typeName)) {
+            throw new IOException("Unknown type name " + typeName);
+        }
+        final String fileTypeName = typeName;
+        // the per-file data store may be evicted, metadata is looked up per use
+        return new PRMSAnimationFeatureSource(super.getFeatureSource(typeName), new PRMSAnimationFeatureSource.MetaDataSource() {
+            @Override
+            public List<PRMSAnimationFileMetaData> getAnimationFileMetaData() throws IOException {
+                return Collections.singletonList(getCurrentAnimationFileMetaData(fileTypeName));
+            }
+        });
     }
 
     @Override
     public void dispose() {
-        for (PRMSAnimationShapefileDataStore dataStore : prmsDataStoreMap.values()) {
-            dataStore.dispose();
+        if (loadExecutorService != null) {
+            loadExecutorService.shutdownNow();
+        }
+        for (FutureTask<PRMSAnimationFileMetaData> task : animationFileMetaDataMap.values()) {
+            task.cancel(false);
+        }
+        prmsDataStorePool.dispose();
+        if (animationTimeStepPrefetcher != null) {
+            animationTimeStepPrefetcher.dispose();
         }
     }
 
     @Override
     protected ReferencedEnvelope getBounds(Query query) throws IOException {
         if (query.getFilter().equals(Filter.INCLUDE)) {
-            return bounds;
+            synchronized (this) {
+                if (bounds == null) {
+                    // every type shares the shapefile
+                    DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(animationURLMap.firstKey());
+                    try {
+                        bounds = lease.getDataStore().getBounds(Query.ALL);
+                    } finally {
+                        lease.release();
+                    }
+                }
+                return bounds;
+            }
         }
         return null; // too expensive
     }
-    
+
+    /**
+     * Built from the metadata of every animation file, the first call waits
+     * for any still loading in the background.
+     */
+    private synchronized MergedTimeStepIndex getMergedTimeStepIndex() throws IOException {
+        if (mergedTimeStepIndex == null) {
+            List<String> firstNames = null;
+            List<TimeStepIndex> temporalIndices = new ArrayList<TimeStepIndex>(mergedFileTypeNames.size());
+            for (String typeName : mergedFileTypeNames) {
+                PRMSAnimationFileMetaData animationFileMetaData = getAnimationFileMetaData(typeName);
+                List<String> names = new ArrayList<String>();
+                for (RecordEntryDescriptor recordEntryDescriptor : animationFileMetaData.getRecordEntryDescriptors()) {
+                    names.add(recordEntryDescriptor.getName());
+                }
+                if (firstNames == null) {
+                    firstNames = names;
+                } else if (!firstNames.equals(names)) {
+                    throw new IOException("Columns of " + typeName + " " + names + " don't match " + firstNames);
+                }
+                temporalIndices.add(animationFileMetaData.getTemporalIndex());
+            }
+            mergedTimeStepIndex = new MergedTimeStepIndex(temporalIndices);
+            if (mergedTimeStepIndex.isOverlapping()) {
+                LOGGER.log(Level.WARNING, "time ranges of the animation files for " + mergedTypeName + " overlap, timesteps are served from the file starting later");
+            }
+        }
+        return mergedTimeStepIndex;
+    }
+
+    // schema of the first file, renamed
+    private synchronized SimpleFeatureType getMergedSchema() throws IOException {
+        if (mergedSchema == null) {
+            SimpleFeatureType schema = rename(getFileSchema(animationURLMap.firstKey()));
+            Set<String> shapefileAttributeNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+            for (AttributeDescriptor attributeDescriptor : schema.getAttributeDescriptors()) {
+                if (!attributeDescriptor.getUserData().containsKey(PRMSAnimationShapefileDataStore.NHRU_FILE_ATTRIB_COLUMN)) {
+                    shapefileAttributeNames.add(attributeDescriptor.getLocalName());
+                }
+            }
+            mergedShapefileAttributeNames = shapefileAttributeNames;
+            mergedSchema = schema;
+        }
+        return mergedSchema;
+    }
+
+    private SimpleFeatureType rename(SimpleFeatureType featureType) {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.init(featureType);
+        builder.setName(mergedTypeName);
+        return builder.buildFeatureType();
+    }
+
+    /**
+     * Current metadata of the animation files with timesteps, in time order.
+     */
+    private List<PRMSAnimationFileMetaData> getMergedAnimationFileMetaData() throws IOException {
+        List<PRMSAnimationFileMetaData> animationFileMetaDataList = new ArrayList<PRMSAnimationFileMetaData>();
+        for (int fileIndex : getMergedTimeStepIndex().getFileIndices()) {
+            animationFileMetaDataList.add(getCurrentAnimationFileMetaData(mergedFileTypeNames.get(fileIndex)));
+        }
+        return animationFileMetaDataList;
+    }
+
+    /**
+     * Metadata for <code>typeName</code>, refreshed through its pooled data
+     * store if the animation file has grown.
+     */
+    private PRMSAnimationFileMetaData getCurrentAnimationFileMetaData(String typeName) throws IOException {
+        PRMSAnimationFileMetaData animationFileMetaData = getAnimationFileMetaData(typeName);
+        if (animationFileMetaData.isStale()) {
+            DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(typeName);
+            try {
+                animationFileMetaData = lease.getDataStore().refreshAnimationFileMetaData();
+            } finally {
+                lease.release();
+            }
+            animationFileMetaDataMap.put(typeName, completed(animationFileMetaData));
+        }
+        return animationFileMetaData;
+    }
+
+    private FeatureReader<SimpleFeatureType, SimpleFeature> getMergedFeatureReader(Query query, Transaction transaction) throws IOException {
+        if (!mergedTypeName.equals(query.getTypeName())) {
+            throw new IOException("Unknown type name " + query.getTypeName());
+        }
+        SimpleFeatureType schema = getMergedSchema();
+        List<String> typeNames = new ArrayList<String>();
+        for (int fileIndex : routeMergedQuery(query)) {
+            typeNames.add(mergedFileTypeNames.get(fileIndex));
+        }
+        if (typeNames.isEmpty()) {
+            try {
+                return new EmptyFeatureReader<SimpleFeatureType, SimpleFeature>(DataUtilities.createSubType(schema, query.getPropertyNames()));
+            } catch (SchemaException ex) {
+                throw new IOException(ex);
+            }
+        }
+        return new MergedFeatureReader(typeNames, query, transaction);
+    }
+
+    /**
+     * A query joined against the shapefile is answered by the single file
+     * holding the timestep the data store for that file would pick, see
+     * {@link PRMSAnimationShapefileDataStore}.  A query on animation
+     * attributes alone reads every file with timesteps in the requested time
+     * range.
+     * @return indices of the files to read, in time order
+     */
+    private int[] routeMergedQuery(Query query) throws IOException {
+        MergedTimeStepIndex temporalIndex = getMergedTimeStepIndex();
+        Date timestamp = QueryUtil.extractValueFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class);
+        QueryUtil.ValueRange<Date> range = timestamp == null ?
+                QueryUtil.extractRangeFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class) :
+                null;
+        if (!query.retrieveAllProperties() && !QueryUtil.requiresAttributes(query, mergedShapefileAttributeNames)) {
+            if (timestamp != null) {
+                return temporalIndex.range(timestamp.getTime(), timestamp.getTime());
+            } else if (range != null) {
+                return temporalIndex.range(
+                        range.getLower() == null ? Long.MIN_VALUE : range.getLower().getTime(),
+                        range.getUpper() == null ? Long.MAX_VALUE : range.getUpper().getTime());
+            }
+            return temporalIndex.getFileIndices();
+        }
+        int fileIndex = -1;
+        if (timestamp != null) {
+            fileIndex = temporalIndex.floor(timestamp.getTime());
+            if (fileIndex < 0) {
+                fileIndex = temporalIndex.nearest(timestamp.getTime());
+            }
+        } else if (range != null) {
+            long lower = range.getLower() == null ? Long.MIN_VALUE : range.getLower().getTime();
+            long upper = range.getUpper() == null ? Long.MAX_VALUE : range.getUpper().getTime();
+            if (range.getLower() == null) {
+                fileIndex = temporalIndex.floor(upper);
+            } else if (range.getUpper() == null) {
+                fileIndex = temporalIndex.ceiling(lower);
+            } else {
+                fileIndex = temporalIndex.nearest(lower + (upper - lower) / 2);
+            }
+            if (fileIndex < 0) {
+                fileIndex = temporalIndex.nearest(range.getLower() == null ? upper : lower);
+            }
+        }
+        if (fileIndex < 0) {
+            // first timestep, or any file for a query without timesteps
+            fileIndex = temporalIndex.size() > 0 ? temporalIndex.getFileIndices()[0] : 0;
+        }
+        return new int[] { fileIndex };
+    }
+
+    /**
+     * Reads the animation files one after another, each leased only while
+     * it's read.  Features keep the feature ids of the file they're from.
+     */
+    private class MergedFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+        private final Iterator<String> typeNames;
+        private final Query query;
+        private final Transaction transaction;
+        private final SimpleFeatureType featureType;
+        private FeatureReader<SimpleFeatureType, SimpleFeature> featureReader; // null once exhausted
+
+        MergedFeatureReader(List<String> typeNames, Query query, Transaction transaction) throws IOException {
+            this.typeNames = typeNames.iterator();
+            this.query = query;
+            this.transaction = transaction;
+            FeatureReader<SimpleFeatureType, SimpleFeature> fileFeatureReader = open(this.typeNames.next());
+            this.featureType = rename(fileFeatureReader.getFeatureType());
+            this.featureReader = new ReTypeFeatureReader(fileFeatureReader, featureType, false);
+        }
+
+        private FeatureReader<SimpleFeatureType, SimpleFeature> open(String typeName) throws IOException {
+            Query fileQuery = new Query(query);
+            fileQuery.setTypeName(typeName);
+            DataStorePool<PRMSAnimationShapefileDataStore>.Lease lease = acquire(typeName);
+            try {
+                FeatureReader<SimpleFeatureType, SimpleFeature> fileFeatureReader = lease.releaseOnClose(lease.getDataStore().getFeatureReader(fileQuery, transaction));
+                lease = null; // released by reader
+                return fileFeatureReader;
+            } finally {
+                if (lease != null) {
+                    lease.release();
+                }
+            }
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return featureType;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (featureReader != null && !featureReader.hasNext()) {
+                featureReader.close();
+                featureReader = null;
+                if (typeNames.hasNext()) {
+                    featureReader = new ReTypeFeatureReader(open(typeNames.next()), featureType, false);
+                }
+            }
+            return featureReader != null;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more features in " + mergedTypeName);
+            }
+            return featureReader.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (featureReader != null) {
+                featureReader.close();
+                featureReader = null;
+            }
+        }
+    }
+
+    private static class LoadThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "prms-directory-load");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package gov.usgs.cida.geotools.datastore;
 
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
 import java.awt.RenderingHints.Key;
 import java.io.File;
 import java.io.IOException;
@@ -68,6 +69,21 @@ public class PRMSAnimationDirectoryShapefileDataStoreFactory implements DataStor
                 new KVP(Param.EXT, "shp"));
     public static final Param SHAPEFILE_NHRU =
             new Param("shapefile_nhru", String.class, "Shapefile NHRU Identifying Attribute", true);
+    public static final Param MAPPED_WINDOW_SIZE =
+            PRMSAnimationShapefileDataStoreFactory.MAPPED_WINDOW_SIZE;
+    public static final Param TIMESTEP_CACHE_SIZE =
+            PRMSAnimationShapefileDataStoreFactory.TIMESTEP_CACHE_SIZE;
+    public static final Param PREFETCH_DEPTH =
+            PRMSAnimationShapefileDataStoreFactory.PREFETCH_DEPTH;
+    public static final Param PREFETCH_SIZE =
+            PRMSAnimationShapefileDataStoreFactory.PREFETCH_SIZE;
+    public static final Param MAXIMUM_OPEN_DATASTORES =
+            new Param("max_open_datastores", Integer.class, "Maximum Number of PRMS Animation Files Open At Once", false, null,
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param MERGE_TIMESTEPS =
+            new Param("merge_timesteps", Boolean.class, "Publish All PRMS Animation Files As One Time-Continuous Type", false, Boolean.FALSE);
+    public static final Param DERIVED_ATTRIBUTES =
+            PRMSAnimationShapefileDataStoreFactory.DERIVED_ATTRIBUTES;
 
     @Override
     public Param[] getParametersInfo() {
@@ -76,6 +92,13 @@ public class PRMSAnimationDirectoryShapefileDataStoreFactory implements DataStor
             PRMS_ANIMATION,
             SHAPEFILE,
             SHAPEFILE_NHRU,
+            MAPPED_WINDOW_SIZE,
+            TIMESTEP_CACHE_SIZE,
+            PREFETCH_DEPTH,
+            PREFETCH_SIZE,
+            MAXIMUM_OPEN_DATASTORES,
+            MERGE_TIMESTEPS,
+            DERIVED_ATTRIBUTES,
         };
     }
     
@@ -132,11 +155,25 @@ public class PRMSAnimationDirectoryShapefileDataStoreFactory implements DataStor
     
     @Override
     public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        PRMSAnimationTimeStepCache timeStepCache = PRMSAnimationShapefileDataStoreFactory.lookUpTimeStepCache(params);
         return new PRMSAnimationDirectoryShapefileDataStore(
                 (URI) NAMESPACE.lookUp(params),
                 (URL) PRMS_ANIMATION.lookUp(params),
                 (URL) SHAPEFILE.lookUp(params),
-                (String) SHAPEFILE_NHRU.lookUp(params));
+                (String) SHAPEFILE_NHRU.lookUp(params),
+                PRMSAnimationShapefileDataStoreFactory.lookUpMappedWindowSizeBytes(params),
+                timeStepCache,
+                lookUpMaximumOpenDataStoreCount(params),
+                Boolean.TRUE.equals(MERGE_TIMESTEPS.lookUp(params)),
+                PRMSAnimationShapefileDataStoreFactory.lookUpDerivedColumns(params),
+                timeStepCache == null ? null : PRMSAnimationShapefileDataStoreFactory.lookUpTimeStepPrefetcher(params));
+    }
+
+    static int lookUpMaximumOpenDataStoreCount(Map<String, Serializable> params) throws IOException {
+        Integer maximumOpenDataStoreCount = (Integer) MAXIMUM_OPEN_DATASTORES.lookUp(params);
+        return maximumOpenDataStoreCount != null && maximumOpenDataStoreCount > 0 ?
+                maximumOpenDataStoreCount :
+                DataStorePool.getDefaultMaximumOpenCount();
     }
 
     @Override
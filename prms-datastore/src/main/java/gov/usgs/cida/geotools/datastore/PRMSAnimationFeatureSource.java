@@ -0,0 +1,257 @@
+package gov.usgs.cida.geotools.datastore;
+
+import static gov.usgs.cida.geotools.datastore.PRMSAnimationShapefileDataStore.NHRU_FILE_ATTRIB_COLUMN;
+import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
+import gov.usgs.cida.prms.TimeStepIndex;
+import java.awt.RenderingHints;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.geotools.data.DataAccess;
+import org.geotools.data.FeatureListener;
+import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.ResourceInfo;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.joda.time.DateTime;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Feature source answering min, max and unique visitors on animation
+ * attributes from {@link PRMSAnimationFileMetaData} instead of scanning the
+ * animation file.  Results span all timesteps, same as a scan of the
+ * animation attributes alone.  Only unfiltered, unpaged collections are
+ * optimized, everything else is handed to the delegate.
+ */
+public class PRMSAnimationFeatureSource implements SimpleFeatureSource {
+
+    /**
+     * Current metadata of the animation files behind the feature type.
+     */
+    public interface MetaDataSource {
+
+        /**
+         * @return metadata of every animation file in time order, changes
+         * when animation files grow
+         */
+        List<PRMSAnimationFileMetaData> getAnimationFileMetaData() throws IOException;
+    }
+
+    private final SimpleFeatureSource delegate;
+    private final MetaDataSource metaDataSource;
+
+    /**
+     * @param dataStore source of the current metadata, it changes when the
+     * animation file grows
+     */
+    public PRMSAnimationFeatureSource(SimpleFeatureSource delegate, final PRMSAnimationShapefileDataStore dataStore) {
+        this(delegate, new MetaDataSource() {
+            @Override
+            public List<PRMSAnimationFileMetaData> getAnimationFileMetaData() {
+                return Collections.singletonList(dataStore.refreshAnimationFileMetaData());
+            }
+        });
+    }
+
+    /**
+     * @param metaDataSource source of the current metadata for a feature type
+     * spanning several animation files
+     */
+    public PRMSAnimationFeatureSource(SimpleFeatureSource delegate, MetaDataSource metaDataSource) {
+        this.delegate = delegate;
+        this.metaDataSource = metaDataSource;
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+        SimpleFeatureCollection features = delegate.getFeatures(query);
+        boolean unbounded = query.isMaxFeaturesUnlimited() && query.getStartIndex() == null;
+        return unbounded && isUnfiltered(query.getFilter()) ? new MetaDataFeatureCollection(features) : features;
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures(Filter filter) throws IOException {
+        SimpleFeatureCollection features = delegate.getFeatures(filter);
+        return isUnfiltered(filter) ? new MetaDataFeatureCollection(features) : features;
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures() throws IOException {
+        return new MetaDataFeatureCollection(delegate.getFeatures());
+    }
+
+    private static boolean isUnfiltered(Filter filter) {
+        return filter == null || filter == Filter.INCLUDE;
+    }
+
+    /**
+     * @return true if the visitor was completed from metadata
+     */
+    boolean visitFromMetaData(FeatureVisitor visitor) throws IOException {
+        List<PRMSAnimationFileMetaData> animationFileMetaDataList = metaDataSource.getAnimationFileMetaData();
+        if (visitor instanceof MinVisitor) {
+            MinVisitor minVisitor = (MinVisitor) visitor;
+            Object minimum = getMinimum(animationFileMetaDataList, getRecordEntryIndex(minVisitor.getExpression()));
+            if (minimum != null) {
+                minVisitor.setValue(minimum);
+                return true;
+            }
+        } else if (visitor instanceof MaxVisitor) {
+            MaxVisitor maxVisitor = (MaxVisitor) visitor;
+            Object maximum = getMaximum(animationFileMetaDataList, getRecordEntryIndex(maxVisitor.getExpression()));
+            if (maximum != null) {
+                maxVisitor.setValue(maximum);
+                return true;
+            }
+        } else if (visitor instanceof UniqueVisitor) {
+            UniqueVisitor uniqueVisitor = (UniqueVisitor) visitor;
+            // only the timestep list is known, value columns need a scan
+            if (getRecordEntryIndex(uniqueVisitor.getExpression()) == 0) {
+                Set<Date> timeStamps = new LinkedHashSet<Date>();
+                for (PRMSAnimationFileMetaData animationFileMetaData : animationFileMetaDataList) {
+                    for (DateTime timeStep : animationFileMetaData.getTimeStepList()) {
+                        timeStamps.add(timeStep.toDate());
+                    }
+                }
+                uniqueVisitor.setValue(timeStamps);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // animation file column for the attribute, -1 if not an animation attribute
+    private int getRecordEntryIndex(Expression expression) {
+        if (expression instanceof PropertyName) {
+            AttributeDescriptor descriptor = getSchema().getDescriptor(((PropertyName) expression).getPropertyName());
+            if (descriptor != null) {
+                Object column = descriptor.getUserData().get(NHRU_FILE_ATTRIB_COLUMN);
+                if (column instanceof Integer) {
+                    return (Integer) column;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Object getMinimum(List<PRMSAnimationFileMetaData> animationFileMetaDataList, int recordEntryIndex) {
+        Comparable minimum = null;
+        for (PRMSAnimationFileMetaData animationFileMetaData : animationFileMetaDataList) {
+            Comparable fileMinimum = null;
+            if (recordEntryIndex == 0) {
+                TimeStepIndex temporalIndex = animationFileMetaData.getTemporalIndex();
+                fileMinimum = temporalIndex.size() > 0 ? new Date(temporalIndex.getMinimumMillis()) : null;
+            } else if (recordEntryIndex > 0 && recordEntryIndex < animationFileMetaData.getRecordEntryCount()) {
+                // derived columns have no range, they need a scan
+                fileMinimum = (Comparable) animationFileMetaData.getRecordEntryRanges().get(recordEntryIndex).getMinimum();
+            }
+            if (fileMinimum != null && (minimum == null || fileMinimum.compareTo(minimum) < 0)) {
+                minimum = fileMinimum;
+            }
+        }
+        return minimum;
+    }
+
+    private Object getMaximum(List<PRMSAnimationFileMetaData> animationFileMetaDataList, int recordEntryIndex) {
+        Comparable maximum = null;
+        for (PRMSAnimationFileMetaData animationFileMetaData : animationFileMetaDataList) {
+            Comparable fileMaximum = null;
+            if (recordEntryIndex == 0) {
+                TimeStepIndex temporalIndex = animationFileMetaData.getTemporalIndex();
+                fileMaximum = temporalIndex.size() > 0 ? new Date(temporalIndex.getMaximumMillis()) : null;
+            } else if (recordEntryIndex > 0 && recordEntryIndex < animationFileMetaData.getRecordEntryCount()) {
+                fileMaximum = (Comparable) animationFileMetaData.getRecordEntryRanges().get(recordEntryIndex).getMaximum();
+            }
+            if (fileMaximum != null && (maximum == null || fileMaximum.compareTo(maximum) > 0)) {
+                maximum = fileMaximum;
+            }
+        }
+        return maximum;
+    }
+
+    private class MetaDataFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+        MetaDataFeatureCollection(SimpleFeatureCollection delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+            if (!visitFromMetaData(visitor)) {
+                delegate.accepts(visitor, progress);
+            }
+        }
+    }
+
+    @Override
+    public Name getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public ResourceInfo getInfo() {
+        return delegate.getInfo();
+    }
+
+    @Override
+    public DataAccess<SimpleFeatureType, SimpleFeature> getDataStore() {
+        return delegate.getDataStore();
+    }
+
+    @Override
+    public QueryCapabilities getQueryCapabilities() {
+        return delegate.getQueryCapabilities();
+    }
+
+    @Override
+    public void addFeatureListener(FeatureListener listener) {
+        delegate.addFeatureListener(listener);
+    }
+
+    @Override
+    public void removeFeatureListener(FeatureListener listener) {
+        delegate.removeFeatureListener(listener);
+    }
+
+    @Override
+    public SimpleFeatureType getSchema() {
+        return delegate.getSchema();
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() throws IOException {
+        return delegate.getBounds();
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds(Query query) throws IOException {
+        return delegate.getBounds(query);
+    }
+
+    @Override
+    public int getCount(Query query) throws IOException {
+        return delegate.getCount(query);
+    }
+
+    @Override
+    public Set<RenderingHints.Key> getSupportedHints() {
+        return delegate.getSupportedHints();
+    }
+}
@@ -0,0 +1,50 @@
+package gov.usgs.cida.geotools.datastore;
+
+import java.util.BitSet;
+
+/**
+ * Permutation from shapefile record order to animation timestep record
+ * index (the offset of the joined HRU within each timestep).  Shapefile
+ * order is unrelated to nhru order, the plan lets a joining reader read the
+ * HRUs it needs from a timestep in ascending order before serving features
+ * in shapefile order.
+ */
+public class PRMSAnimationJoinPlan {
+
+    private final int[] timeStepRecordIndices;
+    private final BitSet joinedTimeStepRecords;
+
+    /**
+     * @param timeStepRecordIndices timestep record index joined to each
+     * shapefile record, in shapefile record order
+     * @param timeStepRecordCount number of records per timestep, indices
+     * outside the timestep don't join
+     */
+    public PRMSAnimationJoinPlan(int[] timeStepRecordIndices, int timeStepRecordCount) {
+        this.timeStepRecordIndices = timeStepRecordIndices;
+        this.joinedTimeStepRecords = new BitSet(timeStepRecordCount);
+        for (int timeStepRecordIndex : timeStepRecordIndices) {
+            if (timeStepRecordIndex > -1 && timeStepRecordIndex < timeStepRecordCount) {
+                joinedTimeStepRecords.set(timeStepRecordIndex);
+            }
+        }
+    }
+
+    public int getShapefileRecordCount() {
+        return timeStepRecordIndices.length;
+    }
+
+    /**
+     * @param shapefileRecordIndex 0 based position in shapefile record order
+     */
+    public int getTimeStepRecordIndex(int shapefileRecordIndex) {
+        return timeStepRecordIndices[shapefileRecordIndex];
+    }
+
+    /**
+     * @return copy of the set of timestep record indices joined by any shapefile record
+     */
+    public BitSet getJoinedTimeStepRecords() {
+        return (BitSet) joinedTimeStepRecords.clone();
+    }
+}
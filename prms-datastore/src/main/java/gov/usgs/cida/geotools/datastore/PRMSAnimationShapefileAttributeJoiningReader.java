@@ -2,18 +2,32 @@ package gov.usgs.cida.geotools.datastore;
 
 import com.vividsolutions.jts.geom.Envelope;
 import static gov.usgs.cida.geotools.datastore.PRMSAnimationShapefileDataStore.NHRU_FILE_ATTRIB_COLUMN;
+import gov.usgs.cida.prms.PRMSAnimationCachedTimeStep;
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
 import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
 import gov.usgs.cida.prms.PRMSAnimationRecord;
 import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTemporalAggregate;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepSlice;
 import gov.usgs.cida.prms.RecordEntryDescriptor;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geotools.data.shapefile.ShapefileAttributeReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.renderer.ScreenMap;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
 
 /**
  *
@@ -23,27 +37,366 @@ public class PRMSAnimationShapefileAttributeJoiningReader extends ShapefileAttri
     
 	protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
 	
+    /**
+     * Where the joined animation values are read from: the timestep through
+     * a record buffer, the timestep cache or a join plan slice, or the
+     * aggregate of a timestep window.  Opened by the reader it's passed to,
+     * so a value source is used by a single reader.
+     */
+    public static abstract class ValueSource {
+
+        final int timeStepIndex;
+        final long mappedWindowSizeBytes;
+
+        private ValueSource(int timeStepIndex, long mappedWindowSizeBytes) {
+            this.timeStepIndex = timeStepIndex;
+            this.mappedWindowSizeBytes = mappedWindowSizeBytes;
+        }
+
+        /**
+         * Reads the timestep at <code>timeStepIndex</code> sequentially.
+         */
+        public static ValueSource recordBuffer(int timeStepIndex, long mappedWindowSizeBytes) {
+            return new RecordBufferSource(timeStepIndex, mappedWindowSizeBytes);
+        }
+
+        /**
+         * Reads the joined columns of the timestep through
+         * <code>timeStepCache</code>, other columns are loaded on demand.
+         */
+        public static ValueSource cached(int timeStepIndex, PRMSAnimationTimeStepCache timeStepCache, long mappedWindowSizeBytes) {
+            return new CachedSource(timeStepIndex, timeStepCache, mappedWindowSizeBytes);
+        }
+
+        /**
+         * Reads the HRUs joined by the shapefile from the timestep in
+         * ascending order up front instead of in shapefile order.
+         */
+        public static ValueSource slice(int timeStepIndex, PRMSAnimationJoinPlan joinPlan, long mappedWindowSizeBytes) {
+            return new SliceSource(timeStepIndex, joinPlan, mappedWindowSizeBytes);
+        }
+
+        /**
+         * Joins the aggregate of the timesteps in [<code>timeStepIndex</code>,
+         * <code>timeStepIndexEnd</code>) instead of a single timestep, the
+         * window is read once up front.  The animation filter and derived
+         * columns are evaluated against the aggregate values, e.g. the mean
+         * of a ratio column is the ratio of the means.
+         */
+        public static ValueSource aggregate(int timeStepIndex, int timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function aggregateFunction, long mappedWindowSizeBytes) {
+            return new AggregateSource(timeStepIndex, timeStepIndexEnd, aggregateFunction, mappedWindowSizeBytes);
+        }
+
+        /**
+         * @param attributeColumnIndices animation file columns of the read
+         * attributes, -1 for others
+         * @param sliceColumnIndices animation file columns of the read and
+         * filtered attributes, -1 for others
+         * @param derivedInputColumnIndices animation file columns read by
+         * the evaluated derived columns
+         */
+        abstract void open(PRMSAnimationFileMetaData animationFileMetaData, int[] attributeColumnIndices, int[] sliceColumnIndices, int[] derivedInputColumnIndices) throws IOException;
+
+        abstract PRMSAnimationRecord getRecord(int timeStepRecordIndex) throws IOException;
+
+        BitSet getJoinedTimeStepRecords(PRMSAnimationFileMetaData animationFileMetaData) {
+            BitSet joinedTimeStepRecords = new BitSet(animationFileMetaData.getTimeStepRecordCount());
+            joinedTimeStepRecords.set(0, animationFileMetaData.getTimeStepRecordCount());
+            return joinedTimeStepRecords;
+        }
+
+        float[] evaluate(PRMSAnimationDerivedColumn.Evaluator evaluator) throws IOException {
+            return evaluator.evaluate(timeStepIndex);
+        }
+
+        int[] getCachedColumnIndices() {
+            return null;
+        }
+
+        void close() throws IOException {
+        }
+    }
+
+    private static class RecordBufferSource extends ValueSource {
+
+        private PRMSAnimationRecordBuffer animationRecordBuffer;
+        private int animationTimeStepRecordOffset;
+
+        RecordBufferSource(int timeStepIndex, long mappedWindowSizeBytes) {
+            super(timeStepIndex, mappedWindowSizeBytes);
+        }
+
+        @Override
+        void open(PRMSAnimationFileMetaData animationFileMetaData, int[] attributeColumnIndices, int[] sliceColumnIndices, int[] derivedInputColumnIndices) throws IOException {
+            animationTimeStepRecordOffset = timeStepIndex * animationFileMetaData.getTimeStepRecordCount();
+            animationRecordBuffer = new PRMSAnimationRecordBuffer(animationFileMetaData, animationTimeStepRecordOffset, animationTimeStepRecordOffset + animationFileMetaData.getTimeStepRecordCount(), mappedWindowSizeBytes);
+        }
+
+        @Override
+        PRMSAnimationRecord getRecord(int timeStepRecordIndex) throws IOException {
+            return animationRecordBuffer.getRecord(animationTimeStepRecordOffset + timeStepRecordIndex);
+        }
+
+        @Override
+        void close() throws IOException {
+            if (animationRecordBuffer != null) {
+                animationRecordBuffer.close();
+            }
+        }
+    }
+
+    private static class CachedSource extends ValueSource {
+
+        private final PRMSAnimationTimeStepCache timeStepCache;
+        private PRMSAnimationCachedTimeStep animationCachedTimeStep;
+        private int[] cachedColumnIndices;
+
+        CachedSource(int timeStepIndex, PRMSAnimationTimeStepCache timeStepCache, long mappedWindowSizeBytes) {
+            super(timeStepIndex, mappedWindowSizeBytes);
+            this.timeStepCache = timeStepCache;
+        }
+
+        @Override
+        void open(PRMSAnimationFileMetaData animationFileMetaData, int[] attributeColumnIndices, int[] sliceColumnIndices, int[] derivedInputColumnIndices) throws IOException {
+            cachedColumnIndices = attributeColumnIndices;
+            animationCachedTimeStep = new PRMSAnimationCachedTimeStep(timeStepCache, animationFileMetaData, timeStepIndex, cachedColumnIndices, mappedWindowSizeBytes);
+        }
+
+        @Override
+        PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+            return animationCachedTimeStep.getRecord(timeStepRecordIndex);
+        }
+
+        @Override
+        int[] getCachedColumnIndices() {
+            return cachedColumnIndices;
+        }
+    }
+
+    private static class SliceSource extends ValueSource {
+
+        private final PRMSAnimationJoinPlan joinPlan;
+        private PRMSAnimationTimeStepSlice animationTimeStepSlice;
+
+        SliceSource(int timeStepIndex, PRMSAnimationJoinPlan joinPlan, long mappedWindowSizeBytes) {
+            super(timeStepIndex, mappedWindowSizeBytes);
+            this.joinPlan = joinPlan;
+        }
+
+        @Override
+        void open(PRMSAnimationFileMetaData animationFileMetaData, int[] attributeColumnIndices, int[] sliceColumnIndices, int[] derivedInputColumnIndices) throws IOException {
+            animationTimeStepSlice = new PRMSAnimationTimeStepSlice(animationFileMetaData, timeStepIndex, sliceColumnIndices, joinPlan.getJoinedTimeStepRecords(), mappedWindowSizeBytes);
+        }
+
+        @Override
+        PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+            return animationTimeStepSlice.getRecord(timeStepRecordIndex);
+        }
+
+        @Override
+        BitSet getJoinedTimeStepRecords(PRMSAnimationFileMetaData animationFileMetaData) {
+            return joinPlan.getJoinedTimeStepRecords();
+        }
+    }
+
+    private static class AggregateSource extends ValueSource {
+
+        private final int timeStepIndexEnd;
+        private final PRMSAnimationTemporalAggregate.Function aggregateFunction;
+        private PRMSAnimationTemporalAggregate animationTemporalAggregate;
+
+        AggregateSource(int timeStepIndex, int timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function aggregateFunction, long mappedWindowSizeBytes) {
+            super(timeStepIndex, mappedWindowSizeBytes);
+            this.timeStepIndexEnd = timeStepIndexEnd;
+            this.aggregateFunction = aggregateFunction;
+        }
+
+        @Override
+        void open(PRMSAnimationFileMetaData animationFileMetaData, int[] attributeColumnIndices, int[] sliceColumnIndices, int[] derivedInputColumnIndices) throws IOException {
+            // derived columns are computed from the aggregated inputs
+            int[] columnIndices = Arrays.copyOf(sliceColumnIndices, sliceColumnIndices.length + derivedInputColumnIndices.length);
+            System.arraycopy(derivedInputColumnIndices, 0, columnIndices, sliceColumnIndices.length, derivedInputColumnIndices.length);
+            animationTemporalAggregate = new PRMSAnimationTemporalAggregate(animationFileMetaData, timeStepIndex, timeStepIndexEnd, aggregateFunction, columnIndices, mappedWindowSizeBytes);
+        }
+
+        @Override
+        PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+            return animationTemporalAggregate.getRecord(timeStepRecordIndex);
+        }
+
+        @Override
+        float[] evaluate(PRMSAnimationDerivedColumn.Evaluator evaluator) throws IOException {
+            return evaluator.evaluate(new PRMSAnimationDerivedColumn.ColumnSource() {
+                @Override
+                public float[] getValueColumn(int columnIndex) {
+                    return animationTemporalAggregate.getValueColumn(columnIndex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Animation filter and derived columns evaluated against the joined
+     * values.
+     */
+    public static class Evaluation {
+
+        public final static Evaluation NONE = new Evaluation(null, null, Collections.<PRMSAnimationDerivedColumn.Evaluator>emptyList());
+
+        private final Filter animationFilter;
+        private final SimpleFeatureType animationFilterType;
+        private final List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators;
+
+        /**
+         * @param animationFilter filter on animation attributes only (no
+         * timestamp) that every returned record must pass, evaluated against
+         * the joined values up front so shapefile records for failing HRUs
+         * are skipped without their geometry being read.  May be null.
+         * @param animationFilterType type holding the attributes referenced
+         * by <code>animationFilter</code>
+         * @param derivedColumnEvaluators derived columns compiled against the
+         * animation file, attributes with a column index of record entry
+         * count + n read derived column n.  Derived columns are evaluated for
+         * the whole timestep up front.
+         */
+        public Evaluation(Filter animationFilter, SimpleFeatureType animationFilterType, List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators) {
+            this.animationFilter = animationFilter;
+            this.animationFilterType = animationFilterType;
+            this.derivedColumnEvaluators = derivedColumnEvaluators;
+        }
+    }
+
     private final ShapefileAttributeReader delegate;
     private final int shapefileJoinAttributeIndex;
     private final int animationJoinValueOffset;
-    private final int animationTimeStepRecordOffset;
-    
-    private PRMSAnimationRecordBuffer animationRecordBuffer;
+    private final ValueSource valueSource;
     private PRMSAnimationRecord animationRecord;
+    // timestamp of the timestep, shared by the joined features
+    private Date animationTimeStamp;
 	final private RecordEntryDescriptor[] recordEntryDescriptors;
+    // attribute index to animation record column, -1 for shapefile attributes
+    // and record entry count + n for derived column n
+    private final int[] attributeColumnIndices;
+    // derived columns of the joined timestep (or aggregate), null if not read
+    private final float[][] derivedColumns;
+    // timestep record indices passing the animation filter, null if unfiltered
+    private BitSet timeStepRecordFilter;
+    // delegate is positioned on a record passing the filter that next() hasn't returned yet
+    private boolean timeStepRecordPending;
+    private int timeStepRecordIndex;
 
-    public PRMSAnimationShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, PRMSAnimationFileMetaData animationFileMetaData, int shapefileJoinAttributeIndex, int animationJoinValueOffset) throws IOException {
-        this(delegate, animationFileMetaData, shapefileJoinAttributeIndex, animationJoinValueOffset, 0);
-    }
-
-    public PRMSAnimationShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, PRMSAnimationFileMetaData animationFileMetaData, int shapefileJoinAttributeIndex, int animationJoinValueOffset, int timeStepIndex) throws IOException {
+    public PRMSAnimationShapefileAttributeJoiningReader(ShapefileAttributeReader delegate, PRMSAnimationFileMetaData animationFileMetaData, int shapefileJoinAttributeIndex, int animationJoinValueOffset, ValueSource valueSource, Evaluation evaluation) throws IOException {
         super(hack(delegate), null, null); // lame duck
         this.delegate = delegate;
         this.shapefileJoinAttributeIndex = shapefileJoinAttributeIndex;
         this.animationJoinValueOffset = animationJoinValueOffset;
-        this.animationTimeStepRecordOffset = timeStepIndex * animationFileMetaData.getTimeStepRecordCount();
-        animationRecordBuffer = new PRMSAnimationRecordBuffer(animationFileMetaData, animationTimeStepRecordOffset, animationTimeStepRecordOffset + animationFileMetaData.getTimeStepRecordCount());
+        this.valueSource = valueSource;
 		this.recordEntryDescriptors = animationFileMetaData.getRecordEntryDescriptors().toArray(new RecordEntryDescriptor[0]);
+        this.attributeColumnIndices = new int[getAttributeCount()];
+        for (int attributeIndex = 0; attributeIndex < attributeColumnIndices.length; ++attributeIndex) {
+            attributeColumnIndices[attributeIndex] = isNhruData(attributeIndex) ? mapToNhruColumn(attributeIndex) : -1;
+        }
+        Filter animationFilter = evaluation.animationFilter;
+        SimpleFeatureType animationFilterType = evaluation.animationFilterType;
+        List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators = evaluation.derivedColumnEvaluators;
+        int[] filterColumnIndices = new int[animationFilter == null ? 0 : animationFilterType.getAttributeCount()];
+        for (int filterAttributeIndex = 0; filterAttributeIndex < filterColumnIndices.length; ++filterAttributeIndex) {
+            filterColumnIndices[filterAttributeIndex] = (Integer) animationFilterType.getDescriptor(filterAttributeIndex).getUserData().get(NHRU_FILE_ATTRIB_COLUMN);
+        }
+        int recordEntryCount = animationFileMetaData.getRecordEntryCount();
+        boolean[] derivedColumnsRead = new boolean[derivedColumnEvaluators.size()];
+        int[] derivedInputColumnIndices = new int[0];
+        for (int[] columnIndices : new int[][] { attributeColumnIndices, filterColumnIndices }) {
+            for (int columnIndex : columnIndices) {
+                if (columnIndex >= recordEntryCount && !derivedColumnsRead[columnIndex - recordEntryCount]) {
+                    derivedColumnsRead[columnIndex - recordEntryCount] = true;
+                    int[] inputColumnIndices = derivedColumnEvaluators.get(columnIndex - recordEntryCount).getColumnIndices();
+                    int inputStart = derivedInputColumnIndices.length;
+                    derivedInputColumnIndices = Arrays.copyOf(derivedInputColumnIndices, inputStart + inputColumnIndices.length);
+                    System.arraycopy(inputColumnIndices, 0, derivedInputColumnIndices, inputStart, inputColumnIndices.length);
+                }
+            }
+        }
+        valueSource.open(animationFileMetaData,
+                getRecordColumnIndices(attributeColumnIndices, recordEntryCount),
+                getSliceColumnIndices(animationFileMetaData, filterColumnIndices),
+                derivedInputColumnIndices);
+        derivedColumns = new float[derivedColumnsRead.length][];
+        for (int derivedIndex = 0; derivedIndex < derivedColumnsRead.length; ++derivedIndex) {
+            if (derivedColumnsRead[derivedIndex]) {
+                derivedColumns[derivedIndex] = valueSource.evaluate(derivedColumnEvaluators.get(derivedIndex));
+            }
+        }
+        if (animationFilter != null) {
+            timeStepRecordFilter = evaluateAnimationFilter(animationFilter, animationFilterType, filterColumnIndices, valueSource.getJoinedTimeStepRecords(animationFileMetaData));
+        }
+    }
+
+    // columns read into the slice or aggregate, everything when logging records
+    private int[] getSliceColumnIndices(PRMSAnimationFileMetaData animationFileMetaData, int[] filterColumnIndices) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            int[] columnIndices = new int[animationFileMetaData.getRecordEntryCount()];
+            for (int columnIndex = 0; columnIndex < columnIndices.length; ++columnIndex) {
+                columnIndices[columnIndex] = columnIndex;
+            }
+            return columnIndices;
+        }
+        int[] columnIndices = Arrays.copyOf(attributeColumnIndices, attributeColumnIndices.length + filterColumnIndices.length);
+        System.arraycopy(filterColumnIndices, 0, columnIndices, attributeColumnIndices.length, filterColumnIndices.length);
+        return getRecordColumnIndices(columnIndices, animationFileMetaData.getRecordEntryCount());
+    }
+
+    /**
+     * @return animation file columns of the joined timestep read through the
+     *      timestep cache, -1 for attributes that aren't.  Null if the
+     *      timestep isn't cached.
+     */
+    public int[] getCachedColumnIndices() {
+        return valueSource.getCachedColumnIndices();
+    }
+
+    // derived columns aren't in the animation file
+    private static int[] getRecordColumnIndices(int[] columnIndices, int recordEntryCount) {
+        int[] recordColumnIndices = columnIndices.clone();
+        for (int index = 0; index < recordColumnIndices.length; ++index) {
+            if (recordColumnIndices[index] >= recordEntryCount) {
+                recordColumnIndices[index] = -1;
+            }
+        }
+        return recordColumnIndices;
+    }
+
+    private BitSet evaluateAnimationFilter(Filter animationFilter, SimpleFeatureType animationFilterType, int[] filterColumnIndices, BitSet timeStepRecords) throws IOException {
+        int filterAttributeCount = filterColumnIndices.length;
+        // one feature, refilled for each HRU
+        SimpleFeature filterFeature = SimpleFeatureBuilder.build(animationFilterType, new Object[filterAttributeCount], null);
+        BitSet filter = new BitSet(timeStepRecords.length());
+        for (int timeStepRecordIndex = timeStepRecords.nextSetBit(0); timeStepRecordIndex > -1; timeStepRecordIndex = timeStepRecords.nextSetBit(timeStepRecordIndex + 1)) {
+            PRMSAnimationRecord record = getAnimationRecord(timeStepRecordIndex);
+            for (int filterAttributeIndex = 0; filterAttributeIndex < filterAttributeCount; ++filterAttributeIndex) {
+                int columnIndex = filterColumnIndices[filterAttributeIndex];
+                filterFeature.setAttribute(filterAttributeIndex, columnIndex == 1 ?
+                        Integer.valueOf(record.getNHRUAsInt()) :
+                        Float.valueOf(columnIndex < recordEntryDescriptors.length ?
+                                record.getValueAsFloat(columnIndex) :
+                                derivedColumns[columnIndex - recordEntryDescriptors.length][timeStepRecordIndex]));
+            }
+            if (animationFilter.evaluate(filterFeature)) {
+                filter.set(timeStepRecordIndex);
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, filter.cardinality() + " of " + timeStepRecords.cardinality() + " HRUs pass " + animationFilter);
+        }
+        return filter;
+    }
+
+    private PRMSAnimationRecord getAnimationRecord(int timeStepRecordIndex) throws IOException {
+        return valueSource.getRecord(timeStepRecordIndex);
+    }
+
+    private int readTimeStepRecordIndex() throws IOException {
+        return ((Number) delegate.read(shapefileJoinAttributeIndex)).intValue() - animationJoinValueOffset;
     }
 
     @Override
@@ -54,7 +407,7 @@ public class PRMSAnimationShapefileAttributeJoiningReader extends ShapefileAttri
             /* don't care */
         }
         try {
-            animationRecordBuffer.close();
+            valueSource.close();
         } catch (IOException e) {
             /* don't care */
         }
@@ -67,13 +420,29 @@ public class PRMSAnimationShapefileAttributeJoiningReader extends ShapefileAttri
 
     @Override
     public boolean hasNext() throws IOException {
-        return delegate.hasNext();
+        if (timeStepRecordFilter == null) {
+            return delegate.hasNext();
+        }
+        // only the join attribute is read for skipped records, never the geometry
+        while (!timeStepRecordPending && delegate.hasNext()) {
+            delegate.next();
+            timeStepRecordIndex = readTimeStepRecordIndex();
+            timeStepRecordPending = timeStepRecordIndex > -1 && timeStepRecordFilter.get(timeStepRecordIndex);
+        }
+        return timeStepRecordPending;
     }
 
     @Override
     public void next() throws IOException {
-        delegate.next();
-        animationRecord = animationRecordBuffer.getRecord(animationTimeStepRecordOffset + ((Number) delegate.read(shapefileJoinAttributeIndex)).intValue() - animationJoinValueOffset);
+        if (timeStepRecordFilter == null) {
+            delegate.next();
+            timeStepRecordIndex = readTimeStepRecordIndex();
+        } else if (hasNext()) {
+            timeStepRecordPending = false;
+        } else {
+            throw new NoSuchElementException();
+        }
+        animationRecord = getAnimationRecord(timeStepRecordIndex);
 		_isRecordDebuged = false;
     }
 	
@@ -117,19 +486,25 @@ public class PRMSAnimationShapefileAttributeJoiningReader extends ShapefileAttri
 		
 		Object ret = null;
 		
-        if (isNhruData(attributeIndex)) {
-			
-			int animationRecordIndex = mapToNhruColumn(attributeIndex);
+		int animationRecordIndex = attributeColumnIndices[attributeIndex];
+		
+        if (animationRecordIndex > -1) {
 			
             switch (animationRecordIndex) {
                 case 0:
-                    ret = animationRecord.getTimeStamp().toDate();
+                    long timeStampMillis = animationRecord.getTimeStampAsMillis();
+                    if (animationTimeStamp == null || animationTimeStamp.getTime() != timeStampMillis) {
+                        animationTimeStamp = new Date(timeStampMillis);
+                    }
+                    ret = animationTimeStamp;
 					break;
                 case 1:
-                    ret = animationRecord.getNHRU();
+                    ret = Integer.valueOf(animationRecord.getNHRUAsInt());
 					break;
                 default:
-                    ret = animationRecord.getValue(animationRecordIndex);
+                    ret = Float.valueOf(animationRecordIndex < recordEntryDescriptors.length ?
+                            animationRecord.getValueAsFloat(animationRecordIndex) :
+                            derivedColumns[animationRecordIndex - recordEntryDescriptors.length][timeStepRecordIndex]);
             }
 			
 
@@ -1,23 +1,35 @@
 package gov.usgs.cida.geotools.datastore;
 
+import gov.usgs.cida.prms.PRMSAnimationCachedTimeStep;
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
 import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTemporalAggregate;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
 import gov.usgs.cida.prms.RecordEntryDescriptor;
+import gov.usgs.cida.prms.TimeStepIndex;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.geotools.data.*;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.shapefile.ShapefileAttributeReader;
 import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
 import org.geotools.feature.AttributeTypeBuilder;
 import org.geotools.feature.SchemaException;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.joda.time.DateTime;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
 
 /**
  *
@@ -25,33 +37,101 @@ import org.opengis.feature.type.AttributeDescriptor;
  */
 public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
 
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
     private final static String ATTRIBUTE_TIMESTAMP = "timestamp";
     private final static String ATTRIBUTE_NHRU = "nhru";
 	
 	/** Attrib descriptor key to indicate which column the column is in the nhru file.  Value should be an Integer */
 	public final static String NHRU_FILE_ATTRIB_COLUMN = "NHRU_FILE_ATTRIB_COLUMN";
+
+    /**
+     * Query hint, a {@link PRMSAnimationTemporalAggregate.Function}.  A query
+     * joined against the shapefile with a timestamp range then joins the
+     * per-HRU aggregate of every timestep in the range instead of a single
+     * timestep.
+     */
+    public final static Hints.Key TEMPORAL_AGGREGATE = new Hints.Key(PRMSAnimationTemporalAggregate.Function.class);
+
+    /** Same as {@link #TEMPORAL_AGGREGATE} as a GeoServer view parameter, e.g. <code>viewparams=aggregate:mean</code> */
+    public final static String TEMPORAL_AGGREGATE_VIEW_PARAMETER = "aggregate";
+
+    /** Cache for timesteps referenced by derived columns when timestep caching is disabled */
+    private final static long DERIVED_COLUMN_CACHE_SIZE_BYTES = 32L << 20;
      
     private final URL animationURL;
     private String shapefileNHRUAttributeName;	//not final so that it can be updated to the correct case
     
-    private final PRMSAnimationFileMetaData animationFileMetaData;
+    private volatile PRMSAnimationFileMetaData animationFileMetaData; // swapped whole when the animation file grows
+    private final long animationMappedWindowSizeBytes;
+    private final PRMSAnimationTimeStepCache animationTimeStepCache; // null if disabled
+    private final TimeStepPrefetcher animationTimeStepPrefetcher; // null if disabled
+
+    private final List<PRMSAnimationDerivedColumn> derivedColumns;
+    private final PRMSAnimationTimeStepCache derivedColumnTimeStepCache; // never null
+    private PRMSAnimationFileMetaData derivedColumnMetaData; // compiled against, guarded by this
+    private List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators;
+	
+    private PRMSAnimationJoinPlan joinPlan; // built on first join, guarded by this
 	
 	/** Combined list of attrib descriptors which is also used as a lock for building it.  Only an unmodifiable version is returned. */
 	private final List<AttributeDescriptor> attributeDescriptors = new ArrayList<AttributeDescriptor>();
 
     public PRMSAnimationShapefileDataStore(URI namespaceURI, URL prmsAnimationURL, URL shapefileURL, String shapefileNHRUAttributeName) throws MalformedURLException, IOException {
+        this(namespaceURI, prmsAnimationURL, shapefileURL, shapefileNHRUAttributeName, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, new PRMSAnimationTimeStepCache(), null, Collections.<PRMSAnimationDerivedColumn>emptyList(), new TimeStepPrefetcher());
+    }
+
+    /**
+     * @param animationTimeStepCache cache of decoded timesteps shared by all readers, may be shared
+     * with other data stores.  Pass null to disable caching.
+     * @param animationFileMetaData metadata already loaded for the animation
+     * file (e.g. kept by a directory data store while this one isn't open),
+     * null to load it.
+     * @param derivedColumns published as Float attributes after the animation
+     * file columns, skipped if the name is already taken
+     * @param animationTimeStepPrefetcher loads the timesteps after the
+     * requested one into <code>animationTimeStepCache</code> during playback,
+     * may be shared with other data stores.  Pass null to disable
+     * prefetching, ignored if caching is disabled.
+     * @throws IllegalArgumentException if a derived column references a
+     * column the animation file doesn't have
+     */
+    public PRMSAnimationShapefileDataStore(URI namespaceURI, URL prmsAnimationURL, URL shapefileURL, String shapefileNHRUAttributeName, long animationMappedWindowSizeBytes, PRMSAnimationTimeStepCache animationTimeStepCache, PRMSAnimationFileMetaData animationFileMetaData, List<PRMSAnimationDerivedColumn> derivedColumns, TimeStepPrefetcher animationTimeStepPrefetcher) throws MalformedURLException, IOException {
         super(shapefileURL, namespaceURI, true, true, ShapefileDataStore.DEFAULT_STRING_CHARSET);
         
         this.animationURL = prmsAnimationURL;
         
+        this.animationMappedWindowSizeBytes = animationMappedWindowSizeBytes;
+        
+        this.animationTimeStepCache = animationTimeStepCache;
+        
+        this.animationTimeStepPrefetcher = animationTimeStepCache == null ? null : animationTimeStepPrefetcher;
+        
+        this.derivedColumns = new ArrayList<PRMSAnimationDerivedColumn>(derivedColumns);
+        
+        this.derivedColumnTimeStepCache = animationTimeStepCache == null ?
+                new PRMSAnimationTimeStepCache(DERIVED_COLUMN_CACHE_SIZE_BYTES) :
+                animationTimeStepCache;
+        
         this.shapefileNHRUAttributeName = shapefileNHRUAttributeName;
    
-        animationFileMetaData = PRMSAnimationFileMetaData.getMetaData(prmsAnimationURL);
+        if (animationFileMetaData == null) {
+            this.animationFileMetaData = PRMSAnimationFileMetaData.getMetaData(prmsAnimationURL);
+        } else {
+            this.animationFileMetaData = PRMSAnimationFileMetaData.refresh(animationFileMetaData);
+            if (this.animationFileMetaData != animationFileMetaData) {
+                // cache may be shared with the store the metadata came from
+                derivedColumnTimeStepCache.invalidate(animationFileMetaData.getAnimationFilePath(), Math.max(0, animationFileMetaData.getTimeStepCount() - 1));
+            }
+        }
 		
 		
 		//Force reading of the attributes, which has the side-effect of normalizing
 		//the shapefileNHRUAttributeName to handle case issues.
 		this.readAttributes();
+		
+		// fail on bad expressions now rather than on the first query
+		getDerivedColumnEvaluators(this.animationFileMetaData);
     }
 
     private Set<String> shapefileAttributeNames;
@@ -114,6 +194,22 @@ public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
 					}
 				}
 
+				Set<String> animationColumnNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+				for (RecordEntryDescriptor recordEntryDescriptor : recordEntryDescriptors) {
+					animationColumnNames.add(recordEntryDescriptor.getName());
+				}
+				for (int derivedIndex = 0; derivedIndex < derivedColumns.size(); ++derivedIndex) {
+					String derivedColumnName = derivedColumns.get(derivedIndex).getName();
+					if (shapefileAttributeNames.contains(derivedColumnName) || !animationColumnNames.add(derivedColumnName)) {
+						LOGGER.log(Level.WARNING, "Derived column " + derivedColumnName + " hides an existing attribute, skipping");
+						continue;
+					}
+					atBuilder.addUserData(NHRU_FILE_ATTRIB_COLUMN, recordEntryCount + derivedIndex);
+					animationAttributeDescriptors.add(atBuilder.
+						binding(Float.class).
+						buildDescriptor(derivedColumnName));
+				}
+
 				animationAttributeNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 				for (AttributeDescriptor attributeDescriptor : animationAttributeDescriptors) {
 					animationAttributeNames.add(attributeDescriptor.getLocalName());
@@ -133,6 +229,7 @@ public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
 
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(String typeName, Query query) throws IOException {
+        PRMSAnimationFileMetaData animationFileMetaData = refreshAnimationFileMetaData();
         if (requiresShapefileAttributes(query)) {
             if (requiresAnimationAttributes(query)) {
                 // make sure join attribute is in property list if we need to join!
@@ -153,8 +250,16 @@ public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
                 boolean timeStampOnly = propertyNames.size() == 1 && ATTRIBUTE_TIMESTAMP.equals(propertyNames.get(0));
                 if (timeStampOnly) {
                     return new DefaultFeatureReader(new PRMSAnimationTimeStampAttributeReader(animationFileMetaData, subTypeSchema), subTypeSchema);
+                }
+                Integer nhru = extractTimeSeriesNHRUFromQuery(query);
+                if (nhru != null) {
+                    int timeStepRecordIndex = nhru - animationJoinValueOffset;
+                    if (timeStepRecordIndex < 0 || timeStepRecordIndex >= animationFileMetaData.getTimeStepRecordCount()) {
+                        return new EmptyFeatureReader<SimpleFeatureType, SimpleFeature>(subTypeSchema);
+                    }
+                    return new DefaultFeatureReader(new PRMSAnimationTimeSeriesAttributeReader(animationFileMetaData, subTypeSchema, nhru, timeStepRecordIndex, animationMappedWindowSizeBytes, getDerivedColumnEvaluators(animationFileMetaData)), subTypeSchema);
                 } else {
-                    return new DefaultFeatureReader(new PRMSAnimationAttributeReader(animationFileMetaData, subTypeSchema), subTypeSchema);
+                    return new DefaultFeatureReader(new PRMSAnimationAttributeReader(animationFileMetaData, subTypeSchema, animationMappedWindowSizeBytes, getDerivedColumnEvaluators(animationFileMetaData)), subTypeSchema);
                 }
             } catch (SchemaException ex) {
                 // hack
@@ -166,15 +271,178 @@ public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
     @Override
     protected ShapefileAttributeReader getAttributesReader(boolean readDBF, Query query, String[] properties) throws IOException {
         if (requiresAnimationAttributes(query)) {
-            DateTime timeStamp = extractTimeStampFromQuery(query);
-            int timeStepIndex = timeStamp != null ? animationFileMetaData.getTimeStepIndex(timeStamp) : 0;
+            PRMSAnimationFileMetaData animationFileMetaData = this.animationFileMetaData;
+            int timeStepIndex = extractTimeStepIndexFromQuery(query, animationFileMetaData);
             int joinIndex = Arrays.asList(properties).indexOf(shapefileNHRUAttributeName);
-            return new PRMSAnimationShapefileAttributeJoiningReader(super.getAttributesReader(true, query, properties), animationFileMetaData, joinIndex, animationJoinValueOffset, timeStepIndex);
+            Filter animationFilter = extractAnimationFilterFromQuery(query);
+            SimpleFeatureType animationFilterType = null;
+            if (animationFilter != null) {
+                try {
+                    animationFilterType = DataUtilities.createSubType(getSchema(), DataUtilities.attributeNames(animationFilter));
+                } catch (SchemaException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            PRMSAnimationTemporalAggregate.Function aggregateFunction = extractTemporalAggregateFromQuery(query);
+            int[] timeStepWindow = aggregateFunction == null ? null : extractTimeStepWindowFromQuery(query, animationFileMetaData);
+            List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators = getDerivedColumnEvaluators(animationFileMetaData);
+            PRMSAnimationShapefileAttributeJoiningReader.Evaluation evaluation = new PRMSAnimationShapefileAttributeJoiningReader.Evaluation(animationFilter, animationFilterType, derivedColumnEvaluators);
+            PRMSAnimationShapefileAttributeJoiningReader.ValueSource valueSource;
+            if (timeStepWindow != null) {
+                valueSource = PRMSAnimationShapefileAttributeJoiningReader.ValueSource.aggregate(timeStepWindow[0], timeStepWindow[1], aggregateFunction, animationMappedWindowSizeBytes);
+            } else if (animationTimeStepCache != null) {
+                // cached timesteps are already decoded sequentially
+                valueSource = PRMSAnimationShapefileAttributeJoiningReader.ValueSource.cached(timeStepIndex, animationTimeStepCache, animationMappedWindowSizeBytes);
+            } else {
+                valueSource = PRMSAnimationShapefileAttributeJoiningReader.ValueSource.slice(timeStepIndex, getJoinPlan(), animationMappedWindowSizeBytes);
+            }
+            PRMSAnimationShapefileAttributeJoiningReader reader = new PRMSAnimationShapefileAttributeJoiningReader(super.getAttributesReader(true, query, properties), animationFileMetaData, joinIndex, animationJoinValueOffset, valueSource, evaluation);
+            if (animationTimeStepPrefetcher != null && reader.getCachedColumnIndices() != null) {
+                prefetch(animationFileMetaData, timeStepIndex, reader.getCachedColumnIndices());
+            }
+            return reader;
         } else {
             return super.getAttributesReader(readDBF, query, properties);
         }
     }
     
+    @Override
+    public SimpleFeatureSource getFeatureSource(String typeName) throws IOException {
+        // answer aggregate visitors from metadata
+        return new PRMSAnimationFeatureSource(super.getFeatureSource(typeName), this);
+    }
+
+    /**
+     * Reads the join attribute of every shapefile record once to build the
+     * shapefile record order to timestep record index permutation.
+     */
+    public synchronized PRMSAnimationJoinPlan getJoinPlan() throws IOException {
+        if (joinPlan == null) {
+            long start = System.currentTimeMillis();
+            int[] timeStepRecordIndices = new int[1024];
+            int shapefileRecordCount = 0;
+            String typeName = getSchema().getTypeName();
+            FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = super.getFeatureReader(typeName, new Query(typeName, Filter.INCLUDE, new String[] { shapefileNHRUAttributeName }));
+            try {
+                while (featureReader.hasNext()) {
+                    Object nhru = featureReader.next().getAttribute(shapefileNHRUAttributeName);
+                    if (shapefileRecordCount == timeStepRecordIndices.length) {
+                        timeStepRecordIndices = Arrays.copyOf(timeStepRecordIndices, shapefileRecordCount << 1);
+                    }
+                    timeStepRecordIndices[shapefileRecordCount++] = nhru instanceof Number ?
+                            ((Number) nhru).intValue() - animationJoinValueOffset :
+                            -1;
+                }
+            } finally {
+                featureReader.close();
+            }
+            joinPlan = new PRMSAnimationJoinPlan(Arrays.copyOf(timeStepRecordIndices, shapefileRecordCount), animationFileMetaData.getTimeStepRecordCount());
+            LOGGER.log(Level.FINE, "built join plan for " + shapefileRecordCount + " shapefile records in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return joinPlan;
+    }
+
+    /**
+     * Derived columns compiled against <code>animationFileMetaData</code>,
+     * recompiled when the metadata is refreshed since timestep references
+     * may resolve to a newly appended timestep.
+     */
+    private synchronized List<PRMSAnimationDerivedColumn.Evaluator> getDerivedColumnEvaluators(PRMSAnimationFileMetaData animationFileMetaData) throws IOException {
+        if (derivedColumnMetaData == animationFileMetaData) {
+            return derivedColumnEvaluators;
+        }
+        List<PRMSAnimationDerivedColumn.Evaluator> evaluators = new ArrayList<PRMSAnimationDerivedColumn.Evaluator>(derivedColumns.size());
+        for (PRMSAnimationDerivedColumn derivedColumn : derivedColumns) {
+            evaluators.add(derivedColumn.compile(animationFileMetaData, derivedColumnTimeStepCache, animationMappedWindowSizeBytes));
+        }
+        if (derivedColumnMetaData == null || derivedColumnMetaData.getTimeStepCount() <= animationFileMetaData.getTimeStepCount()) {
+            // readers of older metadata recompile rather than replace the newest
+            derivedColumnMetaData = animationFileMetaData;
+            derivedColumnEvaluators = evaluators;
+        }
+        return evaluators;
+    }
+
+    public List<PRMSAnimationDerivedColumn> getDerivedColumns() {
+        return Collections.unmodifiableList(derivedColumns);
+    }
+
+    public PRMSAnimationFileMetaData getAnimationFileMetaData() {
+        return animationFileMetaData;
+    }
+
+    /**
+     * Picks up timesteps appended to the animation file since the metadata
+     * was last read, only the new tail of the file is scanned.  Readers
+     * already open keep the metadata they were opened with.
+     * @return current metadata
+     */
+    public PRMSAnimationFileMetaData refreshAnimationFileMetaData() {
+        PRMSAnimationFileMetaData current = animationFileMetaData;
+        if (!current.isStale()) {
+            return current;
+        }
+        synchronized (this) {
+            current = animationFileMetaData;
+            try {
+                PRMSAnimationFileMetaData refreshed = PRMSAnimationFileMetaData.refresh(current);
+                if (refreshed != current) {
+                    // last known timestep may have been incomplete, the
+                    // derived column cache is the timestep cache if enabled
+                    derivedColumnTimeStepCache.invalidate(current.getAnimationFilePath(), Math.max(0, current.getTimeStepCount() - 1));
+                    if (refreshed.getTimeStepRecordCount() != current.getTimeStepRecordCount()) {
+                        joinPlan = null;
+                    }
+                    animationFileMetaData = refreshed;
+                    current = refreshed;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to refresh metadata for " + animationURL + ", serving " + current.getTimeStepCount() + " known timesteps", e);
+            }
+        }
+        return current;
+    }
+
+    public PRMSAnimationTimeStepCache getTimeStepCache() {
+        return animationTimeStepCache;
+    }
+
+    public TimeStepPrefetcher getTimeStepPrefetcher() {
+        return animationTimeStepPrefetcher;
+    }
+
+    // loads the timesteps after timeStepIndex into the cache if the layer is being stepped through
+    private void prefetch(final PRMSAnimationFileMetaData animationFileMetaData, int timeStepIndex, int[] cachedColumnIndices) {
+        BitSet columns = new BitSet();
+        for (int columnIndex : cachedColumnIndices) {
+            if (columnIndex > 0) {
+                columns.set(columnIndex);
+            }
+        }
+        if (columns.isEmpty()) {
+            return;
+        }
+        final int[] columnIndices = new int[columns.cardinality()];
+        for (int columnIndex = columns.nextSetBit(0), index = 0; columnIndex > -1; columnIndex = columns.nextSetBit(columnIndex + 1)) {
+            columnIndices[index++] = columnIndex;
+        }
+        final long sizeBytes = 4L * animationFileMetaData.getTimeStepRecordCount() * columnIndices.length;
+        animationTimeStepPrefetcher.access(animationFileMetaData.getAnimationFilePath() + Arrays.toString(columnIndices), timeStepIndex, animationFileMetaData.getTimeStepCount(), new TimeStepPrefetcher.Loader() {
+            @Override
+            public long getSizeBytes(int timeStepIndex) {
+                return sizeBytes;
+            }
+
+            @Override
+            public void load(int timeStepIndex) throws IOException {
+                if (animationFileMetaData != PRMSAnimationShapefileDataStore.this.animationFileMetaData) {
+                    return; // refreshed since, the last timestep may have been incomplete
+                }
+                new PRMSAnimationCachedTimeStep(animationTimeStepCache, animationFileMetaData, timeStepIndex, columnIndices, animationMappedWindowSizeBytes);
+            }
+        });
+    }
+
     private boolean requiresShapefileAttributes(Query query) {
         return QueryUtil.requiresAttributes(query, shapefileAttributeNames);
     }
@@ -183,14 +451,159 @@ public class PRMSAnimationShapefileDataStore extends ShapefileDataStore {
         return QueryUtil.requiresAttributes(query, animationAttributeNames);
     }
     
-    private DateTime extractTimeStampFromQuery(Query query) {
+    /**
+     * Splits out the parts of the query filter that only reference animation
+     * value attributes (and the animation nhru), i.e. the filter itself or
+     * the terms of a top level And.  These can be evaluated against the
+     * joined timestep before any shapefile record is read.  Terms referencing
+     * the timestamp are left out, the timestamp selects the timestep.
+     * @return the combined terms or null if there are none
+     */
+    private Filter extractAnimationFilterFromQuery(Query query) throws IOException {
+        Filter filter = query.getFilter();
+        if (filter == null || filter == Filter.INCLUDE) {
+            return null;
+        }
+        List<Filter> terms = filter instanceof And ?
+                ((And) filter).getChildren() :
+                Collections.singletonList(filter);
+        SimpleFeatureType schema = getSchema();
+        List<Filter> animationTerms = new ArrayList<Filter>();
+        for (Filter term : terms) {
+            String[] termAttributeNames = DataUtilities.attributeNames(term);
+            boolean animationTerm = termAttributeNames.length > 0;
+            for (String termAttributeName : termAttributeNames) {
+                if (!animationAttributeNames.contains(termAttributeName) ||
+                        ATTRIBUTE_TIMESTAMP.equalsIgnoreCase(termAttributeName) ||
+                        schema.getDescriptor(termAttributeName) == null) {
+                    animationTerm = false;
+                }
+            }
+            if (animationTerm) {
+                animationTerms.add(term);
+            }
+        }
+        if (animationTerms.isEmpty()) {
+            return null;
+        }
+        return animationTerms.size() == 1 ?
+                animationTerms.get(0) :
+                CommonFactoryFinder.getFilterFactory2().and(animationTerms);
+    }
+
+    /**
+     * A query against a single nhru with no timestamp constraint (e.g. a
+     * hydrograph) is answered by reading that HRU's time series rather than
+     * scanning every record.
+     * @return the nhru or null if the query isn't a time series query
+     */
+    private Integer extractTimeSeriesNHRUFromQuery(Query query) {
+        if (!animationAttributeNames.contains(ATTRIBUTE_NHRU)) {
+            return null; // nhru filter would be against the shapefile attribute
+        }
+        Number nhru = QueryUtil.extractRequiredValueFromQueryFilter(query, ATTRIBUTE_NHRU, Number.class);
+        if (nhru == null ||
+                QueryUtil.extractValueFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class) != null ||
+                QueryUtil.extractRangeFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class) != null) {
+            return null;
+        }
+        return nhru.intValue();
+    }
+
+    /**
+     * Resolves the timestep to join against.  An equality filter picks the
+     * exact timestep or, failing that, the timestep containing that instant.
+     * A range filter (e.g. WMS TIME with tolerance) picks the timestep
+     * closest to the middle of the range.  Falls back to the nearest timestep
+     * and then to the first.
+     */
+    private int extractTimeStepIndexFromQuery(Query query, PRMSAnimationFileMetaData animationFileMetaData) {
+        TimeStepIndex temporalIndex = animationFileMetaData.getTemporalIndex();
+        int timeStepIndex = -1;
         Date timestamp = QueryUtil.extractValueFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class);
-        return timestamp == null ? null : new DateTime(timestamp);
+        if (timestamp != null) {
+            long millis = timestamp.getTime();
+            timeStepIndex = temporalIndex.exact(millis);
+            if (timeStepIndex < 0) {
+                timeStepIndex = temporalIndex.floor(millis);
+            }
+            if (timeStepIndex < 0) {
+                timeStepIndex = temporalIndex.nearest(millis);
+            }
+        } else {
+            QueryUtil.ValueRange<Date> range = QueryUtil.extractRangeFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class);
+            if (range != null) {
+                long lower = range.getLower() == null ? Long.MIN_VALUE : range.getLower().getTime();
+                long upper = range.getUpper() == null ? Long.MAX_VALUE : range.getUpper().getTime();
+                if (range.getLower() == null) {
+                    timeStepIndex = temporalIndex.floor(upper);
+                } else if (range.getUpper() == null) {
+                    timeStepIndex = temporalIndex.ceiling(lower);
+                } else {
+                    long middle = lower + (upper - lower) / 2;
+                    timeStepIndex = temporalIndex.nearest(middle, Math.max(middle - lower, upper - middle));
+                }
+                if (timeStepIndex < 0) {
+                    timeStepIndex = temporalIndex.nearest(range.getLower() == null ? upper : lower);
+                }
+            }
+        }
+        return timeStepIndex < 0 ? 0 : timeStepIndex;
     }
     
+    /**
+     * @return aggregate function from the query hints or view parameters, null if none
+     */
+    private PRMSAnimationTemporalAggregate.Function extractTemporalAggregateFromQuery(Query query) {
+        Map<?, ?> hints = query.getHints();
+        if (hints == null) {
+            return null;
+        }
+        Object aggregateFunction = hints.get(TEMPORAL_AGGREGATE);
+        if (aggregateFunction instanceof PRMSAnimationTemporalAggregate.Function) {
+            return (PRMSAnimationTemporalAggregate.Function) aggregateFunction;
+        }
+        Object viewParameters = hints.get(Hints.VIRTUAL_TABLE_PARAMETERS);
+        if (viewParameters instanceof Map) {
+            Object name = ((Map<?, ?>) viewParameters).get(TEMPORAL_AGGREGATE_VIEW_PARAMETER);
+            if (name instanceof String) {
+                return PRMSAnimationTemporalAggregate.Function.fromName((String) name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return first timestep and the timestep after the last in the
+     * timestamp range of the query, null if there's no range or no timesteps
+     * in it
+     */
+    private int[] extractTimeStepWindowFromQuery(Query query, PRMSAnimationFileMetaData animationFileMetaData) {
+        QueryUtil.ValueRange<Date> range = QueryUtil.extractRangeFromQueryFilter(query, ATTRIBUTE_TIMESTAMP, Date.class);
+        if (range == null) {
+            return null;
+        }
+        int[] timeStepIndices = animationFileMetaData.getTemporalIndex().range(
+                range.getLower() == null ? Long.MIN_VALUE : range.getLower().getTime(),
+                range.getUpper() == null ? Long.MAX_VALUE : range.getUpper().getTime());
+        if (timeStepIndices.length == 0) {
+            return null;
+        }
+        // animation files are written in time order
+        return new int[] { timeStepIndices[0], timeStepIndices[timeStepIndices.length - 1] + 1 };
+    }
+
     @Override
     protected String createFeatureTypeName() {
-        String path = animationURL.getPath();
+        return createFeatureTypeName(animationURL);
+    }
+
+    /**
+     * Type name for the data store of an animation file, known without
+     * opening the file.
+     */
+    public static String createFeatureTypeName(URL prmsAnimationURL) {
+        String path = prmsAnimationURL.getPath();
         File file = new File(path);
         String name = file.getName();
         int suffixIndex = name.lastIndexOf("animation.nhru");
@@ -1,5 +1,8 @@
 package gov.usgs.cida.geotools.datastore;
 
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
 import java.awt.RenderingHints.Key;
 import java.io.File;
 import java.io.IOException;
@@ -7,6 +10,7 @@ import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFactorySpi;
@@ -70,6 +74,24 @@ public class PRMSAnimationShapefileDataStoreFactory implements DataStoreFactoryS
                 new KVP(Param.EXT, "shp"));
     public static final Param SHAPEFILE_NHRU =
             new Param("shapefile_nhru", String.class, "Shapefile NHRU Identifying Attribute", true);
+    public static final Param MAPPED_WINDOW_SIZE =
+            new Param("mapped_window_size", Integer.class, "PRMS Animation File Memory Mapped Window Size (MiB)", false,
+                (int) (PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES >> 20),
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param TIMESTEP_CACHE_SIZE =
+            new Param("timestep_cache_size", Integer.class, "PRMS Animation Decoded Timestep Cache Size (MiB), 0 to disable", false,
+                (int) (PRMSAnimationTimeStepCache.DEFAULT_CACHE_SIZE_BYTES >> 20),
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param PREFETCH_DEPTH =
+            new Param("prefetch_depth", Integer.class, "Timesteps Loaded Ahead During Playback, 0 to disable", false,
+                TimeStepPrefetcher.DEFAULT_DEPTH,
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param PREFETCH_SIZE =
+            new Param("prefetch_size", Integer.class, "Timesteps Loaded Ahead During Playback Size (MiB)", false,
+                (int) (TimeStepPrefetcher.DEFAULT_MAXIMUM_SIZE_BYTES >> 20),
+                new KVP(Param.LEVEL, "advanced"));
+    public static final Param DERIVED_ATTRIBUTES =
+            new Param("derived_attributes", String.class, "Derived Attributes (e.g. et_ratio=actet/potet;runoff_change=runoff-runoff@1990-01-01)", false);
 
     @Override
     public Param[] getParametersInfo() {
@@ -78,6 +100,11 @@ public class PRMSAnimationShapefileDataStoreFactory implements DataStoreFactoryS
             PRMS_ANIMATION,
             SHAPEFILE,
             SHAPEFILE_NHRU,
+            MAPPED_WINDOW_SIZE,
+            TIMESTEP_CACHE_SIZE,
+            PREFETCH_DEPTH,
+            PREFETCH_SIZE,
+            DERIVED_ATTRIBUTES,
         };
     }
     
@@ -131,11 +158,53 @@ public class PRMSAnimationShapefileDataStoreFactory implements DataStoreFactoryS
     
     @Override
     public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        PRMSAnimationTimeStepCache timeStepCache = lookUpTimeStepCache(params);
         return new PRMSAnimationShapefileDataStore(
                 (URI) NAMESPACE.lookUp(params),
                 (URL) PRMS_ANIMATION.lookUp(params),
                 (URL) SHAPEFILE.lookUp(params),
-                (String) SHAPEFILE_NHRU.lookUp(params));
+                (String) SHAPEFILE_NHRU.lookUp(params),
+                lookUpMappedWindowSizeBytes(params),
+                timeStepCache,
+                null,
+                lookUpDerivedColumns(params),
+                timeStepCache == null ? null : lookUpTimeStepPrefetcher(params));
+    }
+    
+    static long lookUpMappedWindowSizeBytes(Map<String, Serializable> params) throws IOException {
+        Integer mappedWindowSize = (Integer) MAPPED_WINDOW_SIZE.lookUp(params);
+        return mappedWindowSize != null && mappedWindowSize > 0 ?
+                (long) mappedWindowSize << 20 :
+                PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES;
+    }
+
+    static PRMSAnimationTimeStepCache lookUpTimeStepCache(Map<String, Serializable> params) throws IOException {
+        Integer timeStepCacheSize = (Integer) TIMESTEP_CACHE_SIZE.lookUp(params);
+        if (timeStepCacheSize == null) {
+            return new PRMSAnimationTimeStepCache();
+        }
+        return timeStepCacheSize > 0 ?
+                new PRMSAnimationTimeStepCache((long) timeStepCacheSize << 20) :
+                null;
+    }
+
+    static TimeStepPrefetcher lookUpTimeStepPrefetcher(Map<String, Serializable> params) throws IOException {
+        Integer prefetchDepth = (Integer) PREFETCH_DEPTH.lookUp(params);
+        Integer prefetchSize = (Integer) PREFETCH_SIZE.lookUp(params);
+        if (prefetchDepth != null && prefetchDepth < 1) {
+            return null;
+        }
+        return new TimeStepPrefetcher(
+                prefetchDepth == null ? TimeStepPrefetcher.DEFAULT_DEPTH : prefetchDepth,
+                prefetchSize == null || prefetchSize < 1 ? TimeStepPrefetcher.DEFAULT_MAXIMUM_SIZE_BYTES : (long) prefetchSize << 20);
+    }
+
+    static List<PRMSAnimationDerivedColumn> lookUpDerivedColumns(Map<String, Serializable> params) throws IOException {
+        try {
+            return PRMSAnimationDerivedColumn.parse((String) DERIVED_ATTRIBUTES.lookUp(params));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
     }
 
     @Override
@@ -0,0 +1,191 @@
+package gov.usgs.cida.geotools.datastore;
+
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
+import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
+import gov.usgs.cida.prms.PRMSAnimationRecord;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTransposedFile;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.AttributeReader;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+/**
+ * Reads every timestep of a single HRU, in timestep order.  The time series
+ * is read up front from the transposed sidecar when one is current, as a
+ * single contiguous read, otherwise with one strided record read per timestep
+ * from the animation file.
+ */
+public class PRMSAnimationTimeSeriesAttributeReader implements AttributeReader {
+
+    protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.data");
+
+    private final SimpleFeatureType featureType;
+    private final PRMSAnimationFileMetaData animationFileMetaData;
+    private final int readerAttributeCount;
+    private final Integer nhru;
+
+    private int readerTimeStepIndex; // -1 before next() called
+
+    private final int[] readerAttributeToRecordEntryIndices;
+    private final float[][] timeSeries; // indexed by record entry index, then derived column
+
+    PRMSAnimationTimeSeriesAttributeReader(PRMSAnimationFileMetaData animationFileMetaData, SimpleFeatureType featureType, int nhru, int timeStepRecordIndex, long mappedWindowSizeBytes) throws IOException {
+        this(animationFileMetaData, featureType, nhru, timeStepRecordIndex, mappedWindowSizeBytes, Collections.<PRMSAnimationDerivedColumn.Evaluator>emptyList());
+    }
+
+    PRMSAnimationTimeSeriesAttributeReader(PRMSAnimationFileMetaData animationFileMetaData, SimpleFeatureType featureType, int nhru, int timeStepRecordIndex, long mappedWindowSizeBytes, List<PRMSAnimationDerivedColumn.Evaluator> derivedColumnEvaluators) throws IOException {
+        this.featureType = featureType;
+        this.animationFileMetaData = animationFileMetaData;
+        this.readerAttributeCount = featureType.getAttributeCount();
+        this.nhru = Integer.valueOf(nhru);
+        this.readerTimeStepIndex = -1;
+
+        int recordEntryCount = animationFileMetaData.getRecordEntryCount();
+        boolean[] recordEntriesRead = new boolean[recordEntryCount];
+        readerAttributeToRecordEntryIndices = new int[readerAttributeCount];
+        for (int readerAttributeIndex = 0; readerAttributeIndex < readerAttributeCount; ++readerAttributeIndex) {
+            int recordEntryIndex = PRMSAnimationAttributeReader.getRecordEntryIndex(animationFileMetaData, derivedColumnEvaluators, featureType.getDescriptor(readerAttributeIndex).getLocalName());
+            readerAttributeToRecordEntryIndices[readerAttributeIndex] = recordEntryIndex;
+            if (recordEntryIndex >= recordEntryCount) {
+                // inputs of the derived column
+                for (int inputRecordEntryIndex : derivedColumnEvaluators.get(recordEntryIndex - recordEntryCount).getColumnIndices()) {
+                    recordEntriesRead[inputRecordEntryIndex] = true;
+                }
+            } else if (recordEntryIndex > 1) {
+                recordEntriesRead[recordEntryIndex] = true;
+            }
+        }
+        int valueAttributeCount = 0;
+        for (boolean recordEntryRead : recordEntriesRead) {
+            if (recordEntryRead) {
+                ++valueAttributeCount;
+            }
+        }
+        int[] recordEntryIndices = new int[valueAttributeCount];
+        for (int recordEntryIndex = recordEntryCount - 1; recordEntryIndex > 1; --recordEntryIndex) {
+            if (recordEntriesRead[recordEntryIndex]) {
+                recordEntryIndices[--valueAttributeCount] = recordEntryIndex;
+            }
+        }
+
+        float[][] recordEntryTimeSeries = PRMSAnimationTransposedFile.isCurrent(animationFileMetaData) ?
+                readTransposed(timeStepRecordIndex, recordEntryIndices, mappedWindowSizeBytes) :
+                readStrided(timeStepRecordIndex, recordEntryIndices, mappedWindowSizeBytes);
+        timeSeries = Arrays.copyOf(recordEntryTimeSeries, recordEntryCount + derivedColumnEvaluators.size());
+        for (int recordEntryIndex : readerAttributeToRecordEntryIndices) {
+            if (recordEntryIndex >= recordEntryCount && timeSeries[recordEntryIndex] == null) {
+                timeSeries[recordEntryIndex] = evaluateTimeSeries(derivedColumnEvaluators.get(recordEntryIndex - recordEntryCount), recordEntryTimeSeries, timeStepRecordIndex);
+            }
+        }
+    }
+
+    private float[] evaluateTimeSeries(PRMSAnimationDerivedColumn.Evaluator evaluator, final float[][] recordEntryTimeSeries, int timeStepRecordIndex) {
+        final int[] timeStepIndex = new int[1];
+        PRMSAnimationDerivedColumn.ValueSource timeStepValues = new PRMSAnimationDerivedColumn.ValueSource() {
+            @Override
+            public float getValue(int columnIndex) {
+                return recordEntryTimeSeries[columnIndex][timeStepIndex[0]];
+            }
+        };
+        float[] values = new float[animationFileMetaData.getTimeStepCount()];
+        for (timeStepIndex[0] = 0; timeStepIndex[0] < values.length; ++timeStepIndex[0]) {
+            values[timeStepIndex[0]] = evaluator.evaluate(timeStepValues, timeStepRecordIndex);
+        }
+        return values;
+    }
+
+    private float[][] readTransposed(int timeStepRecordIndex, int[] recordEntryIndices, long mappedWindowSizeBytes) throws IOException {
+        PRMSAnimationTransposedFile transposedFile = null;
+        try {
+            transposedFile = new PRMSAnimationTransposedFile(animationFileMetaData);
+            return transposedFile.getTimeSeries(timeStepRecordIndex, recordEntryIndices);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read transposed file for " + animationFileMetaData.getAnimationFilePath() + ", will use animation file", e);
+        } finally {
+            if (transposedFile != null) {
+                try {
+                    transposedFile.close();
+                } catch (IOException e) {
+                    /* don't care */
+                }
+            }
+        }
+        return readStrided(timeStepRecordIndex, recordEntryIndices, mappedWindowSizeBytes);
+    }
+
+    private float[][] readStrided(int timeStepRecordIndex, int[] recordEntryIndices, long mappedWindowSizeBytes) throws IOException {
+        int timeStepCount = animationFileMetaData.getTimeStepCount();
+        int timeStepRecordCount = animationFileMetaData.getTimeStepRecordCount();
+        float[][] values = new float[animationFileMetaData.getRecordEntryCount()][];
+        for (int recordEntryIndex : recordEntryIndices) {
+            values[recordEntryIndex] = new float[timeStepCount];
+        }
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(animationFileMetaData, timeStepRecordIndex, animationFileMetaData.getRecordCount(), mappedWindowSizeBytes);
+        try {
+            for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+                PRMSAnimationRecord record = recordBuffer.getRecord(timeStepIndex * timeStepRecordCount + timeStepRecordIndex);
+                for (int recordEntryIndex : recordEntryIndices) {
+                    values[recordEntryIndex][timeStepIndex] = record.getValueAsFloat(recordEntryIndex);
+                }
+            }
+        } finally {
+            recordBuffer.close();
+        }
+        return values;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return featureType.getAttributeCount();
+    }
+
+    @Override
+    public AttributeDescriptor getAttributeType(int index) throws ArrayIndexOutOfBoundsException {
+        return featureType.getDescriptor(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // nothing to do, series was read up front...
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return (readerTimeStepIndex + 1) < animationFileMetaData.getTimeStepCount();
+    }
+
+    @Override
+    public void next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (hasNext()) {
+            ++readerTimeStepIndex;
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public Object read(int index) throws IOException, ArrayIndexOutOfBoundsException {
+        if (index < readerAttributeCount) {
+            int recordEntryIndex = readerAttributeToRecordEntryIndices[index];
+            switch (recordEntryIndex) {
+                case 0:
+                    return animationFileMetaData.getTimeStep(readerTimeStepIndex).toDate();
+                case 1:
+                    return nhru;
+                default:
+                    return Float.valueOf(timeSeries[recordEntryIndex][readerTimeStepIndex]);
+            }
+        } else {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package gov.usgs.cida.prms;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index over the time ranges of several animation files that together make
+ * up one time-continuous series (e.g. a long simulation written a decade per
+ * file).  Lookups are binary searches over the files' first and last
+ * timesteps and return the file index (position in the list the index was
+ * built from) or -1 if there's no match, the timestep within the file is
+ * then found with that file's {@link TimeStepIndex}.
+ * <p>
+ * Files without timesteps are left out.  The latest file is treated as open
+ * ended as it may still be growing.
+ */
+public class MergedTimeStepIndex {
+
+	private final int[] fileIndices;   // file index for each entry, in time order
+	private final long[] firstMillis;  // first timestep of each entry, sorted ascending
+	private final long[] lastMillis;   // latest timestep of each entry or any before it, sorted ascending
+	private final boolean overlapping;
+
+	public MergedTimeStepIndex(List<TimeStepIndex> temporalIndices) {
+		Integer[] order = new Integer[temporalIndices.size()];
+		int fileCount = 0;
+		for (int fileIndex = 0; fileIndex < order.length; ++fileIndex) {
+			if (temporalIndices.get(fileIndex).size() > 0) {
+				order[fileCount++] = fileIndex;
+			}
+		}
+		order = Arrays.copyOf(order, fileCount);
+
+		final long[] unsortedFirstMillis = new long[temporalIndices.size()];
+		for (Integer fileIndex : order) {
+			unsortedFirstMillis[fileIndex] = temporalIndices.get(fileIndex).getMinimumMillis();
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				long m1 = unsortedFirstMillis[o1];
+				long m2 = unsortedFirstMillis[o2];
+				return m1 < m2 ? -1 : (m1 == m2 ? o1.compareTo(o2) : 1);
+			}
+		});
+
+		fileIndices = new int[fileCount];
+		firstMillis = new long[fileCount];
+		lastMillis = new long[fileCount];
+		boolean overlap = false;
+		for (int sortedIndex = 0; sortedIndex < fileCount; ++sortedIndex) {
+			TimeStepIndex temporalIndex = temporalIndices.get(order[sortedIndex]);
+			fileIndices[sortedIndex] = order[sortedIndex];
+			firstMillis[sortedIndex] = temporalIndex.getMinimumMillis();
+			lastMillis[sortedIndex] = temporalIndex.getMaximumMillis();
+			if (sortedIndex > 0 && firstMillis[sortedIndex] <= lastMillis[sortedIndex - 1]) {
+				overlap = true;
+				lastMillis[sortedIndex] = Math.max(lastMillis[sortedIndex], lastMillis[sortedIndex - 1]);
+			}
+		}
+		overlapping = overlap;
+	}
+
+	/** @return number of files with timesteps */
+	public int size() {
+		return fileIndices.length;
+	}
+
+	/** @return indices of the files with timesteps in time order */
+	public int[] getFileIndices() {
+		return fileIndices.clone();
+	}
+
+	/**
+	 * @return true if the time ranges of the files overlap, lookups then
+	 * favor the file starting later
+	 */
+	public boolean isOverlapping() {
+		return overlapping;
+	}
+
+	/** @return index of the file with the latest timestep at or before <code>millis</code> */
+	public int floor(long millis) {
+		int sortedIndex = upperBound(millis) - 1;
+		return sortedIndex > -1 ? fileIndices[sortedIndex] : -1;
+	}
+
+	/** @return index of the file with the earliest timestep at or after <code>millis</code> */
+	public int ceiling(long millis) {
+		int sortedIndex = ceilingPosition(millis);
+		return sortedIndex < fileIndices.length ? fileIndices[sortedIndex] : -1;
+	}
+
+	/** @return index of the file with the timestep closest to <code>millis</code>, ties go to the earlier file */
+	public int nearest(long millis) {
+		if (fileIndices.length == 0) {
+			return -1;
+		}
+		int floorIndex = upperBound(millis) - 1;
+		if (floorIndex < 0) {
+			return fileIndices[0];
+		}
+		int ceilingIndex = floorIndex + 1;
+		if (millis <= lastMillis[floorIndex] || ceilingIndex == fileIndices.length) {
+			return fileIndices[floorIndex];
+		}
+		// in the gap between two files
+		return (millis - lastMillis[floorIndex]) <= (firstMillis[ceilingIndex] - millis) ?
+				fileIndices[floorIndex] : fileIndices[ceilingIndex];
+	}
+
+	/**
+	 * @return indices of the files with timesteps in [<code>startMillis</code>,
+	 * <code>endMillis</code>] in time order, empty if none.
+	 */
+	public int[] range(long startMillis, long endMillis) {
+		if (endMillis < startMillis) {
+			return new int[0];
+		}
+		int start = ceilingPosition(startMillis);
+		int end = upperBound(endMillis);
+		return Arrays.copyOfRange(fileIndices, start, Math.max(start, end));
+	}
+
+	// first sorted position of a file with a timestep >= millis
+	private int ceilingPosition(long millis) {
+		int low = 0;
+		int high = Math.max(0, lastMillis.length - 1); // latest file is open ended
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (lastMillis[middle] < millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// first sorted position with first timestep > millis
+	private int upperBound(long millis) {
+		int low = 0;
+		int high = firstMillis.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (firstMillis[middle] <= millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
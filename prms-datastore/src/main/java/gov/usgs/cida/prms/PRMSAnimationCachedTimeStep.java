@@ -0,0 +1,115 @@
+package gov.usgs.cida.prms;
+
+import java.io.IOException;
+import org.joda.time.DateTime;
+
+/**
+ * Record access to a single timestep backed by columns held in a
+ * {@link PRMSAnimationTimeStepCache}.  Columns passed to the constructor are
+ * loaded up front, any other column is loaded on first access.
+ */
+public class PRMSAnimationCachedTimeStep {
+
+	private final PRMSAnimationTimeStepCache cache;
+	private final PRMSAnimationFileMetaData metaData;
+	private final int timeStepIndex;
+	private final long mappedWindowSizeBytes;
+	private final DateTime timeStamp;
+
+	private int[] nhruColumn;
+	private final float[][] valueColumns;
+
+	private final Record record = new Record();
+
+	public PRMSAnimationCachedTimeStep(PRMSAnimationTimeStepCache cache, PRMSAnimationFileMetaData metaData, int timeStepIndex, int[] columnIndices, long mappedWindowSizeBytes) throws IOException {
+		this.cache = cache;
+		this.metaData = metaData;
+		this.timeStepIndex = timeStepIndex;
+		this.mappedWindowSizeBytes = mappedWindowSizeBytes;
+		this.timeStamp = metaData.getTimeStep(timeStepIndex);
+		this.valueColumns = new float[metaData.getRecordEntryCount()][];
+		for (int columnIndex : columnIndices) {
+			loadColumn(columnIndex);
+		}
+	}
+
+	private void loadColumn(int columnIndex) throws IOException {
+		if (columnIndex == 1) {
+			if (nhruColumn == null) {
+				nhruColumn = cache.getNHRUColumn(metaData, timeStepIndex, mappedWindowSizeBytes);
+			}
+		} else if (columnIndex > 1) {
+			if (valueColumns[columnIndex] == null) {
+				valueColumns[columnIndex] = cache.getValueColumn(metaData, timeStepIndex, columnIndex, mappedWindowSizeBytes);
+			}
+		}
+	}
+
+	private void loadColumnUnchecked(int columnIndex) {
+		try {
+			loadColumn(columnIndex);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to load column " + columnIndex + " for timestep " + timeStepIndex, e);
+		}
+	}
+
+	// NOTE: the returned record is reused, it's only valid until getRecord(...) is called again
+	public PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+		record.timeStepRecordIndex = timeStepRecordIndex;
+		return record;
+	}
+
+	private class Record implements PRMSAnimationRecord<Float> {
+
+		private int timeStepRecordIndex;
+
+		@Override
+		public int getIndex() {
+			return timeStepIndex * metaData.getTimeStepRecordCount() + timeStepRecordIndex;
+		}
+
+		@Override
+		public DateTime getTimeStamp() {
+			return timeStamp;
+		}
+
+		@Override
+		public long getTimeStampAsMillis() {
+			return timeStamp.getMillis();
+		}
+
+		@Override
+		public Integer getNHRU() {
+			return getNHRUAsInt();
+		}
+
+		@Override
+		public int getNHRUAsInt() {
+			if (nhruColumn == null) {
+				loadColumnUnchecked(1);
+			}
+			return nhruColumn[timeStepRecordIndex];
+		}
+
+		@Override
+		public Float getValue(int columnIndex) {
+			return getValueAsFloat(columnIndex);
+		}
+
+		@Override
+		public float getValueAsFloat(int columnIndex) {
+			if (columnIndex < 2) {
+				throw new IllegalArgumentException("Can't use this method for column indices < 2");
+			}
+			if (valueColumns[columnIndex] == null) {
+				loadColumnUnchecked(columnIndex);
+			}
+			return valueColumns[columnIndex][timeStepRecordIndex];
+		}
+
+		@Override
+		public int getColumnCount() {
+			return valueColumns.length;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package gov.usgs.cida.prms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Binary columnar sidecar for a PRMS animation file.
+ * <p>
+ * The sidecar holds one block per timestep.  Each block stores the
+ * <code>timeStepRecordCount</code> values of every column contiguously, nhru
+ * as a 32 bit int and all other columns as 32 bit floats.  The timestamp
+ * column isn't stored since it can be recovered from the metadata timestep
+ * list.  Locating a value is pointer arithmetic on the mapped timestep block
+ * instead of parsing ASCII.
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   long    animation file length (staleness check)
+ *   int     timeStepCount
+ *   int     timeStepRecordCount
+ *   int     recordEntryCount
+ *   long[]  timeStepCount block offsets
+ *   block[] timeStepCount blocks of (recordEntryCount - 1) * timeStepRecordCount values
+ * </pre>
+ */
+public class PRMSAnimationColumnarFile {
+
+	public final static String SUFFIX = ".columnar";
+
+	/** System property, set to "true" to generate sidecars when metadata is loaded */
+	public final static String GENERATE_PROPERTY = "gov.usgs.cida.prms.columnar";
+
+	private final static int MAGIC = 0x50524d43; // "PRMC"
+	private final static int VERSION = 1;
+	private final static int VALUE_SIZE_BYTES = 4;
+	private final static int FIXED_HEADER_SIZE_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+
+	public static File getColumnarFile(String animationFilePath) {
+		return new File(animationFilePath + SUFFIX);
+	}
+
+	public static boolean isGenerateEnabled() {
+		return Boolean.getBoolean(GENERATE_PROPERTY);
+	}
+
+	/**
+	 * @return true if a sidecar exists for this animation file, it was
+	 * written after the animation file was last modified and its header
+	 * matches <code>metaData</code>.  The header check catches animation
+	 * files replaced with an older modification time and metadata snapshots
+	 * older than the sidecar.
+	 */
+	public static boolean isCurrent(PRMSAnimationFileMetaData metaData) {
+		File animationFile = new File(metaData.getAnimationFilePath());
+		File columnarFile = getColumnarFile(metaData.getAnimationFilePath());
+		if (!columnarFile.exists() || columnarFile.lastModified() <= animationFile.lastModified()) {
+			return false;
+		}
+		try {
+			RandomAccessFile headerFile = new RandomAccessFile(columnarFile, "r");
+			try {
+				byte[] header = new byte[FIXED_HEADER_SIZE_BYTES];
+				headerFile.readFully(header);
+				return matches(ByteBuffer.wrap(header), metaData);
+			} finally {
+				headerFile.close();
+			}
+		} catch (IOException e) {
+			return false; // missing, truncated or being replaced
+		}
+	}
+
+	// reads the fixed header
+	private static boolean matches(ByteBuffer header, PRMSAnimationFileMetaData metaData) {
+		return header.getInt() == MAGIC &&
+				header.getInt() == VERSION &&
+				header.getLong() == metaData.getHeaderSizeBytes() + metaData.getDataSizeBytes() &&
+				header.getInt() == metaData.getTimeStepCount() &&
+				header.getInt() == metaData.getTimeStepRecordCount() &&
+				header.getInt() == metaData.getRecordEntryCount();
+	}
+
+	/**
+	 * Converts the animation file described by <code>metaData</code> into a
+	 * columnar sidecar.  The sidecar is written to a temporary file and renamed
+	 * when complete so readers never see a partial file.
+	 */
+	public static void generate(PRMSAnimationFileMetaData metaData) throws IOException {
+
+		int timeStepCount = metaData.getTimeStepCount();
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		int recordEntryCount = metaData.getRecordEntryCount();
+
+		if (timeStepRecordCount < 1 || (long) timeStepCount * timeStepRecordCount != metaData.getRecordCount()) {
+			throw new IOException("Unable to generate columnar file for " + metaData.getAnimationFilePath() + ", incomplete timesteps");
+		}
+
+		long blockSizeBytes = blockSizeBytes(recordEntryCount, timeStepRecordCount);
+		long dataOffsetBytes = FIXED_HEADER_SIZE_BYTES + (long) timeStepCount * 8;
+
+		File columnarFile = getColumnarFile(metaData.getAnimationFilePath());
+		File temporaryFile = new File(columnarFile.getPath() + ".tmp");
+
+		long start = System.currentTimeMillis();
+
+		DataOutputStream outputStream = null;
+		PRMSAnimationRecordBuffer recordBuffer = null;
+		try {
+			outputStream = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temporaryFile),
+					1 << 20));
+
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeLong(metaData.getHeaderSizeBytes() + metaData.getDataSizeBytes());
+			outputStream.writeInt(timeStepCount);
+			outputStream.writeInt(timeStepRecordCount);
+			outputStream.writeInt(recordEntryCount);
+			for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+				outputStream.writeLong(dataOffsetBytes + timeStepIndex * blockSizeBytes);
+			}
+
+			// text access only, we are generating the sidecar...
+			recordBuffer = new PRMSAnimationRecordBuffer(metaData, 0, metaData.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+
+			int[] nhruBlock = new int[timeStepRecordCount];
+			float[][] valueBlock = new float[recordEntryCount - 2][timeStepRecordCount];
+			for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+				int recordIndexOffset = timeStepIndex * timeStepRecordCount;
+				for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+					PRMSAnimationRecord record = recordBuffer.getRecord(recordIndexOffset + timeStepRecordIndex);
+					nhruBlock[timeStepRecordIndex] = record.getNHRU();
+					for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+						valueBlock[recordEntryIndex - 2][timeStepRecordIndex] = record.getValue(recordEntryIndex);
+					}
+				}
+				for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+					outputStream.writeInt(nhruBlock[timeStepRecordIndex]);
+				}
+				for (float[] values : valueBlock) {
+					for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+						outputStream.writeFloat(values[timeStepRecordIndex]);
+					}
+				}
+			}
+		} finally {
+			if (recordBuffer != null) {
+				recordBuffer.close();
+			}
+			if (outputStream != null) {
+				outputStream.close();
+			}
+		}
+
+		if (columnarFile.exists() && !columnarFile.delete()) {
+			temporaryFile.delete();
+			throw new IOException("Unable to replace " + columnarFile.getPath());
+		}
+		if (!temporaryFile.renameTo(columnarFile)) {
+			temporaryFile.delete();
+			throw new IOException("Unable to rename " + temporaryFile.getPath() + " to " + columnarFile.getPath());
+		}
+
+		float deltaSeconds = (float) (System.currentTimeMillis() - start) / (float) 1000;
+		System.out.println("generated " + columnarFile.getPath() + " in " + deltaSeconds + "s");
+	}
+
+	private static long blockSizeBytes(int recordEntryCount, int timeStepRecordCount) {
+		return (long) (recordEntryCount - 1) * timeStepRecordCount * VALUE_SIZE_BYTES;
+	}
+
+	private final PRMSAnimationFileMetaData metaData;
+	private final int timeStepRecordCount;
+	private final int recordEntryCount;
+	private final long blockSizeBytes;
+	private final long[] timeStepOffsets;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel fileChannel;
+
+	private MappedByteBuffer timeStepBuffer;
+	private int timeStepIndex;
+
+	private final PRMSAnimationColumnarRecordImpl record;
+
+	public PRMSAnimationColumnarFile(PRMSAnimationFileMetaData metaData) throws IOException {
+		this.metaData = metaData;
+		this.timeStepRecordCount = metaData.getTimeStepRecordCount();
+		this.recordEntryCount = metaData.getRecordEntryCount();
+		this.blockSizeBytes = blockSizeBytes(recordEntryCount, timeStepRecordCount);
+
+		int timeStepCount = metaData.getTimeStepCount();
+
+		randomAccessFile = new RandomAccessFile(getColumnarFile(metaData.getAnimationFilePath()), "r");
+		try {
+			fileChannel = randomAccessFile.getChannel();
+
+			MappedByteBuffer header = fileChannel.map(MapMode.READ_ONLY, 0, FIXED_HEADER_SIZE_BYTES + (long) timeStepCount * 8);
+			try {
+				if (!matches(header, metaData)) {
+					throw new IOException("Columnar file doesn't match metadata for " + metaData.getAnimationFilePath());
+				}
+				timeStepOffsets = new long[timeStepCount];
+				header.asLongBuffer().get(timeStepOffsets);
+			} finally {
+				NIOUtilities.clean(header);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+
+		timeStepIndex = -1;
+		record = new PRMSAnimationColumnarRecordImpl(timeStepRecordCount, recordEntryCount);
+	}
+
+	// NOTE: the returned record is reused, it's only valid until getRecord(...) is called again
+	public PRMSAnimationRecord getRecord(int recordIndex) throws IOException {
+		int recordTimeStepIndex = recordIndex / timeStepRecordCount;
+		return record.wrap(
+				recordIndex,
+				metaData.getTimeStep(recordTimeStepIndex),
+				mapTimeStep(recordTimeStepIndex),
+				recordIndex % timeStepRecordCount);
+	}
+
+	private ByteBuffer mapTimeStep(int timeStepIndex) throws IOException {
+		if (timeStepIndex != this.timeStepIndex) {
+			unmapTimeStep();
+			timeStepBuffer = fileChannel.map(MapMode.READ_ONLY, timeStepOffsets[timeStepIndex], blockSizeBytes);
+			this.timeStepIndex = timeStepIndex;
+		}
+		return timeStepBuffer;
+	}
+
+	private void unmapTimeStep() {
+		if (timeStepBuffer != null) {
+			NIOUtilities.clean(timeStepBuffer);
+			timeStepBuffer = null;
+			timeStepIndex = -1;
+		}
+	}
+
+	public void close() throws IOException {
+		unmapTimeStep();
+		fileChannel = null;
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package gov.usgs.cida.prms;
+
+import java.nio.ByteBuffer;
+import org.joda.time.DateTime;
+
+/**
+ * Reusable record view on a mapped timestep block of a
+ * {@link PRMSAnimationColumnarFile}, only valid until the next call to
+ * {@link #wrap(int, DateTime, ByteBuffer, int)}.
+ */
+class PRMSAnimationColumnarRecordImpl implements PRMSAnimationRecord<Float> {
+    private final int timeStepRecordCount;
+    private final int columnCount;
+
+    private int recordIndex;
+    private DateTime timeStamp;
+    private ByteBuffer timeStepBlock;
+    private int timeStepRecordIndex;
+
+    public PRMSAnimationColumnarRecordImpl(int timeStepRecordCount, int columnCount) {
+        this.timeStepRecordCount = timeStepRecordCount;
+        this.columnCount = columnCount;
+    }
+
+    PRMSAnimationColumnarRecordImpl wrap(int recordIndex, DateTime timeStamp, ByteBuffer timeStepBlock, int timeStepRecordIndex) {
+        this.recordIndex = recordIndex;
+        this.timeStamp = timeStamp;
+        this.timeStepBlock = timeStepBlock;
+        this.timeStepRecordIndex = timeStepRecordIndex;
+        return this;
+    }
+
+    @Override
+    public int getIndex() {
+        return recordIndex;
+    }
+
+    @Override
+    public DateTime getTimeStamp() {
+        return timeStamp;
+    }
+
+    @Override
+    public long getTimeStampAsMillis() {
+        return timeStamp.getMillis();
+    }
+
+    @Override
+    public Integer getNHRU() {
+        return getNHRUAsInt();
+    }
+
+    @Override
+    public int getNHRUAsInt() {
+        return timeStepBlock.getInt(timeStepRecordIndex << 2);
+    }
+
+    @Override
+    public Float getValue(int columnIndex) {
+        return getValueAsFloat(columnIndex);
+    }
+
+    @Override
+    public float getValueAsFloat(int columnIndex) {
+        if (columnIndex > 1) {
+            return timeStepBlock.getFloat(((columnIndex - 1) * timeStepRecordCount + timeStepRecordIndex) << 2);
+        } else {
+            throw new IllegalArgumentException("Can't use this method for column indices < 2");
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+}
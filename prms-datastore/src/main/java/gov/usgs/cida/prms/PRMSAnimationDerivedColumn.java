@@ -0,0 +1,462 @@
+package gov.usgs.cida.prms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Value column computed from other value columns, e.g. the ratio of actual
+ * to potential ET or the difference from a baseline timestep.  Defined as
+ * <code>name=expression</code>, expressions combine value column names and
+ * numbers with <code>+ - * /</code> and parentheses.  <code>column@date</code>
+ * references a column at the timestep at or before an ISO 8601 date (e.g.
+ * <code>runoff-runoff@1990-01-01</code>) instead of the timestep being read.
+ * <p>
+ * Expressions are compiled against an animation file into an
+ * {@link Evaluator} that works on primitive values, either a whole decoded
+ * column at a time or a single record.  Timestep references are resolved once
+ * from the {@link PRMSAnimationTimeStepCache}.
+ */
+public class PRMSAnimationDerivedColumn {
+
+	/** Separates definitions in {@link #parse(String)} */
+	public final static char DEFINITION_DELIMITER = ';';
+
+	private final static DateTimeFormatter TIMESTEP_FORMATTER = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+	/**
+	 * Whole decoded columns of the timestep being evaluated.
+	 */
+	public interface ColumnSource {
+		float[] getValueColumn(int columnIndex) throws IOException;
+	}
+
+	/**
+	 * Values of the record being evaluated.
+	 */
+	public interface ValueSource {
+		float getValue(int columnIndex);
+	}
+
+	private final String name;
+	private final String expression;
+	private final Node root; // column names unresolved
+
+	public PRMSAnimationDerivedColumn(String name, String expression) {
+		if (name == null || name.trim().length() == 0) {
+			throw new IllegalArgumentException("Derived column name is required");
+		}
+		this.name = name.trim();
+		this.expression = expression;
+		this.root = new Parser(expression).parse();
+	}
+
+	/**
+	 * @param definitions <code>name=expression</code> separated by
+	 * {@link #DEFINITION_DELIMITER}, may be null or empty
+	 */
+	public static List<PRMSAnimationDerivedColumn> parse(String definitions) {
+		if (definitions == null || definitions.trim().length() == 0) {
+			return Collections.emptyList();
+		}
+		List<PRMSAnimationDerivedColumn> derivedColumns = new ArrayList<PRMSAnimationDerivedColumn>();
+		for (String definition : definitions.split(String.valueOf(DEFINITION_DELIMITER))) {
+			if (definition.trim().length() == 0) {
+				continue;
+			}
+			int equalsIndex = definition.indexOf('=');
+			if (equalsIndex < 0) {
+				throw new IllegalArgumentException("Expected name=expression, found \"" + definition.trim() + "\"");
+			}
+			derivedColumns.add(new PRMSAnimationDerivedColumn(definition.substring(0, equalsIndex), definition.substring(equalsIndex + 1)));
+		}
+		return derivedColumns;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Resolves column names and timestep references against the animation
+	 * file, columns of referenced timesteps are read from (or into)
+	 * <code>cache</code>.
+	 * @throws IllegalArgumentException if a column or timestep doesn't exist
+	 */
+	public Evaluator compile(PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes) throws IOException {
+		List<Integer> columnIndices = new ArrayList<Integer>();
+		Node compiled = root.compile(metaData, cache, mappedWindowSizeBytes, columnIndices);
+		int[] indices = new int[columnIndices.size()];
+		for (int index = 0; index < indices.length; ++index) {
+			indices[index] = columnIndices.get(index);
+		}
+		return new Evaluator(name, compiled, metaData, cache, mappedWindowSizeBytes, indices);
+	}
+
+	@Override
+	public String toString() {
+		return name + "=" + expression;
+	}
+
+	/**
+	 * Derived column compiled against an animation file.
+	 */
+	public static class Evaluator {
+
+		private final String name;
+		private final Node root;
+		private final PRMSAnimationFileMetaData metaData;
+		private final PRMSAnimationTimeStepCache cache;
+		private final long mappedWindowSizeBytes;
+		private final int[] columnIndices;
+
+		private Evaluator(String name, Node root, PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes, int[] columnIndices) {
+			this.name = name;
+			this.root = root;
+			this.metaData = metaData;
+			this.cache = cache;
+			this.mappedWindowSizeBytes = mappedWindowSizeBytes;
+			this.columnIndices = columnIndices;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** @return value columns of the timestep being evaluated the expression references */
+		public int[] getColumnIndices() {
+			return columnIndices.clone();
+		}
+
+		/**
+		 * @return derived column for every record of a timestep, columns are
+		 * read from the timestep cache
+		 */
+		public float[] evaluate(final int timeStepIndex) throws IOException {
+			return evaluate(new ColumnSource() {
+				@Override
+				public float[] getValueColumn(int columnIndex) throws IOException {
+					return cache.getValueColumn(metaData, timeStepIndex, columnIndex, mappedWindowSizeBytes);
+				}
+			});
+		}
+
+		/**
+		 * @return derived column for every record of the timestep
+		 * <code>source</code> holds, a new array
+		 */
+		public float[] evaluate(ColumnSource source) throws IOException {
+			int timeStepRecordCount = metaData.getTimeStepRecordCount();
+			float[] values = root.evaluate(source, timeStepRecordCount);
+			// leaves may hand back column arrays that are shared
+			return root instanceof Operation ? values : Arrays.copyOf(values, timeStepRecordCount);
+		}
+
+		public float evaluate(ValueSource source, int timeStepRecordIndex) {
+			return root.evaluate(source, timeStepRecordIndex);
+		}
+	}
+
+	private static abstract class Node {
+
+		abstract Node compile(PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes, List<Integer> columnIndices) throws IOException;
+
+		// may return a shared array, never modify the result of a child
+		abstract float[] evaluate(ColumnSource source, int timeStepRecordCount) throws IOException;
+
+		abstract float evaluate(ValueSource source, int timeStepRecordIndex);
+	}
+
+	private static class Constant extends Node {
+
+		private final float value;
+		private final float[] values; // filled when compiled, shared by every evaluation
+
+		Constant(float value) {
+			this(value, null);
+		}
+
+		private Constant(float value, float[] values) {
+			this.value = value;
+			this.values = values;
+		}
+
+		@Override
+		Node compile(PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes, List<Integer> columnIndices) {
+			float[] compiledValues = new float[Math.max(metaData.getTimeStepRecordCount(), 0)];
+			Arrays.fill(compiledValues, value);
+			return new Constant(value, compiledValues);
+		}
+
+		@Override
+		float[] evaluate(ColumnSource source, int timeStepRecordCount) {
+			if (values != null && values.length == timeStepRecordCount) {
+				return values;
+			}
+			float[] filledValues = new float[timeStepRecordCount];
+			Arrays.fill(filledValues, value);
+			return filledValues;
+		}
+
+		@Override
+		float evaluate(ValueSource source, int timeStepRecordIndex) {
+			return value;
+		}
+	}
+
+	private static class Column extends Node {
+
+		private final String columnName;
+		private final Long timeStepMillis; // null for the timestep being evaluated
+		private final int columnIndex;
+		private final float[] timeStepValues; // values of the referenced timestep
+
+		Column(String columnName, Long timeStepMillis) {
+			this(columnName, timeStepMillis, -1, null);
+		}
+
+		private Column(String columnName, Long timeStepMillis, int columnIndex, float[] timeStepValues) {
+			this.columnName = columnName;
+			this.timeStepMillis = timeStepMillis;
+			this.columnIndex = columnIndex;
+			this.timeStepValues = timeStepValues;
+		}
+
+		@Override
+		Node compile(PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes, List<Integer> columnIndices) throws IOException {
+			int index = metaData.getRecordEntryIndex(columnName);
+			if (index < 2) {
+				throw new IllegalArgumentException("\"" + columnName + "\" isn't a value column of " + metaData.getAnimationFilePath());
+			}
+			if (timeStepMillis == null) {
+				if (!columnIndices.contains(index)) {
+					columnIndices.add(index);
+				}
+				return new Column(columnName, null, index, null);
+			}
+			TimeStepIndex temporalIndex = metaData.getTemporalIndex();
+			int timeStepIndex = temporalIndex.floor(timeStepMillis);
+			if (timeStepIndex < 0) {
+				timeStepIndex = temporalIndex.nearest(timeStepMillis);
+			}
+			if (timeStepIndex < 0) {
+				throw new IllegalArgumentException("No timesteps in " + metaData.getAnimationFilePath());
+			}
+			return new Column(columnName, timeStepMillis, index, cache.getValueColumn(metaData, timeStepIndex, index, mappedWindowSizeBytes));
+		}
+
+		@Override
+		float[] evaluate(ColumnSource source, int timeStepRecordCount) throws IOException {
+			return timeStepValues == null ? source.getValueColumn(columnIndex) : timeStepValues;
+		}
+
+		@Override
+		float evaluate(ValueSource source, int timeStepRecordIndex) {
+			return timeStepValues == null ? source.getValue(columnIndex) : timeStepValues[timeStepRecordIndex];
+		}
+	}
+
+	private static class Operation extends Node {
+
+		private final char operator; // one of +-*/, or 'n' for negation
+		private final Node left;
+		private final Node right; // null for negation
+
+		Operation(char operator, Node left, Node right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Node compile(PRMSAnimationFileMetaData metaData, PRMSAnimationTimeStepCache cache, long mappedWindowSizeBytes, List<Integer> columnIndices) throws IOException {
+			return new Operation(operator,
+					left.compile(metaData, cache, mappedWindowSizeBytes, columnIndices),
+					right == null ? null : right.compile(metaData, cache, mappedWindowSizeBytes, columnIndices));
+		}
+
+		@Override
+		float[] evaluate(ColumnSource source, int timeStepRecordCount) throws IOException {
+			float[] leftValues = left.evaluate(source, timeStepRecordCount);
+			float[] values = new float[timeStepRecordCount];
+			if (right == null) {
+				for (int index = 0; index < timeStepRecordCount; ++index) {
+					values[index] = -leftValues[index];
+				}
+				return values;
+			}
+			float[] rightValues = right.evaluate(source, timeStepRecordCount);
+			switch (operator) {
+				case '+':
+					for (int index = 0; index < timeStepRecordCount; ++index) {
+						values[index] = leftValues[index] + rightValues[index];
+					}
+					break;
+				case '-':
+					for (int index = 0; index < timeStepRecordCount; ++index) {
+						values[index] = leftValues[index] - rightValues[index];
+					}
+					break;
+				case '*':
+					for (int index = 0; index < timeStepRecordCount; ++index) {
+						values[index] = leftValues[index] * rightValues[index];
+					}
+					break;
+				default:
+					for (int index = 0; index < timeStepRecordCount; ++index) {
+						values[index] = leftValues[index] / rightValues[index];
+					}
+			}
+			return values;
+		}
+
+		@Override
+		float evaluate(ValueSource source, int timeStepRecordIndex) {
+			float leftValue = left.evaluate(source, timeStepRecordIndex);
+			if (right == null) {
+				return -leftValue;
+			}
+			float rightValue = right.evaluate(source, timeStepRecordIndex);
+			switch (operator) {
+				case '+':
+					return leftValue + rightValue;
+				case '-':
+					return leftValue - rightValue;
+				case '*':
+					return leftValue * rightValue;
+				default:
+					return leftValue / rightValue;
+			}
+		}
+	}
+
+	/**
+	 * Recursive descent parser:
+	 * <pre>
+	 * expression := term (('+' | '-') term)*
+	 * term       := unary (('*' | '/') unary)*
+	 * unary      := '-' unary | primary
+	 * primary    := number | column ('@' date)? | '(' expression ')'
+	 * </pre>
+	 */
+	private static class Parser {
+
+		private final String expression;
+		private int position;
+
+		Parser(String expression) {
+			this.expression = expression == null ? "" : expression;
+		}
+
+		Node parse() {
+			Node node = parseExpression();
+			skipWhitespace();
+			if (position < expression.length()) {
+				throw error("Unexpected '" + expression.charAt(position) + "'");
+			}
+			return node;
+		}
+
+		private Node parseExpression() {
+			Node node = parseTerm();
+			for (char operator = peek(); operator == '+' || operator == '-'; operator = peek()) {
+				++position;
+				node = new Operation(operator, node, parseTerm());
+			}
+			return node;
+		}
+
+		private Node parseTerm() {
+			Node node = parseUnary();
+			for (char operator = peek(); operator == '*' || operator == '/'; operator = peek()) {
+				++position;
+				node = new Operation(operator, node, parseUnary());
+			}
+			return node;
+		}
+
+		private Node parseUnary() {
+			if (peek() == '-') {
+				++position;
+				return new Operation('n', parseUnary(), null);
+			}
+			return parsePrimary();
+		}
+
+		private Node parsePrimary() {
+			char c = peek();
+			if (c == '(') {
+				++position;
+				Node node = parseExpression();
+				if (peek() != ')') {
+					throw error("Expected ')'");
+				}
+				++position;
+				return node;
+			} else if (Character.isDigit(c) || c == '.') {
+				int start = position;
+				while (position < expression.length() && isNumberPart(expression.charAt(position), position > start ? expression.charAt(position - 1) : 0)) {
+					++position;
+				}
+				try {
+					return new Constant(Float.parseFloat(expression.substring(start, position)));
+				} catch (NumberFormatException e) {
+					throw error("Invalid number \"" + expression.substring(start, position) + "\"");
+				}
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = position;
+				while (position < expression.length() && (Character.isLetterOrDigit(expression.charAt(position)) || expression.charAt(position) == '_')) {
+					++position;
+				}
+				String columnName = expression.substring(start, position);
+				Long timeStepMillis = null;
+				if (position < expression.length() && expression.charAt(position) == '@') {
+					int dateStart = ++position;
+					while (position < expression.length() && isDatePart(expression.charAt(position))) {
+						++position;
+					}
+					try {
+						timeStepMillis = TIMESTEP_FORMATTER.parseMillis(expression.substring(dateStart, position));
+					} catch (IllegalArgumentException e) {
+						throw error("Invalid date \"" + expression.substring(dateStart, position) + "\"");
+					}
+				}
+				return new Column(columnName, timeStepMillis);
+			}
+			throw error(position < expression.length() ? "Unexpected '" + c + "'" : "Unexpected end of expression");
+		}
+
+		private static boolean isNumberPart(char c, char previous) {
+			return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E' ||
+					((c == '-' || c == '+') && (previous == 'e' || previous == 'E'));
+		}
+
+		private static boolean isDatePart(char c) {
+			return Character.isDigit(c) || c == '-' || c == ':' || c == 'T' || c == 'Z' || c == '.';
+		}
+
+		// next non-whitespace character, 0 at the end
+		private char peek() {
+			skipWhitespace();
+			return position < expression.length() ? expression.charAt(position) : 0;
+		}
+
+		private void skipWhitespace() {
+			while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+				++position;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + position + " in \"" + expression + "\"");
+		}
+	}
+}
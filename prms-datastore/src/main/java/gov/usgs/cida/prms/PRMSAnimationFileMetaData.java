@@ -9,21 +9,32 @@ import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 import static gov.usgs.cida.prms.PRMSAnimationFileUtility.*;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
@@ -36,6 +47,28 @@ public class PRMSAnimationFileMetaData {
 
 	private final static XStream XSTREAM;
 
+	/** System property, number of threads used to scan animation files (defaults to available processors) */
+	public final static String SCAN_THREAD_COUNT_PROPERTY = "gov.usgs.cida.prms.metadata.threads";
+
+	/** System property, number of histogram buckets per timestep and variable (defaults to 0, no histograms) */
+	public final static String HISTOGRAM_BUCKET_COUNT_PROPERTY = "gov.usgs.cida.prms.metadata.histogram.buckets";
+
+	/** System property, milliseconds a refreshed animation file has to stop growing before its sidecars are regenerated (defaults to 60000) */
+	public final static String SIDECAR_DELAY_PROPERTY = "gov.usgs.cida.prms.sidecar.delay";
+
+	private final static long DEFAULT_SIDECAR_DELAY_MILLIS = 60000;
+
+	// pending sidecar regeneration by animation file path, at most one per file
+	private final static Map<String, ScheduledFuture<?>> SIDECAR_REGENERATIONS = new HashMap<String, ScheduledFuture<?>>();
+	private static ScheduledExecutorService sidecarExecutorService;
+
+	// chunks smaller than this aren't worth handing to another thread
+	final static int DEFAULT_SCAN_CHUNK_RECORD_COUNT = 1 << 16;
+
+	// records checked for a fixed width before the data is scanned, the scan
+	// then checks every record
+	private final static int FIXED_WIDTH_SAMPLE_COUNT = 16;
+
 	static {
 		XSTREAM = new XStream(new DomDriver());
 
@@ -49,6 +82,9 @@ public class PRMSAnimationFileMetaData {
 		XSTREAM.addImmutableType(RecordEntryDescriptor.Type.class);
         
         XSTREAM.registerConverter(new DateTimeConverter());
+
+        XStreamUtility.simpleAlias(XSTREAM, TimeStepStatistics.class);
+        XSTREAM.registerConverter(new TimeStepStatistics.TimeStepStatisticsConverter());
 	}
 
 	public static PRMSAnimationFileMetaData getMetaData(String filePath) throws IOException {
@@ -63,51 +99,177 @@ public class PRMSAnimationFileMetaData {
         }
     }
     
+	/**
+	 * Loads persisted metadata for <code>file</code>, generating it if there
+	 * is none.  Binary metadata (see {@link PRMSAnimationMetaDataFile}) is
+	 * preferred, XML metadata written by earlier versions is read as a
+	 * fallback and migrated to binary as is.  XML written before statistics
+	 * were collected migrates without them, they're collected the next time
+	 * the file is scanned.  Missing or stale sidecars are scheduled for
+	 * regeneration on a background thread, readers fall back to the animation
+	 * file until then.
+	 */
 	public static PRMSAnimationFileMetaData getMetaData(File file) throws IOException {
 
 		PRMSAnimationFileMetaData metaData = null;
+		PRMSAnimationFileMetaData staleMetaData = null;
 
-		String metaDataPath = file.getCanonicalPath() + ".xml";
-		File metaDataFile = new File(metaDataPath);
+		String canonicalPath = file.getCanonicalPath();
+		File metaDataFile = PRMSAnimationMetaDataFile.getMetaDataFile(canonicalPath);
+		File persistedFile = metaDataFile;
+		boolean migrate = false;
 
-		if(metaDataFile.exists() && metaDataFile.lastModified() > file.lastModified()) {
-			InputStream inputStream = null;
+		if(metaDataFile.exists()) {
 			try {
-				inputStream = new BufferedInputStream(
-						new FileInputStream(metaDataFile),
-						1 << 20);
-				Object o = XSTREAM.fromXML(inputStream);
-				if(o != null && o instanceof PRMSAnimationFileMetaData) {
-					metaData = (PRMSAnimationFileMetaData)o;
+				metaData = PRMSAnimationMetaDataFile.read(metaDataFile);
+			} catch (IOException e) {
+				System.out.println("Error reading " + metaDataFile.getPath() + " (" + e.getMessage() + "), will attempt to regenerate...");
+			}
+		}
+
+		if(metaData == null) {
+			File xmlMetaDataFile = new File(canonicalPath + ".xml");
+			if(xmlMetaDataFile.exists()) {
+				metaData = readXMLMetaData(xmlMetaDataFile);
+				persistedFile = xmlMetaDataFile;
+				migrate = metaData != null;
+			}
+		}
+
+		if(metaData != null && persistedFile.lastModified() <= file.lastModified()) {
+			// animation file written since, may just have been appended to
+			staleMetaData = metaData;
+			metaData = null;
+		}
+
+		if(metaData == null) {
+			metaData = new PRMSAnimationFileMetaData(file, staleMetaData);
+			writeMetaData(metaData, metaDataFile);
+		} else if (migrate) {
+			writeMetaData(metaData, metaDataFile);
+			System.out.println("migrated " + persistedFile.getPath() + " to " + metaDataFile.getPath());
+		}
+
+		scheduleSidecars(metaData);
+
+		return metaData;
+	}
+
+	private static PRMSAnimationFileMetaData readXMLMetaData(File xmlMetaDataFile) throws IOException {
+		InputStream inputStream = null;
+		try {
+			inputStream = new BufferedInputStream(
+					new FileInputStream(xmlMetaDataFile),
+					1 << 20);
+			Object o = XSTREAM.fromXML(inputStream);
+			if(o != null && o instanceof PRMSAnimationFileMetaData) {
+				return (PRMSAnimationFileMetaData)o;
+			}
+		} catch (Exception e) {
+			System.out.println("Error reading " + xmlMetaDataFile.getPath() + ", will attempt to regenerate...");
+		} finally {
+			if(inputStream != null) {
+				inputStream.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Re-reads metadata for an animation file that is still being written.
+	 * Records appended since <code>metaData</code> was generated are scanned
+	 * and merged into a new instance, the file is only rescanned from the
+	 * start if it was changed other than by appending.  <code>metaData</code>
+	 * itself is never modified so readers holding it are unaffected.  Sidecars
+	 * aren't regenerated here, that is scheduled on a background thread once
+	 * the file has stopped growing, until then readers fall back to the
+	 * animation file.
+	 * @return <code>metaData</code> if the file hasn't changed size, otherwise new metadata
+	 */
+	public static PRMSAnimationFileMetaData refresh(PRMSAnimationFileMetaData metaData) throws IOException {
+		if (!metaData.isStale()) {
+			return metaData;
+		}
+		File file = new File(metaData.getAnimationFilePath());
+		PRMSAnimationFileMetaData refreshed = new PRMSAnimationFileMetaData(file, metaData);
+		writeMetaData(refreshed, PRMSAnimationMetaDataFile.getMetaDataFile(file.getCanonicalPath()));
+		scheduleSidecars(refreshed);
+		return refreshed;
+	}
+
+	/**
+	 * Regenerates sidecars for <code>metaData</code> after the sidecar delay,
+	 * replacing any regeneration still pending for the same file.  Nothing is
+	 * generated if the file has grown again by then, the refresh that notices
+	 * the growth schedules another regeneration.
+	 */
+	private static void scheduleSidecars(final PRMSAnimationFileMetaData metaData) {
+		if (!PRMSAnimationColumnarFile.isGenerateEnabled() && !PRMSAnimationTransposedFile.isGenerateEnabled()) {
+			return;
+		}
+		final String path = metaData.getAnimationFilePath();
+		// set under the lock before the task can run, identifies its own entry
+		final ScheduledFuture<?>[] scheduled = new ScheduledFuture<?>[1];
+		Runnable regeneration = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SIDECAR_REGENERATIONS) {
+					if (SIDECAR_REGENERATIONS.get(path) == scheduled[0]) {
+						SIDECAR_REGENERATIONS.remove(path);
+					}
 				}
-			} catch (Exception e) {
-				System.out.println("Error reading " + metaDataPath + ", will attempt to regenerate...");
-			} finally {
-				if(inputStream != null) {
-					inputStream.close();
+				if (metaData.isStale()) {
+					return;
 				}
+				generateSidecars(metaData);
+				if (metaData.isStale()) {
+					// appended to while generating, the sidecars would look current
+					PRMSAnimationColumnarFile.getColumnarFile(metaData.getAnimationFilePath()).delete();
+					PRMSAnimationTransposedFile.getTransposedFile(metaData.getAnimationFilePath()).delete();
+				}
+			}
+		};
+		synchronized (SIDECAR_REGENERATIONS) {
+			if (sidecarExecutorService == null) {
+				sidecarExecutorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("prms-sidecar"));
+			}
+			// cancelled entry is replaced below
+			ScheduledFuture<?> pending = SIDECAR_REGENERATIONS.remove(path);
+			if (pending != null) {
+				pending.cancel(false);
 			}
+			scheduled[0] = sidecarExecutorService.schedule(regeneration, getSidecarDelayMillis(), TimeUnit.MILLISECONDS);
+			SIDECAR_REGENERATIONS.put(path, scheduled[0]);
 		}
+	}
 
-		if(metaData == null) {
-			metaData = new PRMSAnimationFileMetaData(file);
+	private static void writeMetaData(PRMSAnimationFileMetaData metaData, File metaDataFile) {
+		try {
+			PRMSAnimationMetaDataFile.write(metaData, metaDataFile);
+		} catch (Exception e) {
+			System.out.println("Error writing " + metaDataFile.getPath());
+		}
+	}
+
+	private static void generateSidecars(PRMSAnimationFileMetaData metaData) {
+		File file = new File(metaData.getAnimationFilePath());
 
-			OutputStream outputStream = null;
+		if (PRMSAnimationColumnarFile.isGenerateEnabled() && !PRMSAnimationColumnarFile.isCurrent(metaData)) {
 			try {
-				outputStream = new BufferedOutputStream(
-						new FileOutputStream(metaDataFile),
-						1 << 20);
-				XSTREAM.toXML(metaData, outputStream);
+				PRMSAnimationColumnarFile.generate(metaData);
 			} catch (Exception e) {
-				System.out.println("Error writing " + metaDataPath);
-			} finally {
-				if (outputStream != null) {
-					outputStream.close();
-				}
+				System.out.println("Error writing columnar file for " + file.getPath() + ", will use animation file...");
 			}
 		}
 
-		return metaData;
+		// after the columnar sidecar, transposing reads through it if present
+		if (PRMSAnimationTransposedFile.isGenerateEnabled() && !PRMSAnimationTransposedFile.isCurrent(metaData)) {
+			try {
+				PRMSAnimationTransposedFile.generate(metaData);
+			} catch (Exception e) {
+				System.out.println("Error writing transposed file for " + file.getPath() + ", will use animation file...");
+			}
+		}
 	}
 
 	private String animationFilePath;
@@ -118,11 +280,14 @@ public class PRMSAnimationFileMetaData {
 	private int headerSizeBytes;
 	private long dataSizeBytes;
 	private int recordCount; // number of records per file
-	private int recordSizeBytes;
+	private int recordSizeBytes; // 0 if records aren't fixed width
     private int timeStepCount; // number of timesteps per file
 	private int timeStepRecordCount; // number of records per timestep
 	private int timeStepSizeBytes;
     private ArrayList<DateTime> timeStepList;
+    private TimeStepStatistics timeStepStatistics;
+    private transient TimeStepIndex timeStepIndex; // built on demand, not persisted
+    private transient PRMSAnimationRecordIndex recordOffsetIndex; // null if fixed width, not persisted
     
     private Map<String, Integer> recordEntryNameToIndex = new LinkedHashMap<String, Integer>();
 
@@ -130,9 +295,135 @@ public class PRMSAnimationFileMetaData {
 
 	}
 
-	private PRMSAnimationFileMetaData(File file) throws IOException {
-		Reader r = new Reader(file);
-		r.parse();
+	/**
+	 * @param previous metadata for an earlier, shorter version of the file,
+	 * only records appended since are scanned if the file was appended to.
+	 * May be null.
+	 */
+	private PRMSAnimationFileMetaData(File file, PRMSAnimationFileMetaData previous) throws IOException {
+		this(file, getScanThreadCount(), DEFAULT_SCAN_CHUNK_RECORD_COUNT, getHistogramBucketCount(), previous);
+	}
+
+	PRMSAnimationFileMetaData(File file, int scanThreadCount, int scanChunkRecordCount) throws IOException {
+		this(file, scanThreadCount, scanChunkRecordCount, getHistogramBucketCount());
+	}
+
+	PRMSAnimationFileMetaData(File file, int scanThreadCount, int scanChunkRecordCount, int histogramBucketCount) throws IOException {
+		this(file, scanThreadCount, scanChunkRecordCount, histogramBucketCount, null);
+	}
+
+	PRMSAnimationFileMetaData(File file, int scanThreadCount, int scanChunkRecordCount, int histogramBucketCount, PRMSAnimationFileMetaData previous) throws IOException {
+		Reader r = new Reader(file, scanThreadCount, scanChunkRecordCount, histogramBucketCount);
+		r.parse(previous);
+	}
+
+	/**
+	 * @return true if the animation file length no longer matches this metadata
+	 */
+	public boolean isStale() {
+		return new File(animationFilePath).length() != headerSizeBytes + dataSizeBytes;
+	}
+
+	// binary persisted form, see PRMSAnimationMetaDataFile
+	void write(DataOutputStream outputStream) throws IOException {
+		PRMSAnimationMetaDataFile.writeString(outputStream, animationFilePath);
+		outputStream.writeInt(recordEntryCount);
+		outputStream.writeInt(endOfLineSizeBytes);
+		outputStream.writeInt(headerSizeBytes);
+		outputStream.writeLong(dataSizeBytes);
+		outputStream.writeInt(recordCount);
+		outputStream.writeInt(recordSizeBytes);
+		outputStream.writeInt(timeStepCount);
+		outputStream.writeInt(timeStepRecordCount);
+		outputStream.writeInt(timeStepSizeBytes);
+		for (RecordEntryDescriptor descriptor : recordEntryDescriptors) {
+			PRMSAnimationMetaDataFile.writeString(outputStream, descriptor.getName());
+			outputStream.writeInt(descriptor.getIndex());
+			outputStream.writeInt(descriptor.getType().ordinal());
+			outputStream.writeInt(descriptor.getOffset());
+			outputStream.writeInt(descriptor.getLength());
+			outputStream.writeBoolean(descriptor.isTrimRequired());
+		}
+		// timestamp, nhru and value ranges by type
+		outputStream.writeLong(((DateTime) recordEntryRanges.get(0).getMinimum()).getMillis());
+		outputStream.writeLong(((DateTime) recordEntryRanges.get(0).getMaximum()).getMillis());
+		outputStream.writeInt(((Number) recordEntryRanges.get(1).getMinimum()).intValue());
+		outputStream.writeInt(((Number) recordEntryRanges.get(1).getMaximum()).intValue());
+		float[] valueMinimum = new float[recordEntryCount - 2];
+		float[] valueMaximum = new float[recordEntryCount - 2];
+		for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+			valueMinimum[recordEntryIndex - 2] = ((Number) recordEntryRanges.get(recordEntryIndex).getMinimum()).floatValue();
+			valueMaximum[recordEntryIndex - 2] = ((Number) recordEntryRanges.get(recordEntryIndex).getMaximum()).floatValue();
+		}
+		PRMSAnimationMetaDataFile.writeFloats(outputStream, valueMinimum);
+		PRMSAnimationMetaDataFile.writeFloats(outputStream, valueMaximum);
+		long[] timeStepMillis = new long[timeStepList.size()];
+		for (int timeStepIndex = 0; timeStepIndex < timeStepMillis.length; ++timeStepIndex) {
+			timeStepMillis[timeStepIndex] = timeStepList.get(timeStepIndex).getMillis();
+		}
+		PRMSAnimationMetaDataFile.writeLongs(outputStream, timeStepMillis);
+		outputStream.writeBoolean(timeStepStatistics != null);
+		if (timeStepStatistics != null) {
+			timeStepStatistics.write(outputStream);
+		}
+	}
+
+	static PRMSAnimationFileMetaData read(ByteBuffer buffer) throws IOException {
+		PRMSAnimationFileMetaData metaData = new PRMSAnimationFileMetaData();
+		metaData.animationFilePath = PRMSAnimationMetaDataFile.readString(buffer);
+		metaData.recordEntryCount = buffer.getInt();
+		metaData.endOfLineSizeBytes = buffer.getInt();
+		metaData.headerSizeBytes = buffer.getInt();
+		metaData.dataSizeBytes = buffer.getLong();
+		metaData.recordCount = buffer.getInt();
+		metaData.recordSizeBytes = buffer.getInt();
+		metaData.timeStepCount = buffer.getInt();
+		metaData.timeStepRecordCount = buffer.getInt();
+		metaData.timeStepSizeBytes = buffer.getInt();
+		RecordEntryDescriptor.Type[] types = RecordEntryDescriptor.Type.values();
+		metaData.recordEntryDescriptors = new ArrayList<RecordEntryDescriptor>(metaData.recordEntryCount);
+		for (int recordEntryIndex = 0; recordEntryIndex < metaData.recordEntryCount; ++recordEntryIndex) {
+			String name = PRMSAnimationMetaDataFile.readString(buffer);
+			int index = buffer.getInt();
+			int typeOrdinal = buffer.getInt();
+			if (typeOrdinal < 0 || typeOrdinal >= types.length) {
+				throw new IOException("Unrecognized type " + typeOrdinal + " for " + name);
+			}
+			metaData.recordEntryDescriptors.add(new RecordEntryDescriptor(name, index, types[typeOrdinal], buffer.getInt(), buffer.getInt(), buffer.get() != 0));
+			metaData.recordEntryNameToIndex.put(name, recordEntryIndex);
+		}
+		metaData.recordEntryRanges = new ArrayList<RecordEntryRange>(metaData.recordEntryCount);
+		metaData.recordEntryRanges.add(new RecordEntryRange(new DateTime(buffer.getLong(), DateTimeZone.UTC)));
+		metaData.recordEntryRanges.get(0).update(new DateTime(buffer.getLong(), DateTimeZone.UTC));
+		metaData.recordEntryRanges.add(new RecordEntryRange(buffer.getInt()));
+		metaData.recordEntryRanges.get(1).update(buffer.getInt());
+		float[] valueMinimum = PRMSAnimationMetaDataFile.readFloats(buffer);
+		float[] valueMaximum = PRMSAnimationMetaDataFile.readFloats(buffer);
+		for (int valueIndex = 0; valueIndex < valueMinimum.length; ++valueIndex) {
+			metaData.recordEntryRanges.add(new RecordEntryRange(valueMinimum[valueIndex]));
+			metaData.recordEntryRanges.get(valueIndex + 2).update(valueMaximum[valueIndex]);
+		}
+		long[] timeStepMillis = PRMSAnimationMetaDataFile.readLongs(buffer);
+		metaData.timeStepList = new ArrayList<DateTime>(timeStepMillis.length);
+		for (long millis : timeStepMillis) {
+			metaData.timeStepList.add(new DateTime(millis, DateTimeZone.UTC));
+		}
+		if (buffer.get() != 0) {
+			metaData.timeStepStatistics = TimeStepStatistics.read(buffer);
+		}
+		return metaData;
+	}
+
+	static int getScanThreadCount() {
+		return Math.max(1, Integer.getInteger(SCAN_THREAD_COUNT_PROPERTY, Runtime.getRuntime().availableProcessors()));
+	}
+
+	static int getHistogramBucketCount() {
+		return Math.max(0, Integer.getInteger(HISTOGRAM_BUCKET_COUNT_PROPERTY, 0));
+	}
+
+	static long getSidecarDelayMillis() {
+		return Math.max(0, Long.getLong(SIDECAR_DELAY_PROPERTY, DEFAULT_SIDECAR_DELAY_MILLIS));
 	}
 
 	public String getAnimationFilePath() {
@@ -167,6 +458,48 @@ public class PRMSAnimationFileMetaData {
 		return recordCount;
 	}
 
+	/**
+	 * @return true if records aren't all the same width, record offsets are
+	 * looked up in a {@link PRMSAnimationRecordIndex} rather than computed
+	 */
+	public boolean isVariableWidth() {
+		return recordSizeBytes == 0;
+	}
+
+	/**
+	 * @return record offsets, built on first use if the metadata was read
+	 * from disk, null if records are fixed width
+	 */
+	public PRMSAnimationRecordIndex getRecordIndex() throws IOException {
+		if (!isVariableWidth()) {
+			return null;
+		}
+		synchronized (this) {
+			if (recordOffsetIndex == null) {
+				PRMSAnimationRecordIndex index = PRMSAnimationRecordIndex.build(animationFilePath, headerSizeBytes, dataSizeBytes, endOfLineSizeBytes, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+				if (index.getRecordCount() != recordCount) {
+					// file changed since the metadata was written, refresh will rescan
+					throw new IOException(animationFilePath + " has " + index.getRecordCount() + " records, expected " + recordCount);
+				}
+				recordOffsetIndex = index;
+			}
+			return recordOffsetIndex;
+		}
+	}
+
+	/**
+	 * @return offset of the record relative to the end of the header, the
+	 * record count gives the end of the last record
+	 */
+	long getRecordOffsetBytes(int recordIndex) throws IOException {
+		return isVariableWidth() ?
+				getRecordIndex().getRecordOffsetBytes(recordIndex) :
+				(long) recordIndex * recordSizeBytes;
+	}
+
+	/**
+	 * @return record size including the line end, 0 if records aren't fixed width
+	 */
 	public int getRecordSizeBytes() {
 		return recordSizeBytes;
 	}
@@ -186,9 +519,33 @@ public class PRMSAnimationFileMetaData {
     public List<DateTime> getTimeStepList() {
         return Collections.unmodifiableList(timeStepList);
     }
-    
+
+    public DateTime getTimeStep(int timeStepIndex) {
+        return timeStepList.get(timeStepIndex);
+    }
+
     public int getTimeStepIndex(DateTime dateTime) {
-        return timeStepList.indexOf(dateTime);
+        return getTemporalIndex().exact(dateTime);
+    }
+
+    /**
+     * @return per-timestep minimum, maximum, mean, count (and histograms if
+     * enabled when the metadata was generated) for each value column, null
+     * if the metadata was migrated from XML written before statistics were
+     * collected.
+     */
+    public TimeStepStatistics getTimeStepStatistics() {
+        return timeStepStatistics;
+    }
+
+    public TimeStepIndex getTemporalIndex() {
+        TimeStepIndex index = timeStepIndex;
+        if (index == null) {
+            // benign race, index is immutable
+            index = new TimeStepIndex(timeStepList);
+            timeStepIndex = index;
+        }
+        return index;
     }
     
     public int getRecordEntryIndex(String name) {
@@ -202,19 +559,91 @@ public class PRMSAnimationFileMetaData {
 
 	private class Reader {
 
-		private Reader(File file) throws IOException {
+		private final int scanThreadCount;
+		private final int scanChunkRecordCount;
+		private final int histogramBucketCount;
+
+		// sum of the time each chunk took to scan, used to report speedup
+		private long scanChunkMillis;
+
+		// record index of the first record of each timestep
+		private List<Integer> timeStepRecordIndices;
+
+		// set by a chunk scanner finding a record that isn't fixed width, stops the others
+		private volatile boolean misaligned;
+
+		private Reader(File file, int scanThreadCount, int scanChunkRecordCount, int histogramBucketCount) throws IOException {
 			animationFilePath = file.getPath();
+			this.scanThreadCount = scanThreadCount;
+			this.scanChunkRecordCount = scanChunkRecordCount;
+			this.histogramBucketCount = histogramBucketCount;
 		}
 
-		private void parse() throws IOException {
+		private void parse(PRMSAnimationFileMetaData previous) throws IOException {
 			long start = System.currentTimeMillis();
 			parseHeader();
-			parseData();
-			long delta = System.currentTimeMillis() - start;
-			float deltaSeconds = (float)delta / (float)1000;
-			float sizeMB = (float)(headerSizeBytes + dataSizeBytes) / (float)(1 << 20);
+			int recordIndexStart = 0;
+			if (previous != null) {
+				recordIndexStart = findAppendRecordIndex(previous);
+				if (recordIndexStart < 0) {
+					System.out.println(animationFilePath + " was rewritten, not appended to, will rescan...");
+					previous = null;
+					recordIndexStart = 0;
+				}
+			}
+			long dataStart = System.currentTimeMillis();
+			int chunkCount = parseData(recordIndexStart, previous);
+			if (chunkCount < 0) {
+				// a record wasn't the width of the first, passed the sampling
+				indexRecords();
+				previous = null;
+				recordIndexStart = 0;
+				chunkCount = parseData(recordIndexStart, previous);
+			}
+			long end = System.currentTimeMillis();
+			float deltaSeconds = (float)(end - start) / (float)1000;
+			float sizeMB = (float)(headerSizeBytes + getRecordOffsetBytes(recordCount) - getRecordOffsetBytes(recordIndexStart)) / (float)(1 << 20);
 			float rate = sizeMB / deltaSeconds;
-			System.out.println("parsed " + animationFilePath + " in " + deltaSeconds + "s (" + rate + " MiB/s)");
+			float speedup = (float)scanChunkMillis / (float)Math.max(1, end - dataStart);
+			System.out.println((recordIndexStart > 0 ? "refreshed " + animationFilePath + " from record " + recordIndexStart : "parsed " + animationFilePath) +
+					" in " + deltaSeconds + "s (" + rate + " MiB/s, " +
+					chunkCount + " chunks on " + Math.min(scanThreadCount, chunkCount) + " threads, " + speedup + "x speedup)");
+		}
+
+		/**
+		 * Checks the file is <code>previous</code>'s file with records
+		 * appended: same layout and the same timestamps where the first and
+		 * last previously known timesteps start.  The last previously known
+		 * timestep may have been incomplete so it's rescanned.
+		 * @return index of the first record to scan, -1 if the file has to be rescanned from the start
+		 */
+		private int findAppendRecordIndex(PRMSAnimationFileMetaData previous) throws IOException {
+			if (previous.timeStepStatistics == null ||
+					previous.timeStepCount < 1 ||
+					previous.headerSizeBytes != headerSizeBytes ||
+					previous.recordSizeBytes != recordSizeBytes ||
+					previous.endOfLineSizeBytes != endOfLineSizeBytes ||
+					previous.recordEntryCount != recordEntryCount ||
+					previous.recordCount > recordCount) {
+				return -1;
+			}
+			for (int recordEntryIndex = 0; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+				if (!previous.recordEntryDescriptors.get(recordEntryIndex).getName().equals(recordEntryDescriptors.get(recordEntryIndex).getName())) {
+					return -1;
+				}
+			}
+			int lastTimeStepIndex = previous.timeStepCount - 1;
+			int lastTimeStepRecordIndex = lastTimeStepIndex > 0 ? lastTimeStepIndex * previous.timeStepRecordCount : 0;
+			PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData.this, 0, recordCount, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+			try {
+				if (recordBuffer.getRecord(0).getTimeStampAsMillis() != previous.timeStepList.get(0).getMillis() ||
+						recordBuffer.getRecord(lastTimeStepRecordIndex).getTimeStampAsMillis() != previous.timeStepList.get(lastTimeStepIndex).getMillis()) {
+					return -1;
+				}
+			} finally {
+				recordBuffer.close();
+			}
+			return lastTimeStepRecordIndex;
 		}
 
 		private void parseHeader() throws IOException {
@@ -250,104 +679,506 @@ public class PRMSAnimationFileMetaData {
 			randomAccessFile.close();
 			randomAccessFile = null;
 
+			if (!PRMSAnimationRecordIndex.isFixedWidth(animationFilePath, headerSizeBytes, dataSizeBytes, recordSizeBytes, recordEntryDescriptors.toArray(new RecordEntryDescriptor[0]), FIXED_WIDTH_SAMPLE_COUNT)) {
+				indexRecords();
+			}
+
             for (int recordEntryIndex = 0; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
                 recordEntryNameToIndex.put(recordEntryDescriptors.get(recordEntryIndex).getName(), recordEntryIndex);
             }
 
 		}
 
-		private void parseData() throws IOException {
+		private void indexRecords() throws IOException {
+			recordOffsetIndex = PRMSAnimationRecordIndex.build(animationFilePath, headerSizeBytes, dataSizeBytes, endOfLineSizeBytes, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+			recordSizeBytes = 0;
+			recordCount = recordOffsetIndex.getRecordCount();
+			System.out.println(animationFilePath + " records aren't fixed width, indexed " + recordCount + " records");
+		}
 
-			PRMSAnimationRecordBuffer recordBuffer = null;
-			try {
-				recordBuffer = new PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData.this);
-				
-				MetaDataRecordHandler mdrh = new MetaDataRecordHandler();
+		/**
+		 * The data section is split into record aligned chunks that are
+		 * scanned concurrently, the per-chunk ranges and timestep boundaries
+		 * are merged in chunk order afterwards.  Fixed width records are
+		 * checked as they're scanned.
+		 * @return the number of chunks scanned, -1 if a fixed width record
+		 * wasn't terminated where the record size puts it
+		 */
+		private int parseData(int recordIndexStart, PRMSAnimationFileMetaData previous) throws IOException {
+
+			List<int[]> chunks = split(recordIndexStart, recordCount);
+
+			List<ChunkScanner> chunkScanners = new ArrayList<ChunkScanner>(chunks.size());
+			for (int[] chunk : chunks) {
+				chunkScanners.add(new ChunkScanner(chunk[0], chunk[1]));
+			}
+
+			scanChunks(chunkScanners);
 
-				mdrh.initialize(recordBuffer.getRecord(0));
-				for (int recordIndex = 1; recordIndex < recordCount; ++recordIndex) {
-					mdrh.process(recordBuffer.getRecord(recordIndex));
+			if (misaligned) {
+				misaligned = false;
+				return -1;
+			}
+
+			merge(chunkScanners, previous);
+
+			if (histogramBucketCount > 0) {
+				if (!copyHistograms(previous)) {
+					// bucket edges moved, every timestep has to be bucketed again
+					chunks = split(0, recordCount);
 				}
-				mdrh.finish(recordCount);
-			} finally {
-				if (recordBuffer != null) {
-					recordBuffer.close();
-					recordBuffer = null;
+				List<HistogramScanner> histogramScanners = new ArrayList<HistogramScanner>(chunks.size());
+				for (int[] chunk : chunks) {
+					histogramScanners.add(new HistogramScanner(chunk[0], chunk[1]));
+				}
+				scanChunks(histogramScanners);
+				for (HistogramScanner histogramScanner : histogramScanners) {
+					histogramScanner.merge();
+				}
+			}
+
+			return chunkScanners.size();
+		}
+
+		// record aligned [start, end) chunks covering the record range
+		private List<int[]> split(int recordIndexStart, int recordIndexEnd) {
+			int rangeRecordCount = recordIndexEnd - recordIndexStart;
+			int chunkCount = scanThreadCount > 1 ?
+					Math.max(1, Math.min(scanThreadCount * 4, rangeRecordCount / Math.max(1, scanChunkRecordCount))) :
+					1;
+			List<int[]> chunks = new ArrayList<int[]>(chunkCount);
+			for (int chunkIndex = 0; chunkIndex < chunkCount; ++chunkIndex) {
+				chunks.add(new int[] {
+						recordIndexStart + (int) ((long) rangeRecordCount * chunkIndex / chunkCount),
+						recordIndexStart + (int) ((long) rangeRecordCount * (chunkIndex + 1) / chunkCount)});
+			}
+			return chunks;
+		}
+
+		/**
+		 * Copies histograms of the timesteps carried over from
+		 * <code>previous</code>, possible if they were bucketed with the
+		 * same edges.
+		 * @return true if copied, only the scanned records need bucketing
+		 */
+		private boolean copyHistograms(PRMSAnimationFileMetaData previous) {
+			if (previous == null || !previous.timeStepStatistics.hasHistograms() ||
+					previous.timeStepStatistics.getHistogramBucketCount() != histogramBucketCount) {
+				return false;
+			}
+			for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+				if (Float.compare(previous.timeStepStatistics.getHistogramMinimum(recordEntryIndex), timeStepStatistics.getHistogramMinimum(recordEntryIndex)) != 0 ||
+						Float.compare(previous.timeStepStatistics.getHistogramMaximum(recordEntryIndex), timeStepStatistics.getHistogramMaximum(recordEntryIndex)) != 0) {
+					return false;
 				}
 			}
+			// the last previous timestep was rescanned
+			for (int timeStepIndex = 0; timeStepIndex < previous.timeStepCount - 1; ++timeStepIndex) {
+				for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+					int[] histogram = previous.timeStepStatistics.getHistogram(timeStepIndex, recordEntryIndex);
+					for (int bucketIndex = 0; bucketIndex < histogramBucketCount; ++bucketIndex) {
+						if (histogram[bucketIndex] > 0) {
+							timeStepStatistics.addHistogramCount(timeStepIndex, recordEntryIndex, bucketIndex, histogram[bucketIndex]);
+						}
+					}
+				}
+			}
+			return true;
 		}
 
-		private class MetaDataRecordHandler {
+		private void scanChunks(List<? extends Callable<Void>> chunkScanners) throws IOException {
+			if (chunkScanners.size() == 1) {
+				try {
+					chunkScanners.get(0).call();
+				} catch (IOException e) {
+					throw e;
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException("Error parsing " + animationFilePath, e);
+				}
+			} else {
+				ExecutorService executorService = Executors.newFixedThreadPool(Math.min(scanThreadCount, chunkScanners.size()), new DaemonThreadFactory("prms-metadata-scan"));
+				try {
+					List<Future<Void>> futures = executorService.invokeAll(chunkScanners);
+					for (Future<Void> future : futures) {
+						future.get();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while parsing " + animationFilePath, e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else {
+						throw new IOException("Error parsing " + animationFilePath, cause);
+					}
+				} finally {
+					executorService.shutdownNow();
+				}
+			}
+		}
 
-			// TimeStep tracking
-			DateTime currentTimeStep;
-            int currentTimeStepRecordCount;
+		private void merge(List<ChunkScanner> chunkScanners, PRMSAnimationFileMetaData previous) {
+
+			ChunkScanner first = chunkScanners.get(0);
+			long timeStampMinimum = first.timeStampMinimum;
+			long timeStampMaximum = first.timeStampMaximum;
+			int nhruMinimum = first.nhruMinimum;
+			int nhruMaximum = first.nhruMaximum;
+			float[] valueMinimum = first.valueMinimum.clone();
+			float[] valueMaximum = first.valueMaximum.clone();
+
+			// boundary record indices and timesteps, chunks starting mid-timestep are collapsed
+			timeStepRecordIndices = new ArrayList<Integer>();
+			timeStepList = new ArrayList<DateTime>();
+			List<ValueStatistics> timeStepValueStatistics = new ArrayList<ValueStatistics>();
+			long previousTimeStep = Long.MIN_VALUE;
+
+			if (previous != null) {
+				// carry over all but the last previous timestep, the scan started there
+				for (int timeStepIndex = 0; timeStepIndex < previous.timeStepCount - 1; ++timeStepIndex) {
+					timeStepRecordIndices.add(timeStepIndex * previous.timeStepRecordCount);
+					timeStepList.add(previous.timeStepList.get(timeStepIndex));
+					timeStepValueStatistics.add(new ValueStatistics(previous.timeStepStatistics, timeStepIndex, recordEntryCount));
+				}
+				timeStampMinimum = Math.min(timeStampMinimum, ((DateTime) previous.recordEntryRanges.get(0).getMinimum()).getMillis());
+				timeStampMaximum = Math.max(timeStampMaximum, ((DateTime) previous.recordEntryRanges.get(0).getMaximum()).getMillis());
+				nhruMinimum = Math.min(nhruMinimum, ((Number) previous.recordEntryRanges.get(1).getMinimum()).intValue());
+				nhruMaximum = Math.max(nhruMaximum, ((Number) previous.recordEntryRanges.get(1).getMaximum()).intValue());
+				for (int valueIndex = 0; valueIndex < valueMinimum.length; ++valueIndex) {
+					float previousMinimum = ((Number) previous.recordEntryRanges.get(valueIndex + 2).getMinimum()).floatValue();
+					float previousMaximum = ((Number) previous.recordEntryRanges.get(valueIndex + 2).getMaximum()).floatValue();
+					if (Float.compare(previousMinimum, valueMinimum[valueIndex]) < 0) {
+						valueMinimum[valueIndex] = previousMinimum;
+					}
+					if (Float.compare(previousMaximum, valueMaximum[valueIndex]) > 0) {
+						valueMaximum[valueIndex] = previousMaximum;
+					}
+				}
+			}
+			for (ChunkScanner chunkScanner : chunkScanners) {
+				scanChunkMillis += chunkScanner.scanMillis;
+				timeStampMinimum = Math.min(timeStampMinimum, chunkScanner.timeStampMinimum);
+				timeStampMaximum = Math.max(timeStampMaximum, chunkScanner.timeStampMaximum);
+				nhruMinimum = Math.min(nhruMinimum, chunkScanner.nhruMinimum);
+				nhruMaximum = Math.max(nhruMaximum, chunkScanner.nhruMaximum);
+				for (int valueIndex = 0; valueIndex < valueMinimum.length; ++valueIndex) {
+					if (Float.compare(chunkScanner.valueMinimum[valueIndex], valueMinimum[valueIndex]) < 0) {
+						valueMinimum[valueIndex] = chunkScanner.valueMinimum[valueIndex];
+					}
+					if (Float.compare(chunkScanner.valueMaximum[valueIndex], valueMaximum[valueIndex]) > 0) {
+						valueMaximum[valueIndex] = chunkScanner.valueMaximum[valueIndex];
+					}
+				}
+				int boundaryCount = chunkScanner.timeStepRecordIndices.size();
+				for (int boundaryIndex = 0; boundaryIndex < boundaryCount; ++boundaryIndex) {
+					long timeStep = chunkScanner.timeSteps.get(boundaryIndex);
+					ValueStatistics valueStatistics = chunkScanner.timeStepValueStatistics.get(boundaryIndex);
+					if (timeStepList.isEmpty() || timeStep != previousTimeStep) {
+						timeStepRecordIndices.add(chunkScanner.timeStepRecordIndices.get(boundaryIndex));
+						timeStepList.add(new DateTime(timeStep, DateTimeZone.UTC));
+						timeStepValueStatistics.add(valueStatistics);
+					} else {
+						timeStepValueStatistics.get(timeStepValueStatistics.size() - 1).merge(valueStatistics);
+					}
+					previousTimeStep = timeStep;
+				}
+			}
 
-			public MetaDataRecordHandler() {
-                timeStepCount = 1;
+			timeStepCount = timeStepList.size();
+			if (timeStepCount > 1) {
+				// record count of the last complete timestep
+				timeStepRecordCount = timeStepRecordIndices.get(timeStepCount - 1) - timeStepRecordIndices.get(timeStepCount - 2);
+				timeStepSizeBytes = timeStepRecordCount * recordSizeBytes;
+			} else {
 				timeStepRecordCount = -1;
-                timeStepList = new ArrayList<DateTime>();
 			}
 
-			public void initialize(PRMSAnimationRecord record) {
+			recordEntryRanges.add(new RecordEntryRange(new DateTime(timeStampMinimum, DateTimeZone.UTC)));
+			recordEntryRanges.get(0).update(new DateTime(timeStampMaximum, DateTimeZone.UTC));
+			recordEntryRanges.add(new RecordEntryRange(nhruMinimum));
+			recordEntryRanges.get(1).update(nhruMaximum);
+			for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+				recordEntryRanges.add(new RecordEntryRange(valueMinimum[recordEntryIndex - 2]));
+				recordEntryRanges.get(recordEntryIndex).update(valueMaximum[recordEntryIndex - 2]);
+			}
 
-				currentTimeStep = record.getTimeStamp();
-                currentTimeStepRecordCount = 0;
-                timeStepList.add(currentTimeStep);
+			timeStepStatistics = new TimeStepStatistics(timeStepCount, recordEntryCount);
+			for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+				ValueStatistics valueStatistics = timeStepValueStatistics.get(timeStepIndex);
+				for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+					int valueIndex = recordEntryIndex - 2;
+					timeStepStatistics.set(timeStepIndex, recordEntryIndex,
+							valueStatistics.minimum[valueIndex],
+							valueStatistics.maximum[valueIndex],
+							valueStatistics.sum[valueIndex],
+							valueStatistics.count[valueIndex]);
+				}
+			}
+			if (histogramBucketCount > 0) {
+				// buckets span the range of the whole file, NaN (if present) can't be a bucket edge
+				float[] histogramMinimum = new float[recordEntryCount - 2];
+				float[] histogramMaximum = new float[recordEntryCount - 2];
+				Arrays.fill(histogramMinimum, Float.POSITIVE_INFINITY);
+				Arrays.fill(histogramMaximum, Float.NEGATIVE_INFINITY);
+				for (ValueStatistics valueStatistics : timeStepValueStatistics) {
+					for (int valueIndex = 0; valueIndex < histogramMinimum.length; ++valueIndex) {
+						if (valueStatistics.count[valueIndex] > 0) {
+							histogramMinimum[valueIndex] = Math.min(histogramMinimum[valueIndex], valueStatistics.minimum[valueIndex]);
+							histogramMaximum[valueIndex] = Math.max(histogramMaximum[valueIndex], valueStatistics.maximum[valueIndex]);
+						}
+					}
+				}
+				timeStepStatistics.initializeHistograms(histogramBucketCount, histogramMinimum, histogramMaximum);
+			}
+		}
+
+		private class ChunkScanner implements Callable<Void> {
+
+			final int recordIndexStart;
+			final int recordIndexEnd;
+
+			long timeStampMinimum = Long.MAX_VALUE;
+			long timeStampMaximum = Long.MIN_VALUE;
+			int nhruMinimum = Integer.MAX_VALUE;
+			int nhruMaximum = Integer.MIN_VALUE;
+			final float[] valueMinimum;
+			final float[] valueMaximum;
 
-				initializeRanges(record);
+			// record index and timestamp of the first record of each timestep seen in this chunk
+			final List<Integer> timeStepRecordIndices = new ArrayList<Integer>();
+			final List<Long> timeSteps = new ArrayList<Long>();
+			final List<ValueStatistics> timeStepValueStatistics = new ArrayList<ValueStatistics>();
 
+			long scanMillis;
+
+			ChunkScanner(int recordIndexStart, int recordIndexEnd) {
+				this.recordIndexStart = recordIndexStart;
+				this.recordIndexEnd = recordIndexEnd;
+				valueMinimum = new float[recordEntryCount - 2];
+				valueMaximum = new float[recordEntryCount - 2];
+				Arrays.fill(valueMinimum, Float.POSITIVE_INFINITY);
+				Arrays.fill(valueMaximum, Float.NEGATIVE_INFINITY);
 			}
 
-			public void process(PRMSAnimationRecord record) {
+			@Override
+			public Void call() throws IOException {
+				long start = System.currentTimeMillis();
+				PRMSAnimationRecordBuffer recordBuffer = null;
+				try {
+					// always parse the animation file, sidecars may be stale
+					recordBuffer = new PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData.this, recordIndexStart, recordIndexEnd, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+
+					long currentTimeStep = 0;
+					ValueStatistics currentValueStatistics = null;
+					for (int recordIndex = recordIndexStart; recordIndex < recordIndexEnd; ++recordIndex) {
+						if (!recordBuffer.isLineEndAligned(recordIndex)) {
+							misaligned = true;
+						}
+						if (misaligned) {
+							break;
+						}
+						PRMSAnimationRecord record = recordBuffer.getRecord(recordIndex);
+
+						long timeStep = record.getTimeStampAsMillis();
+						if (recordIndex == recordIndexStart || timeStep != currentTimeStep) {
+							timeStepRecordIndices.add(recordIndex);
+							timeSteps.add(timeStep);
+							currentTimeStep = timeStep;
+							currentValueStatistics = new ValueStatistics(recordEntryCount - 2);
+							timeStepValueStatistics.add(currentValueStatistics);
+						}
+						if (timeStep < timeStampMinimum) {
+							timeStampMinimum = timeStep;
+						}
+						if (timeStep > timeStampMaximum) {
+							timeStampMaximum = timeStep;
+						}
+
+						int nhru = record.getNHRUAsInt();
+						if (nhru < nhruMinimum) {
+							nhruMinimum = nhru;
+						}
+						if (nhru > nhruMaximum) {
+							nhruMaximum = nhru;
+						}
+
+						for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+							float value = record.getValueAsFloat(recordEntryIndex);
+							int valueIndex = recordEntryIndex - 2;
+							if (Float.compare(value, valueMinimum[valueIndex]) < 0) {
+								valueMinimum[valueIndex] = value;
+							}
+							if (Float.compare(value, valueMaximum[valueIndex]) > 0) {
+								valueMaximum[valueIndex] = value;
+							}
+							currentValueStatistics.add(valueIndex, value);
+						}
+					}
+				} finally {
+					if (recordBuffer != null) {
+						recordBuffer.close();
+						recordBuffer = null;
+					}
+				}
+				scanMillis = System.currentTimeMillis() - start;
+				return null;
+			}
+		}
+
+		// second pass, bucket edges aren't known until the first pass completes
+		private class HistogramScanner implements Callable<Void> {
 
-				DateTime recordTimeStep = record.getTimeStamp();
+			final int recordIndexStart;
+			final int recordIndexEnd;
 
-                updateRangesFromRecord(record);
-                
-				if (!recordTimeStep.equals(currentTimeStep)) {
-                    timeStepList.add(recordTimeStep);
-                    if (currentTimeStep == null) {
-                        if (currentTimeStepRecordCount != timeStepRecordCount) {
-                            throw new IllegalStateException(
-                                    "timestep record mismatch, expected " + timeStepRecordCount +
-                                    " but found " + currentTimeStepRecordCount +
-                                    " for " + currentTimeStep.toString());
-                        }
-                    } else {
-                        timeStepRecordCount = currentTimeStepRecordCount;
-                        timeStepSizeBytes = currentTimeStepRecordCount * recordSizeBytes;
-                    }
-                    ++timeStepCount;
-                    currentTimeStepRecordCount = 0;
+			int timeStepIndexStart;
+			// [((timeStepIndex - timeStepIndexStart) * valueCount + valueIndex) * histogramBucketCount + bucketIndex]
+			int[] histogram;
+
+			HistogramScanner(int recordIndexStart, int recordIndexEnd) {
+				this.recordIndexStart = recordIndexStart;
+				this.recordIndexEnd = recordIndexEnd;
+			}
+
+			@Override
+			public Void call() throws IOException {
+				int valueCount = recordEntryCount - 2;
+				int timeStepIndex = timeStepIndexOf(recordIndexStart);
+				int timeStepIndexEnd = timeStepIndexOf(recordIndexEnd - 1);
+				timeStepIndexStart = timeStepIndex;
+				histogram = new int[(timeStepIndexEnd - timeStepIndexStart + 1) * valueCount * histogramBucketCount];
+
+				float[] histogramMinimum = new float[valueCount];
+				float[] histogramMaximum = new float[valueCount];
+				for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+					histogramMinimum[recordEntryIndex - 2] = timeStepStatistics.getHistogramMinimum(recordEntryIndex);
+					histogramMaximum[recordEntryIndex - 2] = timeStepStatistics.getHistogramMaximum(recordEntryIndex);
 				}
-                ++currentTimeStepRecordCount;
-                currentTimeStep = recordTimeStep;
+
+				PRMSAnimationRecordBuffer recordBuffer = null;
+				try {
+					recordBuffer = new PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData.this, recordIndexStart, recordIndexEnd, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+					int nextTimeStepRecordIndex = timeStepIndex + 1 < timeStepCount ? timeStepRecordIndices.get(timeStepIndex + 1) : Integer.MAX_VALUE;
+					for (int recordIndex = recordIndexStart; recordIndex < recordIndexEnd; ++recordIndex) {
+						while (recordIndex >= nextTimeStepRecordIndex) {
+							++timeStepIndex;
+							nextTimeStepRecordIndex = timeStepIndex + 1 < timeStepCount ? timeStepRecordIndices.get(timeStepIndex + 1) : Integer.MAX_VALUE;
+						}
+						PRMSAnimationRecord record = recordBuffer.getRecord(recordIndex);
+						int offset = (timeStepIndex - timeStepIndexStart) * valueCount;
+						for (int valueIndex = 0; valueIndex < valueCount; ++valueIndex) {
+							int bucket = TimeStepStatistics.bucket(histogramBucketCount, histogramMinimum[valueIndex], histogramMaximum[valueIndex], record.getValueAsFloat(valueIndex + 2));
+							if (bucket > -1) {
+								++histogram[(offset + valueIndex) * histogramBucketCount + bucket];
+							}
+						}
+					}
+				} finally {
+					if (recordBuffer != null) {
+						recordBuffer.close();
+						recordBuffer = null;
+					}
+				}
+				return null;
 			}
 
-			public void finish(int recordIndex) {
+			void merge() {
+				int valueCount = recordEntryCount - 2;
+				int timeStepSpan = histogram.length / (valueCount * histogramBucketCount);
+				for (int timeStepOffset = 0; timeStepOffset < timeStepSpan; ++timeStepOffset) {
+					for (int valueIndex = 0; valueIndex < valueCount; ++valueIndex) {
+						int offset = ((timeStepOffset * valueCount) + valueIndex) * histogramBucketCount;
+						for (int bucketIndex = 0; bucketIndex < histogramBucketCount; ++bucketIndex) {
+							if (histogram[offset + bucketIndex] > 0) {
+								timeStepStatistics.addHistogramCount(timeStepIndexStart + timeStepOffset, valueIndex + 2, bucketIndex, histogram[offset + bucketIndex]);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// timestep containing the record
+		private int timeStepIndexOf(int recordIndex) {
+			int timeStepIndex = Collections.binarySearch(timeStepRecordIndices, recordIndex);
+			return timeStepIndex > -1 ? timeStepIndex : -(timeStepIndex + 1) - 1;
+		}
+	}
+
+	// running per-timestep minimum, maximum, sum and count of non-NaN values for each value column
+	private static class ValueStatistics {
+
+		final float[] minimum;
+		final float[] maximum;
+		final double[] sum;
+		final int[] count;
+
+		ValueStatistics(int valueCount) {
+			minimum = new float[valueCount];
+			maximum = new float[valueCount];
+			sum = new double[valueCount];
+			count = new int[valueCount];
+			Arrays.fill(minimum, Float.POSITIVE_INFINITY);
+			Arrays.fill(maximum, Float.NEGATIVE_INFINITY);
+		}
 
+		// restored from persisted statistics, the sum is recovered from the mean
+		ValueStatistics(TimeStepStatistics timeStepStatistics, int timeStepIndex, int recordEntryCount) {
+			this(recordEntryCount - 2);
+			for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+				int valueIndex = recordEntryIndex - 2;
+				count[valueIndex] = timeStepStatistics.getCount(timeStepIndex, recordEntryIndex);
+				if (count[valueIndex] > 0) {
+					minimum[valueIndex] = timeStepStatistics.getMinimum(timeStepIndex, recordEntryIndex);
+					maximum[valueIndex] = timeStepStatistics.getMaximum(timeStepIndex, recordEntryIndex);
+					sum[valueIndex] = (double) timeStepStatistics.getMean(timeStepIndex, recordEntryIndex) * count[valueIndex];
+				}
 			}
+		}
 
-			private void initializeRanges(PRMSAnimationRecord record) {
-                recordEntryRanges.add(new RecordEntryRange(record.getTimeStamp()));
-                recordEntryRanges.add(new RecordEntryRange(record.getNHRU()));
-                for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
-                    recordEntryRanges.add(new RecordEntryRange(record.getValue(recordEntryIndex)));
-                }
+		void add(int valueIndex, float value) {
+			if (value == value) { // !NaN
+				if (value < minimum[valueIndex]) {
+					minimum[valueIndex] = value;
+				}
+				if (value > maximum[valueIndex]) {
+					maximum[valueIndex] = value;
+				}
+				sum[valueIndex] += value;
+				++count[valueIndex];
 			}
+		}
 
-			private void updateRangesFromRecord(PRMSAnimationRecord record) {
-                recordEntryRanges.get(0).update(record.getTimeStamp());
-                recordEntryRanges.get(1).update(record.getNHRU());
-                for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
-                    recordEntryRanges.get(recordEntryIndex).update(record.getValue(recordEntryIndex));
-                }
+		void merge(ValueStatistics other) {
+			for (int valueIndex = 0; valueIndex < count.length; ++valueIndex) {
+				minimum[valueIndex] = Math.min(minimum[valueIndex], other.minimum[valueIndex]);
+				maximum[valueIndex] = Math.max(maximum[valueIndex], other.maximum[valueIndex]);
+				sum[valueIndex] += other.sum[valueIndex];
+				count[valueIndex] += other.count[valueIndex];
 			}
 		}
 	}
 
-    private final static DateTimeFormatter formatter = ISODateTimeFormat.dateTime();
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+    // UTC like scanned and binary metadata
+    private final static DateTimeFormatter formatter = ISODateTimeFormat.dateTime().withZoneUTC();
     
     public static class DateTimeConverter implements Converter {
 
@@ -1,5 +1,6 @@
 package gov.usgs.cida.prms;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.joda.time.DateTime;
@@ -93,4 +94,202 @@ public class PRMSAnimationFileUtility {
 		return Float.parseFloat(quickExtractRecordAsString(recordBuffer, descriptor));
 	}
 
+	// Allocation free ASCII parsing direct from (mapped) byte buffers.  These
+	// handle the fixed-format fields PRMS writes and fall back to the JDK/Joda
+	// parsers (which allocate) for anything unexpected.
+
+	private final static double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+		1e21, 1e22
+	};
+
+	// decimal significands up to this many digits are exact as double, scaling
+	// by an exact power of ten (see POWERS_OF_TEN) then rounds once to double
+	private final static int FAST_FLOAT_DIGITS = 9;
+
+	// low double significand bits dropped when narrowing to float, a double
+	// with exactly the half-way pattern may have been rounded onto a float
+	// midpoint and so may narrow the wrong way
+	private final static long FLOAT_DROPPED_BITS_MASK = (1L << 29) - 1;
+	private final static long FLOAT_MIDPOINT_BITS = 1L << 28;
+
+	private final static int TIMESTAMP_LENGTH = DATE_FORMAT.length();
+
+	public static int quickExtractRecordAsInt(RecordEntryDescriptor descriptor, ByteBuffer recordBuffer, int recordOffset) {
+		return quickParseInt(recordBuffer, recordOffset + descriptor.getOffset(), descriptor.getLength());
+	}
+
+	public static float quickExtractRecordAsFloat(RecordEntryDescriptor descriptor, ByteBuffer recordBuffer, int recordOffset) {
+		return quickParseFloat(recordBuffer, recordOffset + descriptor.getOffset(), descriptor.getLength());
+	}
+
+	public static long quickExtractRecordAsMillis(RecordEntryDescriptor descriptor, ByteBuffer recordBuffer, int recordOffset) {
+		return quickParseTimeStampMillis(recordBuffer, recordOffset + descriptor.getOffset(), descriptor.getLength());
+	}
+
+	public static int quickParseInt(ByteBuffer buffer, int offset, int length) {
+		int index = offset;
+		int end = offset + length;
+		while (index < end && buffer.get(index) == ' ') {
+			++index;
+		}
+		boolean negative = false;
+		if (index < end) {
+			byte sign = buffer.get(index);
+			if (sign == '-' || sign == '+') {
+				negative = sign == '-';
+				++index;
+			}
+		}
+		int digitStart = index;
+		long value = 0;
+		while (index < end && index - digitStart < 10) {
+			int digit = buffer.get(index) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			++index;
+		}
+		if (index == end && index > digitStart) {
+			value = negative ? -value : value;
+			if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+				return (int) value;
+			}
+		}
+		return Integer.parseInt(extractString(buffer, offset, length).trim());
+	}
+
+	public static float quickParseFloat(ByteBuffer buffer, int offset, int length) {
+		int index = offset;
+		int end = offset + length;
+		while (index < end && buffer.get(index) == ' ') {
+			++index;
+		}
+		boolean negative = false;
+		if (index < end) {
+			byte sign = buffer.get(index);
+			if (sign == '-' || sign == '+') {
+				negative = sign == '-';
+				++index;
+			}
+		}
+		long significand = 0;
+		int significandDigits = 0;
+		int exponent = 0;
+		boolean digits = false;
+		int digit;
+		while (index < end && (digit = buffer.get(index) - '0') >= 0 && digit <= 9) {
+			significand = significand * 10 + digit;
+			if (significand > 0) {
+				++significandDigits;
+			}
+			digits = true;
+			++index;
+		}
+		if (index < end && buffer.get(index) == '.') {
+			++index;
+			while (index < end && (digit = buffer.get(index) - '0') >= 0 && digit <= 9) {
+				significand = significand * 10 + digit;
+				if (significand > 0) {
+					++significandDigits;
+				}
+				--exponent;
+				digits = true;
+				++index;
+			}
+		}
+		if (digits && index < end && (buffer.get(index) == 'e' || buffer.get(index) == 'E')) {
+			++index;
+			boolean exponentNegative = false;
+			if (index < end) {
+				byte sign = buffer.get(index);
+				if (sign == '-' || sign == '+') {
+					exponentNegative = sign == '-';
+					++index;
+				}
+			}
+			int exponentStart = index;
+			int explicitExponent = 0;
+			while (index < end && index - exponentStart < 4 && (digit = buffer.get(index) - '0') >= 0 && digit <= 9) {
+				explicitExponent = explicitExponent * 10 + digit;
+				++index;
+			}
+			if (index == exponentStart) {
+				digits = false;
+			}
+			exponent += exponentNegative ? -explicitExponent : explicitExponent;
+		}
+		if (digits && index == end && significandDigits <= FAST_FLOAT_DIGITS) {
+			if (significand == 0) {
+				return negative ? -0f : 0f;
+			}
+			if (exponent >= -22 && exponent <= 22) {
+				double value = exponent < 0 ?
+						significand / POWERS_OF_TEN[-exponent] :
+						significand * POWERS_OF_TEN[exponent];
+				// value is the correctly rounded double, unless it sits on a
+				// float midpoint the decimal is on the same side of that
+				// midpoint and narrowing rounds it the same as Float.parseFloat
+				if ((Double.doubleToRawLongBits(value) & FLOAT_DROPPED_BITS_MASK) != FLOAT_MIDPOINT_BITS) {
+					return (float) (negative ? -value : value);
+				}
+			}
+		}
+		return Float.parseFloat(extractString(buffer, offset, length));
+	}
+
+	public static long quickParseTimeStampMillis(ByteBuffer buffer, int offset, int length) {
+		// yyyy-MM-dd:HH:mm:ss
+		if (length == TIMESTAMP_LENGTH) {
+			int year = quickParseDigits(buffer, offset, 4);
+			int month = quickParseDigits(buffer, offset + 5, 2);
+			int day = quickParseDigits(buffer, offset + 8, 2);
+			int hour = quickParseDigits(buffer, offset + 11, 2);
+			int minute = quickParseDigits(buffer, offset + 14, 2);
+			int second = quickParseDigits(buffer, offset + 17, 2);
+			if ((year | month | day | hour | minute | second) >= 0 &&
+					month >= 1 && month <= 12 && day >= 1 && day <= 31 &&
+					hour < 24 && minute < 60 && second < 60 &&
+					buffer.get(offset + 4) == '-' && buffer.get(offset + 7) == '-' &&
+					buffer.get(offset + 10) == ':' && buffer.get(offset + 13) == ':' &&
+					buffer.get(offset + 16) == ':') {
+				return ((daysFromCivil(year, month, day) * 24L + hour) * 60L + minute) * 60000L + second * 1000L;
+			}
+		}
+		return dateTimeFormatter.parseMillis(extractString(buffer, offset, length));
+	}
+
+	// -1 if any byte isn't a digit
+	private static int quickParseDigits(ByteBuffer buffer, int offset, int length) {
+		int value = 0;
+		for (int index = offset, end = offset + length; index < end; ++index) {
+			int digit = buffer.get(index) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	// days since 1970-01-01 in the proleptic Gregorian calendar (ISOChronology)
+	private static long daysFromCivil(int year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static String extractString(ByteBuffer buffer, int offset, int length) {
+		char[] chars = new char[length];
+		for (int index = 0; index < length; ++index) {
+			chars[index] = (char) (buffer.get(offset + index) & 255);
+		}
+		return new String(chars);
+	}
+
 }
@@ -0,0 +1,152 @@
+package gov.usgs.cida.prms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Binary persisted form of {@link PRMSAnimationFileMetaData}, replacing the
+ * XStream XML file.
+ * <p>
+ * Timesteps are stored as epoch milliseconds and ranges and statistics as
+ * primitive arrays, so loading is a memory mapped read with bulk array copies
+ * instead of building a DOM and parsing one ISO timestamp per timestep.
+ * Values are big-endian.
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   ...     metadata fields, see PRMSAnimationFileMetaData.write(...)
+ * </pre>
+ * Arrays and strings are written with a leading int length, strings as UTF-8.
+ */
+public class PRMSAnimationMetaDataFile {
+
+	public final static String SUFFIX = ".metadata";
+
+	private final static int MAGIC = 0x50524d4d; // "PRMM"
+	private final static int VERSION = 1;
+
+	public static File getMetaDataFile(String animationFilePath) {
+		return new File(animationFilePath + SUFFIX);
+	}
+
+	/**
+	 * @throws IOException if the file can't be read, isn't a metadata file or
+	 * was written in a version this code doesn't read.
+	 */
+	public static PRMSAnimationFileMetaData read(File metaDataFile) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(metaDataFile, "r");
+		MappedByteBuffer buffer = null;
+		try {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+				throw new IOException("Unrecognized metadata file " + metaDataFile.getPath());
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of metadata file " + metaDataFile.getPath());
+			}
+			return PRMSAnimationFileMetaData.read(buffer);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated metadata file " + metaDataFile.getPath(), e);
+		} finally {
+			// everything read is copied out, unmap now rather than on GC so
+			// write(...) can replace the file on platforms that lock mapped files
+			if (buffer != null) {
+				NIOUtilities.clean(buffer);
+			}
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * The file is written to a temporary file and renamed when complete so
+	 * readers never see a partial file.
+	 */
+	public static void write(PRMSAnimationFileMetaData metaData, File metaDataFile) throws IOException {
+		File temporaryFile = new File(metaDataFile.getPath() + ".tmp");
+
+		DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temporaryFile),
+				1 << 20));
+		try {
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			metaData.write(outputStream);
+		} finally {
+			outputStream.close();
+		}
+
+		if (metaDataFile.exists() && !metaDataFile.delete()) {
+			temporaryFile.delete();
+			throw new IOException("Unable to replace " + metaDataFile.getPath());
+		}
+		if (!temporaryFile.renameTo(metaDataFile)) {
+			temporaryFile.delete();
+			throw new IOException("Unable to rename " + temporaryFile.getPath() + " to " + metaDataFile.getPath());
+		}
+	}
+
+	static void writeString(DataOutputStream outputStream, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	static void writeLongs(DataOutputStream outputStream, long[] values) throws IOException {
+		outputStream.writeInt(values.length);
+		for (long value : values) {
+			outputStream.writeLong(value);
+		}
+	}
+
+	static long[] readLongs(ByteBuffer buffer) {
+		long[] values = new long[buffer.getInt()];
+		buffer.asLongBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 8);
+		return values;
+	}
+
+	static void writeFloats(DataOutputStream outputStream, float[] values) throws IOException {
+		outputStream.writeInt(values.length);
+		for (float value : values) {
+			outputStream.writeFloat(value);
+		}
+	}
+
+	static float[] readFloats(ByteBuffer buffer) {
+		float[] values = new float[buffer.getInt()];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 4);
+		return values;
+	}
+
+	static void writeInts(DataOutputStream outputStream, int[] values) throws IOException {
+		outputStream.writeInt(values.length);
+		for (int value : values) {
+			outputStream.writeInt(value);
+		}
+	}
+
+	static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 4);
+		return values;
+	}
+}
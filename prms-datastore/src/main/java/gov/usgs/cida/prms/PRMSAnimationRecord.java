@@ -12,11 +12,18 @@ public interface PRMSAnimationRecord<N extends Comparable> {
 
     public DateTime getTimeStamp();
 
+    public long getTimeStampAsMillis();
+
     public Integer getNHRU();
 
+    public int getNHRUAsInt();
+
     // from 2 to columnCount (i.e. don't use this for timestamp and nhru)
     public Float getValue(int columnIndex);
 
+    // from 2 to columnCount (i.e. don't use this for timestamp and nhru)
+    public float getValueAsFloat(int columnIndex);
+
     // count timestamp, nhru and all others
     public int getColumnCount();
     
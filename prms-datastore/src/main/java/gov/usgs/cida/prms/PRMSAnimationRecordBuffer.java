@@ -4,29 +4,32 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import org.geotools.resources.NIOUtilities;
 
 public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>, Iterable<PRMSAnimationRecord> {
 
 	// This class was originally designed for used with MappedByteBuffer for
-	// speed.  At this time we should avoid this since:
-	//  1) We can run out of virtual address space on 32 bit platforms.  This is
-	//     exaserbated by the lack of unmap() type functionality and we have to
-	//     rely on JVM GC to release system resources (virutal address space).
-	//     This is not an issue with 64 bit JVM
-	//  2) We still need to implement a sliding buffer strategy (not enough time)
-	//     as mapping a large enough file w/o  enough physical RAM can cause
-	//     irrecoverable thrashing (32 *and* 64 bit platforms)
-	//  These issues are avoidable but we don't have time to implement *and*
-	//  test
+	// speed.  Mapping the whole requested record range ran us out of virtual
+	// address space on 32 bit platforms and caused irrecoverable thrashing
+	// when the range was larger than physical RAM (32 *and* 64 bit platforms).
+	// We now map a sliding window of at most windowSizeBytes over the record
+	// range.  Windows are aligned to multiples of the window size (which is
+	// rounded to a whole number of records) so sequential and random access
+	// use the same code path, and a window is unmapped explicitly when it
+	// slides instead of waiting on JVM GC to release the address space.
 	private final static boolean MAPPED_IO = true;
 
 	public static final int INVALID_RECORD_INDEX = Integer.MIN_VALUE;
 
+	public static final long DEFAULT_WINDOW_SIZE_BYTES = 64L << 20;
+
 	final private RecordEntryDescriptor[] recordEntryDescriptors;
 
 	final private int columnCount;
@@ -36,9 +39,25 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 	private int recordIndex;
 
 	private BufferedInputStream inputStream;
+	private final PRMSAnimationTimeStampDecoder timeStampDecoder = new PRMSAnimationTimeStampDecoder(); // for records read from inputStream
 
 	private RandomAccessFile randomAccessFile;
+	private FileChannel fileChannel;
 	private MappedByteBuffer mappedBuffer;
+	private long windowSizeBytes;
+	private long windowOffsetBytes; // relative to bufferOffsetBytes
+	private long windowLengthBytes;
+
+	private PRMSAnimationRecordFlyweight recordFlyweight;
+
+	// non-null when records aren't fixed width, windows then start at the
+	// record that didn't fit in the last one instead of being aligned
+	private PRMSAnimationRecordIndex recordOffsetIndex;
+	private PRMSAnimationVariableWidthRecordFlyweight variableWidthRecordFlyweight;
+	private long bufferRecordOffsetBytes; // index offset of the first record
+
+	// non-null when reading from a current binary columnar sidecar
+	private PRMSAnimationColumnarFile columnarFile;
 
 	private long bufferOffsetBytes;
 	private long bufferLengthBytes;
@@ -51,6 +70,14 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 	}
 
 	public PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData metaData, int recordIndexStart, int recordIndexEnd) throws IOException {
+		this(metaData, recordIndexStart, recordIndexEnd, DEFAULT_WINDOW_SIZE_BYTES);
+	}
+
+	public PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData metaData, int recordIndexStart, int recordIndexEnd, long windowSizeBytes) throws IOException {
+		this(metaData, recordIndexStart, recordIndexEnd, windowSizeBytes, PRMSAnimationColumnarFile.isCurrent(metaData));
+	}
+
+	PRMSAnimationRecordBuffer(PRMSAnimationFileMetaData metaData, int recordIndexStart, int recordIndexEnd, long windowSizeBytes, boolean columnarIO) throws IOException {
 
 		this.columnCount = metaData.getRecordEntryCount();
 		this.recordEntryDescriptors = metaData.getRecordEntryDescriptors().toArray(new RecordEntryDescriptor[0]);
@@ -63,16 +90,44 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 		recordSizeBytes = metaData.getRecordSizeBytes();
 		endOfLineSizeBytes = metaData.getEndOfLineSizeBytes();
 
-		bufferOffsetBytes = headerSizeBytes + (recordIndexStart * recordSizeBytes);
-		bufferLengthBytes = (recordIndexEnd - recordIndexStart) * recordSizeBytes;
+		recordOffsetIndex = columnarIO ? null : metaData.getRecordIndex();
+		if (recordOffsetIndex == null) {
+			bufferOffsetBytes = headerSizeBytes + ((long) recordIndexStart * recordSizeBytes);
+			bufferLengthBytes = (long) (recordIndexEnd - recordIndexStart) * recordSizeBytes;
+		} else {
+			bufferRecordOffsetBytes = recordOffsetIndex.getRecordOffsetBytes(recordIndexStart);
+			bufferOffsetBytes = headerSizeBytes + bufferRecordOffsetBytes;
+			bufferLengthBytes = recordOffsetIndex.getRecordOffsetBytes(recordIndexEnd) - bufferRecordOffsetBytes;
+		}
 
 		// prime value for validity test in getRecordFromInputStream(...) and
 		// iterator();
 		recordIndex = recordIndexStart - 1;
-		if (MAPPED_IO) {
+		if (columnarIO) {
+
+			columnarFile = new PRMSAnimationColumnarFile(metaData);
+		} else if (MAPPED_IO && recordOffsetIndex != null) {
+
+			// at least the longest record, never more than Integer.MAX_VALUE
+			this.windowSizeBytes = Math.max(Math.min(windowSizeBytes, Integer.MAX_VALUE), recordOffsetIndex.getMaximumRecordSizeBytes());
 
 			randomAccessFile = new RandomAccessFile(metaData.getAnimationFilePath(), "r");
-			mappedBuffer = randomAccessFile.getChannel().map(MapMode.READ_ONLY, bufferOffsetBytes, bufferLengthBytes);
+			fileChannel = randomAccessFile.getChannel();
+
+			variableWidthRecordFlyweight = new PRMSAnimationVariableWidthRecordFlyweight(columnCount);
+		} else if (MAPPED_IO) {
+
+			// whole records only, at least one and never more than Integer.MAX_VALUE
+			long windowRecordCount = Math.min(windowSizeBytes, Integer.MAX_VALUE) / recordSizeBytes;
+			this.windowSizeBytes = Math.max(windowRecordCount, 1) * recordSizeBytes;
+
+			randomAccessFile = new RandomAccessFile(metaData.getAnimationFilePath(), "r");
+			fileChannel = randomAccessFile.getChannel();
+
+			recordFlyweight = new PRMSAnimationRecordFlyweight(recordEntryDescriptors);
+		} else if (recordOffsetIndex != null) {
+
+			throw new IOException("Records of " + metaData.getAnimationFilePath() + " aren't fixed width, they can only be mapped");
 		} else {
 
 			inputStream = new BufferedInputStream(
@@ -84,38 +139,48 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 		}
 	}
 
-	// TODO: document (only valid until get record called again!!!)
+	/**
+	 * NOTE: records returned from mapped and columnar access are reused, a
+	 * record is only valid until getRecord(...) is called again or this
+	 * buffer is closed.
+	 */
 	public PRMSAnimationRecord getRecord(int recordIndex) throws IOException {
-		if (MAPPED_IO) {
+		if (columnarFile != null) {
+			return getRecordFromColumnarFile(recordIndex);
+		} else if (MAPPED_IO) {
 			return getRecordFromMappedByteBuffer(recordIndex);
 		} else {
 			return getRecordFromInputStream(recordIndex);
 		}
 	}
 
+	private PRMSAnimationRecord getRecordFromColumnarFile(int recordIndex) throws IOException {
+		if (recordIndex < recordIndexStart || recordIndex >= recordIndexEnd) {
+			throw new NoSuchElementException();
+		}
+		this.recordIndex = recordIndex;
+		return columnarFile.getRecord(recordIndex);
+	}
+
 	private PRMSAnimationRecord getRecordFromMappedByteBuffer(int recordIndex) throws IOException {
+		if (recordOffsetIndex != null) {
+			return getVariableWidthRecordFromMappedByteBuffer(recordIndex);
+		}
 		if (recordIndex < recordIndexStart) {
 			throw new NoSuchElementException();
 		}
 		if (recordIndex < recordIndexEnd) {
 			try {
-                byte[] recordBytes = new byte[recordSizeBytes];
-                char[] recordChars = new char[recordSizeBytes - endOfLineSizeBytes];
-                
-				mappedBuffer.position((recordIndex - recordIndexStart) * recordSizeBytes);
-				mappedBuffer.get(recordBytes);
-                
-				int recorndCharCount = recordChars.length;
-				for (int recordCharIndex = 0; recordCharIndex < recorndCharCount; ++recordCharIndex) {
-					recordChars[recordCharIndex] = (char) (recordBytes[recordCharIndex] & 255);
-				}
+				long recordOffsetBytes = (long) (recordIndex - recordIndexStart) * recordSizeBytes;
+				slideWindow(recordOffsetBytes);
                 
 				this.recordIndex = recordIndex;
                 
-                return new PRMSAnimationRecordImpl(
-                        Arrays.asList(recordEntryDescriptors),
-                        recordIndex,
-                        recordChars);
+                // no copy, the flyweight decodes straight from the window
+                return recordFlyweight.wrap(
+                        mappedBuffer,
+                        (int) (recordOffsetBytes - windowOffsetBytes),
+                        recordIndex);
                 
 			} catch (Exception e) {
 				this.recordIndex = INVALID_RECORD_INDEX;
@@ -126,6 +191,76 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 		}
 	}
 
+	/**
+	 * Checks a fixed width record ends with a line end where the record size
+	 * puts it.  A record narrower or wider than the first misaligns at least
+	 * one record after it (even if a later one realigns the offsets), so
+	 * checking every record proves the file is fixed width.
+	 * @return false if it doesn't, always true unless reading mapped fixed
+	 * width records
+	 */
+	boolean isLineEndAligned(int recordIndex) throws IOException {
+		if (columnarFile != null || !MAPPED_IO || recordOffsetIndex != null) {
+			return true;
+		}
+		if (recordIndex < recordIndexStart || recordIndex >= recordIndexEnd) {
+			throw new NoSuchElementException();
+		}
+		long recordOffsetBytes = (long) (recordIndex - recordIndexStart) * recordSizeBytes;
+		slideWindow(recordOffsetBytes);
+		return mappedBuffer.get((int) (recordOffsetBytes - windowOffsetBytes) + recordSizeBytes - 1) == '\n';
+	}
+
+	private PRMSAnimationRecord getVariableWidthRecordFromMappedByteBuffer(int recordIndex) throws IOException {
+		if (recordIndex < recordIndexStart || recordIndex >= recordIndexEnd) {
+			throw new NoSuchElementException();
+		}
+		try {
+			long recordOffsetBytes = recordOffsetIndex.getRecordOffsetBytes(recordIndex) - bufferRecordOffsetBytes;
+			long nextRecordOffsetBytes = recordOffsetIndex.getRecordOffsetBytes(recordIndex + 1) - bufferRecordOffsetBytes;
+			if (mappedBuffer == null || recordOffsetBytes < windowOffsetBytes || nextRecordOffsetBytes > windowOffsetBytes + windowLengthBytes) {
+				unmapWindow();
+				long lengthBytes = Math.min(windowSizeBytes, bufferLengthBytes - recordOffsetBytes);
+				mappedBuffer = fileChannel.map(MapMode.READ_ONLY, bufferOffsetBytes + recordOffsetBytes, lengthBytes);
+				// word at a time column scans read little endian
+				mappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+				windowOffsetBytes = recordOffsetBytes;
+				windowLengthBytes = lengthBytes;
+			}
+
+			this.recordIndex = recordIndex;
+
+			return variableWidthRecordFlyweight.wrap(
+					mappedBuffer,
+					(int) (recordOffsetBytes - windowOffsetBytes),
+					recordOffsetIndex.getRecordLengthBytes(recordIndex),
+					recordIndex);
+
+		} catch (Exception e) {
+			this.recordIndex = INVALID_RECORD_INDEX;
+			throw new IOException("Incomplete read.");
+		}
+	}
+
+	private void slideWindow(long recordOffsetBytes) throws IOException {
+		if (mappedBuffer == null || recordOffsetBytes < windowOffsetBytes || recordOffsetBytes >= windowOffsetBytes + windowLengthBytes) {
+			unmapWindow();
+			long offsetBytes = (recordOffsetBytes / windowSizeBytes) * windowSizeBytes;
+			long lengthBytes = Math.min(windowSizeBytes, bufferLengthBytes - offsetBytes);
+			mappedBuffer = fileChannel.map(MapMode.READ_ONLY, bufferOffsetBytes + offsetBytes, lengthBytes);
+			windowOffsetBytes = offsetBytes;
+			windowLengthBytes = lengthBytes;
+		}
+	}
+
+	private void unmapWindow() {
+		if (mappedBuffer != null) {
+			NIOUtilities.clean(mappedBuffer);
+			mappedBuffer = null;
+			windowLengthBytes = 0;
+		}
+	}
+
 	private PRMSAnimationRecord getRecordFromInputStream(int recordIndex) throws IOException {
 		if (recordIndex == this.recordIndex + 1) {
 			if (recordIndex < recordIndexStart) {
@@ -147,7 +282,8 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
                     return new PRMSAnimationRecordImpl(
                         Arrays.asList(recordEntryDescriptors),
                         recordIndex,
-                        recordChars);
+                        recordChars,
+                        timeStampDecoder);
                     
 				} else {
 					this.recordIndex = INVALID_RECORD_INDEX;
@@ -164,12 +300,16 @@ public class PRMSAnimationRecordBuffer implements Iterator<PRMSAnimationRecord>,
 	}
 
 	public void close() throws IOException {
-		if (MAPPED_IO) {
+		if (columnarFile != null) {
+			columnarFile.close();
+			columnarFile = null;
+		} else if (MAPPED_IO) {
+			unmapWindow();
+			fileChannel = null;
 			if (randomAccessFile != null) {
 				randomAccessFile.close();
 				randomAccessFile = null;
 			}
-			mappedBuffer = null;
 		} else {
 			inputStream.close();
 			inputStream = null;
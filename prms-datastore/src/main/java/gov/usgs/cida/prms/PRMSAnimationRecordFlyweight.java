@@ -0,0 +1,78 @@
+package gov.usgs.cida.prms;
+
+import java.nio.ByteBuffer;
+import org.joda.time.DateTime;
+
+/**
+ * Reusable record view pointing into a (mapped) animation file buffer.
+ * Values are decoded straight from the ASCII bytes on access so the
+ * primitive accessors don't allocate.  Only valid until the owning
+ * {@link PRMSAnimationRecordBuffer} wraps another record or slides its window.
+ * Timestamps are only parsed when the timestep changes.
+ */
+class PRMSAnimationRecordFlyweight implements PRMSAnimationRecord<Float> {
+    private final RecordEntryDescriptor[] recordEntryDescriptors;
+    private final PRMSAnimationTimeStampDecoder timeStampDecoder = new PRMSAnimationTimeStampDecoder();
+
+    private ByteBuffer recordBuffer;
+    private int recordOffset;
+    private int recordIndex;
+
+    public PRMSAnimationRecordFlyweight(RecordEntryDescriptor[] recordEntryDescriptors) {
+        this.recordEntryDescriptors = recordEntryDescriptors;
+    }
+
+    PRMSAnimationRecordFlyweight wrap(ByteBuffer recordBuffer, int recordOffset, int recordIndex) {
+        this.recordBuffer = recordBuffer;
+        this.recordOffset = recordOffset;
+        this.recordIndex = recordIndex;
+        return this;
+    }
+
+    @Override
+    public int getIndex() {
+        return recordIndex;
+    }
+
+    @Override
+    public DateTime getTimeStamp() {
+        RecordEntryDescriptor descriptor = recordEntryDescriptors[0];
+        return timeStampDecoder.getDateTime(recordBuffer, recordOffset + descriptor.getOffset(), descriptor.getLength());
+    }
+
+    @Override
+    public long getTimeStampAsMillis() {
+        RecordEntryDescriptor descriptor = recordEntryDescriptors[0];
+        return timeStampDecoder.getMillis(recordBuffer, recordOffset + descriptor.getOffset(), descriptor.getLength());
+    }
+
+    @Override
+    public Integer getNHRU() {
+        return getNHRUAsInt();
+    }
+
+    @Override
+    public int getNHRUAsInt() {
+        return PRMSAnimationFileUtility.quickExtractRecordAsInt(recordEntryDescriptors[1], recordBuffer, recordOffset);
+    }
+
+    @Override
+    public Float getValue(int columnIndex) {
+        return getValueAsFloat(columnIndex);
+    }
+
+    @Override
+    public float getValueAsFloat(int columnIndex) {
+        if (columnIndex > 1) {
+            return PRMSAnimationFileUtility.quickExtractRecordAsFloat(recordEntryDescriptors[columnIndex], recordBuffer, recordOffset);
+        } else {
+            throw new IllegalArgumentException("Can't use this method for column indices < 2");
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return recordEntryDescriptors.length;
+    }
+
+}
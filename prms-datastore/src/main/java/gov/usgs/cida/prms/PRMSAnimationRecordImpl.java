@@ -11,11 +11,20 @@ class PRMSAnimationRecordImpl implements PRMSAnimationRecord<Float> {
     private final List<RecordEntryDescriptor> recordEntryDescriptors;
     private final int recordIndex;
     private final char[] recordBuffer;
+    private final PRMSAnimationTimeStampDecoder timeStampDecoder;
 
     public PRMSAnimationRecordImpl(List<RecordEntryDescriptor> recordEntryDescriptors, int recordIndex, char[] recordBuffer) {
+        this(recordEntryDescriptors, recordIndex, recordBuffer, new PRMSAnimationTimeStampDecoder());
+    }
+
+    /**
+     * @param timeStampDecoder shared by the records read in sequence
+     */
+    PRMSAnimationRecordImpl(List<RecordEntryDescriptor> recordEntryDescriptors, int recordIndex, char[] recordBuffer, PRMSAnimationTimeStampDecoder timeStampDecoder) {
         this.recordEntryDescriptors = recordEntryDescriptors;
         this.recordIndex = recordIndex;
         this.recordBuffer = recordBuffer;
+        this.timeStampDecoder = timeStampDecoder;
     }
 
     @Override
@@ -25,16 +34,31 @@ class PRMSAnimationRecordImpl implements PRMSAnimationRecord<Float> {
 
     @Override
     public DateTime getTimeStamp() {
-        return PRMSAnimationFileUtility.quickExtractRecordAsDateTime(recordEntryDescriptors.get(0), recordBuffer);
+        return timeStampDecoder.getDateTime(recordEntryDescriptors.get(0), recordBuffer);
+    }
+
+    @Override
+    public long getTimeStampAsMillis() {
+        return timeStampDecoder.getMillis(recordEntryDescriptors.get(0), recordBuffer);
     }
 
     @Override
     public Integer getNHRU() {
+        return getNHRUAsInt();
+    }
+
+    @Override
+    public int getNHRUAsInt() {
         return PRMSAnimationFileUtility.quickExtractRecordAsInt(recordEntryDescriptors.get(1), recordBuffer);
     }
 
     @Override
     public Float getValue(int columnIndex) {
+        return getValueAsFloat(columnIndex);
+    }
+
+    @Override
+    public float getValueAsFloat(int columnIndex) {
         if (columnIndex > 1) {
             return PRMSAnimationFileUtility.quickExtractRecordAsFloat(recordEntryDescriptors.get(columnIndex), recordBuffer);
         } else {
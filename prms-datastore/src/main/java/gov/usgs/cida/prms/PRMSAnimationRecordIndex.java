@@ -0,0 +1,217 @@
+package gov.usgs.cida.prms;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Start offset of every record of an animation file whose records aren't
+ * all the same width (e.g. written by PRMS builds that print numbers without
+ * padding).  Fixed width files don't need one, a record's offset is its
+ * index times the record size.
+ * <p>
+ * Built by a single pass over the mapped data section that looks for line
+ * ends a word (8 bytes) at a time.  Offsets are stored as a <code>long</code>
+ * per block of {@link #BLOCK_RECORD_COUNT} records plus a 2 byte delta per
+ * record from the start of its block (4 bytes if a block spans more than
+ * 64KiB), roughly 2 bytes per record.
+ * <p>
+ * Offsets are relative to the start of the data section.  Only records
+ * terminated by a line end are indexed, a partially written last record is
+ * left out.
+ */
+public class PRMSAnimationRecordIndex {
+
+	final static int BLOCK_RECORD_COUNT = 64;
+
+	private final static int BLOCK_SHIFT = 6;
+
+	private final static long ONES = 0x0101010101010101L;
+	private final static long HIGHS = 0x8080808080808080L;
+
+	private final int recordCount;
+	private final int endOfLineSizeBytes;
+	private final int maximumRecordSizeBytes; // including the line end
+	private final long[] blockOffsetBytes;
+	private final char[] recordDeltaBytes; // null if any block spans more than 64KiB
+	private final int[] wideRecordDeltaBytes; // null unless recordDeltaBytes is
+	private final long dataEndBytes; // end of the last indexed record
+
+	private PRMSAnimationRecordIndex(long[] recordOffsetBytes, int recordCount, long dataEndBytes, int endOfLineSizeBytes) {
+		this.recordCount = recordCount;
+		this.endOfLineSizeBytes = endOfLineSizeBytes;
+		this.dataEndBytes = dataEndBytes;
+		int blockCount = (recordCount + BLOCK_RECORD_COUNT - 1) >>> BLOCK_SHIFT;
+		blockOffsetBytes = new long[blockCount];
+		int[] deltas = new int[recordCount];
+		boolean narrow = true;
+		int maximumRecordSize = 0;
+		for (int recordIndex = 0; recordIndex < recordCount; ++recordIndex) {
+			int blockIndex = recordIndex >>> BLOCK_SHIFT;
+			if ((recordIndex & (BLOCK_RECORD_COUNT - 1)) == 0) {
+				blockOffsetBytes[blockIndex] = recordOffsetBytes[recordIndex];
+			}
+			long delta = recordOffsetBytes[recordIndex] - blockOffsetBytes[blockIndex];
+			if (delta > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Record " + recordIndex + " too long");
+			}
+			deltas[recordIndex] = (int) delta;
+			narrow &= delta <= Character.MAX_VALUE;
+			long recordEnd = recordIndex + 1 < recordCount ? recordOffsetBytes[recordIndex + 1] : dataEndBytes;
+			maximumRecordSize = (int) Math.max(maximumRecordSize, recordEnd - recordOffsetBytes[recordIndex]);
+		}
+		maximumRecordSizeBytes = maximumRecordSize;
+		if (narrow) {
+			recordDeltaBytes = new char[recordCount];
+			for (int recordIndex = 0; recordIndex < recordCount; ++recordIndex) {
+				recordDeltaBytes[recordIndex] = (char) deltas[recordIndex];
+			}
+			wideRecordDeltaBytes = null;
+		} else {
+			recordDeltaBytes = null;
+			wideRecordDeltaBytes = deltas;
+		}
+	}
+
+	/**
+	 * Indexes the records in <code>[dataOffsetBytes, dataOffsetBytes + dataSizeBytes)</code>.
+	 */
+	public static PRMSAnimationRecordIndex build(String animationFilePath, long dataOffsetBytes, long dataSizeBytes, int endOfLineSizeBytes, long windowSizeBytes) throws IOException {
+		long[] recordOffsetBytes = new long[1024];
+		int recordCount = 0;
+		long recordStart = 0;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(animationFilePath, "r");
+		try {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			long windowOffset = 0;
+			while (windowOffset < dataSizeBytes) {
+				long windowLength = Math.min(Math.min(windowSizeBytes, Integer.MAX_VALUE), dataSizeBytes - windowOffset);
+				MappedByteBuffer window = fileChannel.map(MapMode.READ_ONLY, dataOffsetBytes + windowOffset, windowLength);
+				try {
+					window.order(ByteOrder.LITTLE_ENDIAN);
+					int position = 0;
+					int end = (int) windowLength;
+					int lineEnd;
+					while ((lineEnd = indexOf(window, position, end, (byte) '\n')) > -1) {
+						if (recordCount + 1 >= recordOffsetBytes.length) {
+							recordOffsetBytes = Arrays.copyOf(recordOffsetBytes, recordOffsetBytes.length << 1);
+						}
+						recordOffsetBytes[recordCount++] = recordStart;
+						position = lineEnd + 1;
+						recordStart = windowOffset + position;
+					}
+				} finally {
+					NIOUtilities.clean(window);
+				}
+				windowOffset += windowLength;
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+		return new PRMSAnimationRecordIndex(recordOffsetBytes, recordCount, recordStart, endOfLineSizeBytes);
+	}
+
+	/**
+	 * Index of the first <code>value</code> in <code>[from, to)</code> of a
+	 * {@link ByteOrder#LITTLE_ENDIAN} buffer, -1 if there's none.  Whole
+	 * words are tested for a matching byte at once, the tail a byte at a time.
+	 */
+	static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+		long pattern = (value & 0xffL) * ONES;
+		int index = from;
+		for (int wordEnd = to - 7; index < wordEnd; index += 8) {
+			long word = buffer.getLong(index) ^ pattern;
+			// high bit set in each byte of word that is zero, exact for the lowest
+			long zeros = (word - ONES) & ~word & HIGHS;
+			if (zeros != 0) {
+				// little endian, the lowest byte is the first in the buffer
+				return index + (Long.numberOfTrailingZeros(zeros) >>> 3);
+			}
+		}
+		for (; index < to; ++index) {
+			if (buffer.get(index) == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/** @return bytes spanned by the indexed records */
+	public long getDataSizeBytes() {
+		return dataEndBytes;
+	}
+
+	/** @return size of the longest record, including the line end */
+	public int getMaximumRecordSizeBytes() {
+		return maximumRecordSizeBytes;
+	}
+
+	/**
+	 * @param recordIndex 0 to record count, the record count gives the end of the last record
+	 */
+	public long getRecordOffsetBytes(int recordIndex) {
+		if (recordIndex == recordCount) {
+			return dataEndBytes;
+		}
+		int delta = recordDeltaBytes != null ? recordDeltaBytes[recordIndex] : wideRecordDeltaBytes[recordIndex];
+		return blockOffsetBytes[recordIndex >>> BLOCK_SHIFT] + delta;
+	}
+
+	/** @return size of the record excluding the line end */
+	public int getRecordLengthBytes(int recordIndex) {
+		return (int) (getRecordOffsetBytes(recordIndex + 1) - getRecordOffsetBytes(recordIndex)) - endOfLineSizeBytes;
+	}
+
+	/**
+	 * Checks sampled records for a fixed width without reading the whole
+	 * file.  The line end of every sampled record, including the last, has to
+	 * be where the record size puts it and the column separators where the
+	 * first record has them.  This catches files written without padding
+	 * cheaply but can't prove a file is fixed width, a wider record followed
+	 * by a narrower one between two samples realigns the offsets.  The
+	 * metadata scan checks every record (see
+	 * {@link PRMSAnimationRecordBuffer#isLineEndAligned(int)}).
+	 */
+	static boolean isFixedWidth(String animationFilePath, long dataOffsetBytes, long dataSizeBytes, int recordSizeBytes, RecordEntryDescriptor[] recordEntryDescriptors, int sampleCount) throws IOException {
+		long recordCount = dataSizeBytes / recordSizeBytes;
+		if (recordCount < 1) {
+			return true;
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile(animationFilePath, "r");
+		try {
+			byte[] record = new byte[recordSizeBytes];
+			for (int sampleIndex = 0; sampleIndex <= sampleCount; ++sampleIndex) {
+				long recordIndex = sampleIndex == sampleCount ? recordCount - 1 : recordCount * sampleIndex / sampleCount;
+				randomAccessFile.seek(dataOffsetBytes + recordIndex * recordSizeBytes);
+				randomAccessFile.readFully(record);
+				if (record[recordSizeBytes - 1] != '\n') {
+					return false;
+				}
+				for (int recordEntryIndex = 0; recordEntryIndex < recordEntryDescriptors.length - 1; ++recordEntryIndex) {
+					RecordEntryDescriptor descriptor = recordEntryDescriptors[recordEntryIndex];
+					if (record[descriptor.getOffset() + descriptor.getLength()] != '\t') {
+						return false;
+					}
+				}
+				for (int index = 0; index < recordSizeBytes - 1; ++index) {
+					if (record[index] == '\n') {
+						return false;
+					}
+				}
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,216 @@
+package gov.usgs.cida.prms;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.joda.time.DateTime;
+
+/**
+ * Per-HRU aggregate (e.g. mean runoff over a summer) of value columns over a
+ * window of consecutive timesteps, presented as a single timestep.  The
+ * window is streamed once on construction, accumulating into one primitive
+ * array per column.  The timestamp of every record is the first timestep of
+ * the window.
+ */
+public class PRMSAnimationTemporalAggregate {
+
+	public enum Function {
+		MEAN, SUM, MIN, MAX;
+
+		/**
+		 * @return function with <code>name</code> ignoring case, null if none
+		 */
+		public static Function fromName(String name) {
+			if (name != null) {
+				for (Function function : values()) {
+					if (function.name().equalsIgnoreCase(name.trim())) {
+						return function;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	private final PRMSAnimationFileMetaData metaData;
+	private final int timeStepIndexStart;
+	private final int timeStepIndexEnd;
+	private final Function function;
+	private final DateTime timeStamp;
+
+	private final int[] nhruColumn;
+	private final float[][] valueColumns; // null for columns not aggregated
+
+	private final Record record = new Record();
+
+	/**
+	 * @param timeStepIndexStart first timestep of the window
+	 * @param timeStepIndexEnd timestep after the last of the window
+	 * @param columnIndices columns to aggregate, indices < 2 are ignored
+	 */
+	public PRMSAnimationTemporalAggregate(PRMSAnimationFileMetaData metaData, int timeStepIndexStart, int timeStepIndexEnd, Function function, int[] columnIndices, long mappedWindowSizeBytes) throws IOException {
+		if (timeStepIndexStart < 0 || timeStepIndexEnd > metaData.getTimeStepCount() || timeStepIndexEnd <= timeStepIndexStart) {
+			throw new IllegalArgumentException("Invalid timestep window [" + timeStepIndexStart + ", " + timeStepIndexEnd + ")");
+		}
+		this.metaData = metaData;
+		this.timeStepIndexStart = timeStepIndexStart;
+		this.timeStepIndexEnd = timeStepIndexEnd;
+		this.function = function;
+		this.timeStamp = metaData.getTimeStep(timeStepIndexStart);
+
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		int[] aggregateColumnIndices = getAggregateColumnIndices(columnIndices);
+		double[][] accumulators = new double[aggregateColumnIndices.length][timeStepRecordCount];
+		if (function == Function.MIN || function == Function.MAX) {
+			for (double[] accumulator : accumulators) {
+				Arrays.fill(accumulator, function == Function.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+			}
+		}
+		nhruColumn = new int[timeStepRecordCount];
+
+		int recordIndexStart = timeStepIndexStart * timeStepRecordCount;
+		int recordIndexEnd = timeStepIndexEnd * timeStepRecordCount;
+		PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData, recordIndexStart, recordIndexEnd, mappedWindowSizeBytes);
+		try {
+			int timeStepRecordIndex = 0;
+			boolean firstTimeStep = true;
+			for (int recordIndex = recordIndexStart; recordIndex < recordIndexEnd; ++recordIndex) {
+				PRMSAnimationRecord animationRecord = recordBuffer.getRecord(recordIndex);
+				if (firstTimeStep) {
+					nhruColumn[timeStepRecordIndex] = animationRecord.getNHRUAsInt();
+				}
+				for (int aggregateIndex = 0; aggregateIndex < aggregateColumnIndices.length; ++aggregateIndex) {
+					float value = animationRecord.getValueAsFloat(aggregateColumnIndices[aggregateIndex]);
+					double[] accumulator = accumulators[aggregateIndex];
+					switch (function) {
+						case MIN:
+							if (value < accumulator[timeStepRecordIndex]) {
+								accumulator[timeStepRecordIndex] = value;
+							}
+							break;
+						case MAX:
+							if (value > accumulator[timeStepRecordIndex]) {
+								accumulator[timeStepRecordIndex] = value;
+							}
+							break;
+						default:
+							accumulator[timeStepRecordIndex] += value;
+					}
+				}
+				if (++timeStepRecordIndex == timeStepRecordCount) {
+					timeStepRecordIndex = 0;
+					firstTimeStep = false;
+				}
+			}
+		} finally {
+			recordBuffer.close();
+		}
+
+		int timeStepCount = timeStepIndexEnd - timeStepIndexStart;
+		valueColumns = new float[metaData.getRecordEntryCount()][];
+		for (int aggregateIndex = 0; aggregateIndex < aggregateColumnIndices.length; ++aggregateIndex) {
+			double[] accumulator = accumulators[aggregateIndex];
+			float[] valueColumn = new float[timeStepRecordCount];
+			for (int index = 0; index < timeStepRecordCount; ++index) {
+				valueColumn[index] = (float) (function == Function.MEAN ? accumulator[index] / timeStepCount : accumulator[index]);
+			}
+			valueColumns[aggregateColumnIndices[aggregateIndex]] = valueColumn;
+		}
+	}
+
+	// distinct value columns
+	private int[] getAggregateColumnIndices(int[] columnIndices) {
+		boolean[] aggregated = new boolean[metaData.getRecordEntryCount()];
+		int count = 0;
+		for (int columnIndex : columnIndices) {
+			if (columnIndex > 1 && !aggregated[columnIndex]) {
+				aggregated[columnIndex] = true;
+				++count;
+			}
+		}
+		int[] aggregateColumnIndices = new int[count];
+		count = 0;
+		for (int columnIndex = 2; columnIndex < aggregated.length; ++columnIndex) {
+			if (aggregated[columnIndex]) {
+				aggregateColumnIndices[count++] = columnIndex;
+			}
+		}
+		return aggregateColumnIndices;
+	}
+
+	public int getTimeStepIndexStart() {
+		return timeStepIndexStart;
+	}
+
+	public int getTimeStepIndexEnd() {
+		return timeStepIndexEnd;
+	}
+
+	public Function getFunction() {
+		return function;
+	}
+
+	// NOTE: shared, don't modify
+	public float[] getValueColumn(int columnIndex) {
+		if (columnIndex < 2 || valueColumns[columnIndex] == null) {
+			throw new IllegalStateException("Column " + columnIndex + " wasn't aggregated");
+		}
+		return valueColumns[columnIndex];
+	}
+
+	// NOTE: the returned record is reused, it's only valid until getRecord(...) is called again
+	public PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+		record.timeStepRecordIndex = timeStepRecordIndex;
+		return record;
+	}
+
+	private class Record implements PRMSAnimationRecord<Float> {
+
+		private int timeStepRecordIndex;
+
+		@Override
+		public int getIndex() {
+			return timeStepIndexStart * metaData.getTimeStepRecordCount() + timeStepRecordIndex;
+		}
+
+		@Override
+		public DateTime getTimeStamp() {
+			return timeStamp;
+		}
+
+		@Override
+		public long getTimeStampAsMillis() {
+			return timeStamp.getMillis();
+		}
+
+		@Override
+		public Integer getNHRU() {
+			return getNHRUAsInt();
+		}
+
+		@Override
+		public int getNHRUAsInt() {
+			return nhruColumn[timeStepRecordIndex];
+		}
+
+		@Override
+		public Float getValue(int columnIndex) {
+			return getValueAsFloat(columnIndex);
+		}
+
+		@Override
+		public float getValueAsFloat(int columnIndex) {
+			if (columnIndex < 2) {
+				throw new IllegalArgumentException("Can't use this method for column indices < 2");
+			}
+			if (valueColumns[columnIndex] == null) {
+				throw new IllegalStateException("Column " + columnIndex + " wasn't aggregated");
+			}
+			return valueColumns[columnIndex][timeStepRecordIndex];
+		}
+
+		@Override
+		public int getColumnCount() {
+			return valueColumns.length;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package gov.usgs.cida.prms;
+
+import java.nio.ByteBuffer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Decodes record timestamps for sequential record access.  Thousands of
+ * consecutive records share a timestep so the raw bytes of the last decoded
+ * timestamp are kept, a record's timestamp is only parsed if its bytes differ
+ * and a {@link DateTime} is only created once per timestep.
+ * <p>
+ * Not thread safe, one per record buffer.
+ */
+class PRMSAnimationTimeStampDecoder {
+
+	private byte[] timeStampBytes = new byte[0]; // raw bytes of the current timestep
+	private long timeStampMillis;
+	private DateTime timeStamp; // current timestep, created on first request
+
+	long getMillis(ByteBuffer buffer, int offset, int length) {
+		if (!matches(buffer, offset, length)) {
+			timeStampMillis = PRMSAnimationFileUtility.quickParseTimeStampMillis(buffer, offset, length);
+			timeStamp = null;
+			if (timeStampBytes.length != length) {
+				timeStampBytes = new byte[length];
+			}
+			for (int index = 0; index < length; ++index) {
+				timeStampBytes[index] = buffer.get(offset + index);
+			}
+		}
+		return timeStampMillis;
+	}
+
+	DateTime getDateTime(ByteBuffer buffer, int offset, int length) {
+		long millis = getMillis(buffer, offset, length);
+		if (timeStamp == null) {
+			timeStamp = new DateTime(millis, DateTimeZone.UTC);
+		}
+		return timeStamp;
+	}
+
+	long getMillis(RecordEntryDescriptor descriptor, char[] recordBuffer) {
+		return getDateTime(descriptor, recordBuffer).getMillis();
+	}
+
+	DateTime getDateTime(RecordEntryDescriptor descriptor, char[] recordBuffer) {
+		int offset = descriptor.getOffset();
+		int length = descriptor.getLength();
+		if (timeStamp == null || !matches(recordBuffer, offset, length)) {
+			timeStamp = PRMSAnimationFileUtility.quickExtractRecordAsDateTime(descriptor, recordBuffer);
+			timeStampMillis = timeStamp.getMillis();
+			if (timeStampBytes.length != length) {
+				timeStampBytes = new byte[length];
+			}
+			for (int index = 0; index < length; ++index) {
+				timeStampBytes[index] = (byte) recordBuffer[offset + index];
+			}
+		}
+		return timeStamp;
+	}
+
+	// compared back to front, the finer fields are at the end
+	private boolean matches(ByteBuffer buffer, int offset, int length) {
+		if (length != timeStampBytes.length || length == 0) {
+			return false;
+		}
+		for (int index = length - 1; index > -1; --index) {
+			if (buffer.get(offset + index) != timeStampBytes[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matches(char[] recordBuffer, int offset, int length) {
+		if (length != timeStampBytes.length || length == 0) {
+			return false;
+		}
+		for (int index = length - 1; index > -1; --index) {
+			if ((byte) recordBuffer[offset + index] != timeStampBytes[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,160 @@
+package gov.usgs.cida.prms;
+
+import gov.usgs.cida.geotools.datastore.TimeStepColumnCache;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * LRU cache of decoded animation file columns keyed on (file, timestep,
+ * column).  Complete timesteps of a file being appended to don't change, the
+ * trailing timestep is dropped with {@link #invalidate(String, int)} when the
+ * metadata is refreshed.  The nhru column is held as an <code>int[]</code>, all
+ * other columns as <code>float[]</code>, each <code>timeStepRecordCount</code>
+ * long.  Eviction is by total bytes held.  Concurrent requests for the same
+ * column share a single decode (see {@link TimeStepColumnCache}).
+ */
+public class PRMSAnimationTimeStepCache {
+
+	public final static long DEFAULT_CACHE_SIZE_BYTES = 128L << 20;
+
+	private final TimeStepColumnCache<Key> columnCache;
+
+	public PRMSAnimationTimeStepCache() {
+		this(DEFAULT_CACHE_SIZE_BYTES);
+	}
+
+	public PRMSAnimationTimeStepCache(long cacheSizeBytes) {
+		this.columnCache = new TimeStepColumnCache<Key>(cacheSizeBytes);
+	}
+
+	public int[] getNHRUColumn(PRMSAnimationFileMetaData metaData, int timeStepIndex, long mappedWindowSizeBytes) throws IOException {
+		return (int[]) getColumn(metaData, timeStepIndex, 1, mappedWindowSizeBytes);
+	}
+
+	public float[] getValueColumn(PRMSAnimationFileMetaData metaData, int timeStepIndex, int columnIndex, long mappedWindowSizeBytes) throws IOException {
+		if (columnIndex < 2) {
+			throw new IllegalArgumentException("Can't use this method for column indices < 2");
+		}
+		return (float[]) getColumn(metaData, timeStepIndex, columnIndex, mappedWindowSizeBytes);
+	}
+
+	private Object getColumn(final PRMSAnimationFileMetaData metaData, final int timeStepIndex, final int columnIndex, final long mappedWindowSizeBytes) throws IOException {
+		return columnCache.get(new Key(metaData.getAnimationFilePath(), timeStepIndex, columnIndex), new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return decodeColumn(metaData, timeStepIndex, columnIndex, mappedWindowSizeBytes);
+			}
+		});
+	}
+
+	// package-private for testing
+	Object decodeColumn(PRMSAnimationFileMetaData metaData, int timeStepIndex, int columnIndex, long mappedWindowSizeBytes) throws IOException {
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		if (timeStepRecordCount < 1) {
+			timeStepRecordCount = metaData.getRecordCount(); // single timestep
+		}
+		int recordIndexStart = timeStepIndex * timeStepRecordCount;
+		PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData, recordIndexStart, recordIndexStart + timeStepRecordCount, mappedWindowSizeBytes);
+		try {
+			if (columnIndex == 1) {
+				int[] column = new int[timeStepRecordCount];
+				for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+					column[timeStepRecordIndex] = recordBuffer.getRecord(recordIndexStart + timeStepRecordIndex).getNHRUAsInt();
+				}
+				return column;
+			} else {
+				float[] column = new float[timeStepRecordCount];
+				for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+					column[timeStepRecordIndex] = recordBuffer.getRecord(recordIndexStart + timeStepRecordIndex).getValueAsFloat(columnIndex);
+				}
+				return column;
+			}
+		} finally {
+			recordBuffer.close();
+		}
+	}
+
+	public void clear() {
+		columnCache.clear();
+	}
+
+	/**
+	 * Drops cached columns of an animation file from a timestep on, e.g.
+	 * after records were appended to a timestep that was incomplete.  Columns
+	 * still being decoded are returned to their callers but not cached.
+	 */
+	public void invalidate(final String animationFilePath, final int timeStepIndexStart) {
+		columnCache.invalidate(new TimeStepColumnCache.KeyFilter<Key>() {
+			@Override
+			public boolean accept(Key key) {
+				return key.isInvalidatedBy(animationFilePath, timeStepIndexStart);
+			}
+		});
+	}
+
+	public long getCacheSizeBytes() {
+		return columnCache.getCacheSizeBytes();
+	}
+
+	public long getCachedSizeBytes() {
+		return columnCache.getCachedSizeBytes();
+	}
+
+	public long getHitCount() {
+		return columnCache.getHitCount();
+	}
+
+	public long getMissCount() {
+		return columnCache.getMissCount();
+	}
+
+	public long getEvictionCount() {
+		return columnCache.getEvictionCount();
+	}
+
+	@Override
+	public String toString() {
+		return "PRMSAnimationTimeStepCache[hits=" + getHitCount() +
+				", misses=" + getMissCount() +
+				", evictions=" + getEvictionCount() +
+				", size=" + getCachedSizeBytes() + "/" + getCacheSizeBytes() + " bytes]";
+	}
+
+	private final static class Key {
+
+		private final String animationFilePath;
+		private final int timeStepIndex;
+		private final int columnIndex;
+
+		Key(String animationFilePath, int timeStepIndex, int columnIndex) {
+			this.animationFilePath = animationFilePath;
+			this.timeStepIndex = timeStepIndex;
+			this.columnIndex = columnIndex;
+		}
+
+		boolean isInvalidatedBy(String animationFilePath, int timeStepIndexStart) {
+			return timeStepIndex >= timeStepIndexStart && this.animationFilePath.equals(animationFilePath);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return timeStepIndex == other.timeStepIndex &&
+					columnIndex == other.columnIndex &&
+					animationFilePath.equals(other.animationFilePath);
+		}
+
+		@Override
+		public int hashCode() {
+			return (animationFilePath.hashCode() * 31 + timeStepIndex) * 31 + columnIndex;
+		}
+
+		@Override
+		public String toString() {
+			return animationFilePath + "[timestep=" + timeStepIndex + ", column=" + columnIndex + "]";
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package gov.usgs.cida.prms;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import org.joda.time.DateTime;
+
+/**
+ * Selected columns of selected records of a single timestep, read up front
+ * in one ascending pass over the timestep so the animation file is read
+ * sequentially no matter what order the records are then requested in (e.g.
+ * shapefile record order when joining).
+ */
+public class PRMSAnimationTimeStepSlice {
+
+	private final PRMSAnimationFileMetaData metaData;
+	private final int timeStepIndex;
+	private final DateTime timeStamp;
+	private final BitSet timeStepRecords;
+
+	private int[] nhruColumn;
+	private final float[][] valueColumns;
+
+	private final Record record = new Record();
+
+	/**
+	 * @param columnIndices columns to read, indices < 1 are ignored
+	 * @param timeStepRecords timestep record indices to read
+	 */
+	public PRMSAnimationTimeStepSlice(PRMSAnimationFileMetaData metaData, int timeStepIndex, int[] columnIndices, BitSet timeStepRecords, long mappedWindowSizeBytes) throws IOException {
+		this.metaData = metaData;
+		this.timeStepIndex = timeStepIndex;
+		this.timeStamp = metaData.getTimeStep(timeStepIndex);
+		this.timeStepRecords = timeStepRecords;
+
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		this.valueColumns = new float[metaData.getRecordEntryCount()][];
+		for (int columnIndex : columnIndices) {
+			if (columnIndex == 1) {
+				nhruColumn = new int[timeStepRecordCount];
+			} else if (columnIndex > 1) {
+				valueColumns[columnIndex] = new float[timeStepRecordCount];
+			}
+		}
+
+		int timeStepRecordFirst = timeStepRecords.nextSetBit(0);
+		if (timeStepRecordFirst < 0) {
+			return;
+		}
+		int recordIndexOffset = timeStepIndex * timeStepRecordCount;
+		PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData, recordIndexOffset + timeStepRecordFirst, recordIndexOffset + timeStepRecords.length(), mappedWindowSizeBytes);
+		try {
+			for (int timeStepRecordIndex = timeStepRecordFirst; timeStepRecordIndex > -1; timeStepRecordIndex = timeStepRecords.nextSetBit(timeStepRecordIndex + 1)) {
+				PRMSAnimationRecord source = recordBuffer.getRecord(recordIndexOffset + timeStepRecordIndex);
+				if (nhruColumn != null) {
+					nhruColumn[timeStepRecordIndex] = source.getNHRUAsInt();
+				}
+				for (int columnIndex = 2; columnIndex < valueColumns.length; ++columnIndex) {
+					if (valueColumns[columnIndex] != null) {
+						valueColumns[columnIndex][timeStepRecordIndex] = source.getValueAsFloat(columnIndex);
+					}
+				}
+			}
+		} finally {
+			recordBuffer.close();
+		}
+	}
+
+	// NOTE: the returned record is reused, it's only valid until getRecord(...) is called again
+	public PRMSAnimationRecord getRecord(int timeStepRecordIndex) {
+		if (timeStepRecordIndex < 0 || !timeStepRecords.get(timeStepRecordIndex)) {
+			throw new NoSuchElementException("timestep record " + timeStepRecordIndex + " wasn't read for timestep " + timeStepIndex);
+		}
+		record.timeStepRecordIndex = timeStepRecordIndex;
+		return record;
+	}
+
+	private class Record implements PRMSAnimationRecord<Float> {
+
+		private int timeStepRecordIndex;
+
+		@Override
+		public int getIndex() {
+			return timeStepIndex * metaData.getTimeStepRecordCount() + timeStepRecordIndex;
+		}
+
+		@Override
+		public DateTime getTimeStamp() {
+			return timeStamp;
+		}
+
+		@Override
+		public long getTimeStampAsMillis() {
+			return timeStamp.getMillis();
+		}
+
+		@Override
+		public Integer getNHRU() {
+			return getNHRUAsInt();
+		}
+
+		@Override
+		public int getNHRUAsInt() {
+			if (nhruColumn == null) {
+				throw new IllegalStateException("nhru column wasn't read");
+			}
+			return nhruColumn[timeStepRecordIndex];
+		}
+
+		@Override
+		public Float getValue(int columnIndex) {
+			return getValueAsFloat(columnIndex);
+		}
+
+		@Override
+		public float getValueAsFloat(int columnIndex) {
+			if (columnIndex < 2) {
+				throw new IllegalArgumentException("Can't use this method for column indices < 2");
+			}
+			if (valueColumns[columnIndex] == null) {
+				throw new IllegalStateException("column " + columnIndex + " wasn't read");
+			}
+			return valueColumns[columnIndex][timeStepRecordIndex];
+		}
+
+		@Override
+		public int getColumnCount() {
+			return valueColumns.length;
+		}
+	}
+}
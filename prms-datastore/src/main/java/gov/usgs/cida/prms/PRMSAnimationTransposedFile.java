@@ -0,0 +1,360 @@
+package gov.usgs.cida.prms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary HRU-major (transposed) sidecar for a PRMS animation file.
+ * <p>
+ * The animation file is timestep-major so reading the time series of a
+ * single HRU touches every timestep.  The sidecar holds one block per HRU,
+ * in timestep record order, and within each block the
+ * <code>timeStepCount</code> values of every value column contiguously as
+ * 32 bit floats.  A single HRU time series, for one column or all of them,
+ * is a single contiguous read.  The timestamp and nhru columns aren't stored,
+ * timestamps are in the metadata timestep list and the nhru is the HRU being
+ * read.
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   long    animation file length (staleness check)
+ *   int     timeStepCount
+ *   int     timeStepRecordCount
+ *   int     recordEntryCount
+ *   block[] timeStepRecordCount blocks of (recordEntryCount - 2) * timeStepCount values
+ * </pre>
+ */
+public class PRMSAnimationTransposedFile {
+
+	public final static String SUFFIX = ".transposed";
+
+	/** System property, set to "true" to generate sidecars when metadata is loaded */
+	public final static String GENERATE_PROPERTY = "gov.usgs.cida.prms.transposed";
+
+	/** Upper bound on memory used to hold a run of timesteps, and then to merge the runs, during generation */
+	public final static long DEFAULT_GENERATE_BUFFER_SIZE_BYTES = 64L << 20;
+
+	private final static int MAGIC = 0x50524d54; // "PRMT"
+	private final static int VERSION = 1;
+	private final static int VALUE_SIZE_BYTES = 4;
+	private final static int HEADER_SIZE_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+
+	public static File getTransposedFile(String animationFilePath) {
+		return new File(animationFilePath + SUFFIX);
+	}
+
+	public static boolean isGenerateEnabled() {
+		return Boolean.getBoolean(GENERATE_PROPERTY);
+	}
+
+	/**
+	 * @return true if a sidecar exists for this animation file and it was
+	 * written after the animation file was last modified.
+	 */
+	public static boolean isCurrent(PRMSAnimationFileMetaData metaData) {
+		File animationFile = new File(metaData.getAnimationFilePath());
+		File transposedFile = getTransposedFile(metaData.getAnimationFilePath());
+		return transposedFile.exists() && transposedFile.lastModified() > animationFile.lastModified();
+	}
+
+	public static void generate(PRMSAnimationFileMetaData metaData) throws IOException {
+		generate(metaData, DEFAULT_GENERATE_BUFFER_SIZE_BYTES);
+	}
+
+	/**
+	 * Transposes the animation file described by <code>metaData</code> into a
+	 * HRU-major sidecar in a single sequential pass over the animation file.
+	 * Runs of as many timesteps as fit in <code>bufferSizeBytes</code> are
+	 * transposed in memory and spilled, HRU-major, to a temporary file.  The
+	 * runs are then merged into the sidecar, each HRU block is the
+	 * concatenation of that HRU's part of every run and each run is read
+	 * sequentially, so memory use is bounded regardless of file size.  The
+	 * sidecar is written to a temporary file and renamed when complete so
+	 * readers never see a partial file.
+	 */
+	public static void generate(PRMSAnimationFileMetaData metaData, long bufferSizeBytes) throws IOException {
+
+		int timeStepCount = metaData.getTimeStepCount();
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		int recordEntryCount = metaData.getRecordEntryCount();
+		int valueCount = recordEntryCount - 2;
+
+		if (timeStepRecordCount < 1 || (long) timeStepCount * timeStepRecordCount != metaData.getRecordCount()) {
+			throw new IOException("Unable to generate transposed file for " + metaData.getAnimationFilePath() + ", incomplete timesteps");
+		}
+
+		long timeStepValueCount = (long) timeStepRecordCount * valueCount;
+		long runTimeStepCount = Math.min(bufferSizeBytes, Integer.MAX_VALUE) / (timeStepValueCount * VALUE_SIZE_BYTES);
+		int runSize = (int) Math.max(1, Math.min(runTimeStepCount, timeStepCount));
+
+		File transposedFile = getTransposedFile(metaData.getAnimationFilePath());
+		File temporaryFile = new File(transposedFile.getPath() + ".tmp");
+		File runFile = new File(transposedFile.getPath() + ".runs");
+
+		long start = System.currentTimeMillis();
+
+		DataOutputStream outputStream = null;
+		try {
+			outputStream = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temporaryFile),
+					1 << 20));
+
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeLong(metaData.getHeaderSizeBytes() + metaData.getDataSizeBytes());
+			outputStream.writeInt(timeStepCount);
+			outputStream.writeInt(timeStepRecordCount);
+			outputStream.writeInt(recordEntryCount);
+
+			if (runSize == timeStepCount) {
+				// a single run is the sidecar
+				writeRuns(metaData, runSize, outputStream);
+			} else {
+				DataOutputStream runOutputStream = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(runFile),
+						1 << 20));
+				try {
+					writeRuns(metaData, runSize, runOutputStream);
+				} finally {
+					runOutputStream.close();
+				}
+				mergeRuns(metaData, runSize, runFile, bufferSizeBytes, outputStream);
+			}
+		} finally {
+			if (outputStream != null) {
+				outputStream.close();
+			}
+			runFile.delete();
+		}
+
+		if (transposedFile.exists() && !transposedFile.delete()) {
+			temporaryFile.delete();
+			throw new IOException("Unable to replace " + transposedFile.getPath());
+		}
+		if (!temporaryFile.renameTo(transposedFile)) {
+			temporaryFile.delete();
+			throw new IOException("Unable to rename " + temporaryFile.getPath() + " to " + transposedFile.getPath());
+		}
+
+		float deltaSeconds = (float) (System.currentTimeMillis() - start) / (float) 1000;
+		System.out.println("generated " + transposedFile.getPath() + " in " + deltaSeconds + "s (" + ((timeStepCount + runSize - 1) / runSize) + " runs)");
+	}
+
+	/**
+	 * Reads the animation file once, front to back, writing each run of
+	 * <code>runSize</code> timesteps HRU-major: for each HRU, for each value
+	 * column, the run's values in timestep order.
+	 */
+	private static void writeRuns(PRMSAnimationFileMetaData metaData, int runSize, DataOutputStream outputStream) throws IOException {
+		int timeStepCount = metaData.getTimeStepCount();
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		int valueCount = metaData.getRecordEntryCount() - 2;
+
+		// uses the columnar sidecar if there is a current one
+		PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData);
+		try {
+			float[] run = new float[runSize * timeStepRecordCount * valueCount];
+			for (int runStart = 0; runStart < timeStepCount; runStart += runSize) {
+				int runLength = Math.min(runSize, timeStepCount - runStart);
+				int segmentValueCount = valueCount * runLength;
+				for (int timeStepOffset = 0; timeStepOffset < runLength; ++timeStepOffset) {
+					int recordIndexOffset = (runStart + timeStepOffset) * timeStepRecordCount;
+					for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+						PRMSAnimationRecord record = recordBuffer.getRecord(recordIndexOffset + timeStepRecordIndex);
+						int segmentOffset = timeStepRecordIndex * segmentValueCount + timeStepOffset;
+						for (int valueIndex = 0; valueIndex < valueCount; ++valueIndex) {
+							run[segmentOffset + valueIndex * runLength] = record.getValueAsFloat(valueIndex + 2);
+						}
+					}
+				}
+				int runValueCount = timeStepRecordCount * segmentValueCount;
+				for (int runIndex = 0; runIndex < runValueCount; ++runIndex) {
+					outputStream.writeFloat(run[runIndex]);
+				}
+			}
+		} finally {
+			recordBuffer.close();
+		}
+	}
+
+	/**
+	 * Concatenates each HRU's segment of every run into its block.  Each run
+	 * has its share of <code>bufferSizeBytes</code> (at least one segment)
+	 * and is read sequentially.
+	 */
+	private static void mergeRuns(PRMSAnimationFileMetaData metaData, int runSize, File runFile, long bufferSizeBytes, DataOutputStream outputStream) throws IOException {
+		int timeStepCount = metaData.getTimeStepCount();
+		int timeStepRecordCount = metaData.getTimeStepRecordCount();
+		int valueCount = metaData.getRecordEntryCount() - 2;
+
+		int runCount = (timeStepCount + runSize - 1) / runSize;
+		long segmentSizeBytes = (long) valueCount * runSize * VALUE_SIZE_BYTES;
+		long runBufferSizeBytes = Math.max(segmentSizeBytes, Math.min(bufferSizeBytes, Integer.MAX_VALUE) / runCount);
+		runBufferSizeBytes -= runBufferSizeBytes % segmentSizeBytes;
+		if (runBufferSizeBytes > Integer.MAX_VALUE) {
+			throw new IOException("Unable to generate transposed file for " + metaData.getAnimationFilePath() + ", HRU block too large");
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(runFile, "r");
+		try {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			ByteBuffer[] runBuffers = new ByteBuffer[runCount];
+			long[] runPositions = new long[runCount];
+			long[] runEnds = new long[runCount];
+			int[] runLengths = new int[runCount];
+			for (int runIndex = 0; runIndex < runCount; ++runIndex) {
+				int runStart = runIndex * runSize;
+				runLengths[runIndex] = Math.min(runSize, timeStepCount - runStart);
+				// runs before this one are runStart timesteps of every HRU
+				runPositions[runIndex] = (long) runStart * timeStepRecordCount * valueCount * VALUE_SIZE_BYTES;
+				runEnds[runIndex] = runPositions[runIndex] + (long) runLengths[runIndex] * timeStepRecordCount * valueCount * VALUE_SIZE_BYTES;
+				runBuffers[runIndex] = ByteBuffer.allocate((int) runBufferSizeBytes);
+				runBuffers[runIndex].flip();
+			}
+
+			FloatBuffer[] segments = new FloatBuffer[runCount];
+			for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+				for (int runIndex = 0; runIndex < runCount; ++runIndex) {
+					int segmentBytes = valueCount * runLengths[runIndex] * VALUE_SIZE_BYTES;
+					ByteBuffer runBuffer = runBuffers[runIndex];
+					if (runBuffer.remaining() < segmentBytes) {
+						runBuffer.compact();
+						runBuffer.limit((int) Math.min(runBuffer.capacity(), runBuffer.position() + runEnds[runIndex] - runPositions[runIndex]));
+						while (runBuffer.hasRemaining()) {
+							int read = fileChannel.read(runBuffer, runPositions[runIndex]);
+							if (read < 0) {
+								throw new EOFException("Truncated run file for " + metaData.getAnimationFilePath());
+							}
+							runPositions[runIndex] += read;
+						}
+						runBuffer.flip();
+					}
+					ByteBuffer segment = runBuffer.slice();
+					segment.limit(segmentBytes);
+					segments[runIndex] = segment.asFloatBuffer();
+					runBuffer.position(runBuffer.position() + segmentBytes);
+				}
+				for (int valueIndex = 0; valueIndex < valueCount; ++valueIndex) {
+					for (int runIndex = 0; runIndex < runCount; ++runIndex) {
+						FloatBuffer segment = segments[runIndex];
+						for (int timeStepOffset = 0; timeStepOffset < runLengths[runIndex]; ++timeStepOffset) {
+							outputStream.writeFloat(segment.get());
+						}
+					}
+				}
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private final PRMSAnimationFileMetaData metaData;
+	private final int timeStepCount;
+	private final int timeStepRecordCount;
+	private final int recordEntryCount;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel fileChannel;
+
+	public PRMSAnimationTransposedFile(PRMSAnimationFileMetaData metaData) throws IOException {
+		this.metaData = metaData;
+		this.timeStepCount = metaData.getTimeStepCount();
+		this.timeStepRecordCount = metaData.getTimeStepRecordCount();
+		this.recordEntryCount = metaData.getRecordEntryCount();
+
+		randomAccessFile = new RandomAccessFile(getTransposedFile(metaData.getAnimationFilePath()), "r");
+		try {
+			fileChannel = randomAccessFile.getChannel();
+
+			ByteBuffer header = read(0, HEADER_SIZE_BYTES);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Unrecognized transposed file for " + metaData.getAnimationFilePath());
+			}
+			if (header.getLong() != metaData.getHeaderSizeBytes() + metaData.getDataSizeBytes() ||
+					header.getInt() != timeStepCount ||
+					header.getInt() != timeStepRecordCount ||
+					header.getInt() != recordEntryCount) {
+				throw new IOException("Transposed file doesn't match metadata for " + metaData.getAnimationFilePath());
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return values of one column for every timestep of the HRU at
+	 * <code>timeStepRecordIndex</code>, in timestep order.
+	 */
+	public float[] getTimeSeries(int timeStepRecordIndex, int recordEntryIndex) throws IOException {
+		return getTimeSeries(timeStepRecordIndex, new int[] { recordEntryIndex })[recordEntryIndex];
+	}
+
+	/**
+	 * Reads the span of the HRU block covering the requested columns in a
+	 * single read.
+	 * @return array indexed by record entry index holding the time series of
+	 * each requested column, entries for columns not requested are null.
+	 */
+	public float[][] getTimeSeries(int timeStepRecordIndex, int[] recordEntryIndices) throws IOException {
+		if (timeStepRecordIndex < 0 || timeStepRecordIndex >= timeStepRecordCount) {
+			throw new IndexOutOfBoundsException("timestep record " + timeStepRecordIndex);
+		}
+		int minimumIndex = Integer.MAX_VALUE;
+		int maximumIndex = Integer.MIN_VALUE;
+		for (int recordEntryIndex : recordEntryIndices) {
+			if (recordEntryIndex < 2 || recordEntryIndex >= recordEntryCount) {
+				throw new IllegalArgumentException("Time series are only available for value columns, not " + recordEntryIndex);
+			}
+			minimumIndex = Math.min(minimumIndex, recordEntryIndex);
+			maximumIndex = Math.max(maximumIndex, recordEntryIndex);
+		}
+		float[][] timeSeries = new float[recordEntryCount][];
+		if (recordEntryIndices.length == 0) {
+			return timeSeries;
+		}
+		long seriesSizeBytes = (long) timeStepCount * VALUE_SIZE_BYTES;
+		long blockOffsetBytes = HEADER_SIZE_BYTES + (long) timeStepRecordIndex * (recordEntryCount - 2) * seriesSizeBytes;
+		long spanOffsetBytes = blockOffsetBytes + (minimumIndex - 2) * seriesSizeBytes;
+		FloatBuffer span = read(spanOffsetBytes, (maximumIndex - minimumIndex + 1) * seriesSizeBytes).asFloatBuffer();
+		for (int recordEntryIndex : recordEntryIndices) {
+			if (timeSeries[recordEntryIndex] == null) {
+				float[] values = new float[timeStepCount];
+				span.position((recordEntryIndex - minimumIndex) * timeStepCount);
+				span.get(values);
+				timeSeries[recordEntryIndex] = values;
+			}
+		}
+		return timeSeries;
+	}
+
+	private ByteBuffer read(long position, long lengthBytes) throws IOException {
+		if (lengthBytes > Integer.MAX_VALUE) {
+			throw new IOException("Time series too large to read for " + metaData.getAnimationFilePath());
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) lengthBytes);
+		while (buffer.hasRemaining()) {
+			if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Truncated transposed file for " + metaData.getAnimationFilePath());
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public void close() throws IOException {
+		fileChannel = null;
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package gov.usgs.cida.prms;
+
+import java.nio.ByteBuffer;
+import org.joda.time.DateTime;
+
+/**
+ * {@link PRMSAnimationRecordFlyweight} for records that aren't fixed width.
+ * Column offsets differ per record so the column separators of a record are
+ * located (a word at a time) on first access after it's wrapped.  The
+ * buffer has to be {@link java.nio.ByteOrder#LITTLE_ENDIAN}.
+ */
+class PRMSAnimationVariableWidthRecordFlyweight implements PRMSAnimationRecord<Float> {
+    private final int columnCount;
+    private final PRMSAnimationTimeStampDecoder timeStampDecoder = new PRMSAnimationTimeStampDecoder();
+
+    private ByteBuffer recordBuffer;
+    private int recordOffset;
+    private int recordLength;
+    private int recordIndex;
+
+    // columns of the wrapped record, located on first access
+    private final int[] columnOffsets;
+    private final int[] columnLengths;
+    private boolean columnsLocated;
+
+    public PRMSAnimationVariableWidthRecordFlyweight(int columnCount) {
+        this.columnCount = columnCount;
+        this.columnOffsets = new int[columnCount];
+        this.columnLengths = new int[columnCount];
+    }
+
+    PRMSAnimationVariableWidthRecordFlyweight wrap(ByteBuffer recordBuffer, int recordOffset, int recordLength, int recordIndex) {
+        this.recordBuffer = recordBuffer;
+        this.recordOffset = recordOffset;
+        this.recordLength = recordLength;
+        this.recordIndex = recordIndex;
+        this.columnsLocated = false;
+        return this;
+    }
+
+    private void locateColumns() {
+        int recordEnd = recordOffset + recordLength;
+        int columnStart = recordOffset;
+        for (int columnIndex = 0; columnIndex < columnCount; ++columnIndex) {
+            int columnEnd = columnIndex + 1 < columnCount ?
+                    PRMSAnimationRecordIndex.indexOf(recordBuffer, columnStart, recordEnd, (byte) '\t') :
+                    recordEnd;
+            if (columnEnd < 0) {
+                throw new IllegalStateException("Record " + recordIndex + " has " + (columnIndex + 1) + " of " + columnCount + " columns");
+            }
+            columnOffsets[columnIndex] = columnStart;
+            columnLengths[columnIndex] = columnEnd - columnStart;
+            columnStart = columnEnd + 1;
+        }
+        columnsLocated = true;
+    }
+
+    @Override
+    public int getIndex() {
+        return recordIndex;
+    }
+
+    @Override
+    public DateTime getTimeStamp() {
+        if (!columnsLocated) {
+            locateColumns();
+        }
+        return timeStampDecoder.getDateTime(recordBuffer, columnOffsets[0], columnLengths[0]);
+    }
+
+    @Override
+    public long getTimeStampAsMillis() {
+        if (!columnsLocated) {
+            locateColumns();
+        }
+        return timeStampDecoder.getMillis(recordBuffer, columnOffsets[0], columnLengths[0]);
+    }
+
+    @Override
+    public Integer getNHRU() {
+        return getNHRUAsInt();
+    }
+
+    @Override
+    public int getNHRUAsInt() {
+        if (!columnsLocated) {
+            locateColumns();
+        }
+        return PRMSAnimationFileUtility.quickParseInt(recordBuffer, columnOffsets[1], columnLengths[1]);
+    }
+
+    @Override
+    public Float getValue(int columnIndex) {
+        return getValueAsFloat(columnIndex);
+    }
+
+    @Override
+    public float getValueAsFloat(int columnIndex) {
+        if (columnIndex > 1) {
+            if (!columnsLocated) {
+                locateColumns();
+            }
+            return PRMSAnimationFileUtility.quickParseFloat(recordBuffer, columnOffsets[columnIndex], columnLengths[columnIndex]);
+        } else {
+            throw new IllegalArgumentException("Can't use this method for column indices < 2");
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+}
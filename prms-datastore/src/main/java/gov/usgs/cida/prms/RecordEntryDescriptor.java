@@ -24,6 +24,12 @@ public class RecordEntryDescriptor {
 	private int length;
 	private boolean trimRequired;
 
+	// for XStream, XML metadata written by earlier versions is read on JVMs
+	// it can't construct instances on without a constructor
+	private RecordEntryDescriptor() {
+
+	}
+
 	public RecordEntryDescriptor(String name, int index, Type type, int offset, int length, boolean trimRequired) {
 		this.name = name;
 		this.index = index;
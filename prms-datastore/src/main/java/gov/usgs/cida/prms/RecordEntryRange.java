@@ -2,6 +2,11 @@ package gov.usgs.cida.prms;
 
 public class RecordEntryRange<N extends Comparable<N>> extends Range<N> {
 
+	// for XStream, see RecordEntryDescriptor
+	private RecordEntryRange() {
+
+	}
+
 	public RecordEntryRange(N initialValue) {
 		super(initialValue, initialValue);
 	}
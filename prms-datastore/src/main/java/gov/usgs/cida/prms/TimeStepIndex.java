@@ -0,0 +1,172 @@
+package gov.usgs.cida.prms;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.joda.time.DateTime;
+
+/**
+ * Sorted epoch millisecond index over the timesteps of an animation file.
+ * All lookups are binary searches and return the timestep index (position in
+ * the animation file timestep list) or -1 if there's no match.
+ */
+public class TimeStepIndex {
+
+	private final long[] timeStepMillis;   // sorted ascending
+	private final int[] timeStepIndices;   // timestep index for each entry in timeStepMillis
+
+	public TimeStepIndex(List<DateTime> timeStepList) {
+		int timeStepCount = timeStepList.size();
+		timeStepMillis = new long[timeStepCount];
+		timeStepIndices = new int[timeStepCount];
+
+		boolean sorted = true;
+		for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+			timeStepMillis[timeStepIndex] = timeStepList.get(timeStepIndex).getMillis();
+			timeStepIndices[timeStepIndex] = timeStepIndex;
+			if (timeStepIndex > 0 && timeStepMillis[timeStepIndex] < timeStepMillis[timeStepIndex - 1]) {
+				sorted = false;
+			}
+		}
+
+		// animation files are written in time order, only sort if we have to
+		if (!sorted) {
+			Integer[] order = new Integer[timeStepCount];
+			for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+				order[timeStepIndex] = timeStepIndex;
+			}
+			final long[] unsortedMillis = timeStepMillis.clone();
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					long m1 = unsortedMillis[o1];
+					long m2 = unsortedMillis[o2];
+					return m1 < m2 ? -1 : (m1 == m2 ? o1.compareTo(o2) : 1);
+				}
+			});
+			for (int sortedIndex = 0; sortedIndex < timeStepCount; ++sortedIndex) {
+				timeStepMillis[sortedIndex] = unsortedMillis[order[sortedIndex]];
+				timeStepIndices[sortedIndex] = order[sortedIndex];
+			}
+		}
+	}
+
+	public int size() {
+		return timeStepMillis.length;
+	}
+
+	public long getMinimumMillis() {
+		return timeStepMillis[0];
+	}
+
+	public long getMaximumMillis() {
+		return timeStepMillis[timeStepMillis.length - 1];
+	}
+
+	/** @return index of the timestep at exactly <code>millis</code> */
+	public int exact(long millis) {
+		int sortedIndex = lowerBound(millis);
+		return sortedIndex < timeStepMillis.length && timeStepMillis[sortedIndex] == millis ?
+				timeStepIndices[sortedIndex] : -1;
+	}
+
+	/** @return index of the latest timestep at or before <code>millis</code> */
+	public int floor(long millis) {
+		int sortedIndex = upperBound(millis) - 1;
+		return sortedIndex > -1 ? timeStepIndices[sortedIndex] : -1;
+	}
+
+	/** @return index of the earliest timestep at or after <code>millis</code> */
+	public int ceiling(long millis) {
+		int sortedIndex = lowerBound(millis);
+		return sortedIndex < timeStepMillis.length ? timeStepIndices[sortedIndex] : -1;
+	}
+
+	/** @return index of the timestep closest to <code>millis</code>, ties go to the earlier timestep */
+	public int nearest(long millis) {
+		return nearest(millis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return index of the timestep closest to <code>millis</code> if it's
+	 * within <code>toleranceMillis</code>, ties go to the earlier timestep
+	 */
+	public int nearest(long millis, long toleranceMillis) {
+		if (timeStepMillis.length == 0) {
+			return -1;
+		}
+		int ceilingIndex = lowerBound(millis);
+		int floorIndex = ceilingIndex < timeStepMillis.length && timeStepMillis[ceilingIndex] == millis ?
+				ceilingIndex : ceilingIndex - 1;
+		int sortedIndex;
+		if (floorIndex < 0) {
+			sortedIndex = ceilingIndex;
+		} else if (ceilingIndex >= timeStepMillis.length) {
+			sortedIndex = floorIndex;
+		} else {
+			sortedIndex = (millis - timeStepMillis[floorIndex]) <= (timeStepMillis[ceilingIndex] - millis) ?
+					floorIndex : ceilingIndex;
+		}
+		long distance = Math.abs(millis - timeStepMillis[sortedIndex]);
+		return distance <= toleranceMillis ? timeStepIndices[sortedIndex] : -1;
+	}
+
+	/**
+	 * @return indices of all timesteps in [<code>startMillis</code>, <code>endMillis</code>]
+	 * in time order, empty if none.
+	 */
+	public int[] range(long startMillis, long endMillis) {
+		if (endMillis < startMillis) {
+			return new int[0];
+		}
+		int start = lowerBound(startMillis);
+		int end = upperBound(endMillis);
+		return Arrays.copyOfRange(timeStepIndices, start, Math.max(start, end));
+	}
+
+	public int exact(DateTime dateTime) {
+		return exact(dateTime.getMillis());
+	}
+
+	public int floor(DateTime dateTime) {
+		return floor(dateTime.getMillis());
+	}
+
+	public int ceiling(DateTime dateTime) {
+		return ceiling(dateTime.getMillis());
+	}
+
+	public int nearest(DateTime dateTime) {
+		return nearest(dateTime.getMillis());
+	}
+
+	// first sorted position with value >= millis
+	private int lowerBound(long millis) {
+		int low = 0;
+		int high = timeStepMillis.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timeStepMillis[middle] < millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// first sorted position with value > millis
+	private int upperBound(long millis) {
+		int low = 0;
+		int high = timeStepMillis.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timeStepMillis[middle] <= millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
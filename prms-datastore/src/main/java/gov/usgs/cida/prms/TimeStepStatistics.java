@@ -0,0 +1,289 @@
+package gov.usgs.cida.prms;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.core.util.Base64Encoder;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-timestep statistics (minimum, maximum, mean and count of non-NaN
+ * values) for each value column of an animation file, and optionally a
+ * fixed-bucket histogram per timestep.  Histogram buckets for a column
+ * evenly divide that column's range across the whole file so histograms
+ * from different timesteps are comparable.
+ * <p>
+ * Columns are addressed by record entry index (2 to recordEntryCount - 1),
+ * timestamp and nhru don't have statistics.
+ */
+public class TimeStepStatistics {
+
+	private final int timeStepCount;
+	private final int recordEntryCount;
+
+	// [valueIndex * timeStepCount + timeStepIndex] where valueIndex = recordEntryIndex - 2
+	private final float[] minimum;
+	private final float[] maximum;
+	private final float[] mean;
+	private final int[] count;
+
+	private int histogramBucketCount;
+	private float[] histogramMinimum; // [valueIndex]
+	private float[] histogramMaximum; // [valueIndex]
+	// [(valueIndex * timeStepCount + timeStepIndex) * histogramBucketCount + bucketIndex]
+	private int[] histogram;
+
+	TimeStepStatistics(int timeStepCount, int recordEntryCount) {
+		this.timeStepCount = timeStepCount;
+		this.recordEntryCount = recordEntryCount;
+		int length = (recordEntryCount - 2) * timeStepCount;
+		minimum = new float[length];
+		maximum = new float[length];
+		mean = new float[length];
+		count = new int[length];
+		Arrays.fill(minimum, Float.NaN);
+		Arrays.fill(maximum, Float.NaN);
+		Arrays.fill(mean, Float.NaN);
+	}
+
+	private TimeStepStatistics(int timeStepCount, int recordEntryCount, float[] minimum, float[] maximum, float[] mean, int[] count) {
+		this.timeStepCount = timeStepCount;
+		this.recordEntryCount = recordEntryCount;
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.mean = mean;
+		this.count = count;
+	}
+
+	void set(int timeStepIndex, int recordEntryIndex, float minimum, float maximum, double sum, int count) {
+		int index = index(timeStepIndex, recordEntryIndex);
+		this.minimum[index] = count > 0 ? minimum : Float.NaN;
+		this.maximum[index] = count > 0 ? maximum : Float.NaN;
+		this.mean[index] = count > 0 ? (float) (sum / count) : Float.NaN;
+		this.count[index] = count;
+	}
+
+	void initializeHistograms(int histogramBucketCount, float[] histogramMinimum, float[] histogramMaximum) {
+		this.histogramBucketCount = histogramBucketCount;
+		this.histogramMinimum = histogramMinimum;
+		this.histogramMaximum = histogramMaximum;
+		this.histogram = new int[minimum.length * histogramBucketCount];
+	}
+
+	void addHistogramCount(int timeStepIndex, int recordEntryIndex, int bucketIndex, int bucketCount) {
+		histogram[index(timeStepIndex, recordEntryIndex) * histogramBucketCount + bucketIndex] += bucketCount;
+	}
+
+	private int index(int timeStepIndex, int recordEntryIndex) {
+		if (timeStepIndex < 0 || timeStepIndex >= timeStepCount) {
+			throw new IndexOutOfBoundsException("timestep " + timeStepIndex);
+		}
+		if (recordEntryIndex < 2 || recordEntryIndex >= recordEntryCount) {
+			throw new IndexOutOfBoundsException("record entry " + recordEntryIndex + ", statistics are only available for value columns");
+		}
+		return (recordEntryIndex - 2) * timeStepCount + timeStepIndex;
+	}
+
+	public int getTimeStepCount() {
+		return timeStepCount;
+	}
+
+	public float getMinimum(int timeStepIndex, int recordEntryIndex) {
+		return minimum[index(timeStepIndex, recordEntryIndex)];
+	}
+
+	public float getMaximum(int timeStepIndex, int recordEntryIndex) {
+		return maximum[index(timeStepIndex, recordEntryIndex)];
+	}
+
+	public float getMean(int timeStepIndex, int recordEntryIndex) {
+		return mean[index(timeStepIndex, recordEntryIndex)];
+	}
+
+	/** @return number of non-NaN values */
+	public int getCount(int timeStepIndex, int recordEntryIndex) {
+		return count[index(timeStepIndex, recordEntryIndex)];
+	}
+
+	public boolean hasHistograms() {
+		return histogramBucketCount > 0;
+	}
+
+	public int getHistogramBucketCount() {
+		return histogramBucketCount;
+	}
+
+	/** @return lower edge of the first histogram bucket for this column */
+	public float getHistogramMinimum(int recordEntryIndex) {
+		checkHistograms();
+		return histogramMinimum[recordEntryIndex - 2];
+	}
+
+	/** @return upper edge of the last histogram bucket for this column */
+	public float getHistogramMaximum(int recordEntryIndex) {
+		checkHistograms();
+		return histogramMaximum[recordEntryIndex - 2];
+	}
+
+	/** @return copy of the bucket counts for this timestep and column */
+	public int[] getHistogram(int timeStepIndex, int recordEntryIndex) {
+		checkHistograms();
+		int offset = index(timeStepIndex, recordEntryIndex) * histogramBucketCount;
+		return Arrays.copyOfRange(histogram, offset, offset + histogramBucketCount);
+	}
+
+	/** @return histogram bucket for the value, values outside the column range are clamped, -1 for NaN */
+	public int getHistogramBucket(int recordEntryIndex, float value) {
+		checkHistograms();
+		return bucket(histogramBucketCount, histogramMinimum[recordEntryIndex - 2], histogramMaximum[recordEntryIndex - 2], value);
+	}
+
+	static int bucket(int bucketCount, float bucketMinimum, float bucketMaximum, float value) {
+		if (Float.isNaN(value)) {
+			return -1;
+		}
+		float range = bucketMaximum - bucketMinimum;
+		int bucket = range > 0 ? (int) ((value - bucketMinimum) / range * bucketCount) : 0;
+		return bucket < 0 ? 0 : (bucket < bucketCount ? bucket : bucketCount - 1);
+	}
+
+	private void checkHistograms() {
+		if (histogramBucketCount < 1) {
+			throw new IllegalStateException("histograms weren't generated for this file");
+		}
+	}
+
+	// binary persisted form, see PRMSAnimationMetaDataFile
+	void write(DataOutputStream outputStream) throws IOException {
+		outputStream.writeInt(timeStepCount);
+		outputStream.writeInt(recordEntryCount);
+		outputStream.writeInt(histogramBucketCount);
+		PRMSAnimationMetaDataFile.writeFloats(outputStream, minimum);
+		PRMSAnimationMetaDataFile.writeFloats(outputStream, maximum);
+		PRMSAnimationMetaDataFile.writeFloats(outputStream, mean);
+		PRMSAnimationMetaDataFile.writeInts(outputStream, count);
+		if (histogramBucketCount > 0) {
+			PRMSAnimationMetaDataFile.writeFloats(outputStream, histogramMinimum);
+			PRMSAnimationMetaDataFile.writeFloats(outputStream, histogramMaximum);
+			PRMSAnimationMetaDataFile.writeInts(outputStream, histogram);
+		}
+	}
+
+	static TimeStepStatistics read(ByteBuffer buffer) {
+		int timeStepCount = buffer.getInt();
+		int recordEntryCount = buffer.getInt();
+		int histogramBucketCount = buffer.getInt();
+		float[] minimum = PRMSAnimationMetaDataFile.readFloats(buffer);
+		float[] maximum = PRMSAnimationMetaDataFile.readFloats(buffer);
+		float[] mean = PRMSAnimationMetaDataFile.readFloats(buffer);
+		int[] count = PRMSAnimationMetaDataFile.readInts(buffer);
+		TimeStepStatistics statistics = new TimeStepStatistics(timeStepCount, recordEntryCount, minimum, maximum, mean, count);
+		if (histogramBucketCount > 0) {
+			float[] histogramMinimum = PRMSAnimationMetaDataFile.readFloats(buffer);
+			float[] histogramMaximum = PRMSAnimationMetaDataFile.readFloats(buffer);
+			statistics.histogramBucketCount = histogramBucketCount;
+			statistics.histogramMinimum = histogramMinimum;
+			statistics.histogramMaximum = histogramMaximum;
+			statistics.histogram = PRMSAnimationMetaDataFile.readInts(buffer);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Arrays are stored base64 encoded (big-endian), the per value element
+	 * XStream default would be enormous for long daily runs.
+	 */
+	public static class TimeStepStatisticsConverter implements Converter {
+
+		private final static Base64Encoder BASE64 = new Base64Encoder();
+
+		@Override
+		public boolean canConvert(Class clazz) {
+			return clazz.equals(TimeStepStatistics.class);
+		}
+
+		@Override
+		public void marshal(Object value, HierarchicalStreamWriter writer, MarshallingContext context) {
+			TimeStepStatistics statistics = (TimeStepStatistics) value;
+			writer.addAttribute("timeStepCount", Integer.toString(statistics.timeStepCount));
+			writer.addAttribute("recordEntryCount", Integer.toString(statistics.recordEntryCount));
+			writer.addAttribute("histogramBucketCount", Integer.toString(statistics.histogramBucketCount));
+			writeNode(writer, "minimum", encode(statistics.minimum));
+			writeNode(writer, "maximum", encode(statistics.maximum));
+			writeNode(writer, "mean", encode(statistics.mean));
+			writeNode(writer, "count", encode(statistics.count));
+			if (statistics.histogramBucketCount > 0) {
+				writeNode(writer, "histogramMinimum", encode(statistics.histogramMinimum));
+				writeNode(writer, "histogramMaximum", encode(statistics.histogramMaximum));
+				writeNode(writer, "histogram", encode(statistics.histogram));
+			}
+		}
+
+		@Override
+		public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+			int timeStepCount = Integer.parseInt(reader.getAttribute("timeStepCount"));
+			int recordEntryCount = Integer.parseInt(reader.getAttribute("recordEntryCount"));
+			int histogramBucketCount = Integer.parseInt(reader.getAttribute("histogramBucketCount"));
+			float[] minimum = decodeFloats(readNode(reader, "minimum"));
+			float[] maximum = decodeFloats(readNode(reader, "maximum"));
+			float[] mean = decodeFloats(readNode(reader, "mean"));
+			int[] count = decodeInts(readNode(reader, "count"));
+			TimeStepStatistics statistics = new TimeStepStatistics(timeStepCount, recordEntryCount, minimum, maximum, mean, count);
+			if (histogramBucketCount > 0) {
+				float[] histogramMinimum = decodeFloats(readNode(reader, "histogramMinimum"));
+				float[] histogramMaximum = decodeFloats(readNode(reader, "histogramMaximum"));
+				statistics.initializeHistograms(histogramBucketCount, histogramMinimum, histogramMaximum);
+				int[] histogram = decodeInts(readNode(reader, "histogram"));
+				System.arraycopy(histogram, 0, statistics.histogram, 0, histogram.length);
+			}
+			return statistics;
+		}
+
+		private static void writeNode(HierarchicalStreamWriter writer, String name, String value) {
+			writer.startNode(name);
+			writer.setValue(value);
+			writer.endNode();
+		}
+
+		private static String readNode(HierarchicalStreamReader reader, String name) {
+			reader.moveDown();
+			if (!name.equals(reader.getNodeName())) {
+				throw new IllegalStateException("expected " + name + " but found " + reader.getNodeName());
+			}
+			String value = reader.getValue();
+			reader.moveUp();
+			return value;
+		}
+
+		private static String encode(float[] values) {
+			ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+			buffer.asFloatBuffer().put(values);
+			return BASE64.encode(buffer.array());
+		}
+
+		private static String encode(int[] values) {
+			ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+			buffer.asIntBuffer().put(values);
+			return BASE64.encode(buffer.array());
+		}
+
+		private static float[] decodeFloats(String value) {
+			ByteBuffer buffer = ByteBuffer.wrap(BASE64.decode(value));
+			float[] values = new float[buffer.remaining() / 4];
+			buffer.asFloatBuffer().get(values);
+			return values;
+		}
+
+		private static int[] decodeInts(String value) {
+			ByteBuffer buffer = ByteBuffer.wrap(BASE64.decode(value));
+			int[] values = new int[buffer.remaining() / 4];
+			buffer.asIntBuffer().get(values);
+			return values;
+		}
+	}
+}
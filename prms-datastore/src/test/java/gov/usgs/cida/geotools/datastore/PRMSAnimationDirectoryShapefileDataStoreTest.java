@@ -0,0 +1,147 @@
+package gov.usgs.cida.geotools.datastore;
+
+import gov.usgs.cida.prms.PRMSAnimationFileMetaData;
+import gov.usgs.cida.prms.PRMSAnimationMetaDataFile;
+import gov.usgs.cida.prms.Utilities;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Arrays;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Type names are listed before any animation file is scanned, and a file
+ * that can't be loaded only fails its own type whether it's loaded in the
+ * background or on first access.
+ */
+public class PRMSAnimationDirectoryShapefileDataStoreTest {
+
+    private final static int HRU_COUNT = PRMSAnimationShapefileDataStoreTest.HRU_COUNT;
+
+    private final static int TIMESTEP_COUNT = 2;
+
+    private File directory;
+    private URL shapefileURL;
+    private PRMSAnimationDirectoryShapefileDataStore dataStore;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Utilities.createTemporaryDirectory();
+        shapefileURL = Utilities.createHRUShapefile(directory, HRU_COUNT);
+        writeAnimationFile(new File(directory, "first.animation.nhru"), TIMESTEP_COUNT);
+        writeAnimationFile(new File(directory, "second.animation.nhru"), TIMESTEP_COUNT);
+        // header cut off before the column names
+        BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, "corrupt.animation.nhru")));
+        try {
+            writer.write("#\r\n# Begin DBF\r\n# timestamp,-,-,#FIELD_ISODATETIME,19,0\r\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (dataStore != null) {
+            dataStore.dispose();
+        }
+        System.clearProperty(PRMSAnimationDirectoryShapefileDataStore.LOAD_THREAD_COUNT_PROPERTY);
+        Utilities.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testTypeNamesAdvertisedWithoutScanning() throws Exception {
+        System.setProperty(PRMSAnimationDirectoryShapefileDataStore.LOAD_THREAD_COUNT_PROPERTY, "0");
+        dataStore = createDataStore();
+        String[] typeNames = dataStore.getTypeNames();
+        Arrays.sort(typeNames);
+        assertArrayEquals(new String[] { "corrupt", "first", "second" }, typeNames);
+        for (String typeName : typeNames) {
+            assertFalse(isLoaded(typeName));
+        }
+    }
+
+    @Test
+    public void testLoadedOnFirstAccessWithoutLoadThreads() throws Exception {
+        System.setProperty(PRMSAnimationDirectoryShapefileDataStore.LOAD_THREAD_COUNT_PROPERTY, "0");
+        dataStore = createDataStore();
+        assertFalse(isLoaded("first"));
+
+        PRMSAnimationFileMetaData metaData = dataStore.getAnimationFileMetaData("first");
+        assertEquals(TIMESTEP_COUNT, metaData.getTimeStepCount());
+        assertTrue(isLoaded("first"));
+        assertFalse(isLoaded("second"));
+        // loaded once
+        assertSame(metaData, dataStore.getAnimationFileMetaData("first"));
+
+        assertCorruptFailsAlone();
+    }
+
+    @Test
+    public void testCorruptFileFailsOnlyItsOwnTypeInBackground() throws Exception {
+        System.setProperty(PRMSAnimationDirectoryShapefileDataStore.LOAD_THREAD_COUNT_PROPERTY, "2");
+        dataStore = createDataStore();
+        assertCorruptFailsAlone();
+        assertEquals(3, dataStore.getTypeNames().length);
+    }
+
+    private void assertCorruptFailsAlone() throws Exception {
+        try {
+            dataStore.getAnimationFileMetaData("corrupt");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            dataStore.getSchema("corrupt");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        for (String typeName : new String[] { "first", "second" }) {
+            assertEquals(TIMESTEP_COUNT, dataStore.getAnimationFileMetaData(typeName).getTimeStepCount());
+            assertNotNull(dataStore.getSchema(typeName).getDescriptor("soil_moist"));
+        }
+    }
+
+    private PRMSAnimationDirectoryShapefileDataStore createDataStore() throws Exception {
+        return new PRMSAnimationDirectoryShapefileDataStore(null, directory.toURI().toURL(), shapefileURL, "hru_id");
+    }
+
+    private boolean isLoaded(String typeName) throws IOException {
+        File animationFile = new File(directory, typeName + ".animation.nhru");
+        return PRMSAnimationMetaDataFile.getMetaDataFile(animationFile.getCanonicalPath()).exists();
+    }
+
+    /**
+     * Copies the header and first <code>timeStepCount</code> timesteps of the
+     * test animation file.
+     */
+    private static void writeAnimationFile(File destination, int timeStepCount) throws IOException {
+        URL animationURL = Utilities.findURLForResource(PRMSAnimationShapefileDataStoreTest.ANIMATION_RESOURCE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(animationURL.openStream(), "US-ASCII"));
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(destination));
+            try {
+                // column names and widths follow the commented header
+                int remaining = 2 + timeStepCount * HRU_COUNT;
+                String line;
+                while (remaining > 0 && (line = reader.readLine()) != null) {
+                    if (!line.startsWith("#")) {
+                        --remaining;
+                    }
+                    writer.write(line);
+                    writer.write("\r\n");
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
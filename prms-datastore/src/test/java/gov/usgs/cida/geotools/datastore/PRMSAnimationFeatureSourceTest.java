@@ -0,0 +1,154 @@
+package gov.usgs.cida.geotools.datastore;
+
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
+import gov.usgs.cida.prms.Utilities;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.*;
+import static org.junit.Assert.*;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+/**
+ * Visitors answered from metadata must match a scan of the animation
+ * attributes, anything else must be handed to the delegate.
+ */
+public class PRMSAnimationFeatureSourceTest {
+
+    private final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    private File directory;
+    private PRMSAnimationShapefileDataStore dataStore;
+    private PRMSAnimationFeatureSource featureSource;
+    private String typeName;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Utilities.createTemporaryDirectory();
+        URL shapefileURL = Utilities.createHRUShapefile(directory, PRMSAnimationShapefileDataStoreTest.HRU_COUNT);
+        URL animationURL = Utilities.findURLForResource(PRMSAnimationShapefileDataStoreTest.ANIMATION_RESOURCE);
+        dataStore = new PRMSAnimationShapefileDataStore(null, animationURL, shapefileURL, "hru_id", PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, new PRMSAnimationTimeStepCache(), null,
+                Collections.singletonList(new PRMSAnimationDerivedColumn("soil_moist_2x", "soil_moist * 2")), null);
+        typeName = dataStore.getTypeNames()[0];
+        featureSource = (PRMSAnimationFeatureSource) dataStore.getFeatureSource(typeName);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataStore.dispose();
+        Utilities.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testValueColumnMinMaxFromMetaData() throws Exception {
+        List<Object> values = scan(new Query(typeName, Filter.INCLUDE, new String[] { "soil_moist" }), "soil_moist");
+        assertEquals(PRMSAnimationShapefileDataStoreTest.HRU_COUNT * dataStore.getAnimationFileMetaData().getTimeStepCount(), values.size());
+
+        MinVisitor minVisitor = new MinVisitor(ff.property("soil_moist"));
+        assertTrue(featureSource.visitFromMetaData(minVisitor));
+        assertEquals(minimum(values), minVisitor.getResult().getValue());
+
+        MaxVisitor maxVisitor = new MaxVisitor(ff.property("soil_moist"));
+        featureSource.getFeatures().accepts(maxVisitor, null);
+        assertEquals(maximum(values), maxVisitor.getResult().getValue());
+    }
+
+    @Test
+    public void testTimeStampFromMetaData() throws Exception {
+        List<Object> values = scan(new Query(typeName, Filter.INCLUDE, new String[] { "timestamp" }), "timestamp");
+
+        MinVisitor minVisitor = new MinVisitor(ff.property("timestamp"));
+        assertTrue(featureSource.visitFromMetaData(minVisitor));
+        assertEquals(minimum(values), minVisitor.getResult().getValue());
+
+        MaxVisitor maxVisitor = new MaxVisitor(ff.property("timestamp"));
+        assertTrue(featureSource.visitFromMetaData(maxVisitor));
+        assertEquals(maximum(values), maxVisitor.getResult().getValue());
+
+        UniqueVisitor uniqueVisitor = new UniqueVisitor(ff.property("timestamp"));
+        featureSource.getFeatures(Filter.INCLUDE).accepts(uniqueVisitor, null);
+        assertEquals(dataStore.getAnimationFileMetaData().getTimeStepCount(), uniqueVisitor.getUnique().size());
+        assertEquals(new HashSet<Object>(values), new HashSet<Object>(uniqueVisitor.getUnique()));
+    }
+
+    @Test
+    public void testFilteredQueryUsesDelegate() throws Exception {
+        Query query = new Query(typeName, ff.greater(ff.property("soil_moist"), ff.literal(1.0)), new String[] { "soil_moist" });
+        List<Object> values = scan(query, "soil_moist");
+        assertFalse(values.isEmpty());
+
+        MinVisitor minVisitor = new MinVisitor(ff.property("soil_moist"));
+        featureSource.getFeatures(query).accepts(minVisitor, null);
+        assertEquals(minimum(values), minVisitor.getResult().getValue());
+        // the unfiltered minimum is below the filter
+        MinVisitor unfilteredMinVisitor = new MinVisitor(ff.property("soil_moist"));
+        featureSource.getFeatures().accepts(unfilteredMinVisitor, null);
+        assertFalse(minVisitor.getResult().getValue().equals(unfilteredMinVisitor.getResult().getValue()));
+    }
+
+    @Test
+    public void testPagedQueryUsesDelegate() throws Exception {
+        Query query = new Query(typeName, Filter.INCLUDE, new String[] { "soil_moist" });
+        query.setMaxFeatures(10);
+        List<Object> values = scan(query, "soil_moist");
+        assertEquals(10, values.size());
+
+        MaxVisitor maxVisitor = new MaxVisitor(ff.property("soil_moist"));
+        featureSource.getFeatures(query).accepts(maxVisitor, null);
+        assertEquals(maximum(values), maxVisitor.getResult().getValue());
+    }
+
+    @Test
+    public void testDerivedColumnScanned() throws Exception {
+        Query query = new Query(typeName, Filter.INCLUDE, new String[] { "soil_moist_2x" });
+        List<Object> values = scan(query, "soil_moist_2x");
+
+        MinVisitor minVisitor = new MinVisitor(ff.property("soil_moist_2x"));
+        assertFalse(featureSource.visitFromMetaData(minVisitor));
+        featureSource.getFeatures(query).accepts(minVisitor, null);
+        assertEquals(minimum(values), minVisitor.getResult().getValue());
+
+        MaxVisitor maxVisitor = new MaxVisitor(ff.property("soil_moist_2x"));
+        featureSource.getFeatures(query).accepts(maxVisitor, null);
+        assertEquals(maximum(values), maxVisitor.getResult().getValue());
+    }
+
+    private List<Object> scan(Query query, String attributeName) throws IOException {
+        List<Object> values = new ArrayList<Object>();
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(query, Transaction.AUTO_COMMIT);
+        try {
+            while (reader.hasNext()) {
+                values.add(reader.next().getAttribute(attributeName));
+            }
+        } finally {
+            reader.close();
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object minimum(List<Object> values) {
+        return Collections.min((List) values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object maximum(List<Object> values) {
+        return Collections.max((List) values);
+    }
+}
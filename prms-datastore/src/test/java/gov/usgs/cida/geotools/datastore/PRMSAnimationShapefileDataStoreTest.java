@@ -0,0 +1,144 @@
+package gov.usgs.cida.geotools.datastore;
+
+import com.vividsolutions.jts.geom.Geometry;
+import gov.usgs.cida.prms.PRMSAnimationDerivedColumn;
+import gov.usgs.cida.prms.PRMSAnimationRecordBuffer;
+import gov.usgs.cida.prms.PRMSAnimationTimeStepCache;
+import gov.usgs.cida.prms.Utilities;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.*;
+import static org.junit.Assert.*;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+/**
+ * Animation filter terms evaluated against the timestep before the shapefile
+ * is read must select the same features as filtering the joined features.
+ */
+public class PRMSAnimationShapefileDataStoreTest {
+
+    public final static String ANIMATION_RESOURCE = "cccma_cgcm3_1.sresa1b.2046-2065.annual.animation.nhru";
+
+    public final static int HRU_COUNT = 766;
+
+    private final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    private File directory;
+    // through the timestep cache and through the join plan
+    private List<PRMSAnimationShapefileDataStore> dataStores;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Utilities.createTemporaryDirectory();
+        URL shapefileURL = Utilities.createHRUShapefile(directory, HRU_COUNT);
+        URL animationURL = Utilities.findURLForResource(ANIMATION_RESOURCE);
+        dataStores = Arrays.asList(
+                new PRMSAnimationShapefileDataStore(null, animationURL, shapefileURL, "hru_id", PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, new PRMSAnimationTimeStepCache(), null, Collections.<PRMSAnimationDerivedColumn>emptyList(), null),
+                new PRMSAnimationShapefileDataStore(null, animationURL, shapefileURL, "hru_id", PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, null, null, Collections.<PRMSAnimationDerivedColumn>emptyList(), null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (PRMSAnimationShapefileDataStore dataStore : dataStores) {
+            dataStore.dispose();
+        }
+        Utilities.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testAnimationPredicate() throws Exception {
+        assertPushedDownMatchesPostFiltered(ff.greater(ff.property("soil_moist"), ff.literal(1.0)));
+    }
+
+    @Test
+    public void testAndOfShapefileAndAnimationPredicates() throws Exception {
+        assertPushedDownMatchesPostFiltered(
+                ff.greater(ff.property("recharge"), ff.literal(10.0)),
+                ff.less(ff.property("region"), ff.literal(3)),
+                ff.lessOrEqual(ff.property("tminf"), ff.literal(35.0)));
+    }
+
+    @Test
+    public void testOrNotPushedDown() throws Exception {
+        Filter animation = ff.greater(ff.property("soil_moist"), ff.literal(1.0));
+        Filter or = ff.or(animation, ff.equals(ff.property("region"), ff.literal(0)));
+        assertPushedDownMatchesPostFiltered(or);
+        // features failing the animation term must still be returned
+        for (PRMSAnimationShapefileDataStore dataStore : dataStores) {
+            Filter timeStep = getTimeStepFilter(dataStore);
+            assertTrue(read(dataStore, ff.and(timeStep, or), Filter.INCLUDE).size() > read(dataStore, ff.and(timeStep, animation), Filter.INCLUDE).size());
+        }
+    }
+
+    @Test
+    public void testNHRUPredicate() throws Exception {
+        assertPushedDownMatchesPostFiltered(ff.less(ff.property("nhru"), ff.literal(100)));
+        assertPushedDownMatchesPostFiltered(
+                ff.greaterOrEqual(ff.property("nhru"), ff.literal(700)),
+                ff.greater(ff.property("hru_snow"), ff.literal(3.0)));
+    }
+
+    private void assertPushedDownMatchesPostFiltered(Filter... terms) throws Exception {
+        for (PRMSAnimationShapefileDataStore dataStore : dataStores) {
+            Filter timeStep = getTimeStepFilter(dataStore);
+            List<Filter> queryTerms = new ArrayList<Filter>();
+            queryTerms.add(timeStep);
+            queryTerms.addAll(Arrays.asList(terms));
+            Filter postFilter = terms.length == 1 ? terms[0] : ff.and(Arrays.asList(terms));
+
+            Map<String, List<Object>> unfiltered = read(dataStore, timeStep, Filter.INCLUDE);
+            Map<String, List<Object>> postFiltered = read(dataStore, timeStep, postFilter);
+            Map<String, List<Object>> pushedDown = read(dataStore, ff.and(queryTerms), Filter.INCLUDE);
+            assertEquals(HRU_COUNT, unfiltered.size());
+            // selective, or the comparison proves nothing
+            assertFalse(postFiltered.isEmpty());
+            assertTrue(postFiltered.size() < unfiltered.size());
+            assertEquals(postFiltered, pushedDown);
+        }
+    }
+
+    // a timestep other than the first, the default when there's no timestamp
+    private Filter getTimeStepFilter(PRMSAnimationShapefileDataStore dataStore) {
+        Date timeStamp = dataStore.getAnimationFileMetaData().getTimeStepList().get(5).toDate();
+        return ff.equals(ff.property("timestamp"), ff.literal(timeStamp));
+    }
+
+    // attribute values by feature id, geometries as WKT
+    private Map<String, List<Object>> read(PRMSAnimationShapefileDataStore dataStore, Filter filter, Filter postFilter) throws IOException {
+        SimpleFeatureType schema = dataStore.getSchema();
+        Query query = new Query(schema.getTypeName(), filter, DataUtilities.attributeNames(schema));
+        Map<String, List<Object>> features = new TreeMap<String, List<Object>>();
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(query, Transaction.AUTO_COMMIT);
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                if (postFilter.evaluate(feature)) {
+                    List<Object> values = new ArrayList<Object>();
+                    for (Object value : feature.getAttributes()) {
+                        values.add(value instanceof Geometry ? ((Geometry) value).toText() : value);
+                    }
+                    features.put(feature.getID(), values);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return features;
+    }
+}
@@ -0,0 +1,88 @@
+package gov.usgs.cida.prms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MergedTimeStepIndexTest {
+
+    private static DateTime day(int dayOfMonth) {
+        return new DateTime(2000, 1, dayOfMonth, 0, 0, 0, 0, DateTimeZone.UTC);
+    }
+
+    private static long noon(int dayOfMonth) {
+        return day(dayOfMonth).plusHours(12).getMillis();
+    }
+
+    private static TimeStepIndex days(int... daysOfMonth) {
+        DateTime[] timeSteps = new DateTime[daysOfMonth.length];
+        for (int i = 0; i < daysOfMonth.length; ++i) {
+            timeSteps[i] = day(daysOfMonth[i]);
+        }
+        return new TimeStepIndex(Arrays.asList(timeSteps));
+    }
+
+    @Test
+    public void testLookups() {
+        // files listed out of time order, file 2 is empty
+        MergedTimeStepIndex index = new MergedTimeStepIndex(Arrays.asList(
+                days(10, 11, 12), days(1, 2, 3), days(), days(20, 21)));
+
+        assertEquals(3, index.size());
+        assertArrayEquals(new int[] { 1, 0, 3 }, index.getFileIndices());
+        assertFalse(index.isOverlapping());
+
+        assertEquals(1, index.floor(day(1).getMillis()));
+        assertEquals(1, index.floor(noon(5)));
+        assertEquals(0, index.floor(day(10).getMillis()));
+        assertEquals(3, index.floor(noon(30)));
+        assertEquals(-1, index.floor(day(1).minusMillis(1).getMillis()));
+
+        assertEquals(1, index.ceiling(day(1).minusDays(10).getMillis()));
+        assertEquals(0, index.ceiling(noon(5)));
+        assertEquals(0, index.ceiling(day(12).getMillis()));
+        assertEquals(3, index.ceiling(noon(12)));
+        assertEquals(3, index.ceiling(noon(30))); // latest file may grow
+
+        assertEquals(1, index.nearest(day(1).minusDays(10).getMillis()));
+        assertEquals(1, index.nearest(noon(2)));
+        assertEquals(1, index.nearest(noon(5))); // closer to day 3 than day 10
+        assertEquals(0, index.nearest(noon(8)));
+        assertEquals(0, index.nearest(day(16).getMillis())); // tie goes to earlier
+        assertEquals(3, index.nearest(noon(30)));
+
+        assertArrayEquals(new int[] { 1, 0 }, index.range(noon(2), noon(10)));
+        assertArrayEquals(new int[] { 1, 0, 3 }, index.range(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(new int[] { 0 }, index.range(day(12).getMillis(), day(12).getMillis()));
+        assertArrayEquals(new int[0], index.range(noon(4), noon(9)));
+        assertArrayEquals(new int[0], index.range(noon(2), noon(1)));
+    }
+
+    @Test
+    public void testOverlapping() {
+        MergedTimeStepIndex index = new MergedTimeStepIndex(Arrays.asList(
+                days(1, 2, 3, 4, 5, 6, 7, 8, 9), days(3, 4), days(12)));
+
+        assertTrue(index.isOverlapping());
+        assertEquals(1, index.floor(noon(4))); // favors the later start
+        assertEquals(0, index.ceiling(noon(7)));
+        assertEquals(1, index.nearest(noon(8))); // within the later file's span of the series
+        assertArrayEquals(new int[] { 0, 1 }, index.range(noon(3), noon(5)));
+        assertArrayEquals(new int[] { 0, 1, 2 }, index.range(noon(8), noon(12)));
+    }
+
+    @Test
+    public void testEmpty() {
+        MergedTimeStepIndex index = new MergedTimeStepIndex(Collections.<TimeStepIndex>emptyList());
+
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floor(noon(1)));
+        assertEquals(-1, index.ceiling(noon(1)));
+        assertEquals(-1, index.nearest(noon(1)));
+        assertArrayEquals(new int[0], index.range(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,113 @@
+package gov.usgs.cida.prms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationColumnarFileTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+        PRMSAnimationColumnarFile.getColumnarFile(metaData.getAnimationFilePath()).delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PRMSAnimationColumnarFile.getColumnarFile(metaData.getAnimationFilePath()).delete();
+    }
+
+    @Test
+    public void testColumnarMatchesAnimationFile() throws Exception {
+        assertFalse(PRMSAnimationColumnarFile.isCurrent(metaData));
+
+        // make sure sidecar is newer than source on file systems with coarse timestamps
+        new File(metaData.getAnimationFilePath()).setLastModified(System.currentTimeMillis() - 10000);
+        PRMSAnimationColumnarFile.generate(metaData);
+        assertTrue(PRMSAnimationColumnarFile.isCurrent(metaData));
+
+        int recordEntryCount = metaData.getRecordEntryCount();
+        PRMSAnimationRecordBuffer textBuffer = new PRMSAnimationRecordBuffer(metaData, 0, metaData.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+        PRMSAnimationRecordBuffer columnarBuffer = new PRMSAnimationRecordBuffer(metaData);
+        try {
+            for (int recordIndex = 0; recordIndex < metaData.getRecordCount(); ++recordIndex) {
+                PRMSAnimationRecord textRecord = textBuffer.getRecord(recordIndex);
+                PRMSAnimationRecord columnarRecord = columnarBuffer.getRecord(recordIndex);
+                assertEquals(textRecord.getTimeStamp(), columnarRecord.getTimeStamp());
+                assertEquals(textRecord.getNHRU(), columnarRecord.getNHRU());
+                for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+                    assertEquals(textRecord.getValue(recordEntryIndex), columnarRecord.getValue(recordEntryIndex));
+                }
+            }
+        } finally {
+            textBuffer.close();
+            columnarBuffer.close();
+        }
+    }
+
+    @Test
+    public void testStaleMetaDataNotCurrent() throws Exception {
+        File file = new File(metaData.getAnimationFilePath());
+        File growing = File.createTempFile("growing", ".nhru");
+        try {
+            long cutSizeBytes = metaData.getHeaderSizeBytes() + (long) (metaData.getTimeStepCount() - 1) * metaData.getTimeStepSizeBytes();
+            copy(file, growing, cutSizeBytes);
+            PRMSAnimationFileMetaData previous = new PRMSAnimationFileMetaData(growing, 1, 997);
+
+            // replaced keeping an older modification time, e.g. rsync -t
+            copy(file, growing, file.length());
+            growing.setLastModified(System.currentTimeMillis() - 10000);
+            PRMSAnimationFileMetaData current = new PRMSAnimationFileMetaData(growing, 1, 997);
+            PRMSAnimationColumnarFile.generate(current);
+            assertTrue(PRMSAnimationColumnarFile.isCurrent(current));
+            assertFalse(PRMSAnimationColumnarFile.isCurrent(previous));
+
+            // readers holding the previous snapshot fall back to text
+            PRMSAnimationRecordBuffer textBuffer = new PRMSAnimationRecordBuffer(previous, 0, previous.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+            PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(previous);
+            try {
+                for (int recordIndex = 0; recordIndex < previous.getRecordCount(); ++recordIndex) {
+                    PRMSAnimationRecord textRecord = textBuffer.getRecord(recordIndex);
+                    PRMSAnimationRecord record = recordBuffer.getRecord(recordIndex);
+                    assertEquals(textRecord.getNHRU(), record.getNHRU());
+                    assertEquals(textRecord.getValue(previous.getRecordEntryCount() - 1), record.getValue(previous.getRecordEntryCount() - 1));
+                }
+            } finally {
+                textBuffer.close();
+                recordBuffer.close();
+            }
+        } finally {
+            PRMSAnimationColumnarFile.getColumnarFile(growing.getPath()).delete();
+            growing.delete();
+        }
+    }
+
+    private static void copy(File source, File destination, long lengthBytes) throws Exception {
+        InputStream inputStream = new FileInputStream(source);
+        OutputStream outputStream = new FileOutputStream(destination);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            long remaining = lengthBytes;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package gov.usgs.cida.prms;
+
+import java.net.URL;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationDerivedColumnTest {
+
+    private PRMSAnimationFileMetaData metaData;
+    private PRMSAnimationTimeStepCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+        cache = new PRMSAnimationTimeStepCache();
+    }
+
+    @Test
+    public void testParse() {
+        List<PRMSAnimationDerivedColumn> derivedColumns = PRMSAnimationDerivedColumn.parse(" ratio = a / b ;; negated=-(a+1.5e1)");
+        assertEquals(2, derivedColumns.size());
+        assertEquals("ratio", derivedColumns.get(0).getName());
+        assertEquals("negated", derivedColumns.get(1).getName());
+        assertTrue(PRMSAnimationDerivedColumn.parse(null).isEmpty());
+        assertTrue(PRMSAnimationDerivedColumn.parse(" ").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnbalanced() {
+        new PRMSAnimationDerivedColumn("bad", "(a + b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTrailing() {
+        new PRMSAnimationDerivedColumn("bad", "a b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingName() {
+        PRMSAnimationDerivedColumn.parse("a + b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileUnknownColumn() throws Exception {
+        new PRMSAnimationDerivedColumn("bad", "no_such_column * 2").compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileNHRUColumn() throws Exception {
+        new PRMSAnimationDerivedColumn("bad", "nhru * 2").compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+    }
+
+    @Test
+    public void testEvaluate() throws Exception {
+        final int firstColumnIndex = 2;
+        int lastColumnIndex = metaData.getRecordEntryCount() - 1;
+        String first = metaData.getRecordEntryDescriptors().get(firstColumnIndex).getName();
+        String last = metaData.getRecordEntryDescriptors().get(lastColumnIndex).getName();
+        int timeStepIndex = Math.min(2, metaData.getTimeStepCount() - 1);
+        String baseline = metaData.getTimeStep(0).toString();
+
+        PRMSAnimationDerivedColumn.Evaluator evaluator = new PRMSAnimationDerivedColumn(
+                "derived", "-(" + last + " - " + last + "@" + baseline + ") * 2 + " + first + " / 4")
+                .compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+
+        int[] columnIndices = evaluator.getColumnIndices();
+        assertEquals(firstColumnIndex == lastColumnIndex ? 1 : 2, columnIndices.length);
+        assertEquals(lastColumnIndex, columnIndices[0]);
+
+        float[] values = evaluator.evaluate(timeStepIndex);
+        final float[] lastColumn = cache.getValueColumn(metaData, timeStepIndex, lastColumnIndex, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        float[] lastBaselineColumn = cache.getValueColumn(metaData, 0, lastColumnIndex, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        final float[] firstColumn = cache.getValueColumn(metaData, timeStepIndex, firstColumnIndex, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(metaData.getTimeStepRecordCount(), values.length);
+
+        for (int timeStepRecordIndex = 0; timeStepRecordIndex < values.length; ++timeStepRecordIndex) {
+            float expected = -(lastColumn[timeStepRecordIndex] - lastBaselineColumn[timeStepRecordIndex]) * 2 + firstColumn[timeStepRecordIndex] / 4;
+            assertEquals(expected, values[timeStepRecordIndex], 0f);
+            final int recordIndex = timeStepRecordIndex;
+            float value = evaluator.evaluate(new PRMSAnimationDerivedColumn.ValueSource() {
+                @Override
+                public float getValue(int columnIndex) {
+                    return columnIndex == firstColumnIndex ? firstColumn[recordIndex] : lastColumn[recordIndex];
+                }
+            }, timeStepRecordIndex);
+            assertEquals(expected, value, 0f);
+        }
+    }
+
+    @Test
+    public void testEvaluateColumnIsCopied() throws Exception {
+        String name = metaData.getRecordEntryDescriptors().get(2).getName();
+        PRMSAnimationDerivedColumn.Evaluator evaluator = new PRMSAnimationDerivedColumn("copy", "(" + name + ")")
+                .compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        float[] column = cache.getValueColumn(metaData, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        float[] values = evaluator.evaluate(0);
+        assertNotSame(column, values);
+        assertArrayEquals(column, values, 0f);
+    }
+
+    @Test
+    public void testSharedEvaluatorConstants() throws Exception {
+        String name = metaData.getRecordEntryDescriptors().get(2).getName();
+        // compiled evaluators are shared by every reader of a data store
+        final PRMSAnimationDerivedColumn.Evaluator evaluator = new PRMSAnimationDerivedColumn("scaled", name + " * 1000")
+                .compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        float[] column = cache.getValueColumn(metaData, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        final float[][] results = new float[8][];
+        Thread[] threads = new Thread[results.length];
+        for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+            final int resultIndex = threadIndex;
+            threads[threadIndex] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[resultIndex] = evaluator.evaluate(0);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[threadIndex].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        for (float[] values : results) {
+            assertNotNull(values);
+            for (int timeStepRecordIndex = 0; timeStepRecordIndex < column.length; ++timeStepRecordIndex) {
+                assertEquals(column[timeStepRecordIndex] * 1000, values[timeStepRecordIndex], 0f);
+            }
+        }
+
+        float[] constant = new PRMSAnimationDerivedColumn("constant", "1000")
+                .compile(metaData, cache, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES)
+                .evaluate(0);
+        assertEquals(metaData.getTimeStepRecordCount(), constant.length);
+        assertEquals(1000f, constant[constant.length - 1], 0f);
+    }
+
+}
@@ -0,0 +1,240 @@
+package gov.usgs.cida.prms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationFileMetaDataScanTest {
+
+    @Test
+    public void testParallelScanMatchesSequentialScan() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        File file = new File(url.getPath());
+
+        PRMSAnimationFileMetaData sequential = new PRMSAnimationFileMetaData(file, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+        // small, unaligned chunks so chunk boundaries fall mid-timestep
+        PRMSAnimationFileMetaData parallel = new PRMSAnimationFileMetaData(file, 4, 997);
+
+        assertEquals(sequential.getRecordCount(), parallel.getRecordCount());
+        assertEquals(sequential.getTimeStepCount(), parallel.getTimeStepCount());
+        assertEquals(sequential.getTimeStepRecordCount(), parallel.getTimeStepRecordCount());
+        assertEquals(sequential.getTimeStepSizeBytes(), parallel.getTimeStepSizeBytes());
+        assertEquals(sequential.getTimeStepList(), parallel.getTimeStepList());
+        assertEquals(sequential.getRecordEntryCount(), parallel.getRecordEntryCount());
+        for (int recordEntryIndex = 0; recordEntryIndex < sequential.getRecordEntryCount(); ++recordEntryIndex) {
+            RecordEntryRange expected = sequential.getRecordEntryRanges().get(recordEntryIndex);
+            RecordEntryRange actual = parallel.getRecordEntryRanges().get(recordEntryIndex);
+            assertEquals(expected.getMinimum(), actual.getMinimum());
+            assertEquals(expected.getMaximum(), actual.getMaximum());
+        }
+
+        // and both match a brute force pass over the records
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(parallel);
+        try {
+            List<DateTime> timeSteps = new ArrayList<DateTime>();
+            Comparable[] minimum = new Comparable[parallel.getRecordEntryCount()];
+            Comparable[] maximum = new Comparable[parallel.getRecordEntryCount()];
+            for (int recordIndex = 0; recordIndex < parallel.getRecordCount(); ++recordIndex) {
+                PRMSAnimationRecord record = recordBuffer.getRecord(recordIndex);
+                DateTime timeStamp = record.getTimeStamp();
+                if (timeSteps.isEmpty() || !timeSteps.get(timeSteps.size() - 1).equals(timeStamp)) {
+                    timeSteps.add(timeStamp);
+                }
+                for (int recordEntryIndex = 0; recordEntryIndex < minimum.length; ++recordEntryIndex) {
+                    Comparable value = recordEntryIndex == 0 ? timeStamp : recordEntryIndex == 1 ? (Comparable) record.getNHRU() : (Comparable) record.getValue(recordEntryIndex);
+                    if (minimum[recordEntryIndex] == null || value.compareTo(minimum[recordEntryIndex]) < 0) {
+                        minimum[recordEntryIndex] = value;
+                    }
+                    if (maximum[recordEntryIndex] == null || value.compareTo(maximum[recordEntryIndex]) > 0) {
+                        maximum[recordEntryIndex] = value;
+                    }
+                }
+            }
+            assertEquals(timeSteps, parallel.getTimeStepList());
+            assertEquals(parallel.getRecordCount() / timeSteps.size(), parallel.getTimeStepRecordCount());
+            for (int recordEntryIndex = 0; recordEntryIndex < minimum.length; ++recordEntryIndex) {
+                assertEquals(minimum[recordEntryIndex], parallel.getRecordEntryRanges().get(recordEntryIndex).getMinimum());
+                assertEquals(maximum[recordEntryIndex], parallel.getRecordEntryRanges().get(recordEntryIndex).getMaximum());
+            }
+        } finally {
+            recordBuffer.close();
+        }
+    }
+
+    @Test
+    public void testTimeStepStatistics() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        File file = new File(url.getPath());
+        int histogramBucketCount = 10;
+
+        PRMSAnimationFileMetaData metaData = new PRMSAnimationFileMetaData(file, 4, 997, histogramBucketCount);
+        TimeStepStatistics statistics = metaData.getTimeStepStatistics();
+        assertEquals(metaData.getTimeStepCount(), statistics.getTimeStepCount());
+        assertEquals(histogramBucketCount, statistics.getHistogramBucketCount());
+
+        int timeStepRecordCount = metaData.getTimeStepRecordCount();
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData);
+        try {
+            for (int timeStepIndex = 0; timeStepIndex < metaData.getTimeStepCount(); ++timeStepIndex) {
+                for (int recordEntryIndex = 2; recordEntryIndex < metaData.getRecordEntryCount(); ++recordEntryIndex) {
+                    float minimum = Float.POSITIVE_INFINITY;
+                    float maximum = Float.NEGATIVE_INFINITY;
+                    double sum = 0;
+                    int[] histogram = new int[histogramBucketCount];
+                    for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+                        float value = recordBuffer.getRecord(timeStepIndex * timeStepRecordCount + timeStepRecordIndex).getValueAsFloat(recordEntryIndex);
+                        minimum = Math.min(minimum, value);
+                        maximum = Math.max(maximum, value);
+                        sum += value;
+                        ++histogram[statistics.getHistogramBucket(recordEntryIndex, value)];
+                    }
+                    assertEquals(minimum, statistics.getMinimum(timeStepIndex, recordEntryIndex), 0f);
+                    assertEquals(maximum, statistics.getMaximum(timeStepIndex, recordEntryIndex), 0f);
+                    assertEquals((float) (sum / timeStepRecordCount), statistics.getMean(timeStepIndex, recordEntryIndex), 1e-6f * Math.abs(maximum));
+                    assertEquals(timeStepRecordCount, statistics.getCount(timeStepIndex, recordEntryIndex));
+                    assertArrayEquals(histogram, statistics.getHistogram(timeStepIndex, recordEntryIndex));
+                }
+            }
+        } finally {
+            recordBuffer.close();
+        }
+
+        // persisted with the metadata
+        System.setProperty(PRMSAnimationFileMetaData.HISTOGRAM_BUCKET_COUNT_PROPERTY, Integer.toString(histogramBucketCount));
+        try {
+            new File(file.getPath() + ".xml").delete();
+            PRMSAnimationMetaDataFile.getMetaDataFile(file.getCanonicalPath()).delete();
+            PRMSAnimationFileMetaData.getMetaData(file);
+            TimeStepStatistics persisted = PRMSAnimationFileMetaData.getMetaData(file).getTimeStepStatistics();
+            int lastTimeStepIndex = metaData.getTimeStepCount() - 1;
+            int lastRecordEntryIndex = metaData.getRecordEntryCount() - 1;
+            assertEquals(statistics.getMean(lastTimeStepIndex, lastRecordEntryIndex), persisted.getMean(lastTimeStepIndex, lastRecordEntryIndex), 0f);
+            assertArrayEquals(statistics.getHistogram(lastTimeStepIndex, lastRecordEntryIndex), persisted.getHistogram(lastTimeStepIndex, lastRecordEntryIndex));
+            assertEquals(statistics.getHistogramMaximum(lastRecordEntryIndex), persisted.getHistogramMaximum(lastRecordEntryIndex), 0f);
+        } finally {
+            System.clearProperty(PRMSAnimationFileMetaData.HISTOGRAM_BUCKET_COUNT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testRefreshMatchesFullScan() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        File file = new File(url.getPath());
+        int histogramBucketCount = 10;
+        PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(file, 4, 997, histogramBucketCount);
+
+        // a copy cut off part way through the second to last timestep, as if still being written
+        File growing = File.createTempFile("growing", ".nhru");
+        try {
+            int cutRecordIndex = (expected.getTimeStepCount() - 2) * expected.getTimeStepRecordCount() + expected.getTimeStepRecordCount() / 2;
+            long cutSizeBytes = expected.getHeaderSizeBytes() + (long) cutRecordIndex * expected.getRecordSizeBytes();
+            copy(file, growing, 0, cutSizeBytes, false);
+            PRMSAnimationFileMetaData previous = new PRMSAnimationFileMetaData(growing, 4, 997, histogramBucketCount);
+            assertEquals(cutRecordIndex, previous.getRecordCount());
+            assertEquals(expected.getTimeStepCount() - 1, previous.getTimeStepCount());
+            assertFalse(previous.isStale());
+
+            copy(file, growing, cutSizeBytes, file.length(), true);
+            assertTrue(previous.isStale());
+            PRMSAnimationFileMetaData refreshed = new PRMSAnimationFileMetaData(growing, 4, 997, histogramBucketCount, previous);
+            assertFalse(refreshed.isStale());
+
+            assertEquals(expected.getRecordCount(), refreshed.getRecordCount());
+            assertEquals(expected.getTimeStepRecordCount(), refreshed.getTimeStepRecordCount());
+            assertEquals(expected.getTimeStepList(), refreshed.getTimeStepList());
+            for (int recordEntryIndex = 0; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMinimum(), refreshed.getRecordEntryRanges().get(recordEntryIndex).getMinimum());
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMaximum(), refreshed.getRecordEntryRanges().get(recordEntryIndex).getMaximum());
+            }
+            TimeStepStatistics expectedStatistics = expected.getTimeStepStatistics();
+            TimeStepStatistics refreshedStatistics = refreshed.getTimeStepStatistics();
+            for (int timeStepIndex = 0; timeStepIndex < expected.getTimeStepCount(); ++timeStepIndex) {
+                for (int recordEntryIndex = 2; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+                    assertEquals(expectedStatistics.getCount(timeStepIndex, recordEntryIndex), refreshedStatistics.getCount(timeStepIndex, recordEntryIndex));
+                    assertEquals(expectedStatistics.getMinimum(timeStepIndex, recordEntryIndex), refreshedStatistics.getMinimum(timeStepIndex, recordEntryIndex), 0f);
+                    assertEquals(expectedStatistics.getMaximum(timeStepIndex, recordEntryIndex), refreshedStatistics.getMaximum(timeStepIndex, recordEntryIndex), 0f);
+                    assertEquals(expectedStatistics.getMean(timeStepIndex, recordEntryIndex), refreshedStatistics.getMean(timeStepIndex, recordEntryIndex), 1e-6f * Math.abs(expectedStatistics.getMaximum(timeStepIndex, recordEntryIndex)));
+                    assertArrayEquals(expectedStatistics.getHistogram(timeStepIndex, recordEntryIndex), refreshedStatistics.getHistogram(timeStepIndex, recordEntryIndex));
+                }
+            }
+        } finally {
+            growing.delete();
+        }
+    }
+
+    @Test
+    public void testRefreshDefersSidecars() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        File file = new File(url.getPath());
+        PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(file, 1, 997);
+
+        System.setProperty(PRMSAnimationColumnarFile.GENERATE_PROPERTY, "true");
+        System.setProperty(PRMSAnimationFileMetaData.SIDECAR_DELAY_PROPERTY, "2000");
+        File growing = File.createTempFile("growing", ".nhru");
+        try {
+            // complete timesteps, sidecars need them
+            long cutSizeBytes = expected.getHeaderSizeBytes() + (long) (expected.getTimeStepCount() - 2) * expected.getTimeStepSizeBytes();
+            copy(file, growing, 0, cutSizeBytes, false);
+            growing.setLastModified(System.currentTimeMillis() - 10000);
+            PRMSAnimationFileMetaData metaData = PRMSAnimationFileMetaData.getMetaData(growing);
+            // first load schedules them too
+            assertFalse(PRMSAnimationColumnarFile.isCurrent(metaData));
+            assertTrue(awaitColumnarCurrent(metaData));
+
+            copy(file, growing, cutSizeBytes, cutSizeBytes + expected.getTimeStepSizeBytes(), true);
+            PRMSAnimationFileMetaData refreshed = PRMSAnimationFileMetaData.refresh(metaData);
+            assertEquals(expected.getTimeStepCount() - 1, refreshed.getTimeStepCount());
+            // not regenerated on the caller's thread
+            assertFalse(PRMSAnimationColumnarFile.isCurrent(refreshed));
+
+            // but once the file has stopped growing
+            assertTrue(awaitColumnarCurrent(refreshed));
+            PRMSAnimationColumnarFile columnarFile = new PRMSAnimationColumnarFile(refreshed);
+            columnarFile.close();
+        } finally {
+            System.clearProperty(PRMSAnimationColumnarFile.GENERATE_PROPERTY);
+            System.clearProperty(PRMSAnimationFileMetaData.SIDECAR_DELAY_PROPERTY);
+            PRMSAnimationColumnarFile.getColumnarFile(growing.getPath()).delete();
+            PRMSAnimationMetaDataFile.getMetaDataFile(growing.getCanonicalPath()).delete();
+            growing.delete();
+        }
+    }
+
+    private static boolean awaitColumnarCurrent(PRMSAnimationFileMetaData metaData) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!PRMSAnimationColumnarFile.isCurrent(metaData) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        return PRMSAnimationColumnarFile.isCurrent(metaData);
+    }
+
+    private static void copy(File source, File destination, long start, long end, boolean append) throws Exception {
+        InputStream inputStream = new FileInputStream(source);
+        OutputStream outputStream = new FileOutputStream(destination, append);
+        try {
+            inputStream.skip(start);
+            byte[] buffer = new byte[1 << 16];
+            long remaining = end - start;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+}
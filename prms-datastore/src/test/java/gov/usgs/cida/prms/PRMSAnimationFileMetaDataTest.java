@@ -17,6 +17,7 @@ public class PRMSAnimationFileMetaDataTest {
         if (oldMetaData.exists()) {
             oldMetaData.delete();
         }
+        PRMSAnimationMetaDataFile.getMetaDataFile(new File(url.getPath()).getCanonicalPath()).delete();
        PRMSAnimationFileMetaData result = PRMSAnimationFileMetaData.getMetaData(url);
        System.out.println(result);
     }
@@ -28,6 +29,7 @@ public class PRMSAnimationFileMetaDataTest {
         if (oldMetaData.exists()) {
             oldMetaData.delete();
         }
+        PRMSAnimationMetaDataFile.getMetaDataFile(new File(url.getPath()).getCanonicalPath()).delete();
        PRMSAnimationFileMetaData result = PRMSAnimationFileMetaData.getMetaData(url);
        System.out.println(result);
     }
@@ -1,7 +1,10 @@
 package gov.usgs.cida.prms;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
+import org.joda.time.DateTime;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -34,6 +37,99 @@ public class PRMSAnimationFileUtilityTest {
 	public void tearDown() {
 	}
 
+	@Test
+	public void testQuickParseFloat() throws Exception {
+		Random random = new Random(0);
+		for (int index = 0; index < 100000; ++index) {
+			float expected = Float.intBitsToFloat(random.nextInt());
+			if (Float.isNaN(expected) || Float.isInfinite(expected)) {
+				continue;
+			}
+			String value = String.format("%.6e", expected);
+			Assert.assertEquals(value, Float.parseFloat(value), PRMSAnimationFileUtility.quickParseFloat(toBuffer(value), 0, value.length()), 0f);
+		}
+		String[] values = { "0.000000e+00", "-1.000000e-45", "3.402823e+38", "  1.5", "-2" };
+		for (String value : values) {
+			Assert.assertEquals(value, Float.parseFloat(value), PRMSAnimationFileUtility.quickParseFloat(toBuffer(value), 0, value.length()), 0f);
+		}
+	}
+
+	@Test
+	public void testQuickParseFloatLongSignificands() throws Exception {
+		Random random = new Random(0);
+		StringBuilder builder = new StringBuilder();
+		for (int index = 0; index < 200000; ++index) {
+			builder.setLength(0);
+			int digits = 7 + random.nextInt(3);
+			int point = random.nextInt(digits + 1);
+			if (random.nextBoolean()) {
+				builder.append('-');
+			}
+			for (int digit = 0; digit < digits; ++digit) {
+				if (digit == point) {
+					builder.append('.');
+				}
+				builder.append((char) ('0' + (digit == 0 ? 1 + random.nextInt(9) : random.nextInt(10))));
+			}
+			builder.append('e').append(random.nextInt(80) - 45);
+			String value = builder.toString();
+			Assert.assertEquals(value, Float.parseFloat(value), PRMSAnimationFileUtility.quickParseFloat(toBuffer(value), 0, value.length()), 0f);
+		}
+		// float midpoints, and decimals whose double rounds onto a float
+		// midpoint so narrowing it to float would round a second time
+		String[] values = { "16777217", "16777219", "33554434", "1.6777217e+07", "999999999e22", "100000001e-22",
+			"967498269e-19", "585052973e13", "949766107e15", "804624287e18", "8.96981543e28" };
+		for (String value : values) {
+			Assert.assertEquals(value, Float.parseFloat(value), PRMSAnimationFileUtility.quickParseFloat(toBuffer(value), 0, value.length()), 0f);
+		}
+	}
+
+	@Test
+	public void testQuickParseInt() throws Exception {
+		String[] values = { "1", "    42", "-7", "2147483647" };
+		for (String value : values) {
+			Assert.assertEquals(value, Integer.parseInt(value.trim()), PRMSAnimationFileUtility.quickParseInt(toBuffer(value), 0, value.length()));
+		}
+	}
+
+	@Test
+	public void testQuickParseTimeStampMillis() throws Exception {
+		String[] values = { "1960-01-01:00:00:00", "2000-02-29:12:34:56", "2099-12-31:23:59:59", "1969-12-31:23:59:59" };
+		for (String value : values) {
+			Assert.assertEquals(value,
+					PRMSAnimationFileUtility.quickExtractRecordAsDateTime(new RecordEntryDescriptor("timestamp", 0, RecordEntryDescriptor.Type.STRING, 0, value.length(), false), value.toCharArray()).getMillis(),
+					PRMSAnimationFileUtility.quickParseTimeStampMillis(toBuffer(value), 0, value.length()));
+		}
+	}
+
+	@Test
+	public void testTimeStampDecoder() throws Exception {
+		String[] values = { "1960-01-01:00:00:00", "1960-01-01:00:00:00", "1960-01-02:00:00:00", "1960-01-02:00:00:00", "1959-01-02:00:00:00" };
+		PRMSAnimationTimeStampDecoder bufferDecoder = new PRMSAnimationTimeStampDecoder();
+		PRMSAnimationTimeStampDecoder charDecoder = new PRMSAnimationTimeStampDecoder();
+		DateTime previous = null;
+		for (int index = 0; index < values.length; ++index) {
+			String value = values[index];
+			RecordEntryDescriptor descriptor = new RecordEntryDescriptor("timestamp", 0, RecordEntryDescriptor.Type.STRING, 2, value.length(), false);
+			long expected = PRMSAnimationFileUtility.quickParseTimeStampMillis(toBuffer(value), 0, value.length());
+			Assert.assertEquals(value, expected, bufferDecoder.getMillis(toBuffer("  " + value), 2, value.length()));
+			Assert.assertEquals(value, expected, charDecoder.getMillis(descriptor, ("  " + value).toCharArray()));
+
+			DateTime timeStamp = bufferDecoder.getDateTime(toBuffer(value), 0, value.length());
+			Assert.assertEquals(value, expected, timeStamp.getMillis());
+			Assert.assertEquals(value, expected, charDecoder.getDateTime(descriptor, ("  " + value).toCharArray()).getMillis());
+			if (index > 0 && value.equals(values[index - 1])) {
+				// decoded once per timestep
+				Assert.assertSame(value, previous, timeStamp);
+			}
+			previous = timeStamp;
+		}
+	}
+
+	private static ByteBuffer toBuffer(String value) throws Exception {
+		return ByteBuffer.wrap(value.getBytes(PRMSAnimationFileUtility.CHARSET));
+	}
+
 //	@Test
 //	public void testQuickSplit() {
 //
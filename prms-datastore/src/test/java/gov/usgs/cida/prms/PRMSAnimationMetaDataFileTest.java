@@ -0,0 +1,152 @@
+package gov.usgs.cida.prms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationMetaDataFileTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        int histogramBucketCount = 10;
+        PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(new File(url.getPath()), 4, 997, histogramBucketCount);
+
+        File metaDataFile = File.createTempFile("roundtrip", PRMSAnimationMetaDataFile.SUFFIX);
+        try {
+            PRMSAnimationMetaDataFile.write(expected, metaDataFile);
+            PRMSAnimationFileMetaData actual = PRMSAnimationMetaDataFile.read(metaDataFile);
+
+            assertEquals(expected.getAnimationFilePath(), actual.getAnimationFilePath());
+            assertEquals(expected.getRecordEntryCount(), actual.getRecordEntryCount());
+            assertEquals(expected.getEndOfLineSizeBytes(), actual.getEndOfLineSizeBytes());
+            assertEquals(expected.getHeaderSizeBytes(), actual.getHeaderSizeBytes());
+            assertEquals(expected.getDataSizeBytes(), actual.getDataSizeBytes());
+            assertEquals(expected.getRecordCount(), actual.getRecordCount());
+            assertEquals(expected.getRecordSizeBytes(), actual.getRecordSizeBytes());
+            assertEquals(expected.getTimeStepCount(), actual.getTimeStepCount());
+            assertEquals(expected.getTimeStepRecordCount(), actual.getTimeStepRecordCount());
+            assertEquals(expected.getTimeStepSizeBytes(), actual.getTimeStepSizeBytes());
+            assertEquals(expected.getTimeStepList(), actual.getTimeStepList());
+            for (int recordEntryIndex = 0; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+                RecordEntryDescriptor expectedDescriptor = expected.getRecordEntryDescriptors().get(recordEntryIndex);
+                RecordEntryDescriptor actualDescriptor = actual.getRecordEntryDescriptors().get(recordEntryIndex);
+                assertEquals(expectedDescriptor.getName(), actualDescriptor.getName());
+                assertEquals(expectedDescriptor.getType(), actualDescriptor.getType());
+                assertEquals(expectedDescriptor.getOffset(), actualDescriptor.getOffset());
+                assertEquals(expectedDescriptor.getLength(), actualDescriptor.getLength());
+                assertEquals(expectedDescriptor.isTrimRequired(), actualDescriptor.isTrimRequired());
+                assertEquals(recordEntryIndex, actual.getRecordEntryIndex(expectedDescriptor.getName()));
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMinimum(), actual.getRecordEntryRanges().get(recordEntryIndex).getMinimum());
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMaximum(), actual.getRecordEntryRanges().get(recordEntryIndex).getMaximum());
+            }
+
+            TimeStepStatistics expectedStatistics = expected.getTimeStepStatistics();
+            TimeStepStatistics actualStatistics = actual.getTimeStepStatistics();
+            assertEquals(histogramBucketCount, actualStatistics.getHistogramBucketCount());
+            for (int timeStepIndex = 0; timeStepIndex < expected.getTimeStepCount(); ++timeStepIndex) {
+                for (int recordEntryIndex = 2; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+                    assertEquals(expectedStatistics.getMean(timeStepIndex, recordEntryIndex), actualStatistics.getMean(timeStepIndex, recordEntryIndex), 0f);
+                    assertEquals(expectedStatistics.getCount(timeStepIndex, recordEntryIndex), actualStatistics.getCount(timeStepIndex, recordEntryIndex));
+                    assertArrayEquals(expectedStatistics.getHistogram(timeStepIndex, recordEntryIndex), actualStatistics.getHistogram(timeStepIndex, recordEntryIndex));
+                }
+            }
+        } finally {
+            metaDataFile.delete();
+        }
+    }
+
+    @Test
+    public void testMigrateBaselineXML() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        File file = new File(url.getPath());
+        PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(file, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+
+        // XML written by the original XStream persistence, no statistics
+        File copy = File.createTempFile("baseline", ".nhru");
+        File xmlMetaDataFile = new File(copy.getCanonicalPath() + ".xml");
+        File metaDataFile = PRMSAnimationMetaDataFile.getMetaDataFile(copy.getCanonicalPath());
+        try {
+            copy(file, copy);
+            String xml = read(getClass().getClassLoader().getResource("cccma_post-processed.nhru.baseline.xml"));
+            xml = xml.replaceFirst("<animationFilePath>[^<]*</animationFilePath>", "<animationFilePath>" + copy.getCanonicalPath() + "</animationFilePath>");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(xmlMetaDataFile), "UTF-8");
+            try {
+                writer.write(xml);
+            } finally {
+                writer.close();
+            }
+            xmlMetaDataFile.setLastModified(copy.lastModified() + 2000);
+
+            PRMSAnimationFileMetaData migrated = PRMSAnimationFileMetaData.getMetaData(copy);
+            // a rescan would have collected statistics
+            assertNull(migrated.getTimeStepStatistics());
+            assertTrue(metaDataFile.exists());
+            assertEquals(expected.getRecordCount(), migrated.getRecordCount());
+            assertEquals(expected.getRecordSizeBytes(), migrated.getRecordSizeBytes());
+            assertEquals(expected.getTimeStepRecordCount(), migrated.getTimeStepRecordCount());
+            assertEquals(expected.getTimeStepList(), migrated.getTimeStepList());
+            for (int recordEntryIndex = 0; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMinimum(), migrated.getRecordEntryRanges().get(recordEntryIndex).getMinimum());
+                assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMaximum(), migrated.getRecordEntryRanges().get(recordEntryIndex).getMaximum());
+            }
+
+            // later loads read the binary metadata, still without a rescan
+            metaDataFile.setLastModified(copy.lastModified() + 2000);
+            xmlMetaDataFile.delete();
+            PRMSAnimationFileMetaData reloaded = PRMSAnimationFileMetaData.getMetaData(copy);
+            assertNull(reloaded.getTimeStepStatistics());
+            assertEquals(expected.getTimeStepList(), reloaded.getTimeStepList());
+        } finally {
+            copy.delete();
+            xmlMetaDataFile.delete();
+            metaDataFile.delete();
+        }
+    }
+
+    private static void copy(File source, File destination) throws Exception {
+        InputStream inputStream = new FileInputStream(source);
+        OutputStream outputStream = new FileOutputStream(destination);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+    private static String read(URL url) throws Exception {
+        Reader reader = new InputStreamReader(url.openStream(), "UTF-8");
+        try {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[1 << 12];
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testUnrecognizedFile() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        PRMSAnimationMetaDataFile.read(new File(url.getPath()));
+    }
+
+}
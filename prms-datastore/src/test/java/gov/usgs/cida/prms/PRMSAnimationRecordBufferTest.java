@@ -0,0 +1,54 @@
+package gov.usgs.cida.prms;
+
+import java.net.URL;
+import java.util.Random;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationRecordBufferTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+    }
+
+    @Test
+    public void testSlidingWindowSequentialAndRandomAccess() throws Exception {
+        int recordCount = metaData.getRecordCount();
+        // window smaller than a single record rounds up to one record
+        long[] windowSizes = { 1, 10 * metaData.getRecordSizeBytes() + 1, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES };
+        PRMSAnimationRecordBuffer referenceBuffer = new PRMSAnimationRecordBuffer(metaData, 0, recordCount, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+        try {
+            for (long windowSize : windowSizes) {
+                PRMSAnimationRecordBuffer windowedBuffer = new PRMSAnimationRecordBuffer(metaData, 0, recordCount, windowSize, false);
+                try {
+                    for (int recordIndex = 0; recordIndex < recordCount; ++recordIndex) {
+                        assertRecordEquals(referenceBuffer.getRecord(recordIndex), windowedBuffer.getRecord(recordIndex));
+                    }
+                    Random random = new Random(windowSize);
+                    for (int count = 0; count < 1000; ++count) {
+                        int recordIndex = random.nextInt(recordCount);
+                        assertRecordEquals(referenceBuffer.getRecord(recordIndex), windowedBuffer.getRecord(recordIndex));
+                    }
+                } finally {
+                    windowedBuffer.close();
+                }
+            }
+        } finally {
+            referenceBuffer.close();
+        }
+    }
+
+    private void assertRecordEquals(PRMSAnimationRecord expected, PRMSAnimationRecord actual) {
+        assertEquals(expected.getIndex(), actual.getIndex());
+        assertEquals(expected.getTimeStamp(), actual.getTimeStamp());
+        assertEquals(expected.getNHRU(), actual.getNHRU());
+        for (int recordEntryIndex = 2; recordEntryIndex < expected.getColumnCount(); ++recordEntryIndex) {
+            assertEquals(expected.getValue(recordEntryIndex), actual.getValue(recordEntryIndex));
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package gov.usgs.cida.prms;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationRecordIndexTest {
+
+    private File fixedWidthFile;
+    private File variableWidthFile;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        fixedWidthFile = new File(url.getPath());
+        variableWidthFile = File.createTempFile("variable", ".nhru");
+        writeVariableWidth(fixedWidthFile, variableWidthFile);
+    }
+
+    @After
+    public void tearDown() {
+        variableWidthFile.delete();
+    }
+
+    // same values, numbers unpadded and printed as short as possible
+    private static void writeVariableWidth(File source, File destination) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), PRMSAnimationFileUtility.CHARSET));
+        Writer writer = new OutputStreamWriter(new FileOutputStream(destination), PRMSAnimationFileUtility.CHARSET);
+        try {
+            int headerLineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.charAt(0) == PRMSAnimationFileUtility.COMMENT_DELIMITER || headerLineCount < 2) {
+                    if (line.charAt(0) != PRMSAnimationFileUtility.COMMENT_DELIMITER) {
+                        ++headerLineCount;
+                    }
+                    writer.write(line);
+                } else {
+                    String[] values = line.split("\t");
+                    writer.write(values[0]);
+                    writer.write('\t');
+                    writer.write(values[1].trim());
+                    for (int index = 2; index < values.length; ++index) {
+                        writer.write('\t');
+                        writer.write(Float.toString(Float.parseFloat(values[index])));
+                    }
+                }
+                writer.write('\n');
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testFixedWidthNotIndexed() throws Exception {
+        PRMSAnimationFileMetaData metaData = new PRMSAnimationFileMetaData(fixedWidthFile, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+        assertFalse(metaData.isVariableWidth());
+        assertNull(metaData.getRecordIndex());
+    }
+
+    @Test
+    public void testVariableWidthMatchesFixedWidth() throws Exception {
+        PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(fixedWidthFile, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+        PRMSAnimationFileMetaData actual = new PRMSAnimationFileMetaData(variableWidthFile, 4, 997);
+
+        assertTrue(actual.isVariableWidth());
+        assertEquals(0, actual.getRecordSizeBytes());
+        assertFalse(actual.isStale());
+        assertEquals(expected.getRecordCount(), actual.getRecordCount());
+        assertEquals(expected.getTimeStepRecordCount(), actual.getTimeStepRecordCount());
+        assertEquals(expected.getTimeStepList(), actual.getTimeStepList());
+        for (int recordEntryIndex = 0; recordEntryIndex < expected.getRecordEntryCount(); ++recordEntryIndex) {
+            assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMinimum(), actual.getRecordEntryRanges().get(recordEntryIndex).getMinimum());
+            assertEquals(expected.getRecordEntryRanges().get(recordEntryIndex).getMaximum(), actual.getRecordEntryRanges().get(recordEntryIndex).getMaximum());
+        }
+
+        // windows smaller than a record, a few records and the default
+        long[] windowSizes = { 1, 1000, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES };
+        int recordIndexStart = expected.getTimeStepRecordCount() + 3;
+        for (long windowSize : windowSizes) {
+            PRMSAnimationRecordBuffer expectedBuffer = new PRMSAnimationRecordBuffer(expected, 0, expected.getRecordCount(), windowSize, false);
+            PRMSAnimationRecordBuffer actualBuffer = new PRMSAnimationRecordBuffer(actual, recordIndexStart, actual.getRecordCount(), windowSize, false);
+            try {
+                for (int recordIndex = recordIndexStart; recordIndex < expected.getRecordCount(); ++recordIndex) {
+                    assertRecordEquals(expectedBuffer.getRecord(recordIndex), actualBuffer.getRecord(recordIndex));
+                }
+                // and backwards
+                for (int recordIndex = expected.getRecordCount() - 1; recordIndex >= recordIndexStart; recordIndex -= 97) {
+                    assertRecordEquals(expectedBuffer.getRecord(recordIndex), actualBuffer.getRecord(recordIndex));
+                }
+            } finally {
+                expectedBuffer.close();
+                actualBuffer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCompensatingWidthChangesIndexed() throws Exception {
+        // one record a byte narrower, the next a byte wider, between sampled records
+        File compensatingFile = File.createTempFile("compensating", ".nhru");
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fixedWidthFile), PRMSAnimationFileUtility.CHARSET));
+            Writer writer = new OutputStreamWriter(new FileOutputStream(compensatingFile), PRMSAnimationFileUtility.CHARSET);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("2047-09-30:00:00:00\t     6\t")) {
+                        line = line.replace("\t     6\t", "\t    6\t");
+                    } else if (line.startsWith("2047-09-30:00:00:00\t     7\t")) {
+                        line = line.replace("\t     7\t", "\t      7\t");
+                    }
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                reader.close();
+                writer.close();
+            }
+            assertEquals(fixedWidthFile.length(), compensatingFile.length());
+
+            PRMSAnimationFileMetaData expected = new PRMSAnimationFileMetaData(fixedWidthFile, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+            PRMSAnimationFileMetaData actual = new PRMSAnimationFileMetaData(compensatingFile, 4, 997);
+            assertTrue(actual.isVariableWidth());
+            assertEquals(expected.getRecordCount(), actual.getRecordCount());
+            assertEquals(expected.getTimeStepList(), actual.getTimeStepList());
+            assertEquals(expected.getRecordEntryRanges().get(1).getMaximum(), actual.getRecordEntryRanges().get(1).getMaximum());
+
+            PRMSAnimationRecordBuffer expectedBuffer = new PRMSAnimationRecordBuffer(expected, 0, expected.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+            PRMSAnimationRecordBuffer actualBuffer = new PRMSAnimationRecordBuffer(actual, 0, actual.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+            try {
+                for (int recordIndex = 0; recordIndex < expected.getRecordCount(); ++recordIndex) {
+                    assertRecordEquals(expectedBuffer.getRecord(recordIndex), actualBuffer.getRecord(recordIndex));
+                }
+            } finally {
+                expectedBuffer.close();
+                actualBuffer.close();
+            }
+        } finally {
+            compensatingFile.delete();
+        }
+    }
+
+    @Test
+    public void testPartialLastRecord() throws Exception {
+        long length = variableWidthFile.length();
+        PRMSAnimationFileMetaData complete = new PRMSAnimationFileMetaData(variableWidthFile, 1, PRMSAnimationFileMetaData.DEFAULT_SCAN_CHUNK_RECORD_COUNT);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(variableWidthFile, "rw");
+        try {
+            randomAccessFile.setLength(length - 5);
+        } finally {
+            randomAccessFile.close();
+        }
+        PRMSAnimationRecordIndex index = PRMSAnimationRecordIndex.build(variableWidthFile.getPath(), complete.getHeaderSizeBytes(), length - 5 - complete.getHeaderSizeBytes(), complete.getEndOfLineSizeBytes(), 4096);
+        assertEquals(complete.getRecordCount() - 1, index.getRecordCount());
+        assertEquals(complete.getRecordIndex().getRecordOffsetBytes(index.getRecordCount()), index.getDataSizeBytes());
+    }
+
+    @Test
+    public void testIndexOf() {
+        Random random = new Random(20);
+        byte[] bytes = new byte[257];
+        for (int index = 0; index < bytes.length; ++index) {
+            // mostly digits, some tabs, newlines and bytes just above and below them
+            int kind = random.nextInt(20);
+            bytes[index] = (byte) (kind == 0 ? '\t' : kind == 1 ? '\n' : kind == 2 ? '\t' + 1 : kind == 3 ? '\n' - 1 : kind == 4 ? 0x80 + '\t' : '0' + random.nextInt(10));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte value : new byte[] { '\t', '\n', '5', 'x' }) {
+            for (int from = 0; from < bytes.length; from += 3) {
+                for (int to = from; to <= bytes.length; to += 7) {
+                    int expected = -1;
+                    for (int index = from; index < to; ++index) {
+                        if (bytes[index] == value) {
+                            expected = index;
+                            break;
+                        }
+                    }
+                    assertEquals(expected, PRMSAnimationRecordIndex.indexOf(buffer, from, to, value));
+                }
+            }
+        }
+    }
+
+    private static void assertRecordEquals(PRMSAnimationRecord expected, PRMSAnimationRecord actual) {
+        assertEquals(expected.getIndex(), actual.getIndex());
+        assertEquals(expected.getTimeStampAsMillis(), actual.getTimeStampAsMillis());
+        assertEquals(expected.getTimeStamp(), actual.getTimeStamp());
+        assertEquals(expected.getNHRUAsInt(), actual.getNHRUAsInt());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        for (int columnIndex = 2; columnIndex < expected.getColumnCount(); ++columnIndex) {
+            assertEquals(expected.getValueAsFloat(columnIndex), actual.getValueAsFloat(columnIndex), 0f);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package gov.usgs.cida.prms;
+
+import java.net.URL;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationTemporalAggregateTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+    }
+
+    @Test
+    public void testAggregateMatchesAnimationFile() throws Exception {
+        int timeStepRecordCount = metaData.getTimeStepRecordCount();
+        int timeStepIndexStart = 1;
+        int timeStepIndexEnd = Math.min(metaData.getTimeStepCount(), 4);
+        int columnIndex = metaData.getRecordEntryCount() - 1;
+
+        PRMSAnimationTemporalAggregate mean = aggregate(timeStepIndexStart, timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function.MEAN, columnIndex);
+        PRMSAnimationTemporalAggregate sum = aggregate(timeStepIndexStart, timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function.SUM, columnIndex);
+        PRMSAnimationTemporalAggregate min = aggregate(timeStepIndexStart, timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function.MIN, columnIndex);
+        PRMSAnimationTemporalAggregate max = aggregate(timeStepIndexStart, timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function.MAX, columnIndex);
+
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData);
+        try {
+            for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+                double expectedSum = 0;
+                float expectedMin = Float.POSITIVE_INFINITY;
+                float expectedMax = Float.NEGATIVE_INFINITY;
+                int expectedNHRU = 0;
+                for (int timeStepIndex = timeStepIndexStart; timeStepIndex < timeStepIndexEnd; ++timeStepIndex) {
+                    PRMSAnimationRecord record = recordBuffer.getRecord(timeStepIndex * timeStepRecordCount + timeStepRecordIndex);
+                    float value = record.getValueAsFloat(columnIndex);
+                    expectedSum += value;
+                    expectedMin = Math.min(expectedMin, value);
+                    expectedMax = Math.max(expectedMax, value);
+                    expectedNHRU = record.getNHRUAsInt();
+                }
+                assertEquals((float) (expectedSum / (timeStepIndexEnd - timeStepIndexStart)), mean.getRecord(timeStepRecordIndex).getValueAsFloat(columnIndex), 0f);
+                assertEquals((float) expectedSum, sum.getRecord(timeStepRecordIndex).getValueAsFloat(columnIndex), 0f);
+                assertEquals(expectedMin, min.getRecord(timeStepRecordIndex).getValueAsFloat(columnIndex), 0f);
+                assertEquals(expectedMax, max.getRecord(timeStepRecordIndex).getValueAsFloat(columnIndex), 0f);
+                assertEquals(expectedNHRU, mean.getRecord(timeStepRecordIndex).getNHRUAsInt());
+                assertEquals(metaData.getTimeStep(timeStepIndexStart).getMillis(), mean.getRecord(timeStepRecordIndex).getTimeStampAsMillis());
+            }
+        } finally {
+            recordBuffer.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testColumnNotAggregated() throws Exception {
+        aggregate(0, 1, PRMSAnimationTemporalAggregate.Function.SUM, 2).getRecord(0).getValueAsFloat(3);
+    }
+
+    @Test
+    public void testFunctionFromName() {
+        assertEquals(PRMSAnimationTemporalAggregate.Function.MEAN, PRMSAnimationTemporalAggregate.Function.fromName(" Mean"));
+        assertNull(PRMSAnimationTemporalAggregate.Function.fromName("median"));
+        assertNull(PRMSAnimationTemporalAggregate.Function.fromName(null));
+    }
+
+    private PRMSAnimationTemporalAggregate aggregate(int timeStepIndexStart, int timeStepIndexEnd, PRMSAnimationTemporalAggregate.Function function, int columnIndex) throws Exception {
+        return new PRMSAnimationTemporalAggregate(metaData, timeStepIndexStart, timeStepIndexEnd, function, new int[] { -1, 0, 1, columnIndex }, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+    }
+
+}
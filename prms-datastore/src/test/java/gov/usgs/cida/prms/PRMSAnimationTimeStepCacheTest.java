@@ -0,0 +1,176 @@
+package gov.usgs.cida.prms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationTimeStepCacheTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+    }
+
+    @Test
+    public void testCachedTimeStepMatchesAnimationFile() throws Exception {
+        PRMSAnimationTimeStepCache cache = new PRMSAnimationTimeStepCache();
+        int timeStepIndex = metaData.getTimeStepCount() - 1;
+        int timeStepRecordCount = metaData.getTimeStepRecordCount();
+        int recordIndexStart = timeStepIndex * timeStepRecordCount;
+
+        PRMSAnimationCachedTimeStep cachedTimeStep = new PRMSAnimationCachedTimeStep(cache, metaData, timeStepIndex, new int[] { 1, 2 }, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData);
+        try {
+            for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+                PRMSAnimationRecord expected = recordBuffer.getRecord(recordIndexStart + timeStepRecordIndex);
+                PRMSAnimationRecord actual = cachedTimeStep.getRecord(timeStepRecordIndex);
+                assertEquals(expected.getIndex(), actual.getIndex());
+                assertEquals(expected.getTimeStamp(), actual.getTimeStamp());
+                assertEquals(expected.getNHRUAsInt(), actual.getNHRUAsInt());
+                // includes columns loaded on demand
+                for (int columnIndex = 2; columnIndex < metaData.getRecordEntryCount(); ++columnIndex) {
+                    assertEquals(expected.getValueAsFloat(columnIndex), actual.getValueAsFloat(columnIndex), 0f);
+                }
+            }
+        } finally {
+            recordBuffer.close();
+        }
+
+        long missCount = cache.getMissCount();
+        assertEquals(metaData.getRecordEntryCount() - 1, missCount);
+        new PRMSAnimationCachedTimeStep(cache, metaData, timeStepIndex, new int[] { 1, 2, 3 }, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(missCount, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        long columnSizeBytes = 4L * metaData.getTimeStepRecordCount();
+        PRMSAnimationTimeStepCache cache = new PRMSAnimationTimeStepCache(2 * columnSizeBytes);
+
+        cache.getValueColumn(metaData, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        cache.getValueColumn(metaData, 1, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        cache.getValueColumn(metaData, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES); // now most recent
+        cache.getValueColumn(metaData, 2, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES); // evicts timestep 1
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * columnSizeBytes, cache.getCachedSizeBytes());
+
+        long hitCount = cache.getHitCount();
+        cache.getValueColumn(metaData, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(hitCount + 1, cache.getHitCount());
+        cache.getValueColumn(metaData, 1, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(hitCount + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateDuringDecode() throws Exception {
+        final CountDownLatch decoding = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+        final PRMSAnimationTimeStepCache cache = new PRMSAnimationTimeStepCache() {
+            @Override
+            Object decodeColumn(PRMSAnimationFileMetaData metaData, int timeStepIndex, int columnIndex, long mappedWindowSizeBytes) throws IOException {
+                decoding.countDown();
+                try {
+                    invalidated.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.decodeColumn(metaData, timeStepIndex, columnIndex, mappedWindowSizeBytes);
+            }
+        };
+        final int timeStepIndex = metaData.getTimeStepCount() - 1;
+        final float[][] decoded = new float[1][];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    decoded[0] = cache.getValueColumn(metaData, timeStepIndex, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        assertTrue(decoding.await(10, TimeUnit.SECONDS));
+        cache.invalidate(metaData.getAnimationFilePath(), timeStepIndex);
+        invalidated.countDown();
+        thread.join(10000);
+
+        // the caller gets its column but it isn't cached
+        assertNotNull(decoded[0]);
+        assertEquals(0, cache.getCachedSizeBytes());
+        cache.getValueColumn(metaData, timeStepIndex, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        cache.getValueColumn(metaData, timeStepIndex, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testAppendKeepsCompleteTimeSteps() throws Exception {
+        File file = new File(metaData.getAnimationFilePath());
+        File growing = File.createTempFile("growing", ".nhru");
+        try {
+            // last timestep only half written
+            long cutSizeBytes = metaData.getHeaderSizeBytes() + (long) (metaData.getTimeStepCount() - 1) * metaData.getTimeStepSizeBytes() +
+                    (metaData.getTimeStepRecordCount() / 2) * (long) metaData.getRecordSizeBytes();
+            copy(file, growing, cutSizeBytes);
+            PRMSAnimationFileMetaData previous = new PRMSAnimationFileMetaData(growing, 1, 997);
+            PRMSAnimationTimeStepCache cache = new PRMSAnimationTimeStepCache();
+            cache.getValueColumn(previous, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+            assertEquals(1, cache.getMissCount());
+
+            copy(file, growing, file.length());
+            PRMSAnimationFileMetaData current = new PRMSAnimationFileMetaData(growing, 1, 997);
+            assertTrue(current.getRecordCount() > previous.getRecordCount());
+            cache.invalidate(current.getAnimationFilePath(), previous.getTimeStepCount() - 1);
+
+            // complete timesteps aren't decoded again after an append
+            cache.getValueColumn(current, 0, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+
+            int timeStepIndex = current.getTimeStepCount() - 1;
+            float[] column = cache.getValueColumn(current, timeStepIndex, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+            assertEquals(2, cache.getMissCount());
+            assertArrayEquals((float[]) cache.decodeColumn(metaData, timeStepIndex, 2, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES), column, 0f);
+        } finally {
+            growing.delete();
+        }
+    }
+
+    private static void copy(File source, File destination, long lengthBytes) throws Exception {
+        InputStream inputStream = new FileInputStream(source);
+        OutputStream outputStream = new FileOutputStream(destination);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            long remaining = lengthBytes;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package gov.usgs.cida.prms;
+
+import java.net.URL;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationTimeStepSliceTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+    }
+
+    @Test
+    public void testSliceMatchesAnimationFile() throws Exception {
+        int timeStepRecordCount = metaData.getTimeStepRecordCount();
+        int timeStepIndex = metaData.getTimeStepCount() - 1;
+        int lastColumnIndex = metaData.getRecordEntryCount() - 1;
+
+        BitSet timeStepRecords = new BitSet(timeStepRecordCount);
+        for (int timeStepRecordIndex = 1; timeStepRecordIndex < timeStepRecordCount; timeStepRecordIndex += 3) {
+            timeStepRecords.set(timeStepRecordIndex);
+        }
+        PRMSAnimationTimeStepSlice slice = new PRMSAnimationTimeStepSlice(metaData, timeStepIndex, new int[] { -1, 1, lastColumnIndex }, timeStepRecords, PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES);
+
+        PRMSAnimationRecordBuffer recordBuffer = new PRMSAnimationRecordBuffer(metaData);
+        try {
+            // descending, i.e. not the order records were read in
+            for (int timeStepRecordIndex = timeStepRecordCount - 1; timeStepRecordIndex > -1; --timeStepRecordIndex) {
+                if (timeStepRecords.get(timeStepRecordIndex)) {
+                    PRMSAnimationRecord expected = recordBuffer.getRecord(timeStepIndex * timeStepRecordCount + timeStepRecordIndex);
+                    PRMSAnimationRecord actual = slice.getRecord(timeStepRecordIndex);
+                    assertEquals(expected.getIndex(), actual.getIndex());
+                    assertEquals(expected.getTimeStampAsMillis(), actual.getTimeStampAsMillis());
+                    assertEquals(expected.getNHRUAsInt(), actual.getNHRUAsInt());
+                    assertEquals(expected.getValueAsFloat(lastColumnIndex), actual.getValueAsFloat(lastColumnIndex), 0f);
+                } else {
+                    try {
+                        slice.getRecord(timeStepRecordIndex);
+                        fail("record " + timeStepRecordIndex + " wasn't read");
+                    } catch (NoSuchElementException e) {
+                        // expected
+                    }
+                }
+            }
+        } finally {
+            recordBuffer.close();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package gov.usgs.cida.prms;
+
+import java.io.File;
+import java.net.URL;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PRMSAnimationTransposedFileTest {
+
+    private PRMSAnimationFileMetaData metaData;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = getClass().getClassLoader().getResource("cccma_post-processed.nhru");
+        metaData = PRMSAnimationFileMetaData.getMetaData(url);
+        PRMSAnimationTransposedFile.getTransposedFile(metaData.getAnimationFilePath()).delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PRMSAnimationTransposedFile.getTransposedFile(metaData.getAnimationFilePath()).delete();
+    }
+
+    @Test
+    public void testTransposedMatchesAnimationFile() throws Exception {
+        // the whole file fits in a single run
+        assertTransposedMatchesAnimationFile(PRMSAnimationTransposedFile.DEFAULT_GENERATE_BUFFER_SIZE_BYTES);
+    }
+
+    @Test
+    public void testTransposedRunsMatchAnimationFile() throws Exception {
+        // small buffer so the file is spilled in runs of 3 timesteps with a partial last run
+        assertTrue(metaData.getTimeStepCount() % 3 != 0);
+        long bufferSizeBytes = 3L * (metaData.getRecordEntryCount() - 2) * metaData.getTimeStepRecordCount() * 4 + 1;
+        assertTransposedMatchesAnimationFile(bufferSizeBytes);
+        assertFalse(new File(PRMSAnimationTransposedFile.getTransposedFile(metaData.getAnimationFilePath()).getPath() + ".runs").exists());
+    }
+
+    private void assertTransposedMatchesAnimationFile(long bufferSizeBytes) throws Exception {
+        assertFalse(PRMSAnimationTransposedFile.isCurrent(metaData));
+
+        int timeStepCount = metaData.getTimeStepCount();
+        int timeStepRecordCount = metaData.getTimeStepRecordCount();
+        int recordEntryCount = metaData.getRecordEntryCount();
+
+        // make sure sidecar is newer than source on file systems with coarse timestamps
+        new File(metaData.getAnimationFilePath()).setLastModified(System.currentTimeMillis() - 10000);
+        PRMSAnimationTransposedFile.generate(metaData, bufferSizeBytes);
+        assertTrue(PRMSAnimationTransposedFile.isCurrent(metaData));
+
+        int[] recordEntryIndices = new int[recordEntryCount - 2];
+        for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+            recordEntryIndices[recordEntryIndex - 2] = recordEntryIndex;
+        }
+
+        PRMSAnimationRecordBuffer textBuffer = new PRMSAnimationRecordBuffer(metaData, 0, metaData.getRecordCount(), PRMSAnimationRecordBuffer.DEFAULT_WINDOW_SIZE_BYTES, false);
+        PRMSAnimationTransposedFile transposedFile = new PRMSAnimationTransposedFile(metaData);
+        try {
+            for (int timeStepRecordIndex = 0; timeStepRecordIndex < timeStepRecordCount; ++timeStepRecordIndex) {
+                float[][] timeSeries = transposedFile.getTimeSeries(timeStepRecordIndex, recordEntryIndices);
+                assertNull(timeSeries[0]);
+                assertNull(timeSeries[1]);
+                for (int timeStepIndex = 0; timeStepIndex < timeStepCount; ++timeStepIndex) {
+                    PRMSAnimationRecord textRecord = textBuffer.getRecord(timeStepIndex * timeStepRecordCount + timeStepRecordIndex);
+                    for (int recordEntryIndex = 2; recordEntryIndex < recordEntryCount; ++recordEntryIndex) {
+                        assertEquals(textRecord.getValueAsFloat(recordEntryIndex), timeSeries[recordEntryIndex][timeStepIndex], 0f);
+                    }
+                }
+            }
+
+            // single column and a sparse column selection out of one span read
+            int lastRecordEntryIndex = recordEntryCount - 1;
+            int lastTimeStepRecordIndex = timeStepRecordCount - 1;
+            float[] single = transposedFile.getTimeSeries(lastTimeStepRecordIndex, lastRecordEntryIndex);
+            float[][] sparse = transposedFile.getTimeSeries(lastTimeStepRecordIndex, new int[] { lastRecordEntryIndex, 2 });
+            assertArrayEquals(single, sparse[lastRecordEntryIndex], 0f);
+            assertEquals(timeStepCount, sparse[2].length);
+            for (int recordEntryIndex = 3; recordEntryIndex < lastRecordEntryIndex; ++recordEntryIndex) {
+                assertNull(sparse[recordEntryIndex]);
+            }
+        } finally {
+            textBuffer.close();
+            transposedFile.close();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package gov.usgs.cida.prms;
+
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TimeStepIndexTest {
+
+    private static DateTime day(int dayOfMonth) {
+        return new DateTime(2000, 1, dayOfMonth, 0, 0, 0, 0, DateTimeZone.UTC);
+    }
+
+    private static long noon(int dayOfMonth) {
+        return day(dayOfMonth).plusHours(12).getMillis();
+    }
+
+    @Test
+    public void testLookups() {
+        TimeStepIndex index = new TimeStepIndex(Arrays.asList(day(1), day(2), day(3), day(5)));
+
+        assertEquals(4, index.size());
+        assertEquals(0, index.exact(day(1)));
+        assertEquals(3, index.exact(day(5)));
+        assertEquals(-1, index.exact(day(4)));
+        assertEquals(-1, index.exact(noon(1)));
+
+        assertEquals(1, index.floor(noon(2)));
+        assertEquals(2, index.floor(day(3)));
+        assertEquals(-1, index.floor(day(1).minusMillis(1)));
+        assertEquals(3, index.floor(noon(20)));
+
+        assertEquals(2, index.ceiling(noon(2)));
+        assertEquals(0, index.ceiling(day(1).minusDays(10)));
+        assertEquals(-1, index.ceiling(noon(5)));
+
+        assertEquals(1, index.nearest(day(2).plusHours(11).getMillis()));
+        assertEquals(2, index.nearest(day(2).plusHours(13).getMillis()));
+        assertEquals(2, index.nearest(noon(3))); // tie goes to earlier
+        assertEquals(0, index.nearest(day(1).minusDays(10)));
+        assertEquals(3, index.nearest(day(1).plusDays(30)));
+        assertEquals(1, index.nearest(day(2).plusHours(1).getMillis(), 60 * 60 * 1000));
+        assertEquals(-1, index.nearest(day(2).plusHours(2).getMillis(), 60 * 60 * 1000));
+
+        assertArrayEquals(new int[] { 1, 2 }, index.range(noon(1), noon(4)));
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, index.range(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(new int[] { 2 }, index.range(day(3).getMillis(), day(3).getMillis()));
+        assertArrayEquals(new int[0], index.range(noon(3), noon(4)));
+        assertArrayEquals(new int[0], index.range(noon(4), noon(3)));
+    }
+
+    @Test
+    public void testUnsortedTimeSteps() {
+        List<DateTime> timeSteps = Arrays.asList(day(3), day(1), day(2));
+        TimeStepIndex index = new TimeStepIndex(timeSteps);
+        assertEquals(0, index.exact(day(3)));
+        assertEquals(1, index.exact(day(1)));
+        assertEquals(1, index.floor(noon(1)));
+        assertEquals(day(1).getMillis(), index.getMinimumMillis());
+        assertEquals(day(3).getMillis(), index.getMaximumMillis());
+        assertArrayEquals(new int[] { 1, 2, 0 }, index.range(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testEmpty() {
+        TimeStepIndex index = new TimeStepIndex(Arrays.<DateTime>asList());
+        assertEquals(-1, index.exact(0));
+        assertEquals(-1, index.floor(0));
+        assertEquals(-1, index.ceiling(0));
+        assertEquals(-1, index.nearest(0));
+        assertEquals(0, index.range(Long.MIN_VALUE, Long.MAX_VALUE).length);
+    }
+}
@@ -1,8 +1,21 @@
 package gov.usgs.cida.prms;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStore;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 /**
  *
@@ -29,4 +42,58 @@ public class Utilities {
     public static String getDefaultShapefileNHRUAttribute() {
         return DEFALT_SHAPEFILE_NHRU_ATTRIBUTE;
     }
+
+    public static File createTemporaryDirectory() throws IOException {
+        File directory = File.createTempFile("prms", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory.getPath());
+        }
+        return directory;
+    }
+
+    public static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Writes a point shapefile with an <code>hru_id</code> join attribute for
+     * HRUs 1 to <code>hruCount</code> in shuffled order, and a shapefile only
+     * <code>region</code> attribute.
+     */
+    public static URL createHRUShapefile(File directory, int hruCount) throws Exception {
+        URL shapefileURL = new File(directory, "hrus.shp").toURI().toURL();
+        List<Integer> hruIds = new ArrayList<Integer>(hruCount);
+        for (int hruId = 1; hruId <= hruCount; ++hruId) {
+            hruIds.add(hruId);
+        }
+        Collections.shuffle(hruIds, new Random(hruCount));
+
+        ShapefileDataStore dataStore = new ShapefileDataStore(shapefileURL);
+        try {
+            SimpleFeatureType featureType = DataUtilities.createType("hrus", "the_geom:Point:srid=4326,hru_id:Integer,region:Integer");
+            dataStore.createSchema(featureType);
+            GeometryFactory geometryFactory = new GeometryFactory();
+            FeatureWriter<SimpleFeatureType, SimpleFeature> writer = dataStore.getFeatureWriterAppend(dataStore.getTypeNames()[0], Transaction.AUTO_COMMIT);
+            try {
+                for (int hruId : hruIds) {
+                    SimpleFeature feature = writer.next();
+                    feature.setAttribute("the_geom", geometryFactory.createPoint(new Coordinate(hruId % 32, hruId / 32)));
+                    feature.setAttribute("hru_id", hruId);
+                    feature.setAttribute("region", hruId % 5);
+                    writer.write();
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            dataStore.dispose();
+        }
+        return shapefileURL;
+    }
 }